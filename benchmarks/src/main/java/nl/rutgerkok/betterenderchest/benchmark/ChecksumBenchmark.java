@@ -0,0 +1,62 @@
+package nl.rutgerkok.betterenderchest.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.rutgerkok.betterenderchest.BetterEnderInventoryHolder;
+import nl.rutgerkok.betterenderchest.ChestRestrictions;
+import nl.rutgerkok.betterenderchest.WorldGroup;
+
+/**
+ * The checksum that decides whether a chest needs to be saved. A new holder
+ * needs to serialize every slot, a holder that has seen the items before can
+ * compare fingerprints instead.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChecksumBenchmark {
+
+    private ItemStack[] contents;
+    private BetterEnderInventoryHolder savedHolder;
+
+    private BetterEnderInventoryHolder createHolder() {
+        return new BetterEnderInventoryHolder(ChestFixtures.OWNER, new WorldGroup("default"),
+                new ChestRestrictions(ChestFixtures.ROWS, 0, true));
+    }
+
+    @Benchmark
+    public boolean checksumFullChest() {
+        BetterEnderInventoryHolder holder = createHolder();
+        holder.markContentsAsSaved(contents);
+        return holder.hasChangedSlots();
+    }
+
+    @Benchmark
+    public boolean checksumUnchangedChest() {
+        return savedHolder.hasUnsavedChanges(contents);
+    }
+
+    @Setup
+    public void setUp() {
+        ChestFixtures.setUp();
+        contents = ChestFixtures.fullChest();
+        savedHolder = createHolder();
+        savedHolder.markContentsAsSaved(contents);
+    }
+}
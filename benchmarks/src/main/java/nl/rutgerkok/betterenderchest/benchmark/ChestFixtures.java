@@ -0,0 +1,256 @@
+package nl.rutgerkok.betterenderchest.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.craftbukkit.v1_18_R2.inventory.CraftInventoryCustom;
+import org.bukkit.craftbukkit.v1_18_R2.inventory.CraftItemFactory;
+import org.bukkit.craftbukkit.v1_18_R2.inventory.CraftItemStack;
+import org.bukkit.craftbukkit.v1_18_R2.util.CraftMagicNumbers;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.nbt.TagParser;
+import net.minecraft.server.Bootstrap;
+import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.BetterEnderInventoryHolder;
+import nl.rutgerkok.betterenderchest.ChestRestrictions;
+import nl.rutgerkok.betterenderchest.EmptyInventoryProvider;
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
+import nl.rutgerkok.betterenderchest.chestowner.NamedChestOwner;
+import nl.rutgerkok.betterenderchest.metrics.Metrics;
+
+/**
+ * Chests used by the benchmarks, and the bits of a server that are needed to
+ * work with them. There is no real server, so only Minecraft's registries,
+ * the item factory and inventory creation are available.
+ *
+ */
+public final class ChestFixtures {
+
+    /**
+     * Data version of Minecraft 1.12.2, before the flattening of item ids.
+     */
+    public static final int DATA_VERSION_MC_1_12_2 = 1343;
+
+    public static final ChestOwner OWNER = new NamedChestOwner("Bob");
+
+    public static final int ROWS = 6;
+
+    /**
+     * Items of a chest as found on a busy server: enchanted gear with custom
+     * names and lore, full stacks, potions and shulker boxes with named items
+     * inside. Each entry is repeated for the whole chest, "%d" is replaced by
+     * the slot number so that no two items are equal.
+     */
+    private static final String[] ITEMS = {
+            "{id:\"minecraft:netherite_sword\",Count:1b,tag:{Damage:12,Enchantments:[{id:\"minecraft:sharpness\",lvl:5s},"
+                    + "{id:\"minecraft:looting\",lvl:3s},{id:\"minecraft:mending\",lvl:1s}],"
+                    + "display:{Name:'{\"text\":\"Blade %d\",\"color\":\"gold\"}',Lore:['{\"text\":\"Forged in slot %d\"}',"
+                    + "'{\"text\":\"Soulbound\",\"italic\":false}']}}}",
+            "{id:\"minecraft:diamond_chestplate\",Count:1b,tag:{Damage:40,Enchantments:[{id:\"minecraft:protection\",lvl:4s},"
+                    + "{id:\"minecraft:unbreaking\",lvl:3s}],RepairCost:7,display:{Name:'{\"text\":\"Chestplate %d\"}'}}}",
+            "{id:\"minecraft:cobblestone\",Count:64b}",
+            "{id:\"minecraft:potion\",Count:1b,tag:{Potion:\"minecraft:strong_healing\",display:{Lore:['{\"text\":\"Potion %d\"}']}}}",
+            "{id:\"minecraft:purple_shulker_box\",Count:1b,tag:{display:{Name:'{\"text\":\"Storage %d\"}'},"
+                    + "BlockEntityTag:{id:\"minecraft:shulker_box\",Items:["
+                    + "{Slot:0b,id:\"minecraft:diamond_pickaxe\",Count:1b,tag:{Enchantments:[{id:\"minecraft:efficiency\",lvl:5s}],"
+                    + "display:{Name:'{\"text\":\"Pick %d\"}',Lore:['{\"text\":\"Inside a box\"}']}}},"
+                    + "{Slot:1b,id:\"minecraft:golden_apple\",Count:16b},"
+                    + "{Slot:2b,id:\"minecraft:writable_book\",Count:1b,tag:{pages:[\"Page one of %d\",\"Page two\"]}},"
+                    + "{Slot:3b,id:\"minecraft:oak_log\",Count:64b},"
+                    + "{Slot:4b,id:\"minecraft:arrow\",Count:64b,tag:{display:{Lore:['{\"text\":\"Sharp\"}']}}}]}}}",
+            "{id:\"minecraft:enchanted_book\",Count:1b,tag:{StoredEnchantments:[{id:\"minecraft:silk_touch\",lvl:1s}],"
+                    + "display:{Lore:['{\"text\":\"Book %d\"}']}}}" };
+
+    /**
+     * The same kind of items, as stored by Minecraft 1.12.2. Loading these
+     * requires the DataFixer.
+     */
+    private static final String[] OLD_ITEMS = {
+            "{id:\"minecraft:diamond_sword\",Count:1b,Damage:12s,tag:{ench:[{id:16s,lvl:5s},{id:21s,lvl:3s}],"
+                    + "display:{Name:\"Old blade %d\",Lore:[\"Forged in slot %d\",\"Soulbound\"]}}}",
+            "{id:\"minecraft:wool\",Count:64b,Damage:14s}",
+            "{id:\"minecraft:purple_shulker_box\",Count:1b,tag:{display:{Name:\"Old storage %d\"},"
+                    + "BlockEntityTag:{Items:[{Slot:0b,id:\"minecraft:diamond_pickaxe\",Count:1b,Damage:0s,"
+                    + "tag:{ench:[{id:32s,lvl:5s}],display:{Name:\"Old pick %d\",Lore:[\"Inside a box\"]}}},"
+                    + "{Slot:1b,id:\"minecraft:golden_apple\",Count:16b,Damage:1s},"
+                    + "{Slot:2b,id:\"minecraft:log\",Count:64b,Damage:2s}]}}}",
+            "{id:\"minecraft:potion\",Count:1b,Damage:0s,tag:{Potion:\"minecraft:strong_healing\"}}",
+            "{id:\"minecraft:stained_hardened_clay\",Count:32b,Damage:3s}",
+            "{id:\"minecraft:skull\",Count:1b,Damage:3s,tag:{SkullOwner:\"Notch\"}}" };
+
+    private static boolean setUp;
+
+    /**
+     * Creates a Bukkit item from its NBT.
+     *
+     * @param mojangson
+     *            The NBT of the item.
+     * @return The item.
+     */
+    public static ItemStack createItem(String mojangson) {
+        try {
+            return CraftItemStack.asCraftMirror(net.minecraft.world.item.ItemStack.of(TagParser.parseTag(mojangson)));
+        } catch (CommandSyntaxException e) {
+            throw new IllegalArgumentException("Invalid fixture: " + mojangson, e);
+        }
+    }
+
+    /**
+     * Creates a fake BetterEnderChest plugin, only providing what the NMS
+     * handler needs.
+     *
+     * @return The plugin.
+     */
+    public static BetterEnderChest createPlugin() {
+        final Object[] emptyInventoryProvider = new Object[1];
+        final Metrics metrics = new Metrics();
+        BetterEnderChest plugin = (BetterEnderChest) Proxy.newProxyInstance(ChestFixtures.class.getClassLoader(),
+                new Class<?>[] { BetterEnderChest.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                            case "getEmptyInventoryProvider":
+                                return emptyInventoryProvider[0];
+                            case "getMetrics":
+                                return metrics;
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "toString":
+                                return "BetterEnderChest-benchmarks";
+                            case "debug":
+                            case "log":
+                            case "warning":
+                            case "severe":
+                                return null;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    }
+                });
+        emptyInventoryProvider[0] = new EmptyInventoryProvider(plugin);
+        return plugin;
+    }
+
+    /**
+     * Creates a fake server, only providing what the benchmarks need.
+     *
+     * @return The server.
+     */
+    private static Server createServer() {
+        final Logger logger = Logger.getLogger("BetterEnderChest-benchmarks");
+        return (Server) Proxy.newProxyInstance(ChestFixtures.class.getClassLoader(), new Class<?>[] { Server.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "getLogger":
+                                return logger;
+                            case "getName":
+                            case "toString":
+                                return "BetterEnderChest-benchmarks";
+                            case "getVersion":
+                            case "getBukkitVersion":
+                                return SharedConstants.getCurrentVersion().getName();
+                            case "getItemFactory":
+                                return CraftItemFactory.instance();
+                            case "getUnsafe":
+                                return CraftMagicNumbers.INSTANCE;
+                            case "createInventory":
+                                if (args.length == 3 && args[1] instanceof Integer) {
+                                    return new CraftInventoryCustom((InventoryHolder) args[0], (Integer) args[1],
+                                            (String) args[2]);
+                                }
+                                throw new UnsupportedOperationException(method.toString());
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Gets a full chest with six rows.
+     *
+     * @return The items of the chest, every slot is filled.
+     */
+    public static ItemStack[] fullChest() {
+        ItemStack[] contents = new ItemStack[ROWS * 9];
+        for (int slot = 0; slot < contents.length; slot++) {
+            contents[slot] = createItem(ITEMS[slot % ITEMS.length].replace("%d", String.valueOf(slot)));
+        }
+        return contents;
+    }
+
+    /**
+     * Creates a BetterEnderChest inventory with the given items.
+     *
+     * @param contents
+     *            The items, copied into the inventory.
+     * @return The inventory.
+     */
+    public static Inventory inventoryOf(ItemStack[] contents) {
+        BetterEnderInventoryHolder holder = new BetterEnderInventoryHolder(OWNER, new WorldGroup("default"),
+                new ChestRestrictions(ROWS, 0, true));
+        Inventory inventory = Bukkit.createInventory(holder, contents.length, OWNER.getTrimmedInventoryTitle());
+        inventory.setContents(contents);
+        return inventory;
+    }
+
+    /**
+     * Gets a full chest with six rows, as saved by Minecraft 1.12.2.
+     *
+     * @return The chest, in the Mojangson format.
+     */
+    public static String oldFullChest() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{Rows:").append(ROWS).append("b,DisabledSlots:0b,ItemInsertion:1b,OwnerName:\"")
+                .append(OWNER.getDisplayName()).append("\",DataVersion:").append(DATA_VERSION_MC_1_12_2)
+                .append(",Inventory:[");
+        for (int slot = 0; slot < ROWS * 9; slot++) {
+            if (slot > 0) {
+                builder.append(',');
+            }
+            String item = OLD_ITEMS[slot % OLD_ITEMS.length].replace("%d", String.valueOf(slot));
+            builder.append("{Slot:").append(slot).append("b,").append(item.substring(1));
+        }
+        builder.append("]}");
+        return builder.toString();
+    }
+
+    /**
+     * Boots Minecraft's registries and installs the fake server. Must be
+     * called before any fixture is created.
+     */
+    public static synchronized void setUp() {
+        if (setUp) {
+            return;
+        }
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+        if (Bukkit.getServer() == null) {
+            Bukkit.setServer(createServer());
+        }
+        setUp = true;
+    }
+
+    private ChestFixtures() {
+
+    }
+}
@@ -0,0 +1,129 @@
+package nl.rutgerkok.betterenderchest.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Material;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.ShulkerBox;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BlockStateMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableMap;
+
+import nl.rutgerkok.betterenderchest.itemfilter.CompiledItemFilter;
+import nl.rutgerkok.betterenderchest.itemfilter.ItemFilterReader;
+
+/**
+ * Checking all items of a full chest against the IllegalItems rules, like
+ * happens when items are moved around. Compares the compiled filter with the
+ * plain chain of predicates it replaced.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+    private Predicate<ItemStack> chain;
+    private CompiledItemFilter compiled;
+    private ItemStack[] contents;
+    private Set<Material> shulkerBoxes;
+
+    @Benchmark
+    public int compiledFilter() {
+        int allowed = 0;
+        for (ItemStack stack : contents) {
+            if (!compiled.apply(stack) && !compiled.containsIllegalItemInShulker(stack)) {
+                allowed++;
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * The shulker box check as it was done before the filter was compiled.
+     */
+    private boolean containsIllegalItemInShulker(ItemStack stack) {
+        if (!shulkerBoxes.contains(stack.getType())) {
+            return false;
+        }
+        ItemMeta meta = stack.getItemMeta();
+        if (!(meta instanceof BlockStateMeta)) {
+            return false;
+        }
+        BlockState blockState = ((BlockStateMeta) meta).getBlockState();
+        if (!(blockState instanceof ShulkerBox)) {
+            return false;
+        }
+        for (ItemStack storedStack : ((ShulkerBox) blockState).getInventory().getContents()) {
+            if (storedStack != null && chain.apply(storedStack)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public int predicateChain() {
+        int allowed = 0;
+        for (ItemStack stack : contents) {
+            if (!chain.apply(stack) && !containsIllegalItemInShulker(stack)) {
+                allowed++;
+            }
+        }
+        return allowed;
+    }
+
+    @Setup
+    public void setUp() {
+        ChestFixtures.setUp();
+        contents = ChestFixtures.fullChest();
+
+        List<Map<String, Object>> sections = Arrays.asList(
+                ImmutableMap.<String, Object> of("check", "itemType", "for", "bedrock"),
+                ImmutableMap.<String, Object> of("check", "itemType", "for", "command_block"),
+                ImmutableMap.<String, Object> of("check", "itemType", "for", "barrier"),
+                ImmutableMap.<String, Object> of("check", "customName", "forRegex", "^Forbidden",
+                        "ignoring", Arrays.asList("case", "color")),
+                ImmutableMap.<String, Object> of("check", "lore", "forRegex", "Cursed",
+                        "ignoring", "color"),
+                ImmutableMap.<String, Object> of("check", "itemType", "for", "diamond",
+                        "and", ImmutableMap.of("check", "customName", "for", "Duplicated")));
+        ItemFilterReader reader = new ItemFilterReader(ChestFixtures.createPlugin());
+        List<Predicate<ItemStack>> rules = new ArrayList<>();
+        for (Map<String, Object> section : sections) {
+            rules.add(reader.apply(section));
+        }
+
+        shulkerBoxes = EnumSet.noneOf(Material.class);
+        for (Material material : Material.values()) {
+            if (!material.isLegacy() && material.name().endsWith("SHULKER_BOX")) {
+                shulkerBoxes.add(material);
+            }
+        }
+        chain = Predicates.or(rules);
+        compiled = CompiledItemFilter.compile(rules, shulkerBoxes);
+    }
+}
@@ -0,0 +1,33 @@
+package nl.rutgerkok.betterenderchest.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+
+/**
+ * Runs the benchmarks. Unless another result format is given, the results
+ * are written as JSON to {@code jmh-result.json}, so that the results of two
+ * releases can be compared.
+ *
+ */
+public final class RunBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (!arguments.contains("-rf")) {
+            arguments.add("-rf");
+            arguments.add("json");
+            if (!arguments.contains("-rff")) {
+                arguments.add("-rff");
+                arguments.add("jmh-result.json");
+            }
+        }
+        Main.main(arguments.toArray(new String[0]));
+    }
+
+    private RunBenchmarks() {
+
+    }
+}
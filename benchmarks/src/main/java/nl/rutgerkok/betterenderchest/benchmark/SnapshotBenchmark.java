@@ -0,0 +1,57 @@
+package nl.rutgerkok.betterenderchest.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.inventory.Inventory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nl.rutgerkok.betterenderchest.BetterEnderInventoryHolder;
+import nl.rutgerkok.betterenderchest.ChestSnapshot;
+import nl.rutgerkok.betterenderchest.io.SaveEntry;
+
+/**
+ * Copying the items of a chest so that it can be saved on another thread.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    private Inventory inventory;
+
+    @Benchmark
+    public SaveEntry copySaveEntry() {
+        return SaveEntry.copyOf(inventory);
+    }
+
+    @Setup
+    public void setUp() {
+        ChestFixtures.setUp();
+        inventory = ChestFixtures.inventoryOf(ChestFixtures.fullChest());
+    }
+
+    @Benchmark
+    public ChestSnapshot takeSnapshotAllSlots() {
+        BetterEnderInventoryHolder holder = BetterEnderInventoryHolder.of(inventory);
+        holder.markAllSlotsChanged();
+        return holder.takeSnapshot(inventory, true);
+    }
+
+    @Benchmark
+    public ChestSnapshot takeSnapshotUnchanged() {
+        return BetterEnderInventoryHolder.of(inventory).takeSnapshot(inventory, false);
+    }
+}
@@ -0,0 +1,106 @@
+package nl.rutgerkok.betterenderchest.nms;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.inventory.Inventory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.minecraft.nbt.CompoundTag;
+import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.benchmark.ChestFixtures;
+import nl.rutgerkok.betterenderchest.io.SaveEntry;
+import nl.rutgerkok.betterenderchest.nms.SimpleNMSHandler.JSONSimpleTypes;
+
+/**
+ * Encoding and decoding chests, as done for every save and load. In this
+ * package so that the Mojangson parser can be called directly.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NBTBenchmark {
+
+    /**
+     * Handler without upgraded items in its cache, so that every item goes
+     * through the DataFixer.
+     */
+    @State(Scope.Thread)
+    public static class UnwarmedHandler {
+        private BetterEnderChest plugin;
+        private SimpleNMSHandler handler;
+
+        @Setup(Level.Invocation)
+        public void resetUpgradeCache() {
+            handler = new SimpleNMSHandler(plugin);
+        }
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            ChestFixtures.setUp();
+            plugin = ChestFixtures.createPlugin();
+        }
+    }
+
+    private final WorldGroup group = new WorldGroup("default");
+    private SimpleNMSHandler handler;
+    private String mojangson;
+    private byte[] nbtBytes;
+    private String oldMojangson;
+    private SaveEntry saveEntry;
+
+    @Benchmark
+    public Inventory decodeNBT() throws IOException {
+        return handler.loadNBTInventoryFromBytes(nbtBytes, ChestFixtures.OWNER, group);
+    }
+
+    @Benchmark
+    public String encodeMojangson() throws IOException {
+        return handler.saveInventoryToJson(saveEntry);
+    }
+
+    @Benchmark
+    public byte[] encodeNBT() throws IOException {
+        return handler.saveInventoryToBytes(saveEntry);
+    }
+
+    @Benchmark
+    public CompoundTag parseMojangson() throws IOException {
+        return JSONSimpleTypes.toTag(mojangson);
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        ChestFixtures.setUp();
+        handler = new SimpleNMSHandler(ChestFixtures.createPlugin());
+        saveEntry = SaveEntry.copyOf(ChestFixtures.inventoryOf(ChestFixtures.fullChest()));
+        nbtBytes = handler.saveInventoryToBytes(saveEntry);
+        mojangson = handler.saveInventoryToJson(saveEntry);
+        oldMojangson = ChestFixtures.oldFullChest();
+    }
+
+    @Benchmark
+    public Inventory upgradeOldChest(UnwarmedHandler unwarmed) throws IOException {
+        return unwarmed.handler.loadNBTInventoryFromJson(oldMojangson, ChestFixtures.OWNER, group);
+    }
+
+    @Benchmark
+    public Inventory upgradeOldChestCached() throws IOException {
+        return handler.loadNBTInventoryFromJson(oldMojangson, ChestFixtures.OWNER, group);
+    }
+}
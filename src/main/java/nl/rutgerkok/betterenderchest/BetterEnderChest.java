@@ -15,6 +15,7 @@ import nl.rutgerkok.betterenderchest.command.BetterEnderCommandManager;
 import nl.rutgerkok.betterenderchest.importers.InventoryImporter;
 import nl.rutgerkok.betterenderchest.io.BetterEnderCache;
 import nl.rutgerkok.betterenderchest.io.mysql.DatabaseSettings;
+import nl.rutgerkok.betterenderchest.metrics.Metrics;
 import nl.rutgerkok.betterenderchest.nms.NMSHandler;
 import nl.rutgerkok.betterenderchest.registry.Registry;
 import nl.rutgerkok.betterenderchest.util.BukkitExecutors;
@@ -191,6 +192,14 @@ public interface BetterEnderChest extends PluginLogger {
      */
     Registry<InventoryImporter> getInventoryImporters();
 
+    /**
+     * Gets the metrics of the plugin, like cache hits and save times. Register
+     * your own metrics or exporters here.
+     *
+     * @return The metrics.
+     */
+    Metrics getMetrics();
+
     /**
      * Gets the NMS handlers where all things that bypass Bukkit are done.
      * Register your own NMS handlers here.
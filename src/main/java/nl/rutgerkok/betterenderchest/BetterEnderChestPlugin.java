@@ -2,6 +2,7 @@ package nl.rutgerkok.betterenderchest;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -12,20 +13,18 @@ import org.bukkit.ChatColor;
 import org.bukkit.GameMode;
 import org.bukkit.Material;
 import org.bukkit.Tag;
-import org.bukkit.block.BlockState;
-import org.bukkit.block.ShulkerBox;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.enchantments.Enchantment;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.inventory.meta.BlockStateMeta;
-import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
 
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
 
 import nl.rutgerkok.betterenderchest.chestowner.ChestOwners;
@@ -39,6 +38,7 @@ import nl.rutgerkok.betterenderchest.command.BetterEnderCommandManager;
 import nl.rutgerkok.betterenderchest.command.EnderChestCommand;
 import nl.rutgerkok.betterenderchest.eventhandler.BetterEnderEventHandler;
 import nl.rutgerkok.betterenderchest.eventhandler.BetterEnderSlotsHandler;
+import nl.rutgerkok.betterenderchest.eventhandler.ChestPreloader;
 import nl.rutgerkok.betterenderchest.importers.BetterEnderFlatFileImporter;
 import nl.rutgerkok.betterenderchest.importers.BetterEnderMySQLImporter;
 import nl.rutgerkok.betterenderchest.importers.InventoryImporter;
@@ -49,17 +49,27 @@ import nl.rutgerkok.betterenderchest.importers.NoneImporter;
 import nl.rutgerkok.betterenderchest.importers.VanillaImporter;
 import nl.rutgerkok.betterenderchest.importers.WorldInventoriesImporter;
 import nl.rutgerkok.betterenderchest.io.BetterEnderCache;
+import nl.rutgerkok.betterenderchest.io.CacheStatistics;
 import nl.rutgerkok.betterenderchest.io.DiscardingEnderCache;
 import nl.rutgerkok.betterenderchest.io.SaveAndLoadError;
 import nl.rutgerkok.betterenderchest.io.SimpleEnderCache;
 import nl.rutgerkok.betterenderchest.io.file.BetterEnderFileHandler;
+import nl.rutgerkok.betterenderchest.io.file.FsyncMode;
+import nl.rutgerkok.betterenderchest.io.file.RegionChestHandler;
+import nl.rutgerkok.betterenderchest.io.file.RegionEnderCache;
 import nl.rutgerkok.betterenderchest.io.mysql.BetterEnderSQLCache;
 import nl.rutgerkok.betterenderchest.io.mysql.DatabaseSettings;
+import nl.rutgerkok.betterenderchest.itemfilter.CompiledItemFilter;
 import nl.rutgerkok.betterenderchest.itemfilter.ItemFilterReader;
+import nl.rutgerkok.betterenderchest.metrics.Counter;
+import nl.rutgerkok.betterenderchest.metrics.Metrics;
+import nl.rutgerkok.betterenderchest.metrics.PrometheusFileExporter;
+import nl.rutgerkok.betterenderchest.metrics.PrometheusHttpExporter;
 import nl.rutgerkok.betterenderchest.nms.NMSHandler;
 import nl.rutgerkok.betterenderchest.nms.SimpleNMSHandler;
 import nl.rutgerkok.betterenderchest.registry.Registry;
 import nl.rutgerkok.betterenderchest.util.BukkitExecutors;
+import nl.rutgerkok.betterenderchest.util.IOSettings;
 
 public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChest {
     /**
@@ -67,6 +77,68 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
      */
     public static class AutoSave {
         public static int autoSaveIntervalTicks = 5 * 20;
+        public static int chestsPerSaveRun = 20;
+        public static int fullCheckIntervalTicks = 5 * 60 * 20;
+        public static int saveRunIntervalTicks = 5;
+    }
+
+    /**
+     * Settings for keeping chests in memory.
+     */
+    public static class Cache {
+        public static int idleSeconds = 60;
+        public static int maxChests = 2000;
+        public static long maxSlots = 0;
+    }
+
+    /**
+     * Settings for remembering which chests are stored.
+     */
+    public static class ChestIndexing {
+        public static boolean enabled = true;
+        public static boolean useForDatabase = false;
+    }
+
+    /**
+     * Settings for publishing the metrics outside the server.
+     */
+    public static class MetricsExport {
+        public static String prometheusBindAddress = "127.0.0.1";
+        public static String prometheusFile = "";
+        public static int prometheusFileIntervalSeconds = 15;
+        public static int prometheusPort = 0;
+    }
+
+    /**
+     * Settings for migrating all chests to another storage.
+     */
+    public static class Migration {
+        public static int batchSize = 100;
+        public static int readerThreads = 4;
+    }
+
+    /**
+     * Settings for loading chests before they are opened.
+     */
+    public static class Preload {
+        public static boolean enabled = false;
+        public static int keepLoadedSeconds = 60;
+        public static int maxConcurrentLoads = 4;
+    }
+
+    /**
+     * Settings for remembering the UUIDs of player names. Only read when the
+     * plugin is enabled.
+     */
+    public static class ProfileCache {
+        public static int batchWindowMillis = 50;
+        public static int maxSize = 10000;
+        public static int minRequestIntervalMillis = 100;
+        public static String profileUrl = "https://api.mojang.com/profiles/minecraft";
+        public static int rateLimitBackOffSeconds = 60;
+        public static int refreshAfterHours = 24;
+        public static int saveIntervalMinutes = 10;
+        public static int unknownNameMinutes = 10;
     }
 
     /**
@@ -76,6 +148,20 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
         public static boolean openOnOpeningUnprotectedChest, openOnUsingCommand;
     }
 
+    /**
+     * Settings for saving chests to a local journal before they are saved to
+     * the database. The journal overwrites the chests in the database without
+     * checking whether another server saved them in the meantime, so it is
+     * only used if this server is the only one using the database.
+     */
+    public static class WriteBehind {
+        public static int batchSize = 100;
+        public static boolean enabled = false;
+        public static int flushIntervalTicks = 20;
+        public static boolean onlyServerUsingDatabase = false;
+        public static int segmentSizeMegabytes = 16;
+    }
+
     private BukkitExecutors bukkitExecutors;
     private ChestDrop chestDrop, chestDropSilkTouch, chestDropCreative;
     private Material chestMaterial = Material.ENDER_CHEST;
@@ -90,14 +176,22 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
     private boolean debug;
     private EmptyInventoryProvider emptyInventoryProvider;
     private BetterEnderCache enderCache;
+    private FsyncMode fsyncMode = FsyncMode.NONE;
     private BetterEnderWorldGroupManager groups;
+    private CompiledItemFilter illegalItemFilter = CompiledItemFilter.compile(
+            Collections.singletonList(Predicates.<ItemStack> alwaysTrue()), Collections.<Material> emptyList());
     private Registry<InventoryImporter> importers = new Registry<>();
-    private Predicate<ItemStack> isIllegalItem = Predicates.alwaysTrue();
+    private IOSettings ioSettings;
     private boolean lockChestsOnError = true;
     private boolean manualGroupManagement;
+    private final Metrics metrics = new Metrics();
     private Registry<NMSHandler> nmsHandlers = new Registry<>();
+    private BukkitTask profileSaveTask;
     private Registry<ProtectionBridge> protectionBridges = new Registry<>();
     private int rankUpgrades;
+    private boolean useRegionFiles;
+    private final Counter saveAndLoadDisabled = metrics.counter("betterenderchest_save_and_load_disabled_total",
+            "Number of times saving and loading was disabled because of an error");
     private SaveAndLoadError saveAndLoadError;
     private boolean useUuids;
 
@@ -106,28 +200,6 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
         return saveAndLoadError == null;
     }
 
-    private boolean containsIllegalItemInShulker(ItemStack stack) {
-        if (!Tag.SHULKER_BOXES.isTagged(stack.getType())) {
-            return false; // Not a shulker
-        }
-        // Check what's in the box
-        ItemMeta meta = stack.getItemMeta();
-        if (!(meta instanceof BlockStateMeta)) {
-            return false; // Invalid item meta - did someone modify the shulker tag?
-        }
-        BlockState blockState = ((BlockStateMeta) meta).getBlockState();
-        if (!(blockState instanceof ShulkerBox)) {
-            return false; // Invalid item meta - did someone modify the shulker tag?
-        }
-        for (ItemStack storedStack : ((ShulkerBox) blockState).getInventory().getContents()) {
-            if (storedStack != null && isIllegalItem.apply(storedStack)) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
     @Override
     public void debug(String string) {
         if (debug) {
@@ -137,6 +209,7 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
 
     @Override
     public synchronized void disableSaveAndLoad(String reason, Throwable throwable) {
+        saveAndLoadDisabled.increment();
         if (this.saveAndLoadError == null) {
             if (this.lockChestsOnError) {
                 severe(reason, throwable);
@@ -155,6 +228,19 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
         this.saveAndLoadError = null;
     }
 
+    /**
+     * Gets the statistics of the chest cache.
+     *
+     * @return The statistics, or null if there is no cache at the moment.
+     */
+    private CacheStatistics getCacheStatistics() {
+        BetterEnderCache cache = this.enderCache;
+        if (cache instanceof SimpleEnderCache) {
+            return ((SimpleEnderCache) cache).getStatistics();
+        }
+        return null;
+    }
+
     @Override
     public BetterEnderCache getChestCache() {
         return enderCache;
@@ -250,6 +336,11 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
         return importers;
     }
 
+    @Override
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public Registry<NMSHandler> getNMSHandlers() {
         return nmsHandlers;
@@ -345,6 +436,20 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
         debug = config.getBoolean("BetterEnderChest.showDebugMessages", false);
         config.set("BetterEnderChest.showDebugMessages", debug);
 
+        // Forcing chest files to disk
+        String fsync = config.getString("BetterEnderChest.fsync", FsyncMode.NONE.toString()).toUpperCase();
+        try {
+            fsyncMode = FsyncMode.valueOf(fsync);
+        } catch (IllegalArgumentException e) {
+            warning("Could not understand the fsync mode " + fsync + ", defaulting to NONE");
+            fsyncMode = FsyncMode.NONE;
+        }
+        config.set("BetterEnderChest.fsync", fsyncMode.toString());
+
+        // Storing many chests per file
+        useRegionFiles = config.getBoolean("BetterEnderChest.useRegionFiles", false);
+        config.set("BetterEnderChest.useRegionFiles", useRegionFiles);
+
         // Disable on error
         lockChestsOnError = config.getBoolean("BetterEnderChest.lockChestsOnError", true);
         config.set("BetterEnderChest.lockChestsOnError", lockChestsOnError);
@@ -369,11 +474,97 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
         }
         config.set("AutoSave.autoSaveIntervalSeconds", autoSaveIntervalSeconds);
         AutoSave.autoSaveIntervalTicks = autoSaveIntervalSeconds * 20;
+        // Chests that nobody reported as changed are only compared to their
+        // saved contents once in a while
+        int fullCheckIntervalSeconds = config.getInt("AutoSave.fullCheckIntervalSeconds", 300);
+        if (fullCheckIntervalSeconds < autoSaveIntervalSeconds) {
+            warning("The full check interval cannot be shorter than the autosave interval. Changed it to "
+                    + autoSaveIntervalSeconds + " seconds.");
+            fullCheckIntervalSeconds = autoSaveIntervalSeconds;
+        }
+        config.set("AutoSave.fullCheckIntervalSeconds", fullCheckIntervalSeconds);
+        AutoSave.fullCheckIntervalTicks = fullCheckIntervalSeconds * 20;
+        // The work of an autosave is spread over smaller runs
+        AutoSave.saveRunIntervalTicks = Math.max(1, Math.min(AutoSave.autoSaveIntervalTicks,
+                config.getInt("AutoSave.saveRunIntervalTicks", 5)));
+        config.set("AutoSave.saveRunIntervalTicks", AutoSave.saveRunIntervalTicks);
+        AutoSave.chestsPerSaveRun = Math.max(1, config.getInt("AutoSave.chestsPerSaveRun", 20));
+        config.set("AutoSave.chestsPerSaveRun", AutoSave.chestsPerSaveRun);
         // Remove old AutoSave settings
         config.set("AutoSave.showAutoSaveMessage", null);
         config.set("AutoSave.chestsPerSaveTick", null);
         config.set("AutoSave.saveTickIntervalTicks", null);
 
+        // Unloading chests
+        Cache.idleSeconds = Math.max(0, config.getInt("Cache.idleSeconds", 60));
+        config.set("Cache.idleSeconds", Cache.idleSeconds);
+        // Zero for no limit
+        Cache.maxChests = Math.max(0, config.getInt("Cache.maxChests", 2000));
+        config.set("Cache.maxChests", Cache.maxChests);
+        Cache.maxSlots = Math.max(0, config.getLong("Cache.maxSlots", 0));
+        config.set("Cache.maxSlots", Cache.maxSlots);
+
+        // Remembering which chests are stored
+        ChestIndexing.enabled = config.getBoolean("ChestIndexing.enabled", true);
+        config.set("ChestIndexing.enabled", ChestIndexing.enabled);
+        // Only if no other server writes to the same database
+        ChestIndexing.useForDatabase = config.getBoolean("ChestIndexing.useForDatabase", false);
+        config.set("ChestIndexing.useForDatabase", ChestIndexing.useForDatabase);
+
+        // Preloading chests
+        Preload.enabled = config.getBoolean("Preload.enabled", false);
+        config.set("Preload.enabled", Preload.enabled);
+        Preload.maxConcurrentLoads = Math.max(1, config.getInt("Preload.maxConcurrentLoads", 4));
+        config.set("Preload.maxConcurrentLoads", Preload.maxConcurrentLoads);
+        Preload.keepLoadedSeconds = Math.max(0, config.getInt("Preload.keepLoadedSeconds", 60));
+        config.set("Preload.keepLoadedSeconds", Preload.keepLoadedSeconds);
+
+        // Remembering UUIDs
+        ProfileCache.maxSize = Math.max(0, config.getInt("ProfileCache.maxSize", 10000));
+        config.set("ProfileCache.maxSize", ProfileCache.maxSize);
+        ProfileCache.refreshAfterHours = Math.max(1, config.getInt("ProfileCache.refreshAfterHours", 24));
+        config.set("ProfileCache.refreshAfterHours", ProfileCache.refreshAfterHours);
+        ProfileCache.unknownNameMinutes = Math.max(0, config.getInt("ProfileCache.unknownNameMinutes", 10));
+        config.set("ProfileCache.unknownNameMinutes", ProfileCache.unknownNameMinutes);
+        ProfileCache.profileUrl = config.getString("ProfileCache.profileUrl", "https://api.mojang.com/profiles/minecraft");
+        config.set("ProfileCache.profileUrl", ProfileCache.profileUrl);
+        ProfileCache.saveIntervalMinutes = Math.max(1, config.getInt("ProfileCache.saveIntervalMinutes", 10));
+        config.set("ProfileCache.saveIntervalMinutes", ProfileCache.saveIntervalMinutes);
+        ProfileCache.batchWindowMillis = Math.max(0, config.getInt("ProfileCache.batchWindowMillis", 50));
+        config.set("ProfileCache.batchWindowMillis", ProfileCache.batchWindowMillis);
+        ProfileCache.minRequestIntervalMillis = Math.max(0, config.getInt("ProfileCache.minRequestIntervalMillis", 100));
+        config.set("ProfileCache.minRequestIntervalMillis", ProfileCache.minRequestIntervalMillis);
+        ProfileCache.rateLimitBackOffSeconds = Math.max(0, config.getInt("ProfileCache.rateLimitBackOffSeconds", 60));
+        config.set("ProfileCache.rateLimitBackOffSeconds", ProfileCache.rateLimitBackOffSeconds);
+
+        // Saving to a journal first
+        WriteBehind.enabled = config.getBoolean("WriteBehind.enabled", false);
+        config.set("WriteBehind.enabled", WriteBehind.enabled);
+        WriteBehind.onlyServerUsingDatabase = config.getBoolean("WriteBehind.onlyServerUsingDatabase", false);
+        config.set("WriteBehind.onlyServerUsingDatabase", WriteBehind.onlyServerUsingDatabase);
+        WriteBehind.flushIntervalTicks = Math.max(1, config.getInt("WriteBehind.flushIntervalTicks", 20));
+        config.set("WriteBehind.flushIntervalTicks", WriteBehind.flushIntervalTicks);
+        WriteBehind.batchSize = Math.max(1, config.getInt("WriteBehind.batchSize", 100));
+        config.set("WriteBehind.batchSize", WriteBehind.batchSize);
+        WriteBehind.segmentSizeMegabytes = Math.max(1, config.getInt("WriteBehind.segmentSizeMegabytes", 16));
+        config.set("WriteBehind.segmentSizeMegabytes", WriteBehind.segmentSizeMegabytes);
+
+        // Migrating chests
+        Migration.readerThreads = Math.max(1, config.getInt("Migration.readerThreads", 4));
+        config.set("Migration.readerThreads", Migration.readerThreads);
+        Migration.batchSize = Math.max(1, config.getInt("Migration.batchSize", 100));
+        config.set("Migration.batchSize", Migration.batchSize);
+
+        // Metrics
+        MetricsExport.prometheusFile = config.getString("Metrics.prometheusFile", "");
+        config.set("Metrics.prometheusFile", MetricsExport.prometheusFile);
+        MetricsExport.prometheusFileIntervalSeconds = Math.max(1, config.getInt("Metrics.prometheusFileIntervalSeconds", 15));
+        config.set("Metrics.prometheusFileIntervalSeconds", MetricsExport.prometheusFileIntervalSeconds);
+        MetricsExport.prometheusPort = Math.max(0, config.getInt("Metrics.prometheusPort", 0));
+        config.set("Metrics.prometheusPort", MetricsExport.prometheusPort);
+        MetricsExport.prometheusBindAddress = config.getString("Metrics.prometheusBindAddress", "127.0.0.1");
+        config.set("Metrics.prometheusBindAddress", MetricsExport.prometheusBindAddress);
+
         // Item filters
         List<Map<?, ?>> illegalItemsFoundInConfig = config.getMapList("IllegalItems");
         List<Predicate<ItemStack>> illegalItems = Lists.newArrayList();
@@ -382,7 +573,7 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
             illegalItems.add(itemFilterReader.apply(entry));
         }
         config.set("IllegalItems", illegalItemsFoundInConfig);
-        this.isIllegalItem = Predicates.or(illegalItems);
+        this.illegalItemFilter = CompiledItemFilter.compile(illegalItems, Tag.SHULKER_BOXES.getValues());
 
         // Private chests
         rankUpgrades = config.getInt("PrivateEnderChest.rankUpgrades", 2);
@@ -446,6 +637,9 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
         // Database settings
         databaseSettings = new DatabaseSettings(config);
 
+        // Load and save threads
+        ioSettings = new IOSettings(config);
+
         // Save translations
         Translations.save(translationSettings);
         try {
@@ -464,11 +658,11 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
     @Override
     public boolean isItemAllowedInChests(ItemStack stack) {
         Objects.requireNonNull(stack, "stack");
-        if (isIllegalItem.apply(stack)) {
+        if (illegalItemFilter.apply(stack)) {
             return false;
         }
 
-        if (containsIllegalItemInShulker(stack)) {
+        if (illegalItemFilter.containsIllegalItemInShulker(stack)) {
             return false;
         }
 
@@ -503,6 +697,13 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
             unloadIOServices();
             groups = null;
         }
+        if (profileSaveTask != null) {
+            profileSaveTask.cancel();
+            profileSaveTask = null;
+        }
+        if (chestOwners != null) {
+            chestOwners.saveProfiles();
+        }
     }
 
     @Override
@@ -514,6 +715,7 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
 
         // Task executors
         bukkitExecutors = new BukkitExecutors(this);
+        registerMetrics();
 
         // Folder
         chestSaveLocation = new File(getDataFolder(), "chestData");
@@ -546,9 +748,6 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
             emptyInventoryProvider = new EmptyInventoryProvider(this);
         }
 
-        // Inventory owners
-        chestOwners = new ChestOwners(this);
-
         // Inventory opener
         if (chestOpener == null) {
             chestOpener = new ChestOpener(this);
@@ -558,12 +757,32 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
         groups = new BetterEnderWorldGroupManager(this);
         initConfig();
 
+        // Inventory owners
+        chestOwners = new ChestOwners(this);
+
         // IO services
+        bukkitExecutors.startIOThreads(ioSettings);
         enderCache = setupEnderCache();
+        startMetricsExporters();
+        bukkitExecutors.workerThreadExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                chestOwners.loadProfiles();
+            }
+        });
+        // So that a crash doesn't lose the profiles
+        profileSaveTask = bukkitExecutors.workerThreadExecutor().executeTimer(
+                ProfileCache.saveIntervalMinutes * 60 * 20, new Runnable() {
+                    @Override
+                    public void run() {
+                        chestOwners.saveProfiles();
+                    }
+                });
 
         // EventHandler
         getServer().getPluginManager().registerEvents(new BetterEnderEventHandler(this), this);
         getServer().getPluginManager().registerEvents(new BetterEnderSlotsHandler(this), this);
+        getServer().getPluginManager().registerEvents(new ChestPreloader(this), this);
 
         // CommandHandler
         commandManager = new BetterEnderCommandManager(this);
@@ -609,6 +828,9 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
         // Unload everything (chests, handlers, etc.)
         unloadIOServices();
 
+        // The default chests may have been changed outside the server
+        emptyInventoryProvider.forgetDefaultChests();
+
         // Re-enable chest saving
         enableSaveAndLoad();
 
@@ -616,7 +838,94 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
         initConfig();
 
         // Reload IO services
+        bukkitExecutors.startIOThreads(ioSettings);
         enderCache = setupEnderCache();
+        startMetricsExporters();
+    }
+
+    /**
+     * Registers the metrics that read their value from elsewhere: the
+     * statistics of the chest cache and the queues of the IO threads.
+     */
+    private void registerMetrics() {
+        metrics.counter("betterenderchest_cache_hits_total", "Chest requests answered from the cache",
+                new Supplier<Long>() {
+                    @Override
+                    public Long get() {
+                        CacheStatistics statistics = getCacheStatistics();
+                        return statistics == null ? 0 : statistics.getHits();
+                    }
+                });
+        metrics.counter("betterenderchest_cache_misses_total", "Chest requests that needed a load",
+                new Supplier<Long>() {
+                    @Override
+                    public Long get() {
+                        CacheStatistics statistics = getCacheStatistics();
+                        return statistics == null ? 0 : statistics.getMisses();
+                    }
+                });
+        metrics.counter("betterenderchest_cache_evictions_total", "Chests removed from the cache",
+                new Supplier<Long>() {
+                    @Override
+                    public Long get() {
+                        CacheStatistics statistics = getCacheStatistics();
+                        return statistics == null ? 0 : statistics.getEvictions();
+                    }
+                });
+        metrics.gauge("betterenderchest_cache_loaded_chests", "Chests currently in the cache", new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                CacheStatistics statistics = getCacheStatistics();
+                return statistics == null ? 0 : statistics.getLoadedChests();
+            }
+        });
+        metrics.gauge("betterenderchest_cache_loaded_slots", "Slots of all chests currently in the cache",
+                new Supplier<Long>() {
+                    @Override
+                    public Long get() {
+                        CacheStatistics statistics = getCacheStatistics();
+                        return statistics == null ? 0 : statistics.getLoadedSlots();
+                    }
+                });
+        metrics.gauge("betterenderchest_load_queue_depth", "Load tasks waiting or running", new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return bukkitExecutors.loadExecutor().getPendingTaskCount();
+            }
+        });
+        metrics.gauge("betterenderchest_save_queue_depth", "Save tasks waiting or running", new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return bukkitExecutors.saveExecutor().getPendingTaskCount();
+            }
+        });
+    }
+
+    /**
+     * Starts the metrics exporters that are enabled in the config.
+     */
+    private void startMetricsExporters() {
+        if (!MetricsExport.prometheusFile.isEmpty()) {
+            File file = new File(MetricsExport.prometheusFile);
+            if (!file.isAbsolute()) {
+                file = new File(getDataFolder(), MetricsExport.prometheusFile);
+            }
+            try {
+                metrics.addExporter(new PrometheusFileExporter(this, file,
+                        MetricsExport.prometheusFileIntervalSeconds));
+            } catch (IOException e) {
+                severe("Cannot write metrics to " + file, e);
+            }
+        }
+        if (MetricsExport.prometheusPort != 0) {
+            try {
+                metrics.addExporter(new PrometheusHttpExporter(MetricsExport.prometheusBindAddress,
+                        MetricsExport.prometheusPort));
+            } catch (IOException e) {
+                severe("Cannot serve metrics on " + MetricsExport.prometheusBindAddress + ":"
+                        + MetricsExport.prometheusPort, e);
+            }
+        }
     }
 
     /**
@@ -637,9 +946,19 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
         }
 
         if (databaseSettings.isEnabled()) {
-            return BetterEnderSQLCache.create(this);
+            return BetterEnderSQLCache.create(this, fsyncMode);
+        } else if (useRegionFiles) {
+            return new RegionEnderCache(this, new RegionChestHandler(nmsHandler, chestSaveLocation, fsyncMode));
         } else {
-            BetterEnderFileHandler fileHandler = new BetterEnderFileHandler(nmsHandler, chestSaveLocation);
+            BetterEnderFileHandler fileHandler = new BetterEnderFileHandler(nmsHandler, chestSaveLocation, fsyncMode);
+            try {
+                int deleted = fileHandler.deleteOrphanedTempFiles();
+                if (deleted > 0) {
+                    log("Deleted " + deleted + " unfinished chest file(s) left behind by an earlier crash");
+                }
+            } catch (IOException e) {
+                warning("Failed to delete the unfinished chest files left behind by an earlier crash: " + e);
+            }
             return new SimpleEnderCache(this, fileHandler, fileHandler);
         }
     }
@@ -658,8 +977,15 @@ public class BetterEnderChestPlugin extends JavaPlugin implements BetterEnderChe
      * Unloads all IO services.
      */
     private void unloadIOServices() {
+        for (IOException e : metrics.closeExporters()) {
+            warning("Failed to stop a metrics exporter: " + e.getMessage());
+        }
+
         enderCache.disable();
         enderCache = null;
+
+        // Wait for pending loads and saves
+        bukkitExecutors.stopIOThreads();
     }
 
     @Override
@@ -1,18 +1,19 @@
 package nl.rutgerkok.betterenderchest;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.Validate;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.util.io.BukkitObjectOutputStream;
 
 import com.google.common.base.Preconditions;
 
@@ -38,12 +39,60 @@ public class BetterEnderInventoryHolder implements InventoryHolder {
     }
 
     private final ChestOwner chestOwner;
+    /**
+     * Slots that may have been changed since the last time the contents were
+     * compared to {@link #savedItemsChecksum}. Guarded by the lock on this
+     * object.
+     */
+    private final BitSet changedSlots = new BitSet();
+    /**
+     * Set when the chest may have been changed in an unknown way, so that all
+     * slots need to be compared. New chests start out like this, as nothing is
+     * known about their contents yet. Guarded by the lock on this object.
+     */
+    private boolean allSlotsChanged = true;
+    /**
+     * Slots that were marked as changed, but of which the marks were cleared
+     * before the contents were compared. The digests of these slots still need
+     * to be recalculated. Guarded by the lock on this object.
+     */
+    private final BitSet staleSlots = new BitSet();
+    private boolean allSlotsStale = false;
+    /**
+     * Digests of the individual slots, used to calculate
+     * {@link #savedItemsChecksum} without serializing slots that didn't change.
+     * Guarded by its own lock, so that marking slots as changed never has to
+     * wait for a running comparison.
+     */
+    private final SlotDigests slotDigests = new SlotDigests();
     /**
      * Hash code of the items as they appear in the database. If the hash code of
      * the items currently in the chest is different, we need to save those items to
      * the database.
      */
     private String savedItemsChecksum = null;
+    /**
+     * Version of the last snapshot that was compared to
+     * {@link #savedItemsChecksum}, so that older snapshots are never saved
+     * over newer ones. Guarded by the lock on this object.
+     */
+    private long savedSnapshotVersion = 0;
+    /**
+     * Last snapshot taken of this chest. Stacks in slots that were not marked
+     * as changed since then are reused. Guarded by the lock on this object.
+     */
+    private ChestSnapshot lastSnapshot;
+    /**
+     * Slots that may have been changed since {@link #lastSnapshot} was taken.
+     * Guarded by the lock on this object.
+     */
+    private final BitSet snapshotSlots = new BitSet();
+    private boolean allSnapshotSlots = true;
+    /**
+     * Incremented whenever slots are marked as changed. Guarded by the lock on
+     * this object.
+     */
+    private long changeCount = 0;
     private final ChestRestrictions chestRestrictions;
     private final ReentrantLock saveLock;
     private final WorldGroup worldGroup;
@@ -78,6 +127,36 @@ public class BetterEnderInventoryHolder implements InventoryHolder {
         this.overflowingItems.addAll(overflowingItems);
     }
 
+    /**
+     * Forgets all slots marked using {@link #markSlotChanged(int)} and
+     * {@link #markAllSlotsChanged()}. Call this method <em>before</em> reading
+     * the contents of the chest for
+     * {@link #markContentsAsSavedIfChanged(ItemStack[], boolean)}, so that
+     * changes made in the meantime are marked again. The forgotten slots are
+     * still compared during that call.
+     *
+     * <p>
+     * Click events are fired before the click modifies the chest, so the marks
+     * must not be cleared while someone is still viewing the chest.
+     */
+    public synchronized void clearChangedSlots() {
+        this.staleSlots.or(this.changedSlots);
+        this.allSlotsStale |= this.allSlotsChanged;
+        this.changedSlots.clear();
+        this.allSlotsChanged = false;
+    }
+
+    /**
+     * Gets a number that changes whenever slots of this chest are marked as
+     * changed. Chests that are modified without marking slots don't change
+     * this number.
+     *
+     * @return The number.
+     */
+    public synchronized long getChangeCount() {
+        return changeCount;
+    }
+
     /**
      * Returns the owner of this inventory.
      *
@@ -107,6 +186,16 @@ public class BetterEnderInventoryHolder implements InventoryHolder {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Gets all overflowing items, without clearing the internal list.
+     *
+     * @return All overflowing items, as an unmodifiable list.
+     * @see #handleOverflowingItems()
+     */
+    public List<ItemStack> getOverflowingItems() {
+        return Collections.unmodifiableList(overflowingItems);
+    }
+
     /**
      * Gets a lock used to make sure the chest isn't saved twice at once.
      *
@@ -146,6 +235,18 @@ public class BetterEnderInventoryHolder implements InventoryHolder {
         return overflow;
     }
 
+    /**
+     * Gets whether any slot has been marked as changed since the marks were last
+     * cleared. If this method returns false, the chest can only have been
+     * changed by code that didn't report its changes, which is why a full
+     * comparison is still done once in a while.
+     *
+     * @return True if slots were marked as changed, false otherwise.
+     */
+    public synchronized boolean hasChangedSlots() {
+        return this.allSlotsChanged || !this.changedSlots.isEmpty();
+    }
+
     /**
      * Returns whether there are unhandled items added using
      * {@link #addOverflowingItems(Collection)}.
@@ -164,24 +265,206 @@ public class BetterEnderInventoryHolder implements InventoryHolder {
      * @return Whether there are unsaved changes in this chest.
      */
     public boolean hasUnsavedChanges(ItemStack[] currentContents) {
-        return !this.computeChecksum(currentContents).equals(this.savedItemsChecksum);
+        BitSet markedSlots;
+        String savedChecksum;
+        synchronized (this) {
+            markedSlots = getMarkedSlots();
+            savedChecksum = this.savedItemsChecksum;
+        }
+
+        // Only reads the digests, so that this method has no side effects
+        synchronized (this.slotDigests) {
+            try {
+                return !this.slotDigests.checksum(currentContents, markedSlots).equals(savedChecksum);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to compute SHA-1 checksum", e);
+            }
+        }
+    }
+
+    /**
+     * Marks all slots of this chest as possibly changed. Use this after
+     * modifying the chest in a way that touches multiple slots, like
+     * {@link Inventory#addItem(ItemStack...)} or {@link Inventory#clear()}.
+     */
+    public synchronized void markAllSlotsChanged() {
+        this.allSlotsChanged = true;
+        this.allSnapshotSlots = true;
+        this.changeCount++;
     }
 
+    /**
+     * Marks the contents as saved. This also clears all slots marked as
+     * changed.
+     *
+     * @param contents
+     *            The contents that were saved.
+     */
     public void markContentsAsSaved(ItemStack[] contents) {
-        this.savedItemsChecksum = this.computeChecksum(contents);
+        String checksum = this.computeChecksum(contents, true);
+        synchronized (this) {
+            this.savedItemsChecksum = checksum;
+            this.changedSlots.clear();
+            this.allSlotsChanged = false;
+        }
+    }
+
+    /**
+     * Marks the given contents as saved, but only if they are different from
+     * the contents that were saved previously. This is cheaper than calling
+     * {@link #hasUnsavedChanges(ItemStack[])} followed by
+     * {@link #markContentsAsSaved(ItemStack[])}, as the checksum is only
+     * calculated once.
+     *
+     * @param contents
+     *            The current contents of the inventory.
+     * @param checkAllSlots
+     *            If false, only the slots marked as changed are compared. If
+     *            true, the other slots are compared too, which is still cheap
+     *            for slots that didn't change.
+     * @return True if the contents were changed (and must now be written to
+     *         disk/database), false otherwise.
+     */
+    public boolean markContentsAsSavedIfChanged(ItemStack[] contents, boolean checkAllSlots) {
+        String checksum = this.computeChecksum(contents, checkAllSlots);
+        synchronized (this) {
+            if (checksum.equals(this.savedItemsChecksum)) {
+                return false;
+            }
+            this.savedItemsChecksum = checksum;
+            return true;
+        }
+    }
+
+    /**
+     * Marks a single slot of this chest as possibly changed.
+     *
+     * @param slot
+     *            The slot number, starting at 0.
+     */
+    public synchronized void markSlotChanged(int slot) {
+        this.changedSlots.set(slot);
+        this.snapshotSlots.set(slot);
+        this.changeCount++;
     }
 
-    private String computeChecksum(ItemStack[] contents) throws IllegalStateException {
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-             BukkitObjectOutputStream dataOutput = new BukkitObjectOutputStream(outputStream)) {
-            dataOutput.write(contents.length);
-            for (ItemStack content : contents) {
-                dataOutput.writeObject(content);
+    /**
+     * Marks the given snapshot as saved, but only if its contents are different
+     * from the contents that were saved previously and no newer snapshot was
+     * saved already. The caller must hold the {@link #getSaveLock() save lock}.
+     *
+     * @param snapshot
+     *            The snapshot.
+     * @param checkAllSlots
+     *            If false, only the slots marked as changed are compared. If
+     *            true, the other slots are compared too.
+     * @return True if the snapshot must now be written to disk/database, false
+     *         otherwise.
+     */
+    public boolean markSnapshotAsSavedIfChanged(ChestSnapshot snapshot, boolean checkAllSlots) {
+        synchronized (this) {
+            if (snapshot.getVersion() <= this.savedSnapshotVersion) {
+                return false;
             }
-            return DigestUtils.sha1Hex(outputStream.toByteArray());
-        } catch (Exception e) {
-            throw new IllegalStateException("Failed to compute SHA-1 checksum", e);
+            this.savedSnapshotVersion = snapshot.getVersion();
+        }
+        return markContentsAsSavedIfChanged(snapshot.stacks, checkAllSlots);
+    }
+
+    /**
+     * Takes a snapshot of the chest contents, and forgets all slots marked as
+     * changed, like {@link #clearChangedSlots()}. Must be called on the server
+     * thread, where no click can be halfway modifying the chest, so unlike
+     * {@link #clearChangedSlots()} this is safe while the chest is being
+     * viewed.
+     *
+     * <p>
+     * Only slots that were marked as changed since the previous snapshot are
+     * copied, the other slots reuse the stack of the previous snapshot.
+     *
+     * @param inventory
+     *            The inventory of this holder.
+     * @param checkAllSlots
+     *            If true, slots that were not marked as changed are compared
+     *            to the previous snapshot, and copied if they are different.
+     *            Use this to find changes that were not reported.
+     * @return The snapshot.
+     */
+    public ChestSnapshot takeSnapshot(Inventory inventory, boolean checkAllSlots) {
+        ChestSnapshot previous;
+        BitSet slotsToCopy;
+        boolean copyAll;
+        long version;
+        synchronized (this) {
+            clearChangedSlots();
+            previous = this.lastSnapshot;
+            slotsToCopy = (BitSet) this.snapshotSlots.clone();
+            copyAll = this.allSnapshotSlots || previous == null || previous.getSize() != inventory.getSize();
+            this.snapshotSlots.clear();
+            this.allSnapshotSlots = false;
+            version = previous == null ? this.savedSnapshotVersion + 1 : previous.getVersion() + 1;
+        }
+
+        ItemStack[] stacks = new ItemStack[inventory.getSize()];
+        for (int i = 0; i < stacks.length; i++) {
+            if (copyAll || slotsToCopy.get(i)) {
+                stacks[i] = copyOf(inventory.getItem(i));
+                continue;
+            }
+            ItemStack previousStack = previous.getItem(i);
+            if (checkAllSlots) {
+                ItemStack current = inventory.getItem(i);
+                stacks[i] = Objects.equals(current, previousStack) ? previousStack : copyOf(current);
+            } else {
+                stacks[i] = previousStack;
+            }
+        }
+
+        ChestSnapshot snapshot = new ChestSnapshot(version, stacks);
+        synchronized (this) {
+            this.lastSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    private String computeChecksum(ItemStack[] contents, boolean checkAllSlots) throws IllegalStateException {
+        BitSet markedSlots;
+        synchronized (this) {
+            markedSlots = getMarkedSlots();
+            this.staleSlots.clear();
+            this.allSlotsStale = false;
+        }
+
+        synchronized (this.slotDigests) {
+            try {
+                return this.slotDigests.update(contents, markedSlots, checkAllSlots);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to compute SHA-1 checksum", e);
+            }
+        }
+    }
+
+    private ItemStack copyOf(ItemStack stack) {
+        if (stack == null) {
+            return null;
+        }
+        return stack.clone();
+    }
+
+    /**
+     * Gets the slots that were marked as changed since they were last
+     * compared, including marks that were already cleared. The caller must
+     * hold the lock on this object.
+     *
+     * @return The slots, or null if all slots were marked.
+     */
+    private BitSet getMarkedSlots() {
+        if (this.allSlotsChanged || this.allSlotsStale) {
+            return null;
         }
+        BitSet markedSlots = (BitSet) this.changedSlots.clone();
+        markedSlots.or(this.staleSlots);
+        return markedSlots;
     }
 
 }
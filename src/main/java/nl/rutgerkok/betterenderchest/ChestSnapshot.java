@@ -0,0 +1,67 @@
+package nl.rutgerkok.betterenderchest;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * The contents of a chest at some moment, taken using
+ * {@link BetterEnderInventoryHolder#takeSnapshot(org.bukkit.inventory.Inventory, boolean)}.
+ *
+ * <p>
+ * The item stacks are copies that are never modified, so that a snapshot can
+ * be read from any thread. Slots that didn't change share their stack with
+ * the previous snapshot. For the same reason, callers must never modify the
+ * returned stacks.
+ *
+ */
+public final class ChestSnapshot {
+
+    final ItemStack[] stacks;
+    private final long version;
+
+    ChestSnapshot(long version, ItemStack[] stacks) {
+        this.version = version;
+        this.stacks = stacks;
+    }
+
+    /**
+     * Gets the contents of the chest. The array is a new copy, the stacks
+     * inside are not.
+     *
+     * @return The contents.
+     */
+    public ItemStack[] getContents() {
+        return stacks.clone();
+    }
+
+    /**
+     * Gets the item stack in the given slot.
+     *
+     * @param slot
+     *            The slot.
+     * @return The item stack, may be null.
+     * @throws ArrayIndexOutOfBoundsException
+     *             If slot < 0 || slot >= {@link #getSize()}.
+     */
+    public ItemStack getItem(int slot) {
+        return stacks[slot];
+    }
+
+    /**
+     * Gets the amount of slots in this snapshot.
+     *
+     * @return The amount of slots.
+     */
+    public int getSize() {
+        return stacks.length;
+    }
+
+    /**
+     * Gets the version of this snapshot. Snapshots taken later of the same
+     * chest have a higher version.
+     *
+     * @return The version.
+     */
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,114 @@
+package nl.rutgerkok.betterenderchest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * An immutable copy of the items in a chest, used to fill new chests with
+ * the contents of the default chest without loading it again.
+ *
+ */
+public final class ChestTemplate {
+
+    /**
+     * Template without any items.
+     */
+    public static final ChestTemplate EMPTY = new ChestTemplate(Collections.<ItemStack> emptyList(), null, 0);
+
+    /**
+     * Creates a template of the items in the inventory. Overflowing items of
+     * the inventory are included. The inventory is not modified.
+     *
+     * @param inventory
+     *            The inventory.
+     * @return The template.
+     */
+    public static ChestTemplate of(Inventory inventory) {
+        BetterEnderInventoryHolder holder = null;
+        long changeCount = 0;
+        if (inventory.getHolder() instanceof BetterEnderInventoryHolder) {
+            // Read before the items, so that a change during the copy makes
+            // the template outdated
+            holder = (BetterEnderInventoryHolder) inventory.getHolder();
+            changeCount = holder.getChangeCount();
+        }
+
+        List<ItemStack> stacks = new ArrayList<>(inventory.getSize());
+        ListIterator<ItemStack> it = inventory.iterator();
+        while (it.hasNext()) {
+            ItemStack stack = it.next();
+            stacks.add(stack == null ? null : stack.clone());
+        }
+        if (holder != null) {
+            for (ItemStack stack : holder.getOverflowingItems()) {
+                // Overflowing items are placed after the slots of the chest
+                stacks.add(stack.clone());
+            }
+        }
+        return new ChestTemplate(stacks, holder, changeCount);
+    }
+
+    /**
+     * Holder of the chest this template was made of, or null if the chest
+     * didn't have one.
+     */
+    private final BetterEnderInventoryHolder source;
+    /**
+     * Change count of {@link #source} when this template was made.
+     */
+    private final long sourceChangeCount;
+    /**
+     * Items by slot, items that don't fit in the chest are placed after the
+     * last slot.
+     */
+    private final List<ItemStack> stacks;
+
+    private ChestTemplate(List<ItemStack> stacks, BetterEnderInventoryHolder source, long sourceChangeCount) {
+        this.stacks = Collections.unmodifiableList(stacks);
+        this.source = source;
+        this.sourceChangeCount = sourceChangeCount;
+    }
+
+    /**
+     * Copies the items of this template to the given inventory, in the same
+     * slots if possible. Items that don't fit are discarded, like
+     * {@link BetterEnderUtils#copyContents(Inventory, Inventory, org.bukkit.Location)}
+     * does without a drop location.
+     *
+     * @param inventory
+     *            The inventory.
+     */
+    public void copyTo(Inventory inventory) {
+        int size = inventory.getSize();
+        List<ItemStack> overflowing = new ArrayList<>();
+        for (int slot = 0; slot < stacks.size(); slot++) {
+            ItemStack stack = stacks.get(slot);
+            if (stack == null) {
+                continue;
+            }
+            if (slot < size) {
+                inventory.setItem(slot, stack.clone());
+            } else {
+                overflowing.add(stack.clone());
+            }
+        }
+        for (ItemStack stack : overflowing) {
+            inventory.addItem(stack);
+        }
+    }
+
+    /**
+     * Gets whether slots of the chest this template was made of have been
+     * marked as changed since. Can be called from any thread.
+     *
+     * @return True if the template is outdated, false otherwise.
+     */
+    public boolean isOutdated() {
+        return source != null && source.getChangeCount() != sourceChangeCount;
+    }
+}
@@ -1,6 +1,10 @@
 package nl.rutgerkok.betterenderchest;
 
+import java.io.IOException;
 import java.util.ListIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bukkit.Bukkit;
 import org.bukkit.inventory.Inventory;
@@ -12,18 +16,87 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
 import nl.rutgerkok.betterenderchest.exception.ChestNotFoundException;
+import nl.rutgerkok.betterenderchest.io.ChestLoader;
 
 /**
  * Class that has the logic for creating all kinds of empty inventories.
  *
+ * <p>
+ * The contents of the default chest of each group are remembered, so that
+ * the chests of new players can be filled without reading the default chest
+ * again. The contents are forgotten when the default chest is saved, see
+ * {@link #forgetDefaultChest(WorldGroup)}, or when slots of the loaded default
+ * chest are marked as changed, see {@link ChestTemplate#isOutdated()}.
+ *
  */
 public class EmptyInventoryProvider {
+    /**
+     * Templates of the default chest by group. {@link ChestTemplate#EMPTY} if
+     * there is no default chest.
+     */
+    private final ConcurrentMap<WorldGroup, ChestTemplate> defaultChests = new ConcurrentHashMap<>();
+    /**
+     * Incremented whenever a default chest is forgotten, so that a template
+     * that was read before is never remembered.
+     */
+    private final AtomicLong defaultChestVersion = new AtomicLong();
     private final BetterEnderChest plugin;
 
     public EmptyInventoryProvider(BetterEnderChest plugin) {
         this.plugin = plugin;
     }
 
+    /**
+     * Forgets the contents of the default chest of the given group. Must be
+     * called before and after the default chest is saved. Can be called from
+     * any thread.
+     *
+     * @param worldGroup
+     *            The group of the default chest.
+     */
+    public void forgetDefaultChest(WorldGroup worldGroup) {
+        defaultChestVersion.incrementAndGet();
+        defaultChests.remove(worldGroup);
+    }
+
+    /**
+     * Forgets the contents of the default chests of all groups. Can be called
+     * from any thread.
+     */
+    public void forgetDefaultChests() {
+        defaultChestVersion.incrementAndGet();
+        defaultChests.clear();
+    }
+
+    /**
+     * Gets the contents of the default chest, reading it using the given
+     * chest loader if they aren't remembered. Blocking method if the contents
+     * need to be read.
+     *
+     * @param worldGroup
+     *            The group of the default chest.
+     * @param chestLoader
+     *            Reads the default chest.
+     * @return The contents, empty if there is no default chest.
+     * @throws IOException
+     *             If reading the default chest fails.
+     */
+    public ChestTemplate getDefaultChest(WorldGroup worldGroup, ChestLoader chestLoader) throws IOException {
+        ChestTemplate template = getRememberedDefaultChest(worldGroup);
+        if (template != null) {
+            return template;
+        }
+
+        long version = defaultChestVersion.get();
+        try {
+            template = ChestTemplate.of(chestLoader.loadInventory(plugin.getChestOwners().defaultChest(), worldGroup));
+        } catch (ChestNotFoundException e) {
+            template = ChestTemplate.EMPTY;
+        }
+        rememberDefaultChest(worldGroup, template, version);
+        return template;
+    }
+
     /**
      * Gets the default inventory and copies the contets over to an inventory
      * belonging to the given chest owner in the given world group.
@@ -41,20 +114,48 @@ public class EmptyInventoryProvider {
             return Futures.immediateFuture(loadEmptyInventory(chestOwner, worldGroup));
         }
 
+        ChestTemplate remembered = getRememberedDefaultChest(worldGroup);
+        if (remembered != null) {
+            Inventory playerInventory = loadEmptyInventory(chestOwner, worldGroup);
+            remembered.copyTo(playerInventory);
+            return Futures.immediateFuture(playerInventory);
+        }
+
         // Try to load the default inventory, copy its contents to the desired
         // player inventory
+        final long version = defaultChestVersion.get();
         ListenableFuture<Inventory> defaultInventory = plugin.getChestCache().getInventory(plugin.getChestOwners().defaultChest(), worldGroup);
         return Futures.transform(defaultInventory, new Function<Inventory, Inventory>() {
 
             @Override
             public Inventory apply(Inventory defaultInventory) {
+                ChestTemplate template = ChestTemplate.of(defaultInventory);
+                rememberDefaultChest(worldGroup, template, version);
+
                 Inventory playerInventory = loadEmptyInventory(chestOwner, worldGroup);
-                BetterEnderUtils.copyContents(defaultInventory, playerInventory, null);
+                template.copyTo(playerInventory);
                 return playerInventory;
             }
         }, Runnable::run);
     }
 
+    /**
+     * Gets the remembered contents of the default chest. Outdated contents
+     * are forgotten.
+     *
+     * @param worldGroup
+     *            The group of the default chest.
+     * @return The contents, or null if not remembered.
+     */
+    private ChestTemplate getRememberedDefaultChest(WorldGroup worldGroup) {
+        ChestTemplate template = defaultChests.get(worldGroup);
+        if (template != null && template.isOutdated()) {
+            defaultChests.remove(worldGroup, template);
+            return null;
+        }
+        return template;
+    }
+
     /**
      * Loads the inventory from various fallbacks. Use this when the inventory
      * is not found where it should normally be (either the database or on
@@ -208,4 +309,24 @@ public class EmptyInventoryProvider {
         return loadEmptyInventory(chestOwner, worldGroup, restrictions);
     }
 
+    /**
+     * Remembers the contents of the default chest, unless the default chest
+     * was forgotten after the version was obtained.
+     *
+     * @param worldGroup
+     *            The group of the default chest.
+     * @param template
+     *            The contents.
+     * @param version
+     *            The {@link #defaultChestVersion} from before the default
+     *            chest was read.
+     */
+    private void rememberDefaultChest(WorldGroup worldGroup, ChestTemplate template, long version) {
+        defaultChests.put(worldGroup, template);
+        if (defaultChestVersion.get() != version) {
+            // Forgotten in the meantime, so the template may be outdated
+            defaultChests.remove(worldGroup, template);
+        }
+    }
+
 }
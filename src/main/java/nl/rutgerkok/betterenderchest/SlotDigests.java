@@ -0,0 +1,135 @@
+package nl.rutgerkok.betterenderchest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.io.BukkitObjectOutputStream;
+
+/**
+ * Remembers a digest for every slot of a chest, so that the checksum of the
+ * whole chest can be updated by only serializing the slots that changed.
+ *
+ * <p>
+ * Slots that were marked as changed are always serialized again. Other slots
+ * are compared to a fingerprint of the stack that was serialized last time,
+ * made of the type, the amount and {@link ItemStack#hashCode()}, which
+ * includes the hash code of the item meta. No copies of the stacks are kept,
+ * so changes made to a stack in place are still noticed, unless they happen to
+ * leave the hash code the same. This class is not thread-safe.
+ */
+final class SlotDigests {
+
+    /**
+     * Gets the fingerprint of a stack. Zero is only used for empty slots.
+     *
+     * @param stack
+     *            The stack, may be null.
+     * @return The fingerprint.
+     */
+    private static long fingerprint(ItemStack stack) {
+        if (stack == null) {
+            return 0;
+        }
+        long typeAndAmount = (1L << 31) | (stack.getType().ordinal() << 8) | (stack.getAmount() & 0xff);
+        return ((long) stack.hashCode() << 32) | typeAndAmount;
+    }
+
+    private byte[][] digests = new byte[0][];
+    /**
+     * Fingerprints of the stacks that were serialized, so that changes made
+     * to the stacks in the chest are noticed.
+     */
+    private long[] fingerprints = new long[0];
+
+    /**
+     * Gets the checksum of the given contents, without remembering anything.
+     * The digests are only reused for slots that are not marked as changed and
+     * that still have the fingerprint of the stack that was serialized last
+     * time.
+     *
+     * @param contents
+     *            The contents of the chest.
+     * @param changedSlots
+     *            The slots that were marked as changed, or null if all slots
+     *            were marked.
+     * @return The checksum.
+     * @throws IOException
+     *             If serializing a stack fails.
+     */
+    String checksum(ItemStack[] contents, BitSet changedSlots) throws IOException {
+        boolean known = contents.length == fingerprints.length;
+        byte[][] digests = new byte[contents.length][];
+        for (int slot = 0; slot < contents.length; slot++) {
+            boolean changed = !known || changedSlots == null || changedSlots.get(slot);
+            if (changed || fingerprint(contents[slot]) != fingerprints[slot]) {
+                digests[slot] = computeDigest(contents[slot]);
+            } else {
+                digests[slot] = this.digests[slot];
+            }
+        }
+        return combine(digests);
+    }
+
+    private String combine(byte[][] digests) throws IOException {
+        ByteArrayOutputStream combined = new ByteArrayOutputStream(4 + digests.length * 20);
+        combined.write(digests.length);
+        for (byte[] digest : digests) {
+            combined.write(digest);
+        }
+        return DigestUtils.sha1Hex(combined.toByteArray());
+    }
+
+    private byte[] computeDigest(ItemStack stack) throws IOException {
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+             BukkitObjectOutputStream dataOutput = new BukkitObjectOutputStream(outputStream)) {
+            dataOutput.writeObject(stack);
+            dataOutput.flush();
+            return DigestUtils.sha1(outputStream.toByteArray());
+        }
+    }
+
+    /**
+     * Updates the digests of the slots and returns the checksum of the whole
+     * chest.
+     *
+     * @param contents
+     *            The current contents of the chest.
+     * @param changedSlots
+     *            The slots that were marked as changed since the last call.
+     *            These are always serialized again. If null, all slots are
+     *            serialized again.
+     * @param compareOthers
+     *            If true, the fingerprints of the slots that were not marked
+     *            are compared to those of the stacks that were serialized last
+     *            time, to find changes that were not reported. If false, their digests are reused.
+     * @return The checksum.
+     * @throws IOException
+     *             If serializing a stack fails.
+     */
+    String update(ItemStack[] contents, BitSet changedSlots, boolean compareOthers) throws IOException {
+        if (contents.length != fingerprints.length) {
+            // Forget everything
+            fingerprints = new long[contents.length];
+            digests = new byte[contents.length][];
+            changedSlots = null;
+        }
+
+        for (int slot = 0; slot < contents.length; slot++) {
+            ItemStack stack = contents[slot];
+            boolean changed = changedSlots == null || changedSlots.get(slot);
+            if (!changed && !compareOthers) {
+                continue;
+            }
+            long fingerprint = fingerprint(stack);
+            if (!changed && fingerprint == fingerprints[slot]) {
+                continue;
+            }
+            fingerprints[slot] = fingerprint;
+            digests[slot] = computeDigest(stack);
+        }
+        return combine(digests);
+    }
+}
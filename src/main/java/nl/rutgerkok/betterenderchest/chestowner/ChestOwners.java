@@ -1,37 +1,65 @@
 package nl.rutgerkok.betterenderchest.chestowner;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.BetterEnderChestPlugin.ProfileCache;
 import nl.rutgerkok.betterenderchest.exception.InvalidOwnerException;
 import nl.rutgerkok.betterenderchest.io.Consumer;
 
 import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
 import org.json.simple.parser.ParseException;
 
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 
 public class ChestOwners {
 
     private final BetterEnderChest plugin;
-    private final LoadingCache<String, ChestOwner> uuidCache;
+    private final ProfileBatcher profileBatcher;
+    /**
+     * Set once {@link #loadProfiles()} has read the stored profiles.
+     */
+    private volatile boolean profilesLoaded;
+    private final ProfileStore profileStore;
 
-    public ChestOwners(BetterEnderChest plugin) {
+    public ChestOwners(final BetterEnderChest plugin) {
         this.plugin = plugin;
-        this.uuidCache = CacheBuilder.newBuilder()
-                .maximumSize(100)
-                .expireAfterWrite(60, TimeUnit.MINUTES)
-                .build(new CacheLoader<String, ChestOwner>() {
+        this.profileBatcher = new ProfileBatcher(new ProfileBatcher.Fetcher() {
+            @Override
+            public List<UUIDChestOwner> fetch(List<String> names) throws IOException {
+                UUIDFetcher uuidFetcher = new UUIDFetcher(plugin, names, false, ProfileCache.profileUrl);
+                try {
+                    List<UUIDChestOwner> profiles = new ArrayList<UUIDChestOwner>();
+                    for (ChestOwner chestOwner : uuidFetcher.call().values()) {
+                        // Not a UUIDChestOwner if UUIDs were disabled in the
+                        // meantime
+                        if (chestOwner instanceof UUIDChestOwner) {
+                            profiles.add((UUIDChestOwner) chestOwner);
+                        }
+                    }
+                    return profiles;
+                } catch (ParseException e) {
+                    // invalid JSON, interesting
+                    throw new IOException("Invalid response", e);
+                }
+            }
+        }, ProfileCache.batchWindowMillis, ProfileCache.minRequestIntervalMillis,
+                TimeUnit.SECONDS.toMillis(ProfileCache.rateLimitBackOffSeconds));
+        this.profileStore = new ProfileStore(new File(plugin.getPluginFolder(), "profiles.txt"),
+                ProfileCache.maxSize,
+                TimeUnit.HOURS.toMinutes(ProfileCache.refreshAfterHours),
+                ProfileCache.unknownNameMinutes,
+                new CacheLoader<String, UUIDChestOwner>() {
                     @Override
-                    public ChestOwner load(String name) throws Exception {
+                    public UUIDChestOwner load(String name) throws Exception {
                         return fetchProfileSync(name);
                     }
                 });
@@ -56,37 +84,62 @@ public class ChestOwners {
      * @throws InvalidOwnerException
      *             If the profile was not found.
      */
-    private ChestOwner fetchProfileSync(final String name) throws InvalidOwnerException {
+    private UUIDChestOwner fetchProfileSync(final String name) throws InvalidOwnerException {
         // Check online players
         Player player = Bukkit.getPlayerExact(name);
         if (player != null) {
-            return playerChest(player);
+            return new UUIDChestOwner(player.getName(), player.getUniqueId());
         }
 
-        // Go to mojang.com
-        UUIDFetcher uuidFetcher = new UUIDFetcher(plugin, Collections.singletonList(name));
+        // Go to mojang.com, together with other lookups
         try {
-            Map<String, ChestOwner> chestOwnerMap = uuidFetcher.call();
-            if (chestOwnerMap.size() == 0) {
-                throw new InvalidOwnerException(name);
-            } else if (chestOwnerMap.size() == 1) {
-                return chestOwnerMap.values().iterator().next();
-            } else {
-                // Multiple UUIDs for one user. See http://cbukk.it/j/MC-51758
-                plugin.log("Multiple UUIDs for " + name + ": " + chestOwnerMap.values());
-                throw new InvalidOwnerException(name);
-            }
+            return profileBatcher.lookUp(name);
+        } catch (InvalidOwnerException e) {
+            // No player has this name, don't ask mojang.com again soon
+            profileStore.markUnknown(name);
+            throw e;
         } catch (IOException e) {
             // mojang.com is probably down
             plugin.log("Error communicating with mojang.com: " + e.getClass().getSimpleName() + " " + e.getMessage());
             throw new InvalidOwnerException(name);
-        } catch (ParseException e) {
-            // invalid JSON, interesting
-            plugin.log("Error communicating with mojang.com: " + e.getClass().getSimpleName() + " " + e.getMessage());
-            throw new InvalidOwnerException(name);
         }
     }
 
+    /**
+     * Gets the {@link ChestOwner} with the given
+     * {@link ChestOwner#getSaveFileName() save file name}, as used by the
+     * storage backend. Never contacts mojang.com: if the name of a player is
+     * unknown to the server, the UUID is used as the display name.
+     *
+     * @param saveFileName
+     *            The save file name.
+     * @return The {@link ChestOwner}, or null if the save file name is not
+     *         valid with the current UUID setting.
+     */
+    public ChestOwner fromSaveFileName(String saveFileName) {
+        if (saveFileName.equalsIgnoreCase(publicChest().getSaveFileName())) {
+            return publicChest();
+        }
+        if (saveFileName.equalsIgnoreCase(defaultChest().getSaveFileName())) {
+            return defaultChest();
+        }
+        if (!plugin.useUuidsForSaving()) {
+            return new NamedChestOwner(saveFileName);
+        }
+
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(saveFileName);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        String name = profileStore.getName(uuid);
+        if (name == null) {
+            name = Bukkit.getOfflinePlayer(uuid).getName();
+        }
+        return new UUIDChestOwner(name == null ? saveFileName : name, uuid);
+    }
+
     /**
      * Retrieves the {@link ChestOwner} with the given name. In the future, this
      * method might need to contact Mojang's auth service to look up the UUID
@@ -129,7 +182,7 @@ public class ChestOwners {
             @Override
             public void run() {
                 try {
-                    final ChestOwner chestOwner = uuidCache.get(name.toLowerCase());
+                    final ChestOwner chestOwner = profileStore.get(name);
                     Bukkit.getScheduler().runTask(plugin.getPlugin(), new Runnable() {
                         @Override
                         public void run() {
@@ -154,6 +207,37 @@ public class ChestOwners {
         });
     }
 
+    /**
+     * Reads the stored profiles, then adds the profiles of all players that
+     * have played on this server, which are more recent. Blocking method, so
+     * call it on a worker thread. Does nothing if UUIDs are not used.
+     */
+    public void loadProfiles() {
+        if (!plugin.useUuidsForSaving()) {
+            return;
+        }
+
+        int stored;
+        try {
+            stored = profileStore.load();
+        } catch (IOException e) {
+            // Don't overwrite the file with only the profiles we have now
+            plugin.severe("Failed to read the stored profiles, they will not be saved", e);
+            return;
+        }
+
+        int offlinePlayers = 0;
+        for (OfflinePlayer offlinePlayer : Bukkit.getOfflinePlayers()) {
+            String name = offlinePlayer.getName();
+            if (name != null) {
+                profileStore.remember(new UUIDChestOwner(name, offlinePlayer.getUniqueId()));
+                offlinePlayers++;
+            }
+        }
+        profilesLoaded = true;
+        plugin.debug("Loaded " + stored + " stored profiles and " + offlinePlayers + " profiles of offline players");
+    }
+
     /**
      * Gets the {@link ChestOwner} belonging to the player.
      * 
@@ -195,4 +279,40 @@ public class ChestOwners {
     public ChestOwner publicChest() {
         return SpecialChestOwner.PUBLIC_CHEST_OWNER;
     }
+
+    /**
+     * Remembers the name and UUID of the owner of a chest, so that the owner
+     * can be found by name later without contacting mojang.com. Can be called
+     * from any thread.
+     *
+     * @param chestOwner
+     *            The owner of a chest.
+     */
+    public void rememberProfile(ChestOwner chestOwner) {
+        if (chestOwner instanceof UUIDChestOwner) {
+            profileStore.remember((UUIDChestOwner) chestOwner);
+        }
+    }
+
+    /**
+     * Writes all known profiles to disk, so that they are available after a
+     * restart. Blocking method. Does nothing if UUIDs are not used, or if
+     * {@link #loadProfiles()} hasn't read the stored profiles yet, as the file
+     * would then lose the profiles that were not read.
+     */
+    public void saveProfiles() {
+        if (!plugin.useUuidsForSaving()) {
+            return;
+        }
+        if (!profilesLoaded) {
+            plugin.debug("Not saving profiles, the stored profiles were not read");
+            return;
+        }
+        try {
+            int written = profileStore.save();
+            plugin.debug("Saved " + written + " profiles");
+        } catch (IOException e) {
+            plugin.severe("Failed to save the known profiles", e);
+        }
+    }
 }
@@ -0,0 +1,249 @@
+package nl.rutgerkok.betterenderchest.chestowner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import nl.rutgerkok.betterenderchest.exception.InvalidOwnerException;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Looks up the UUIDs of names in batches. Lookups that arrive within a short
+ * window are sent to the profile server in one request, and every waiting
+ * caller gets its own result. All methods can be called from any thread, but
+ * they block, so never call them on the server thread.
+ *
+ * <p>
+ * There is no separate thread: the caller that starts a batch waits for the
+ * window to end, then sends the request for everyone. Requests are spaced
+ * out by a minimum interval. If the server reports that we are sending too
+ * many requests, lookups fail right away for a while.
+ *
+ */
+final class ProfileBatcher {
+
+    /**
+     * Sends one request to the profile server.
+     */
+    interface Fetcher {
+        /**
+         * Looks up the given names.
+         *
+         * @param names
+         *            The names, at most {@link ProfileBatcher#MAX_BATCH_SIZE}.
+         * @return The found profiles. Names that don't exist are missing.
+         * @throws RateLimitedException
+         *             If the server refused because of too many requests.
+         * @throws IOException
+         *             If the request failed for another reason.
+         */
+        List<UUIDChestOwner> fetch(List<String> names) throws IOException;
+    }
+
+    /**
+     * Thrown by a {@link Fetcher} if the server refused the request because
+     * too many requests were sent.
+     */
+    static final class RateLimitedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RateLimitedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Maximum number of names the profile server accepts in one request.
+     */
+    static final int MAX_BATCH_SIZE = 100;
+
+    private final long backOffNanos;
+    private boolean batchRunning;
+    private final Fetcher fetcher;
+    private long lastRequestNanos;
+    private final Object lock = new Object();
+    private final long minIntervalNanos;
+    private final Map<String, SettableFuture<UUIDChestOwner>> pending = new LinkedHashMap<>();
+    private long rateLimitedUntilNanos;
+    private final long windowNanos;
+
+    /**
+     * Creates a new batcher.
+     *
+     * @param fetcher
+     *            Sends the requests.
+     * @param windowMillis
+     *            How long to wait for more lookups before sending a request.
+     * @param minIntervalMillis
+     *            Minimum time between two requests.
+     * @param backOffMillis
+     *            How long lookups fail after the server reported too many
+     *            requests.
+     */
+    ProfileBatcher(Fetcher fetcher, long windowMillis, long minIntervalMillis, long backOffMillis) {
+        this.fetcher = fetcher;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+        this.backOffNanos = TimeUnit.MILLISECONDS.toNanos(backOffMillis);
+        long now = System.nanoTime();
+        this.lastRequestNanos = now - minIntervalNanos;
+        this.rateLimitedUntilNanos = now;
+    }
+
+    /**
+     * Sends the request for one batch and completes the futures.
+     *
+     * @param batch
+     *            The batch, names are lowercase.
+     */
+    private void fetchBatch(Map<String, SettableFuture<UUIDChestOwner>> batch) {
+        try {
+            waitForRateLimit();
+            List<UUIDChestOwner> profiles = fetcher.fetch(new ArrayList<>(batch.keySet()));
+            for (UUIDChestOwner profile : profiles) {
+                SettableFuture<UUIDChestOwner> future = batch.remove(toKey(profile.getDisplayName()));
+                if (future != null) {
+                    future.set(profile);
+                }
+            }
+            for (Entry<String, SettableFuture<UUIDChestOwner>> notFound : batch.entrySet()) {
+                notFound.getValue().setException(new InvalidOwnerException(notFound.getKey()));
+            }
+        } catch (RateLimitedException e) {
+            synchronized (lock) {
+                rateLimitedUntilNanos = System.nanoTime() + backOffNanos;
+            }
+            failAll(batch, e);
+        } catch (IOException | RuntimeException e) {
+            failAll(batch, e);
+        }
+    }
+
+    private void failAll(Map<String, SettableFuture<UUIDChestOwner>> batch, Exception e) {
+        for (SettableFuture<UUIDChestOwner> future : batch.values()) {
+            future.setException(e);
+        }
+    }
+
+    /**
+     * Looks up the profile of the given name. Blocks until the batch with this
+     * name has been sent.
+     *
+     * @param name
+     *            The name, case insensitive.
+     * @return The profile.
+     * @throws InvalidOwnerException
+     *             If no player has this name.
+     * @throws IOException
+     *             If the lookup failed.
+     */
+    UUIDChestOwner lookUp(String name) throws InvalidOwnerException, IOException {
+        String key = toKey(name);
+        SettableFuture<UUIDChestOwner> future;
+        boolean startBatch = false;
+        synchronized (lock) {
+            future = pending.get(key);
+            if (future == null) {
+                future = SettableFuture.create();
+                pending.put(key, future);
+            }
+            if (!batchRunning) {
+                batchRunning = true;
+                startBatch = true;
+            } else if (pending.size() >= MAX_BATCH_SIZE) {
+                // Batch is full, no need to wait any longer
+                lock.notifyAll();
+            }
+        }
+
+        if (startBatch) {
+            runBatches();
+        }
+
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InvalidOwnerException) {
+                throw new InvalidOwnerException(name);
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Sends batches until no lookups are pending.
+     */
+    private void runBatches() {
+        while (true) {
+            Map<String, SettableFuture<UUIDChestOwner>> batch = new LinkedHashMap<>();
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    batchRunning = false;
+                    return;
+                }
+
+                // Wait for more lookups
+                long deadline = System.nanoTime() + windowNanos;
+                long remaining = windowNanos;
+                while (pending.size() < MAX_BATCH_SIZE && remaining > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    remaining = deadline - System.nanoTime();
+                }
+
+                Iterator<Entry<String, SettableFuture<UUIDChestOwner>>> it = pending.entrySet().iterator();
+                while (it.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+                    Entry<String, SettableFuture<UUIDChestOwner>> entry = it.next();
+                    batch.put(entry.getKey(), entry.getValue());
+                    it.remove();
+                }
+            }
+
+            fetchBatch(batch);
+        }
+    }
+
+    private String toKey(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Waits until the minimum interval since the last request has passed.
+     *
+     * @throws RateLimitedException
+     *             If we are backing off because of too many requests.
+     */
+    private void waitForRateLimit() throws RateLimitedException {
+        long waitNanos;
+        synchronized (lock) {
+            long now = System.nanoTime();
+            if (rateLimitedUntilNanos - now > 0) {
+                throw new RateLimitedException("Too many profile lookups, retrying after "
+                        + TimeUnit.NANOSECONDS.toSeconds(rateLimitedUntilNanos - now) + " seconds");
+            }
+            long requestTime = Math.max(now, lastRequestNanos + minIntervalNanos);
+            lastRequestNanos = requestTime;
+            waitNanos = requestTime - now;
+        }
+        if (waitNanos > 0) {
+            Uninterruptibles.sleepUninterruptibly(waitNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
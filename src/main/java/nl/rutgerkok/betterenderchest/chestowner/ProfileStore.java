@@ -0,0 +1,227 @@
+package nl.rutgerkok.betterenderchest.chestowner;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import nl.rutgerkok.betterenderchest.exception.InvalidOwnerException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Remembers the UUIDs of player names and the other way round, so that
+ * commands on offline players don't need to contact mojang.com. The profiles
+ * are stored in a file, so that they survive restarts. All methods can be
+ * called from any thread.
+ *
+ * <p>
+ * Only the most recently used profiles are kept. Profiles are fetched again
+ * when they are used after the refresh time; if that fails, the old profile
+ * is kept. Names that don't exist are remembered for a shorter time.
+ *
+ */
+final class ProfileStore {
+
+    private static final String SEPARATOR = "\t";
+
+    private final LoadingCache<String, UUIDChestOwner> byName;
+    private final File file;
+    private final Cache<UUID, String> namesByUuid;
+    private final Cache<String, Boolean> unknownNames;
+
+    /**
+     * Creates a new, empty store. Use {@link #load()} to read the stored
+     * profiles.
+     *
+     * @param file
+     *            The file the profiles are stored in.
+     * @param maximumSize
+     *            Maximum number of profiles.
+     * @param refreshAfterMinutes
+     *            After how many minutes a profile is fetched again.
+     * @param unknownNameMinutes
+     *            How many minutes a name that doesn't exist is remembered.
+     * @param fetcher
+     *            Fetches profiles that are not in the store. Must throw
+     *            {@link InvalidOwnerException} if no profile was found, and
+     *            must call {@link #markUnknown(String)} if the name doesn't
+     *            exist.
+     */
+    ProfileStore(File file, int maximumSize, long refreshAfterMinutes, long unknownNameMinutes,
+            final CacheLoader<String, UUIDChestOwner> fetcher) {
+        this.file = file;
+        this.byName = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .refreshAfterWrite(refreshAfterMinutes, TimeUnit.MINUTES)
+                .build(new CacheLoader<String, UUIDChestOwner>() {
+                    @Override
+                    public UUIDChestOwner load(String name) throws Exception {
+                        UUIDChestOwner chestOwner = fetcher.load(name);
+                        namesByUuid.put(chestOwner.getUniqueId(), chestOwner.getDisplayName());
+                        return chestOwner;
+                    }
+
+                    @Override
+                    public ListenableFuture<UUIDChestOwner> reload(String name, UUIDChestOwner oldValue) {
+                        try {
+                            return Futures.immediateFuture(load(name));
+                        } catch (Exception e) {
+                            // Keep the old profile, mojang.com may be down
+                            return Futures.immediateFuture(oldValue);
+                        }
+                    }
+                });
+        this.namesByUuid = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+        this.unknownNames = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(unknownNameMinutes, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * Gets the profile of the given name, fetching it if necessary.
+     *
+     * @param name
+     *            The name, case insensitive.
+     * @return The profile.
+     * @throws ExecutionException
+     *             If fetching failed. If no profile exists with that name,
+     *             the cause is an {@link InvalidOwnerException}.
+     */
+    ChestOwner get(String name) throws ExecutionException {
+        String key = toKey(name);
+        if (unknownNames.getIfPresent(key) != null) {
+            throw new ExecutionException(new InvalidOwnerException(name));
+        }
+        return byName.get(key);
+    }
+
+    /**
+     * Gets the last known name of the player with the given UUID.
+     *
+     * @param uuid
+     *            The UUID.
+     * @return The name, or null if not known.
+     */
+    String getName(UUID uuid) {
+        return namesByUuid.getIfPresent(uuid);
+    }
+
+    /**
+     * Reads the stored profiles. Profiles that are already in the store are
+     * overwritten.
+     *
+     * @return The number of profiles read.
+     * @throws IOException
+     *             If reading fails.
+     */
+    int load() throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        int read = 0;
+        for (String line : lines) {
+            int separator = line.indexOf(SEPARATOR);
+            if (separator == -1) {
+                continue;
+            }
+            try {
+                UUID uuid = UUID.fromString(line.substring(0, separator));
+                remember(new UUIDChestOwner(line.substring(separator + SEPARATOR.length()), uuid));
+                read++;
+            } catch (IllegalArgumentException e) {
+                // Invalid line, ignore
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Marks the name as unknown, so that it is not fetched again for a while.
+     *
+     * @param name
+     *            The name.
+     */
+    void markUnknown(String name) {
+        unknownNames.put(toKey(name), Boolean.TRUE);
+    }
+
+    /**
+     * Adds or updates a profile.
+     *
+     * @param chestOwner
+     *            The profile.
+     */
+    void remember(UUIDChestOwner chestOwner) {
+        String name = chestOwner.getDisplayName();
+        UUID uuid = chestOwner.getUniqueId();
+        if (name.equalsIgnoreCase(uuid.toString())) {
+            // Name is unknown
+            return;
+        }
+
+        String key = toKey(name);
+        String oldName = namesByUuid.getIfPresent(uuid);
+        if (oldName != null && !oldName.equalsIgnoreCase(name)) {
+            // Player changed names
+            UUIDChestOwner oldProfile = byName.getIfPresent(toKey(oldName));
+            if (oldProfile != null && oldProfile.getUniqueId().equals(uuid)) {
+                byName.invalidate(toKey(oldName));
+            }
+        }
+        byName.put(key, chestOwner);
+        namesByUuid.put(uuid, name);
+        unknownNames.invalidate(key);
+    }
+
+    /**
+     * Writes all profiles in this store to the file. Synchronized, so that
+     * saves never write the same temporary file at once.
+     *
+     * @return The number of profiles written.
+     * @throws IOException
+     *             If writing fails.
+     */
+    synchronized int save() throws IOException {
+        Path target = file.toPath();
+        Path tempFile = target.resolveSibling(file.getName() + ".tmp");
+        int written = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (UUIDChestOwner chestOwner : byName.asMap().values()) {
+                writer.write(chestOwner.getUniqueId() + SEPARATOR + chestOwner.getDisplayName());
+                writer.newLine();
+                written++;
+            }
+        }
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    /**
+     * Gets the number of profiles in this store.
+     *
+     * @return The number of profiles.
+     */
+    long size() {
+        return byName.size();
+    }
+
+    private String toKey(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
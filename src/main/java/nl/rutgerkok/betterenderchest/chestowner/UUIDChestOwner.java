@@ -58,6 +58,15 @@ final class UUIDChestOwner implements ChestOwner {
         return uuid.toString();
     }
 
+    /**
+     * Gets the UUID of the player.
+     *
+     * @return The UUID.
+     */
+    UUID getUniqueId() {
+        return uuid;
+    }
+
     @Override
     public int hashCode() {
         return uuid.hashCode() * 31;
@@ -3,7 +3,8 @@
  * https://gist.github.com/evilmidget38/26d70114b834f71fb3b4
  * 
  * Modified by BetterEnderChest to throw less generic exceptions, return
- * ChestOwner instead of UUID and to add support to continue using names.
+ * ChestOwner instead of UUID, to add support to continue using names and to
+ * use another profile server.
  */
 package nl.rutgerkok.betterenderchest.chestowner;
 
@@ -28,11 +29,15 @@ import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 final class UUIDFetcher implements Callable<Map<String, ChestOwner>> {
-    private static final String PROFILE_URL = "https://api.mojang.com/profiles/minecraft";
+    static final String PROFILE_URL = "https://api.mojang.com/profiles/minecraft";
     private static final double PROFILES_PER_REQUEST = 100;
+    /**
+     * Status code for too many requests.
+     */
+    private static final int TOO_MANY_REQUESTS = 429;
 
-    private static HttpURLConnection createConnection() throws IOException {
-        URL url = new URL(PROFILE_URL);
+    private static HttpURLConnection createConnection(String profileUrl) throws IOException {
+        URL url = new URL(profileUrl);
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         connection.setRequestMethod("POST");
         connection.setRequestProperty("Content-Type", "application/json");
@@ -57,6 +62,7 @@ final class UUIDFetcher implements Callable<Map<String, ChestOwner>> {
 
     private final List<String> names;
     private final BetterEnderChest plugin;
+    private final String profileUrl;
     private final boolean rateLimiting;
     private final Map<String, ChestOwner> specialChests;
 
@@ -65,9 +71,14 @@ final class UUIDFetcher implements Callable<Map<String, ChestOwner>> {
     }
 
     public UUIDFetcher(BetterEnderChest plugin, Collection<String> names, boolean rateLimiting) {
+        this(plugin, names, rateLimiting, PROFILE_URL);
+    }
+
+    public UUIDFetcher(BetterEnderChest plugin, Collection<String> names, boolean rateLimiting, String profileUrl) {
         this.plugin = plugin;
         this.names = new ArrayList<String>(names);
         this.rateLimiting = rateLimiting;
+        this.profileUrl = profileUrl;
 
         // Move over special chests early
         specialChests = new HashMap<String, ChestOwner>();
@@ -109,9 +120,12 @@ final class UUIDFetcher implements Callable<Map<String, ChestOwner>> {
         Map<String, ChestOwner> uuidMap = new HashMap<String, ChestOwner>();
         int requests = (int) Math.ceil(names.size() / PROFILES_PER_REQUEST);
         for (int i = 0; i < requests; i++) {
-            HttpURLConnection connection = createConnection();
+            HttpURLConnection connection = createConnection(profileUrl);
             String body = JSONArray.toJSONString(names.subList(i * 100, Math.min((i + 1) * 100, names.size())));
             writeBody(connection, body);
+            if (connection.getResponseCode() == TOO_MANY_REQUESTS) {
+                throw new ProfileBatcher.RateLimitedException("Too many requests to " + profileUrl);
+            }
             JSONArray array = (JSONArray) jsonParser.parse(new InputStreamReader(connection.getInputStream()));
             for (Object profile : array) {
                 JSONObject jsonProfile = (JSONObject) profile;
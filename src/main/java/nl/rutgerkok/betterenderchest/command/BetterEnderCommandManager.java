@@ -22,12 +22,16 @@ public class BetterEnderCommandManager implements TabExecutor {
         this.plugin = plugin;
 
         Registry<BaseCommand> commands = plugin.getCommands();
+        commands.register(new ConvertFilesCommand(plugin));
         commands.register(new DeleteInvCommand(plugin));
         commands.register(new GiveCommand(plugin));
         commands.register(new ListCommand(plugin));
+        commands.register(new MigrateCommand(plugin));
         commands.register(new OpenInvCommand(plugin));
         commands.register(new ReloadCommand(plugin));
+        commands.register(new StatsCommand(plugin));
         commands.register(new SwapInvCommand(plugin));
+        commands.register(new UpgradeCommand(plugin));
         commands.register(new ViewInvCommand(plugin));
     }
 
@@ -0,0 +1,97 @@
+package nl.rutgerkok.betterenderchest.command;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.io.BetterEnderCache;
+import nl.rutgerkok.betterenderchest.io.file.RegionChestHandler;
+import nl.rutgerkok.betterenderchest.io.file.RegionEnderCache;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Moves the chests that are stored one file per chest into the region files.
+ *
+ */
+public class ConvertFilesCommand extends BaseCommand {
+
+    public ConvertFilesCommand(BetterEnderChest plugin) {
+        super(plugin);
+    }
+
+    @Override
+    public boolean execute(final CommandSender sender, String[] args) {
+        if (args.length != 0) {
+            return false;
+        }
+
+        BetterEnderCache cache = plugin.getChestCache();
+        if (!(cache instanceof RegionEnderCache)) {
+            sender.sendMessage(ChatColor.RED + "Region files are not enabled. Set useRegionFiles to true in the config.yml and reload first.");
+            return true;
+        }
+
+        final RegionChestHandler regionHandler = ((RegionEnderCache) cache).getRegionHandler();
+        final List<WorldGroup> groups = plugin.getWorldGroupManager().getGroups();
+        sender.sendMessage(ChatColor.YELLOW + "Converting chest files, this may take a while...");
+        plugin.getExecutors().workerThreadExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                int converted = 0;
+                String error = null;
+                List<Path> invalidFiles = new ArrayList<>();
+                for (WorldGroup group : groups) {
+                    try {
+                        converted += regionHandler.convertLegacyFiles(group, invalidFiles);
+                    } catch (IOException e) {
+                        plugin.severe("Failed to convert chest files of group " + group.getGroupName(), e);
+                        error = group.getGroupName();
+                    }
+                }
+                for (Path invalidFile : invalidFiles) {
+                    plugin.warning("Skipped " + invalidFile + ", it is not a compressed NBT file");
+                }
+
+                final int convertedCount = converted;
+                final int skippedCount = invalidFiles.size();
+                final String failedGroup = error;
+                plugin.getExecutors().serverThreadExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (failedGroup != null) {
+                            sender.sendMessage(ChatColor.RED + "Failed to convert all chests of group " + failedGroup
+                                    + ", see the console for details.");
+                        }
+                        if (skippedCount > 0) {
+                            sender.sendMessage(ChatColor.RED + "Skipped " + skippedCount
+                                    + " invalid chest files, see the console for details.");
+                        }
+                        sender.sendMessage(ChatColor.GREEN + "Converted " + convertedCount + " chest files.");
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public String getHelpText() {
+        return "moves all chest files into region files";
+    }
+
+    @Override
+    public String getName() {
+        return "convertfiles";
+    }
+
+    @Override
+    public String getUsage() {
+        return "";
+    }
+
+}
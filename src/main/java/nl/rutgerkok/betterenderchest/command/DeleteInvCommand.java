@@ -3,6 +3,7 @@ package nl.rutgerkok.betterenderchest.command;
 import java.util.List;
 
 import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.BetterEnderInventoryHolder;
 import nl.rutgerkok.betterenderchest.BetterEnderUtils;
 import nl.rutgerkok.betterenderchest.Translations;
 import nl.rutgerkok.betterenderchest.WorldGroup;
@@ -50,6 +51,7 @@ public class DeleteInvCommand extends BaseCommand {
 
                 // Clear it.
                 inventory.clear();
+                BetterEnderInventoryHolder.of(inventory).markAllSlotsChanged();
                 sender.sendMessage(ChatColor.GREEN + "Succesfully removed inventory!");
             }
         });
@@ -13,6 +13,7 @@ import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 
 import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.BetterEnderInventoryHolder;
 import nl.rutgerkok.betterenderchest.Translations;
 import nl.rutgerkok.betterenderchest.WorldGroup;
 import nl.rutgerkok.betterenderchest.io.Consumer;
@@ -45,6 +46,7 @@ public class GiveCommand extends BaseCommand {
                         break;
                     }
                 }
+                BetterEnderInventoryHolder.of(inventory).markAllSlotsChanged();
 
                 // Show appropriate message
                 sendItemAddedMessage(sender, inventoryName, amount, remainingAmount);
@@ -1,6 +1,8 @@
 package nl.rutgerkok.betterenderchest.command;
 
 import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.io.BetterEnderCache;
+import nl.rutgerkok.betterenderchest.io.SimpleEnderCache;
 
 import org.bukkit.command.CommandSender;
 
@@ -12,8 +14,12 @@ public class ListCommand extends BaseCommand {
 
     @Override
     public boolean execute(CommandSender sender, String[] args) {
+        BetterEnderCache cache = plugin.getChestCache();
         sender.sendMessage("All currently loaded inventories:");
-        sender.sendMessage(plugin.getChestCache().toString());
+        sender.sendMessage(cache.toString());
+        if (cache instanceof SimpleEnderCache) {
+            sender.sendMessage("Cache: " + ((SimpleEnderCache) cache).getStatistics());
+        }
         return true;
     }
 
@@ -0,0 +1,181 @@
+package nl.rutgerkok.betterenderchest.command;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.BetterEnderChestPlugin.Migration;
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.io.BetterEnderCache;
+import nl.rutgerkok.betterenderchest.io.ChestMigration;
+import nl.rutgerkok.betterenderchest.io.SimpleEnderCache;
+import nl.rutgerkok.betterenderchest.io.file.BetterEnderFileHandler;
+import nl.rutgerkok.betterenderchest.io.file.FsyncMode;
+import nl.rutgerkok.betterenderchest.io.file.RegionChestHandler;
+import nl.rutgerkok.betterenderchest.io.file.RegionEnderCache;
+import nl.rutgerkok.betterenderchest.io.mysql.BetterEnderSQLCache;
+import nl.rutgerkok.betterenderchest.io.mysql.SQLChestSource;
+import nl.rutgerkok.betterenderchest.nms.NMSHandler;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Copies all chests from another storage to the storage that is currently
+ * used. See {@link ChestMigration}.
+ *
+ */
+public class MigrateCommand extends BaseCommand {
+
+    private static final String FILE = "file";
+    private static final String MYSQL = "mysql";
+    private static final String REGION_FILE = "regionfile";
+    private static final List<String> SOURCES = Arrays.asList(FILE, MYSQL, REGION_FILE);
+
+    public MigrateCommand(BetterEnderChest plugin) {
+        super(plugin);
+    }
+
+    @Override
+    public List<String> autoComplete(CommandSender sender, String[] args) {
+        if (args.length == 1) {
+            return SOURCES;
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean execute(final CommandSender sender, String[] args) {
+        if (args.length != 1) {
+            return false;
+        }
+
+        final String source = args[0].toLowerCase(Locale.ROOT);
+        if (!SOURCES.contains(source)) {
+            return false;
+        }
+
+        BetterEnderCache cache = plugin.getChestCache();
+        if (!(cache instanceof SimpleEnderCache) || !plugin.canSaveAndLoad()) {
+            sender.sendMessage(ChatColor.RED + "Chests cannot be saved at the moment, see the console for details.");
+            return true;
+        }
+        if (source.equals(getStorageName(cache))) {
+            sender.sendMessage(ChatColor.RED + "The chests are already stored using " + source
+                    + ". Change the storage in the config.yml and reload first.");
+            return true;
+        }
+
+        final SimpleEnderCache target = (SimpleEnderCache) cache;
+        final List<WorldGroup> groups = plugin.getWorldGroupManager().getGroups();
+        sender.sendMessage(ChatColor.YELLOW + "Migrating all chests from " + source + ", this may take a while. The progress is logged in the console.");
+        plugin.getExecutors().workerThreadExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final String message = migrate(source, target, groups);
+                plugin.getExecutors().serverThreadExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        sender.sendMessage(message);
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public String getHelpText() {
+        return "copies all chests from another storage";
+    }
+
+    @Override
+    public String getName() {
+        return "migrate";
+    }
+
+    private String getStorageName(BetterEnderCache cache) {
+        if (cache instanceof BetterEnderSQLCache) {
+            return MYSQL;
+        }
+        if (cache instanceof RegionEnderCache) {
+            return REGION_FILE;
+        }
+        return FILE;
+    }
+
+    @Override
+    public String getUsage() {
+        return "<file|regionfile|mysql>";
+    }
+
+    /**
+     * Migrates all chests. Blocks until all chests are migrated.
+     *
+     * @param source
+     *            Name of the storage to migrate from.
+     * @param target
+     *            The cache to migrate to.
+     * @param groups
+     *            Groups to migrate.
+     * @return Message for the command sender.
+     */
+    private String migrate(String source, SimpleEnderCache target, List<WorldGroup> groups) {
+        NMSHandler nmsHandler = plugin.getNMSHandlers().getSelectedRegistration();
+        File checkpointFile = new File(plugin.getPluginFolder(), "migration-from-" + source + ".txt");
+        Closeable toClose = null;
+        try {
+            ChestMigration migration;
+            if (source.equals(MYSQL)) {
+                SQLChestSource sqlSource = SQLChestSource.open(plugin.getDatabaseSettings(), nmsHandler, groups);
+                toClose = sqlSource;
+                migration = new ChestMigration(plugin, sqlSource, sqlSource, target, checkpointFile,
+                        Migration.readerThreads, Migration.batchSize);
+            } else if (source.equals(REGION_FILE)) {
+                RegionChestHandler regionHandler = new RegionChestHandler(nmsHandler, plugin.getChestSaveLocation(),
+                        FsyncMode.NONE);
+                toClose = regionHandler;
+                migration = new ChestMigration(plugin, regionHandler, regionHandler, target, checkpointFile,
+                        Migration.readerThreads, Migration.batchSize);
+            } else {
+                BetterEnderFileHandler fileHandler = new BetterEnderFileHandler(nmsHandler, plugin.getChestSaveLocation());
+                migration = new ChestMigration(plugin, fileHandler, fileHandler, target, checkpointFile,
+                        Migration.readerThreads, Migration.batchSize);
+            }
+
+            boolean completed = migration.run(groups);
+            String counts = migration.getMigrated() + " chests migrated, " + migration.getSkipped() + " skipped, "
+                    + migration.getFailed() + " failed.";
+            plugin.log("Migration from " + source + (completed ? " finished: " : " stopped: ") + counts);
+            if (!completed) {
+                return ChatColor.RED + "Migration was stopped by a reload or an error. " + counts
+                        + " Run the command again to continue.";
+            }
+            if (migration.getFailed() > 0) {
+                return ChatColor.RED + "Migration finished with errors, see the console for details. " + counts
+                        + " Run the command again to retry the failed chests.";
+            }
+            return ChatColor.GREEN + "Migration finished. " + counts;
+        } catch (IOException e) {
+            plugin.severe("Failed to migrate chests from " + source, e);
+            return ChatColor.RED + "Failed to migrate chests, see the console for details.";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ChatColor.RED + "Migration was interrupted.";
+        } finally {
+            if (toClose != null) {
+                try {
+                    toClose.close();
+                } catch (IOException e) {
+                    plugin.severe("Failed to close " + source + " storage after migration", e);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package nl.rutgerkok.betterenderchest.command;
+
+import java.util.Locale;
+import java.util.Map.Entry;
+
+import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.metrics.LatencyHistogram;
+import nl.rutgerkok.betterenderchest.metrics.MetricFamily;
+import nl.rutgerkok.betterenderchest.metrics.MetricType;
+
+import org.bukkit.command.CommandSender;
+
+public class StatsCommand extends BaseCommand {
+
+    private static final String PREFIX = "betterenderchest_";
+
+    public StatsCommand(BetterEnderChest plugin) {
+        super(plugin);
+    }
+
+    private String describe(LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return "no measurements";
+        }
+        return String.format(Locale.ROOT, "%d times, mean %.2f ms, 95%% under %s ms, 99%% under %s ms",
+                histogram.getCount(), histogram.getMeanMillis(), formatBound(histogram.getPercentileMillis(0.95)),
+                formatBound(histogram.getPercentileMillis(0.99)));
+    }
+
+    @Override
+    public boolean execute(CommandSender sender, String[] args) {
+        sender.sendMessage("BetterEnderChest statistics:");
+        for (MetricFamily family : plugin.getMetrics().getFamilies()) {
+            String name = family.getName();
+            if (name.startsWith(PREFIX)) {
+                name = name.substring(PREFIX.length());
+            }
+            if (family.getType() == MetricType.HISTOGRAM) {
+                for (Entry<String, LatencyHistogram> entry : family.getHistograms().entrySet()) {
+                    sender.sendMessage(name + withLabels(entry.getKey()) + ": " + describe(entry.getValue()));
+                }
+            } else {
+                for (Entry<String, Number> entry : family.getValues().entrySet()) {
+                    sender.sendMessage(name + withLabels(entry.getKey()) + ": " + entry.getValue());
+                }
+            }
+        }
+        return true;
+    }
+
+    private String formatBound(double millis) {
+        if (Double.isInfinite(millis)) {
+            return "infinite";
+        }
+        if (millis < 1) {
+            return String.valueOf(millis);
+        }
+        return String.valueOf((long) millis);
+    }
+
+    @Override
+    public String getHelpText() {
+        return "shows cache, load and save statistics";
+    }
+
+    @Override
+    public String getName() {
+        return "stats";
+    }
+
+    @Override
+    public String getUsage() {
+        return "";
+    }
+
+    private String withLabels(String labels) {
+        if (labels.isEmpty()) {
+            return "";
+        }
+        return " (" + labels.replace("\"", "") + ")";
+    }
+
+}
@@ -85,6 +85,10 @@ public class SwapInvCommand extends BaseCommand {
                 holder2.getChestOwner(), holder2.getWorldGroup(), holder1.getChestRestrictions());
         BetterEnderUtils.copyContents(inventory1, newInv2, null);
 
+        // New inventories are saved during the next autosave
+        BetterEnderInventoryHolder.of(newInv1).markAllSlotsChanged();
+        BetterEnderInventoryHolder.of(newInv2).markAllSlotsChanged();
+
         // Let new inventories replace old ones
         plugin.getChestCache().setInventory(newInv1);
         plugin.getChestCache().setInventory(newInv2);
@@ -0,0 +1,167 @@
+package nl.rutgerkok.betterenderchest.command;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.BetterEnderChestPlugin.Cache;
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
+import nl.rutgerkok.betterenderchest.io.ChestLister;
+import nl.rutgerkok.betterenderchest.io.SimpleEnderCache;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.inventory.Inventory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Loads every stored chest once, so that chests stored by an older Minecraft
+ * version are upgraded and saved again now, instead of when a player opens
+ * them. Chests are loaded in parallel on the load threads and saved by the
+ * autosave when they are unloaded.
+ *
+ */
+public class UpgradeCommand extends BaseCommand {
+
+    /**
+     * Number of chests between two checks of the cache size.
+     */
+    private static final int CACHE_CHECK_INTERVAL = 64;
+    /**
+     * Maximum number of chests that are being loaded at once.
+     */
+    private static final int MAX_CONCURRENT_LOADS = 16;
+    /**
+     * The command waits for chests to be unloaded if the cache holds more
+     * chests than this.
+     */
+    private static final int MAX_LOADED_CHESTS = 1024;
+
+    public UpgradeCommand(BetterEnderChest plugin) {
+        super(plugin);
+    }
+
+    @Override
+    public boolean execute(final CommandSender sender, String[] args) {
+        if (args.length != 0) {
+            return false;
+        }
+
+        if (!(plugin.getChestCache() instanceof SimpleEnderCache)
+                || ((SimpleEnderCache) plugin.getChestCache()).getChestLister() == null) {
+            sender.sendMessage(ChatColor.RED + "The chests of this storage type cannot be listed, so they cannot be upgraded all at once.");
+            return true;
+        }
+
+        final SimpleEnderCache cache = (SimpleEnderCache) plugin.getChestCache();
+        final List<WorldGroup> groups = plugin.getWorldGroupManager().getGroups();
+        sender.sendMessage(ChatColor.YELLOW + "Upgrading all chests, this may take a while...");
+        plugin.getExecutors().workerThreadExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final int checked = upgradeAll(cache, groups);
+                plugin.getExecutors().serverThreadExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (checked < 0) {
+                            sender.sendMessage(ChatColor.RED + "Failed to upgrade all chests, see the console for details.");
+                        } else {
+                            sender.sendMessage(ChatColor.GREEN + "Loaded " + checked
+                                    + " chests, outdated chests will be saved within a few seconds.");
+                        }
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public String getHelpText() {
+        return "upgrades all stored chests to the current Minecraft version";
+    }
+
+    @Override
+    public String getName() {
+        return "upgrade";
+    }
+
+    @Override
+    public String getUsage() {
+        return "";
+    }
+
+    /**
+     * Loads all chests. Blocks until all chests are loaded.
+     *
+     * @param cache
+     *            The cache to load the chests in.
+     * @param groups
+     *            The groups to load the chests of.
+     * @return The number of chests loaded, or -1 if not all chests could be
+     *         loaded.
+     */
+    private int upgradeAll(SimpleEnderCache cache, List<WorldGroup> groups) {
+        ChestLister chestLister = cache.getChestLister();
+        final Semaphore loads = new Semaphore(MAX_CONCURRENT_LOADS);
+        int checked = 0;
+        try {
+            for (WorldGroup group : groups) {
+                Collection<String> chests = chestLister.listChests(group);
+                for (String chest : chests) {
+                    ChestOwner chestOwner = plugin.getChestOwners().fromSaveFileName(chest);
+                    if (chestOwner == null) {
+                        plugin.debug("Skipping chest " + chest + " in group " + group.getGroupName()
+                                + ", not a valid owner");
+                        continue;
+                    }
+                    if (plugin.getChestCache() != cache || !plugin.canSaveAndLoad()) {
+                        plugin.warning("Upgrading chests was interrupted by a reload or an error");
+                        return -1;
+                    }
+
+                    // Give the autosave the time to unload the chests
+                    if (checked % CACHE_CHECK_INTERVAL == 0) {
+                        int maxLoaded = Cache.maxChests > 0 ? Math.min(Cache.maxChests, MAX_LOADED_CHESTS) : MAX_LOADED_CHESTS;
+                        while (cache.getStatistics().getLoadedChests() >= maxLoaded && plugin.getChestCache() == cache) {
+                            Thread.sleep(50);
+                        }
+                    }
+
+                    loads.acquire();
+                    ListenableFuture<Inventory> inventory;
+                    try {
+                        // Not used by anyone, so unloaded (and saved) again by
+                        // the next autosave
+                        inventory = cache.preloadInventory(chestOwner, group, 0);
+                    } catch (RuntimeException e) {
+                        loads.release();
+                        throw e;
+                    }
+                    inventory.addListener(new Runnable() {
+                        @Override
+                        public void run() {
+                            loads.release();
+                        }
+                    }, Runnable::run);
+                    checked++;
+                }
+            }
+
+            // Wait for the last loads
+            loads.acquire(MAX_CONCURRENT_LOADS);
+        } catch (IOException e) {
+            plugin.severe("Failed to list the stored chests", e);
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+        return checked;
+    }
+
+}
@@ -1,6 +1,8 @@
 package nl.rutgerkok.betterenderchest.eventhandler;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -20,6 +22,8 @@ import org.bukkit.event.inventory.InventoryOpenEvent;
 import org.bukkit.event.inventory.InventoryType;
 import org.bukkit.event.inventory.PrepareItemCraftEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.inventory.Inventory;
 
 import com.google.common.base.Preconditions;
@@ -40,10 +44,21 @@ import nl.rutgerkok.betterenderchest.nms.NMSHandler;
 public class BetterEnderEventHandler implements Listener {
     private BetterEnderCache chests;
     private BetterEnderChest plugin;
+    /**
+     * Vanilla Ender Chests of all online players. Inventory.equals and
+     * hashCode compare the underlying container, so a new wrapper returned by
+     * {@link Player#getEnderChest()} finds the same entry.
+     */
+    private final Map<Inventory, Player> vanillaEnderChestOwners = new HashMap<Inventory, Player>();
 
     public BetterEnderEventHandler(BetterEnderChest plugin) {
         this.plugin = plugin;
         chests = plugin.getChestCache();
+
+        // Players that are already online after a reload
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            vanillaEnderChestOwners.put(player.getEnderChest(), player);
+        }
     }
 
     /**
@@ -51,29 +66,14 @@ public class BetterEnderEventHandler implements Listener {
      *
      * @param inventory
      *            The inventory.
-     * @param guess
-     *            A guess which player it can be.
-     * @return The owner of the inventory, or the provided guess if there is no
-     *         online player that is the owner.
+     * @return The owner of the inventory, or null if there is no online player
+     *         that is the owner.
      */
-    private Player getVanillaEnderChestOwner(Inventory inventory, Player guess) {
+    private Player getVanillaEnderChestOwner(Inventory inventory) {
         Preconditions.checkArgument(inventory.getType() == InventoryType.ENDER_CHEST, "inventoryType must be ENDER_CHEST");
         // Unfortunality, inventory.getHolder() returns null, so we have to
-        // iterate over all the online players
-        // Because this can be a little expensive, we check the Ender Chest of
-        // the provided guess first
-
-        if (inventory.equals(guess.getEnderChest())) {
-            return guess;
-        }
-        for (Player player : Bukkit.getOnlinePlayers()) {
-            if (inventory.equals(player.getEnderChest())) {
-                return player;
-            }
-        }
-
-        // The Ender Chest is not of any online player
-        return guess;
+        // look up the owner in the index of online players
+        return vanillaEnderChestOwners.get(inventory);
     }
 
     // Change the drop and check if the chest can be broken
@@ -180,7 +180,11 @@ public class BetterEnderEventHandler implements Listener {
             } else {
                 // Get player's name
                 if (player.hasPermission("betterenderchest.user.open.privatechest")) {
-                    Player owner = getVanillaEnderChestOwner(event.getInventory(), player);
+                    Player owner = getVanillaEnderChestOwner(event.getInventory());
+                    if (owner == null) {
+                        // Not of any online player, assume it is the own chest
+                        owner = player;
+                    }
                     chestOwner = plugin.getChestOwners().playerChest(owner);
                 } else {
                     player.sendMessage("" + ChatColor.RED + Translations.NO_PERMISSION);
@@ -241,6 +245,18 @@ public class BetterEnderEventHandler implements Listener {
         }
     }
 
+    // Index the vanilla Ender Chest as soon as possible
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        vanillaEnderChestOwners.put(player.getEnderChest(), player);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        vanillaEnderChestOwners.remove(event.getPlayer().getEnderChest());
+    }
+
     /*
      * Blocks crafting of Ender Chest if necessary.
      */
@@ -8,9 +8,11 @@ import org.bukkit.Material;
 import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.InventoryAction;
 import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryDragEvent;
 import org.bukkit.event.inventory.InventoryType.SlotType;
 import org.bukkit.inventory.Inventory;
@@ -146,6 +148,7 @@ public class BetterEnderSlotsHandler implements Listener {
             if (itemsToAdd > 0) {
                 inSlot.setAmount(inSlot.getAmount() + itemsToAdd);
                 inventory.setItem(i, inSlot);
+                holder.markSlotChanged(i);
             }
 
             // Subtract that from the item to add
@@ -164,6 +167,7 @@ public class BetterEnderSlotsHandler implements Listener {
             if (inSlot == null || inSlot.getType().equals(Material.AIR)) {
                 // Found an empty slot, place the stack here
                 inventory.setItem(i, adding);
+                holder.markSlotChanged(i);
                 event.setCurrentItem(new ItemStack(Material.AIR, 0));
                 return;
             }
@@ -241,6 +245,57 @@ public class BetterEnderSlotsHandler implements Listener {
         }
     }
 
+    /*
+     * Marks the slots changed by the click, so that the autosave knows what to
+     * check. The shift click handler above marks its own changes, as it
+     * cancels the event.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryClickMonitor(InventoryClickEvent event) {
+        Inventory inventory = event.getInventory();
+        if (!(inventory.getHolder() instanceof BetterEnderInventoryHolder)) {
+            return;
+        }
+
+        BetterEnderInventoryHolder holder = BetterEnderInventoryHolder.of(inventory);
+        int rawSlot = event.getRawSlot();
+        boolean clickedInChest = rawSlot >= 0 && rawSlot < inventory.getSize();
+        switch (event.getAction()) {
+            case NOTHING:
+                return;
+            case COLLECT_TO_CURSOR:
+            case UNKNOWN:
+                // May take items from any slot
+                holder.markAllSlotsChanged();
+                return;
+            case MOVE_TO_OTHER_INVENTORY:
+                if (!clickedInChest) {
+                    // Items are moved into some free slots of the chest
+                    holder.markAllSlotsChanged();
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        if (clickedInChest) {
+            holder.markSlotChanged(rawSlot);
+        }
+    }
+
+    /*
+     * Items in disabled slots are dropped when the chest is closed, and other
+     * plugins may have changed the chest while it was open: compare the whole
+     * chest during the next autosave.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryCloseMonitor(InventoryCloseEvent event) {
+        InventoryHolder inventoryHolder = event.getInventory().getHolder();
+        if (inventoryHolder instanceof BetterEnderInventoryHolder) {
+            ((BetterEnderInventoryHolder) inventoryHolder).markAllSlotsChanged();
+        }
+    }
+
     @EventHandler(ignoreCancelled = true)
     public void onInventoryDrag(InventoryDragEvent event) {
         Inventory inventory = event.getInventory();
@@ -278,6 +333,21 @@ public class BetterEnderSlotsHandler implements Listener {
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryDragMonitor(InventoryDragEvent event) {
+        Inventory inventory = event.getInventory();
+        if (!(inventory.getHolder() instanceof BetterEnderInventoryHolder)) {
+            return;
+        }
+
+        BetterEnderInventoryHolder holder = BetterEnderInventoryHolder.of(inventory);
+        for (int rawSlot : event.getRawSlots()) {
+            if (rawSlot < inventory.getSize()) {
+                holder.markSlotChanged(rawSlot);
+            }
+        }
+    }
+
     private void sendInvalidItemMessage(HumanEntity humanEntity) {
         String message = Translations.ITEM_NOT_ALLOWED.toString();
         if (message.length() > 0) {
@@ -0,0 +1,104 @@
+package nl.rutgerkok.betterenderchest.eventhandler;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.BetterEnderChestPlugin.Preload;
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
+import nl.rutgerkok.betterenderchest.io.BetterEnderCache;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.inventory.Inventory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Starts loading the chest of a player before the player opens it, so that
+ * opening the chest for the first time is instant. Only does something if
+ * {@link Preload#enabled} is true.
+ *
+ * <p>
+ * Preloading is best-effort: if {@link Preload#maxConcurrentLoads} chests are
+ * already being preloaded, no more preloads are started. Preloaded chests that
+ * are never opened are unloaded after {@link Preload#keepLoadedSeconds}, even
+ * if the idle timeout of the cache is longer.
+ *
+ */
+public class ChestPreloader implements Listener {
+
+    private final AtomicInteger loadsInProgress = new AtomicInteger();
+    private final BetterEnderChest plugin;
+
+    public ChestPreloader(BetterEnderChest plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+
+        // We don't know the world of the player yet, so this only works if
+        // there is just one group
+        List<WorldGroup> groups = plugin.getWorldGroupManager().getGroups();
+        if (groups.size() != 1) {
+            return;
+        }
+        preload(plugin.getChestOwners().playerChest(event.getName(), event.getUniqueId()), groups.get(0));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        Player player = event.getPlayer();
+        WorldGroup from = plugin.getWorldGroupManager().getGroupByWorld(event.getFrom());
+        WorldGroup to = plugin.getWorldGroupManager().getGroupByWorld(player.getWorld());
+        if (!from.equals(to)) {
+            preload(plugin.getChestOwners().playerChest(player), to);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        preload(plugin.getChestOwners().playerChest(player), plugin.getWorldGroupManager().getGroupByWorld(player.getWorld()));
+    }
+
+    private void preload(ChestOwner chestOwner, WorldGroup worldGroup) {
+        if (!Preload.enabled || !plugin.canSaveAndLoad()) {
+            return;
+        }
+        BetterEnderCache cache = plugin.getChestCache();
+        if (cache == null) {
+            return; // Reloading
+        }
+
+        if (loadsInProgress.incrementAndGet() > Preload.maxConcurrentLoads) {
+            loadsInProgress.decrementAndGet();
+            plugin.debug("Not preloading chest of " + chestOwner.getDisplayName() + ", too many chests are being preloaded");
+            return;
+        }
+
+        ListenableFuture<Inventory> inventory;
+        try {
+            inventory = cache.preloadInventory(chestOwner, worldGroup, Preload.keepLoadedSeconds * 1000L);
+        } catch (RuntimeException e) {
+            loadsInProgress.decrementAndGet();
+            throw e;
+        }
+        inventory.addListener(new Runnable() {
+            @Override
+            public void run() {
+                loadsInProgress.decrementAndGet();
+            }
+        }, Runnable::run);
+    }
+}
@@ -0,0 +1,57 @@
+package nl.rutgerkok.betterenderchest.exception;
+
+import java.io.IOException;
+
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
+
+/**
+ * Thrown when a chest was not loaded because too many chests are waiting to be
+ * loaded. Unlike other IO errors, nothing is wrong with the disk or database,
+ * so loading the chest again later may work.
+ *
+ */
+public class ChestBusyException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ChestOwner chestOwner;
+    private final WorldGroup worldGroup;
+
+    /**
+     * Creates a new exception.
+     *
+     * @param chestOwner
+     *            The owner of the chest.
+     * @param worldGroup
+     *            The world group.
+     * @param cause
+     *            Why the chest was not loaded.
+     * @throws NullPointerException
+     *             If the chest owner or world group is null.
+     */
+    public ChestBusyException(ChestOwner chestOwner, WorldGroup worldGroup, Throwable cause) {
+        super(chestOwner.getDisplayName() + " in group " + worldGroup.getGroupName(), cause);
+        this.chestOwner = chestOwner;
+        this.worldGroup = worldGroup;
+    }
+
+    /**
+     * Gets the owner of the chest.
+     *
+     * @return The owner.
+     */
+    public ChestOwner getChestOwner() {
+        return chestOwner;
+    }
+
+    /**
+     * Gets the world group of the chest.
+     *
+     * @return The world group.
+     */
+    public WorldGroup getWorldGroup() {
+        return worldGroup;
+    }
+
+}
@@ -45,7 +45,7 @@ public class BetterEnderFlatFileImporter extends InventoryImporter {
 
     @Override
     public ListenableFuture<Inventory> importInventoryAsync(final ChestOwner chestOwner, final WorldGroup worldGroup, BetterEnderChest plugin) {
-        return plugin.getExecutors().workerThreadExecutor().submit(new Callable<Inventory>() {
+        return plugin.getExecutors().loadExecutor().submit(new Callable<Inventory>() {
             @Override
             public Inventory call() throws IOException {
                 return fileHandler.loadInventory(chestOwner, worldGroup);
@@ -9,14 +9,32 @@ import nl.rutgerkok.betterenderchest.BetterEnderChest;
 import nl.rutgerkok.betterenderchest.WorldGroup;
 import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
 import nl.rutgerkok.betterenderchest.io.mysql.SQLHandler;
+import nl.rutgerkok.betterenderchest.io.mysql.StoredChest;
 
 import org.bukkit.Bukkit;
 import org.bukkit.inventory.Inventory;
 
 public class BetterEnderMySQLImporter extends InventoryImporter {
-    private boolean connectionFailed = false;
+    private volatile boolean connectionFailed = false;
     private SQLHandler handler;
 
+    /**
+     * Gets the connection with the database, connecting when needed.
+     * Synchronized, as chests are imported on multiple load threads.
+     *
+     * @param plugin
+     *            The plugin.
+     * @return The connection.
+     * @throws SQLException
+     *             If connecting fails.
+     */
+    private synchronized SQLHandler getHandler(BetterEnderChest plugin) throws SQLException {
+        if (handler == null) {
+            handler = new SQLHandler(plugin.getDatabaseSettings());
+        }
+        return handler;
+    }
+
     @Override
     public String getName() {
         return "betterenderchest-mysqlnbt";
@@ -37,14 +55,10 @@ public class BetterEnderMySQLImporter extends InventoryImporter {
         }
 
         try {
-            if (handler == null) {
-                // Connect when needed
-                handler = new SQLHandler(plugin.getDatabaseSettings());
-            }
             // Load the chest
-            String rawJson = handler.loadChest(chestOwner, worldGroup);
-            if (rawJson != null) {
-                return plugin.getNMSHandlers().getSelectedRegistration().loadNBTInventoryFromJson(rawJson, chestOwner, worldGroup);
+            StoredChest storedChest = getHandler(plugin).loadChest(chestOwner, worldGroup);
+            if (storedChest != null) {
+                return storedChest.toInventory(plugin.getNMSHandlers().getSelectedRegistration(), chestOwner, worldGroup);
             } else {
                 // Nothing to import
                 return null;
@@ -70,4 +84,10 @@ public class BetterEnderMySQLImporter extends InventoryImporter {
         return true;
     }
 
+    @Override
+    protected boolean needsServerThread() {
+        // Only reads from the database
+        return false;
+    }
+
 }
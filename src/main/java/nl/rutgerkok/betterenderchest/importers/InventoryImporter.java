@@ -9,17 +9,34 @@ import nl.rutgerkok.betterenderchest.WorldGroup;
 import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
 import nl.rutgerkok.betterenderchest.exception.ChestNotFoundException;
 import nl.rutgerkok.betterenderchest.registry.Registration;
+import nl.rutgerkok.betterenderchest.util.BukkitExecutors;
+import nl.rutgerkok.betterenderchest.util.BukkitExecutors.BukkitExecutor;
 
 import org.bukkit.inventory.Inventory;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
 public abstract class InventoryImporter implements Registration {
 
+    /**
+     * Creates a failed future for when there is nothing to import.
+     *
+     * @param chestOwner
+     *            The owner of the inventory.
+     * @param worldGroup
+     *            The group the inventory is in.
+     * @return The failed future.
+     */
+    protected static ListenableFuture<Inventory> nothingToImport(ChestOwner chestOwner, WorldGroup worldGroup) {
+        return Futures.immediateFailedFuture(new ChestNotFoundException(chestOwner, worldGroup));
+    }
+
     /**
      * Imports an inventory from another plugin. Will only be called if
      * isAvailable() returns true. Will return null if there was nothing to
-     * import.
+     * import. Called on the server thread, unless {@link #needsServerThread()}
+     * returns false.
      * 
      * @param chestOwner
      *            The owner of the inventory.
@@ -52,8 +69,9 @@ public abstract class InventoryImporter implements Registration {
      */
     public ListenableFuture<Inventory> importInventoryAsync(final ChestOwner chestOwner, final WorldGroup worldGroup, final BetterEnderChest plugin) {
         // This method isn't overridden by a subclass, so fall back to the
-        // sync method on the server thread
-        return plugin.getExecutors().serverThreadExecutor().submit(new Callable<Inventory>() {
+        // sync method
+        BukkitExecutor executor = needsServerThread() ? plugin.getExecutors().serverThreadExecutor() : plugin.getExecutors().loadExecutor();
+        return executor.submit(new Callable<Inventory>() {
             @Override
             public Inventory call() throws Exception {
                 Inventory inventory = importInventory(chestOwner, worldGroup, plugin);
@@ -75,4 +93,21 @@ public abstract class InventoryImporter implements Registration {
      * @return The world groups.
      */
     public abstract Iterable<WorldGroup> importWorldGroups(BetterEnderChest plugin);
+
+    /**
+     * Gets whether {@link #importInventory(ChestOwner, WorldGroup, BetterEnderChest)}
+     * must be called on the server thread. Importers that only read files or
+     * databases, without using the state of the server or the other plugin,
+     * should return false, so that they don't block the server. Importers
+     * that need the server thread for only a small part of the work should
+     * override
+     * {@link #importInventoryAsync(ChestOwner, WorldGroup, BetterEnderChest)}
+     * instead, and do the rest of the work on
+     * {@link BukkitExecutors#loadExecutor()}.
+     *
+     * @return True if the server thread is needed, false otherwise.
+     */
+    protected boolean needsServerThread() {
+        return true;
+    }
 }
@@ -6,6 +6,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 
 import nl.rutgerkok.betterenderchest.BetterEnderChest;
 import nl.rutgerkok.betterenderchest.WorldGroup;
@@ -21,8 +22,32 @@ import uk.co.tggl.pluckerpluck.multiinv.MIYamlFiles;
 import uk.co.tggl.pluckerpluck.multiinv.inventory.MIEnderchestInventory;
 import uk.co.tggl.pluckerpluck.multiinv.inventory.MIItemStack;
 
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 public class MultiInvImporter extends InventoryImporter {
 
+    /**
+     * Where an Ender Chest is stored in MultiInv. Found on the server thread,
+     * so that the file or database can be read on a load thread.
+     */
+    private static final class StoredEnderChest {
+        /**
+         * File to read the chest from, or null if the chest is stored in the
+         * database of MultiInv.
+         */
+        private final File file;
+        private final String gameModeName;
+        private final String groupName;
+
+        private StoredEnderChest(String groupName, String gameModeName, File file) {
+            this.groupName = groupName;
+            this.gameModeName = gameModeName;
+            this.file = file;
+        }
+    }
+
     private WorldGroup createGroup(String groupName) {
         WorldGroup group = new WorldGroup(groupName);
         group.setInventoryImporter(this);
@@ -30,51 +55,24 @@ public class MultiInvImporter extends InventoryImporter {
     }
 
     /**
-     * Gets the case correct group, which is important on case sensitive file
-     * systems. MultiInv groups can either be real groups or just worlds names.
-     * We have to handle both cases.
-     * 
-     * @param groupName
-     *            Name that may not be correctly cased.
-     * @return Correctly cased name, or null no MultiInv group/world exists.
+     * Finds where the chest is stored. Must be called on the server thread,
+     * as it uses the state of MultiInv.
+     *
+     * @param chestOwner
+     *            The owner of the inventory.
+     * @param worldGroup
+     *            The group the inventory is in.
+     * @param plugin
+     *            The BetterEnderChest plugin.
+     * @return Where the chest is stored, or null if there is nothing to
+     *         import.
      */
-    private String getCaseCorrectGroup(String groupName) {
-        for (Entry<String, String> entry : MIYamlFiles.getGroups().entrySet()) {
-            String miGroupName = entry.getValue();
-            if (miGroupName.equalsIgnoreCase(groupName)) {
-                return miGroupName;
-            }
-        }
-
-        for (World world : Bukkit.getWorlds()) {
-            if (world.getName().equalsIgnoreCase(groupName)) {
-                return world.getName();
-            }
-        }
-
-        return null;
-    }
-
-    @Override
-    public String getName() {
-        return "multiinv";
-    }
-
-    @Override
-    public Priority getPriority() {
-        return Priority.NORMAL;
-    }
-
-    @Override
-    public Inventory importInventory(ChestOwner chestOwner, WorldGroup worldGroup, BetterEnderChest plugin) throws IOException {
+    private StoredEnderChest findEnderChest(ChestOwner chestOwner, WorldGroup worldGroup, BetterEnderChest plugin) {
         if (chestOwner.isSpecialChest()) {
             // Public chests and default chests cannot be imported.
             return null;
         }
 
-        // Soon an inventory!
-        Inventory betterInventory = plugin.getEmptyInventoryProvider().loadEmptyInventory(chestOwner, worldGroup);
-
         // Make groupName case-correct
         String groupName = getCaseCorrectGroup(worldGroup.getGroupName());
 
@@ -99,64 +97,84 @@ public class MultiInvImporter extends InventoryImporter {
         // Load from MultiInv Code is based on
         // https://github.com/Pluckerpluck/MultiInv/blob/ac45f24c5687ee571fd0a18fa0f23a1503f79b13/
         // src/uk/co/tggl/pluckerpluck/multiinv/listener/MIEnderChest.java#L72)
-        MIEnderchestInventory multiInvEnderInventory = null;
         if (MIYamlFiles.usesql) {
-            // Using SQL
-            multiInvEnderInventory = MIYamlFiles.con.getEnderchestInventory(chestOwner.getOfflinePlayer(), groupName, gameModeName);
-        } else {
-            // From a file
+            // Using SQL, read later
+            return new StoredEnderChest(groupName, gameModeName, null);
+        }
 
-            // Find and load configuration file for the player's enderchest
-            File multiInvDataFolder = Bukkit.getServer().getPluginManager().getPlugin("MultiInv").getDataFolder();
-            File multiInvWorldsFolder = new File(multiInvDataFolder, "UUIDGroups");
+        // From a file
+        File multiInvDataFolder = Bukkit.getServer().getPluginManager().getPlugin("MultiInv").getDataFolder();
+        File multiInvWorldsFolder = new File(multiInvDataFolder, "UUIDGroups");
+        File multiInvFile = new File(multiInvWorldsFolder, groupName + "/" + chestOwner.getSaveFileName() + ".ec.yml");
+        return new StoredEnderChest(groupName, gameModeName, multiInvFile);
+    }
 
-            // Get the save file
-            File multiInvFile = new File(multiInvWorldsFolder, groupName + "/" + chestOwner.getSaveFileName() + ".ec.yml");
-            if (!multiInvFile.exists()) {
-                // File doesn't exist
-                return null;
+    /**
+     * Gets the case correct group, which is important on case sensitive file
+     * systems. MultiInv groups can either be real groups or just worlds names.
+     * We have to handle both cases.
+     * 
+     * @param groupName
+     *            Name that may not be correctly cased.
+     * @return Correctly cased name, or null no MultiInv group/world exists.
+     */
+    private String getCaseCorrectGroup(String groupName) {
+        for (Entry<String, String> entry : MIYamlFiles.getGroups().entrySet()) {
+            String miGroupName = entry.getValue();
+            if (miGroupName.equalsIgnoreCase(groupName)) {
+                return miGroupName;
             }
+        }
 
-            // Load it
-            YamlConfiguration playerFile = new YamlConfiguration();
-
-            try {
-                playerFile.load(multiInvFile);
-            } catch (InvalidConfigurationException e) {
-                // Rethrow as IOException
-                throw new IOException("Cannot import from MultiInv: invalid chest file! (inventoryName: " + chestOwner.getDisplayName() + ", groupName:" + groupName + "");
-            }
-            String inventoryString = playerFile.getString(gameModeName, null);
-            if (inventoryString == null || inventoryString == "") {
-                // Nothing to return
-                return null;
+        for (World world : Bukkit.getWorlds()) {
+            if (world.getName().equalsIgnoreCase(groupName)) {
+                return world.getName();
             }
-            // Make an MultiInv EnderInventory out of that string.
-            multiInvEnderInventory = new MIEnderchestInventory(inventoryString);
         }
 
-        if (multiInvEnderInventory == null) {
-            // Nothing to return
-            return null;
-        }
+        return null;
+    }
 
-        MIItemStack[] inventoryContents = multiInvEnderInventory.getInventoryContents();
-        if (inventoryContents == null) {
-            // Nothing to return
+    @Override
+    public String getName() {
+        return "multiinv";
+    }
+
+    @Override
+    public Priority getPriority() {
+        return Priority.NORMAL;
+    }
+
+    @Override
+    public Inventory importInventory(ChestOwner chestOwner, WorldGroup worldGroup, BetterEnderChest plugin) throws IOException {
+        StoredEnderChest storedEnderChest = findEnderChest(chestOwner, worldGroup, plugin);
+        if (storedEnderChest == null) {
             return null;
         }
+        return readEnderChest(storedEnderChest, chestOwner, worldGroup, plugin);
+    }
 
-        // Add everything from multiInvEnderInventory to betterInventory
-        for (int i = 0; i < inventoryContents.length && i < betterInventory.getSize(); i++) {
-            MIItemStack stack = inventoryContents[i];
-            if (stack == null) {
-                continue;
+    /**
+     * Finds the chest on the server thread, then reads it on a load thread.
+     */
+    @Override
+    public ListenableFuture<Inventory> importInventoryAsync(final ChestOwner chestOwner, final WorldGroup worldGroup, final BetterEnderChest plugin) {
+        ListenableFuture<StoredEnderChest> found = plugin.getExecutors().serverThreadExecutor().submit(new Callable<StoredEnderChest>() {
+            @Override
+            public StoredEnderChest call() {
+                return findEnderChest(chestOwner, worldGroup, plugin);
             }
-            betterInventory.setItem(i, stack.getItemStack());
-        }
-
-        // Return it
-        return betterInventory;
+        });
+        return Futures.transformAsync(found, new AsyncFunction<StoredEnderChest, Inventory>() {
+            @Override
+            public ListenableFuture<Inventory> apply(StoredEnderChest storedEnderChest) throws IOException {
+                Inventory inventory = storedEnderChest == null ? null : readEnderChest(storedEnderChest, chestOwner, worldGroup, plugin);
+                if (inventory == null) {
+                    return nothingToImport(chestOwner, worldGroup);
+                }
+                return Futures.immediateFuture(inventory);
+            }
+        }, plugin.getExecutors().loadExecutor());
     }
 
     @Override
@@ -204,4 +222,75 @@ public class MultiInvImporter extends InventoryImporter {
         return false;
     }
 
+    /**
+     * Reads the chest from the file or the database of MultiInv. Can be called
+     * from any thread.
+     *
+     * @param storedEnderChest
+     *            Where the chest is stored.
+     * @param chestOwner
+     *            The owner of the inventory.
+     * @param worldGroup
+     *            The group the inventory is in.
+     * @param plugin
+     *            The BetterEnderChest plugin.
+     * @return The inventory, or null if there is nothing to import.
+     * @throws IOException
+     *             If the chest file is invalid.
+     */
+    private Inventory readEnderChest(StoredEnderChest storedEnderChest, ChestOwner chestOwner, WorldGroup worldGroup, BetterEnderChest plugin) throws IOException {
+        MIEnderchestInventory multiInvEnderInventory;
+        if (storedEnderChest.file == null) {
+            // Using SQL
+            multiInvEnderInventory = MIYamlFiles.con.getEnderchestInventory(chestOwner.getOfflinePlayer(), storedEnderChest.groupName, storedEnderChest.gameModeName);
+            if (multiInvEnderInventory == null) {
+                // Nothing to return
+                return null;
+            }
+        } else {
+            // Find and load configuration file for the player's enderchest
+            File multiInvFile = storedEnderChest.file;
+            if (!multiInvFile.exists()) {
+                // File doesn't exist
+                return null;
+            }
+
+            // Load it
+            YamlConfiguration playerFile = new YamlConfiguration();
+
+            try {
+                playerFile.load(multiInvFile);
+            } catch (InvalidConfigurationException e) {
+                // Rethrow as IOException
+                throw new IOException("Cannot import from MultiInv: invalid chest file! (inventoryName: " + chestOwner.getDisplayName() + ", groupName:" + storedEnderChest.groupName + "");
+            }
+            String inventoryString = playerFile.getString(storedEnderChest.gameModeName, null);
+            if (inventoryString == null || inventoryString == "") {
+                // Nothing to return
+                return null;
+            }
+            // Make an MultiInv EnderInventory out of that string.
+            multiInvEnderInventory = new MIEnderchestInventory(inventoryString);
+        }
+
+        MIItemStack[] inventoryContents = multiInvEnderInventory.getInventoryContents();
+        if (inventoryContents == null) {
+            // Nothing to return
+            return null;
+        }
+
+        // Add everything from multiInvEnderInventory to betterInventory
+        Inventory betterInventory = plugin.getEmptyInventoryProvider().loadEmptyInventory(chestOwner, worldGroup);
+        for (int i = 0; i < inventoryContents.length && i < betterInventory.getSize(); i++) {
+            MIItemStack stack = inventoryContents[i];
+            if (stack == null) {
+                continue;
+            }
+            betterInventory.setItem(i, stack.getItemStack());
+        }
+
+        // Return it
+        return betterInventory;
+    }
+
 }
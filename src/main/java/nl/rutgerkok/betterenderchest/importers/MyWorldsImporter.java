@@ -7,6 +7,7 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import nl.rutgerkok.betterenderchest.BetterEnderChest;
 import nl.rutgerkok.betterenderchest.BetterEnderUtils;
@@ -21,21 +22,25 @@ import com.bergerkiller.bukkit.mw.MyWorlds;
 import com.bergerkiller.bukkit.mw.WorldConfig;
 import com.bergerkiller.bukkit.mw.WorldConfigStore;
 import com.bergerkiller.bukkit.mw.WorldInventory;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 public class MyWorldsImporter extends InventoryImporter {
 
-    @Override
-    public String getName() {
-        return "myworlds";
-    }
-
-    @Override
-    public Priority getPriority() {
-        return Priority.NORMAL;
-    }
-
-    @Override
-    public Inventory importInventory(ChestOwner chestOwner, WorldGroup worldGroup, BetterEnderChest plugin) throws IOException {
+    /**
+     * Finds the player file in the folder of the matching MyWorlds group. Must
+     * be called on the server thread, as it uses the state of MyWorlds.
+     *
+     * @param chestOwner
+     *            The owner of the inventory.
+     * @param worldGroup
+     *            The group the inventory is in.
+     * @param plugin
+     *            The BetterEnderChest plugin.
+     * @return The player file, or null if there is nothing to import.
+     */
+    private File findPlayerFile(ChestOwner chestOwner, WorldGroup worldGroup, BetterEnderChest plugin) {
         if (chestOwner.isSpecialChest()) {
             // Unsupported, sorry
             return null;
@@ -66,18 +71,50 @@ public class MyWorldsImporter extends InventoryImporter {
 
         // Search for player file
         File playerFolder = worldToGrabInventoryFrom.getPlayerFolder();
-        File playerFile = new File(playerFolder, chestOwner.getSaveFileName() + ".dat");
-        if (!playerFile.exists()) {
-            // No player file
-            return null;
-        }
+        return new File(playerFolder, chestOwner.getSaveFileName() + ".dat");
+    }
 
-        // Load from file
-        Inventory inventory = plugin.getNMSHandlers().getSelectedRegistration().loadNBTInventoryFromFile(playerFile, chestOwner, worldGroup, "EnderItems");
-        if (BetterEnderUtils.isInventoryEmpty(inventory)) {
+    @Override
+    public String getName() {
+        return "myworlds";
+    }
+
+    @Override
+    public Priority getPriority() {
+        return Priority.NORMAL;
+    }
+
+    @Override
+    public Inventory importInventory(ChestOwner chestOwner, WorldGroup worldGroup, BetterEnderChest plugin) throws IOException {
+        File playerFile = findPlayerFile(chestOwner, worldGroup, plugin);
+        if (playerFile == null) {
             return null;
         }
-        return inventory;
+        return readPlayerFile(playerFile, chestOwner, worldGroup, plugin);
+    }
+
+    /**
+     * Finds the player file on the server thread, then reads it on a load
+     * thread.
+     */
+    @Override
+    public ListenableFuture<Inventory> importInventoryAsync(final ChestOwner chestOwner, final WorldGroup worldGroup, final BetterEnderChest plugin) {
+        ListenableFuture<File> playerFile = plugin.getExecutors().serverThreadExecutor().submit(new Callable<File>() {
+            @Override
+            public File call() {
+                return findPlayerFile(chestOwner, worldGroup, plugin);
+            }
+        });
+        return Futures.transformAsync(playerFile, new AsyncFunction<File, Inventory>() {
+            @Override
+            public ListenableFuture<Inventory> apply(File playerFile) throws IOException {
+                Inventory inventory = playerFile == null ? null : readPlayerFile(playerFile, chestOwner, worldGroup, plugin);
+                if (inventory == null) {
+                    return nothingToImport(chestOwner, worldGroup);
+                }
+                return Futures.immediateFuture(inventory);
+            }
+        }, plugin.getExecutors().loadExecutor());
     }
 
     @Override
@@ -126,4 +163,34 @@ public class MyWorldsImporter extends InventoryImporter {
         return (Bukkit.getServer().getPluginManager().getPlugin("My Worlds") != null);
     }
 
+    /**
+     * Reads the Ender Chest from the player file. Can be called from any
+     * thread.
+     *
+     * @param playerFile
+     *            The player file.
+     * @param chestOwner
+     *            The owner of the inventory.
+     * @param worldGroup
+     *            The group the inventory is in.
+     * @param plugin
+     *            The BetterEnderChest plugin.
+     * @return The inventory, or null if there is nothing to import.
+     * @throws IOException
+     *             If the file cannot be read.
+     */
+    private Inventory readPlayerFile(File playerFile, ChestOwner chestOwner, WorldGroup worldGroup, BetterEnderChest plugin) throws IOException {
+        if (!playerFile.exists()) {
+            // No player file
+            return null;
+        }
+
+        // Load from file
+        Inventory inventory = plugin.getNMSHandlers().getSelectedRegistration().loadNBTInventoryFromFile(playerFile, chestOwner, worldGroup, "EnderItems");
+        if (inventory == null || BetterEnderUtils.isInventoryEmpty(inventory)) {
+            return null;
+        }
+        return inventory;
+    }
+
 }
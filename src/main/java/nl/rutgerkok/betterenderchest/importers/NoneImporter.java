@@ -41,4 +41,9 @@ public class NoneImporter extends InventoryImporter {
         return true;
     }
 
+    @Override
+    protected boolean needsServerThread() {
+        return false;
+    }
+
 }
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.HashSet;
 import java.util.ListIterator;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import nl.rutgerkok.betterenderchest.BetterEnderChest;
 import nl.rutgerkok.betterenderchest.BetterEnderUtils;
@@ -16,8 +17,43 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 public class VanillaImporter extends InventoryImporter {
 
+    /**
+     * Copies the Ender Chest of an online player. Must be called on the server
+     * thread.
+     *
+     * @param player
+     *            The player.
+     * @param chestOwner
+     *            The owner of the inventory.
+     * @param worldGroup
+     *            The group the inventory is in.
+     * @param plugin
+     *            The BetterEnderChest plugin.
+     * @return The copy.
+     */
+    private Inventory copyEnderChest(Player player, ChestOwner chestOwner, WorldGroup worldGroup, BetterEnderChest plugin) {
+        Inventory vanillaInventory = player.getEnderChest();
+        int inventoryRows = plugin.getEmptyInventoryProvider().getInventoryRows(chestOwner, vanillaInventory);
+        Inventory betterEnderInventory = plugin.getEmptyInventoryProvider().loadEmptyInventory(chestOwner, worldGroup, inventoryRows);
+
+        // Copy all items
+        ListIterator<ItemStack> copyIterator = vanillaInventory.iterator();
+        while (copyIterator.hasNext()) {
+            int slot = copyIterator.nextIndex();
+            ItemStack stack = copyIterator.next();
+            if (slot < betterEnderInventory.getSize()) {
+                betterEnderInventory.setItem(slot, stack);
+            }
+        }
+        return betterEnderInventory;
+    }
+
     @Override
     public String getName() {
         return "vanilla";
@@ -38,47 +74,54 @@ public class VanillaImporter extends InventoryImporter {
         Player player = chestOwner.getPlayer();
         Inventory betterEnderInventory;
         if (player == null) {
-
             // Offline, load from file
-            File playerDirectory = new File(Bukkit.getWorlds().get(0).getWorldFolder().getAbsolutePath() + "/playerdata");
-
-            File playerFile = new File(playerDirectory.getAbsolutePath() + "/" + chestOwner.getSaveFileName() + ".dat");
-            if (!playerFile.exists()) {
-                return null;
-            }
-
-            // Load it from the file (mainworld/playerdata/playername.dat)
-            betterEnderInventory = plugin.getNMSHandlers().getSelectedRegistration().loadNBTInventoryFromFile(playerFile, chestOwner, worldGroup, "EnderItems");
-            if (betterEnderInventory == null) {
-                // Cannot load the inventory from that file, most likely because
-                // it is empty
-                return null;
-            }
+            betterEnderInventory = readPlayerFile(chestOwner, worldGroup, plugin);
         } else {
             // Online, load now
-            Inventory vanillaInventory = player.getEnderChest();
-            int inventoryRows = plugin.getEmptyInventoryProvider().getInventoryRows(chestOwner, vanillaInventory);
-            betterEnderInventory = plugin.getEmptyInventoryProvider().loadEmptyInventory(chestOwner, worldGroup, inventoryRows);
-
-            // Copy all items
-            ListIterator<ItemStack> copyIterator = vanillaInventory.iterator();
-            while (copyIterator.hasNext()) {
-                int slot = copyIterator.nextIndex();
-                ItemStack stack = copyIterator.next();
-                if (slot < betterEnderInventory.getSize()) {
-                    betterEnderInventory.setItem(slot, stack);
-                }
-            }
+            betterEnderInventory = copyEnderChest(player, chestOwner, worldGroup, plugin);
         }
+        return nullIfEmpty(betterEnderInventory);
+    }
 
-        // Check if the inventory is empty
-        if (BetterEnderUtils.isInventoryEmpty(betterEnderInventory)) {
-            // Empty inventory, return null
-            return null;
-        } else {
-            // Return the inventory
-            return betterEnderInventory;
+    /**
+     * Copies the Ender Chest on the server thread if the player is online,
+     * otherwise reads the player file on a load thread.
+     */
+    @Override
+    public ListenableFuture<Inventory> importInventoryAsync(final ChestOwner chestOwner, final WorldGroup worldGroup, final BetterEnderChest plugin) {
+        // Cannot import vanilla chests
+        if (chestOwner.isSpecialChest()) {
+            return nothingToImport(chestOwner, worldGroup);
         }
+
+        ListenableFuture<Player> onlinePlayer = plugin.getExecutors().serverThreadExecutor().submit(new Callable<Player>() {
+            @Override
+            public Player call() {
+                return chestOwner.getPlayer();
+            }
+        });
+        return Futures.transformAsync(onlinePlayer, new AsyncFunction<Player, Inventory>() {
+            @Override
+            public ListenableFuture<Inventory> apply(Player player) {
+                if (player != null) {
+                    // The file of an online player is outdated
+                    return toImportResult(copyEnderChest(player, chestOwner, worldGroup, plugin), chestOwner, worldGroup);
+                }
+
+                ListenableFuture<Inventory> fromFile = plugin.getExecutors().loadExecutor().submit(new Callable<Inventory>() {
+                    @Override
+                    public Inventory call() throws IOException {
+                        return readPlayerFile(chestOwner, worldGroup, plugin);
+                    }
+                });
+                return Futures.transformAsync(fromFile, new AsyncFunction<Inventory, Inventory>() {
+                    @Override
+                    public ListenableFuture<Inventory> apply(Inventory fileInventory) {
+                        return toImportResult(fileInventory, chestOwner, worldGroup);
+                    }
+                }, Runnable::run);
+            }
+        }, plugin.getExecutors().serverThreadExecutor());
     }
 
     @Override
@@ -97,4 +140,57 @@ public class VanillaImporter extends InventoryImporter {
         return true;
     }
 
+    private Inventory nullIfEmpty(Inventory inventory) {
+        if (inventory == null || BetterEnderUtils.isInventoryEmpty(inventory)) {
+            return null;
+        }
+        return inventory;
+    }
+
+    /**
+     * Reads the Ender Chest from the player file (mainworld/playerdata/uuid.dat).
+     * Can be called from any thread.
+     *
+     * @param chestOwner
+     *            The owner of the inventory.
+     * @param worldGroup
+     *            The group the inventory is in.
+     * @param plugin
+     *            The BetterEnderChest plugin.
+     * @return The inventory, or null if there is no player file.
+     * @throws IOException
+     *             If the file cannot be read.
+     */
+    private Inventory readPlayerFile(ChestOwner chestOwner, WorldGroup worldGroup, BetterEnderChest plugin) throws IOException {
+        File playerDirectory = new File(Bukkit.getWorlds().get(0).getWorldFolder().getAbsolutePath() + "/playerdata");
+
+        File playerFile = new File(playerDirectory.getAbsolutePath() + "/" + chestOwner.getSaveFileName() + ".dat");
+        if (!playerFile.exists()) {
+            return null;
+        }
+
+        // Returns null if the file cannot be loaded, most likely because
+        // it is empty
+        return plugin.getNMSHandlers().getSelectedRegistration().loadNBTInventoryFromFile(playerFile, chestOwner, worldGroup, "EnderItems");
+    }
+
+    /**
+     * Gets the result of an import.
+     *
+     * @param inventory
+     *            The imported inventory, may be null or empty.
+     * @param chestOwner
+     *            The owner of the inventory.
+     * @param worldGroup
+     *            The group the inventory is in.
+     * @return The inventory, or a failed future if there was nothing to import.
+     */
+    private ListenableFuture<Inventory> toImportResult(Inventory inventory, ChestOwner chestOwner, WorldGroup worldGroup) {
+        inventory = nullIfEmpty(inventory);
+        if (inventory == null) {
+            return nothingToImport(chestOwner, worldGroup);
+        }
+        return Futures.immediateFuture(inventory);
+    }
+
 }
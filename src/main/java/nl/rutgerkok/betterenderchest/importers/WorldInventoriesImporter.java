@@ -118,4 +118,10 @@ public class WorldInventoriesImporter extends InventoryImporter {
             return null;
         }
     }
+
+    @Override
+    protected boolean needsServerThread() {
+        // Only reads the files of WorldInventories
+        return false;
+    }
 }
@@ -56,6 +56,25 @@ public interface BetterEnderCache {
      */
     void getInventory(ChestOwner chestOwner, WorldGroup worldGroup, Consumer<Inventory> callback);
 
+    /**
+     * Starts loading an inventory that will probably be needed soon. Unlike
+     * {@link #getInventory(ChestOwner, WorldGroup)}, this doesn't count as
+     * using the inventory: if nobody uses the inventory within the given time,
+     * it may be unloaded again.
+     *
+     * @param chestOwner
+     *            Owner of the inventory.
+     * @param worldGroup
+     *            Group the inventory is in.
+     * @param keepLoadedMillis
+     *            How long the inventory should stay loaded if nobody uses it.
+     * @return The inventory. Holds an {@link IOException} if an IO error
+     *         occured.
+     */
+    default ListenableFuture<Inventory> preloadInventory(ChestOwner chestOwner, WorldGroup worldGroup, long keepLoadedMillis) {
+        return getInventory(chestOwner, worldGroup);
+    }
+
     /**
      * Sets the inventory in the cache, replacing the old inventory that may
      * have been in the cache.
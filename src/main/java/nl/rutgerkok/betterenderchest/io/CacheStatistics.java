@@ -0,0 +1,89 @@
+package nl.rutgerkok.betterenderchest.io;
+
+/**
+ * Statistics of the chest cache, since the cache was created.
+ *
+ */
+public final class CacheStatistics {
+    private final long evictions;
+    private final long hits;
+    private final int loadedChests;
+    private final long loadedSlots;
+    private final long misses;
+
+    public CacheStatistics(long hits, long misses, long evictions, int loadedChests, long loadedSlots) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.loadedChests = loadedChests;
+        this.loadedSlots = loadedSlots;
+    }
+
+    /**
+     * Gets the number of chests that were unloaded.
+     *
+     * @return The number of chests.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the fraction of requests for a chest that found the chest already
+     * loaded.
+     *
+     * @return The fraction, from 0 to 1. If there were no requests, 1 is
+     *         returned.
+     */
+    public double getHitRate() {
+        long requests = hits + misses;
+        if (requests == 0) {
+            return 1;
+        }
+        return (double) hits / requests;
+    }
+
+    /**
+     * Gets the number of requests for a chest that found the chest already
+     * loaded.
+     *
+     * @return The number of requests.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of chests that are currently loaded.
+     *
+     * @return The number of chests.
+     */
+    public int getLoadedChests() {
+        return loadedChests;
+    }
+
+    /**
+     * Gets the total number of slots of all loaded chests.
+     *
+     * @return The number of slots.
+     */
+    public long getLoadedSlots() {
+        return loadedSlots;
+    }
+
+    /**
+     * Gets the number of requests for a chest that needed to load the chest.
+     * Preloads are not counted.
+     *
+     * @return The number of requests.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public String toString() {
+        return loadedChests + " chests loaded (" + loadedSlots + " slots), " + hits + " hits, " + misses
+                + " misses (" + Math.round(getHitRate() * 100) + "% hit rate), " + evictions + " evictions";
+    }
+}
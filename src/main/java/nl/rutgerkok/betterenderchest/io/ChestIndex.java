@@ -0,0 +1,91 @@
+package nl.rutgerkok.betterenderchest.io;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
+
+/**
+ * Remembers which chests are stored, so that chests of new players can be
+ * created without asking the chest loader first.
+ *
+ * <p>
+ * The stored chests of a group are listed once using a {@link ChestLister}.
+ * Chests must be {@link #markSaved(SaveEntry) marked} before they are saved,
+ * so that a chest is never thought to be missing while it is stored. Until a
+ * group is listed, all chests of that group are assumed to exist. Can be used
+ * from any thread.
+ *
+ */
+final class ChestIndex {
+
+    private static String toKey(String saveFileName) {
+        // Case-insensitive, so that in doubt a chest is thought to exist
+        return saveFileName.toLowerCase(Locale.ROOT);
+    }
+
+    private final Set<WorldGroup> listedGroups = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<WorldGroup, Set<String>> storedChests = new ConcurrentHashMap<>();
+
+    private Set<String> getStoredChests(WorldGroup worldGroup) {
+        Set<String> chests = storedChests.get(worldGroup);
+        if (chests == null) {
+            chests = ConcurrentHashMap.newKeySet();
+            Set<String> existing = storedChests.putIfAbsent(worldGroup, chests);
+            if (existing != null) {
+                chests = existing;
+            }
+        }
+        return chests;
+    }
+
+    /**
+     * Gets whether the chest is known not to be stored.
+     *
+     * @param chestOwner
+     *            Owner of the chest.
+     * @param worldGroup
+     *            Group of the chest.
+     * @return True if the chest certainly doesn't exist, false if it exists
+     *         or if it is unknown.
+     */
+    boolean isKnownMissing(ChestOwner chestOwner, WorldGroup worldGroup) {
+        if (!listedGroups.contains(worldGroup)) {
+            return false;
+        }
+        return !getStoredChests(worldGroup).contains(toKey(chestOwner.getSaveFileName()));
+    }
+
+    /**
+     * Lists the stored chests of a group. Blocking method.
+     *
+     * @param lister
+     *            Lists the chests.
+     * @param worldGroup
+     *            The group.
+     * @throws IOException
+     *             If listing fails. The group is then not listed.
+     */
+    void list(ChestLister lister, WorldGroup worldGroup) throws IOException {
+        // Chests saved while listing are added to the same set
+        Set<String> chests = getStoredChests(worldGroup);
+        for (String chest : lister.listChests(worldGroup)) {
+            chests.add(toKey(chest));
+        }
+        listedGroups.add(worldGroup);
+    }
+
+    /**
+     * Marks a chest as stored. Must be called before the chest is saved.
+     *
+     * @param saveEntry
+     *            The chest.
+     */
+    void markSaved(SaveEntry saveEntry) {
+        getStoredChests(saveEntry.getWorldGroup()).add(toKey(saveEntry.getChestOwner().getSaveFileName()));
+    }
+}
@@ -0,0 +1,28 @@
+package nl.rutgerkok.betterenderchest.io;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
+
+/**
+ * Low-level interface to find out which Ender Chests are stored. Optionally
+ * implemented by {@link ChestLoader}s.
+ *
+ */
+public interface ChestLister {
+
+    /**
+     * Lists all chests stored for the given world group on the current
+     * thread. Blocking method.
+     *
+     * @param worldGroup
+     *            The world group.
+     * @return The {@link ChestOwner#getSaveFileName() save file names} of the
+     *         owners of the chests.
+     * @throws IOException
+     *             If the chests cannot be listed.
+     */
+    Collection<String> listChests(WorldGroup worldGroup) throws IOException;
+}
@@ -1,13 +1,17 @@
 package nl.rutgerkok.betterenderchest.io;
 
 import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 
 import nl.rutgerkok.betterenderchest.BetterEnderChest;
-import nl.rutgerkok.betterenderchest.BetterEnderUtils;
+import nl.rutgerkok.betterenderchest.BetterEnderInventoryHolder;
 import nl.rutgerkok.betterenderchest.WorldGroup;
 import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
+import nl.rutgerkok.betterenderchest.exception.ChestBusyException;
 import nl.rutgerkok.betterenderchest.exception.ChestNotFoundException;
 import nl.rutgerkok.betterenderchest.importers.InventoryImporter;
+import nl.rutgerkok.betterenderchest.metrics.Counter;
+import nl.rutgerkok.betterenderchest.metrics.LatencyHistogram;
 import nl.rutgerkok.betterenderchest.util.BukkitExecutors.BukkitExecutor;
 import nl.rutgerkok.betterenderchest.util.UpdateableFuture;
 
@@ -24,69 +28,162 @@ import com.google.common.util.concurrent.ListenableFuture;
  */
 final class ChestLoadLogic {
 
+    /**
+     * Which chests are stored, or null if unknown.
+     */
+    private final ChestIndex chestIndex;
     private final ChestLoader chestLoader;
     private final InventoryImporter importer;
-
     /**
-     * Fallback that loads the default chest instead.
+     * Time taken by the chest loader, including chests that were not found.
      */
-    private final AsyncFunction<Throwable, Inventory> loadDefaultOnChestNotFound = new AsyncFunction<Throwable, Inventory>() {
-
-        @Override
-        public ListenableFuture<Inventory> apply(Throwable t) throws IOException {
-            if (t instanceof ChestNotFoundException) {
-                ChestNotFoundException chestNotFound = (ChestNotFoundException) t;
-
-                ChestOwner chestOwner = chestNotFound.getChestOwner();
-                WorldGroup worldGroup = chestNotFound.getWorldGroup();
-                Inventory newInventory = plugin.getEmptyInventoryProvider().loadEmptyInventory(chestOwner, worldGroup);
-
-                // Fill new inventory with contents of default inventory
-                try {
-                    Inventory defaultInventory = chestLoader.loadInventory(plugin.getChestOwners().defaultChest(), worldGroup);
-                    BetterEnderUtils.copyContents(defaultInventory, newInventory, null);
-                } catch (ChestNotFoundException ignored) {
-                    // There's no default inventory, ignore
-                }
-
-                return Futures.immediateFuture(newInventory);
-            }
-
-            return Futures.immediateFailedFuture(t);
-        }
-    };
+    private final LatencyHistogram loadTime;
 
     private final BetterEnderChest plugin;
+    /**
+     * Chests that were not read, because the index knew they didn't exist.
+     */
+    private final Counter skippedLoads;
 
-    public ChestLoadLogic(BetterEnderChest plugin, ChestLoader chestLoader) {
+    /**
+     * Creates the load logic.
+     *
+     * @param plugin
+     *            The plugin.
+     * @param chestLoader
+     *            The chest loader.
+     * @param chestIndex
+     *            Which chests are stored, may be null. Chests that are known
+     *            to be missing are not read from the chest loader.
+     */
+    public ChestLoadLogic(BetterEnderChest plugin, ChestLoader chestLoader, ChestIndex chestIndex) {
         this.plugin = Preconditions.checkNotNull(plugin, "plugin");
         this.chestLoader = Preconditions.checkNotNull(chestLoader, "chestLoader");
+        this.chestIndex = chestIndex;
 
         this.importer = plugin.getInventoryImporters().getSelectedRegistration();
+        this.loadTime = plugin.getMetrics().histogram("betterenderchest_load_seconds",
+                "Time taken to read one chest from the backend", "backend", chestLoader.getClass().getSimpleName());
+        this.skippedLoads = plugin.getMetrics().counter("betterenderchest_skipped_loads_total",
+                "Chests of new players that were created without reading the backend");
     }
 
-    public ListenableFuture<Inventory> loadInventory(final ChestOwner chestOwner, final WorldGroup worldGroup) {
-        final UpdateableFuture<Inventory> inventory = UpdateableFuture.create();
-        final BukkitExecutor worker = plugin.getExecutors().workerThreadExecutor();
-        worker.execute(new Runnable() {
+    /**
+     * Creates the chest using the importer, or else using the default chest.
+     *
+     * @param chestOwner
+     *            Owner of the chest.
+     * @param worldGroup
+     *            Group of the chest.
+     * @param preload
+     *            Whether the chest is preloaded, see
+     *            {@link #loadInventory(ChestOwner, WorldGroup, boolean)}.
+     * @return The chest.
+     */
+    private ListenableFuture<Inventory> importOrCreate(final ChestOwner chestOwner, final WorldGroup worldGroup,
+            boolean preload) {
+        ListenableFuture<Inventory> imported = importer.importInventoryAsync(chestOwner, worldGroup, plugin);
+        ListenableFuture<Inventory> created = Futures.catchingAsync(imported, Throwable.class,
+                loadDefaultOnChestNotFound(preload), plugin.getExecutors().loadExecutor());
+        return Futures.catchingAsync(created, RejectedExecutionException.class,
+                new AsyncFunction<RejectedExecutionException, Inventory>() {
+                    @Override
+                    public ListenableFuture<Inventory> apply(RejectedExecutionException e) {
+                        // The load threads are busy, the chest isn't broken
+                        return Futures.immediateFailedFuture(new ChestBusyException(chestOwner, worldGroup, e));
+                    }
+                }, Runnable::run);
+    }
+
+    /**
+     * Gets the fallback that creates the chest from the default chest if the
+     * chest was not found.
+     *
+     * @param preload
+     *            Whether the chest is preloaded, see
+     *            {@link #loadInventory(ChestOwner, WorldGroup, boolean)}.
+     * @return The fallback.
+     */
+    private AsyncFunction<Throwable, Inventory> loadDefaultOnChestNotFound(final boolean preload) {
+        return new AsyncFunction<Throwable, Inventory>() {
 
             @Override
-            public void run() {
-                try {
-                    inventory.set(chestLoader.loadInventory(chestOwner, worldGroup));
-                } catch (ChestNotFoundException e) {
-                    // Use importer and default chest as fallbacks
-                    ListenableFuture<Inventory> imported = importer.importInventoryAsync(chestOwner, worldGroup, plugin);
-                    ListenableFuture<Inventory> importedOrDefault = Futures.catchingAsync(imported, Throwable.class,
-                            loadDefaultOnChestNotFound, worker);
-                    inventory.updateUsing(importedOrDefault);
-                } catch (IOException e) {
-                    // IO error
-                    inventory.setException(e);
+            public ListenableFuture<Inventory> apply(Throwable t) throws IOException {
+                if (t instanceof ChestNotFoundException) {
+                    ChestNotFoundException chestNotFound = (ChestNotFoundException) t;
+
+                    ChestOwner chestOwner = chestNotFound.getChestOwner();
+                    WorldGroup worldGroup = chestNotFound.getWorldGroup();
+                    Inventory newInventory = plugin.getEmptyInventoryProvider().loadEmptyInventory(chestOwner, worldGroup);
+
+                    // Fill new inventory with contents of default inventory
+                    plugin.getEmptyInventoryProvider().getDefaultChest(worldGroup, chestLoader).copyTo(newInventory);
+
+                    if (preload) {
+                        // Nobody asked for this chest yet, so it only needs
+                        // to be saved once it is changed
+                        BetterEnderInventoryHolder.of(newInventory).markContentsAsSaved(newInventory.getContents());
+                    }
+                    return Futures.immediateFuture(newInventory);
                 }
+
+                return Futures.immediateFailedFuture(t);
             }
+        };
+    }
 
-        });
+    /**
+     * Loads a chest on a load thread. If the chest doesn't exist, it is
+     * imported or created from the default chest.
+     *
+     * @param chestOwner
+     *            Owner of the chest.
+     * @param worldGroup
+     *            Group of the chest.
+     * @param preload
+     *            True if the chest is preloaded, so nobody is using it yet.
+     *            Chests created from the default chest are then marked as
+     *            saved, so that players who never use their chest don't get
+     *            a chest file or row.
+     * @return The chest.
+     */
+    public ListenableFuture<Inventory> loadInventory(final ChestOwner chestOwner, final WorldGroup worldGroup,
+            final boolean preload) {
+        final UpdateableFuture<Inventory> inventory = UpdateableFuture.create();
+        final BukkitExecutor loader = plugin.getExecutors().loadExecutor();
+        try {
+            loader.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (chestIndex != null && chestIndex.isKnownMissing(chestOwner, worldGroup)) {
+                        skippedLoads.increment();
+                        inventory.updateUsing(importOrCreate(chestOwner, worldGroup, preload));
+                        return;
+                    }
+
+                    long startTime = System.nanoTime();
+                    try {
+                        Inventory loaded = chestLoader.loadInventory(chestOwner, worldGroup);
+                        loadTime.recordSince(startTime);
+                        inventory.set(loaded);
+                    } catch (ChestNotFoundException e) {
+                        loadTime.recordSince(startTime);
+
+                        // Use importer and default chest as fallbacks
+                        inventory.updateUsing(importOrCreate(chestOwner, worldGroup, preload));
+                    } catch (IOException e) {
+                        // IO error
+                        loadTime.recordSince(startTime);
+                        inventory.setException(e);
+                    }
+                }
+
+            });
+        } catch (RejectedExecutionException e) {
+            // Too many chests are waiting to be loaded
+            inventory.setException(new ChestBusyException(chestOwner, worldGroup, e));
+        }
         return inventory;
     }
 
@@ -0,0 +1,333 @@
+package nl.rutgerkok.betterenderchest.io;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
+import nl.rutgerkok.betterenderchest.exception.ChestNotFoundException;
+
+import org.bukkit.inventory.Inventory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Copies all chests from another storage to the storage of a cache, for
+ * example from files to a database. Unlike the importers, which copy a chest
+ * when its owner opens it, all chests are copied at once.
+ *
+ * <ul>
+ * <li>Chests are read by a pool of reader threads and written in batches by
+ * the thread calling {@link #run(List)}, using
+ * {@link ChestSaver#saveChests(List)}.</li>
+ * <li>Chests that already exist in the target storage are never overwritten.
+ * Chests that are loaded in the cache are skipped too, the cache will save
+ * them.</li>
+ * <li>Every written batch is appended to a checkpoint file. If the migration
+ * is stopped, the next migration skips the chests in the checkpoint
+ * file.</li>
+ * </ul>
+ *
+ */
+public final class ChestMigration {
+
+    /**
+     * How often the progress is logged.
+     */
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private volatile boolean aborted;
+    private final int batchSize;
+    private final File checkpointFile;
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger migrated = new AtomicInteger();
+    private final BetterEnderChest plugin;
+    private final int readerThreads;
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final ChestLister sourceLister;
+    private final ChestLoader sourceLoader;
+    private final SimpleEnderCache target;
+
+    /**
+     * Creates a new migration. Call {@link #run(List)} to start it.
+     *
+     * @param plugin
+     *            The plugin.
+     * @param sourceLoader
+     *            Reads the chests that are migrated.
+     * @param sourceLister
+     *            Lists the chests that are migrated.
+     * @param target
+     *            The cache, the chests are written to its storage.
+     * @param checkpointFile
+     *            File to store the progress in. May already exist, if a
+     *            previous migration was stopped.
+     * @param readerThreads
+     *            Number of threads that read chests.
+     * @param batchSize
+     *            Maximum number of chests that is written at once.
+     */
+    public ChestMigration(BetterEnderChest plugin, ChestLoader sourceLoader, ChestLister sourceLister,
+            SimpleEnderCache target, File checkpointFile, int readerThreads, int batchSize) {
+        this.plugin = Preconditions.checkNotNull(plugin, "plugin");
+        this.sourceLoader = Preconditions.checkNotNull(sourceLoader, "sourceLoader");
+        this.sourceLister = Preconditions.checkNotNull(sourceLister, "sourceLister");
+        this.target = Preconditions.checkNotNull(target, "target");
+        this.checkpointFile = Preconditions.checkNotNull(checkpointFile, "checkpointFile");
+        Preconditions.checkArgument(readerThreads > 0, "readerThreads must be positive");
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+        this.readerThreads = readerThreads;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets the number of chests that could not be read or written. They are
+     * not in the checkpoint file, so the next migration tries them again.
+     *
+     * @return The number of chests.
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Gets the number of chests written to the target storage.
+     *
+     * @return The number of chests.
+     */
+    public int getMigrated() {
+        return migrated.get();
+    }
+
+    /**
+     * Gets the number of chests that were not written because they were
+     * already migrated, already exist in the target storage, were loaded in
+     * the cache or don't exist anymore.
+     *
+     * @return The number of chests.
+     */
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    private String getCheckpointKey(WorldGroup group, String chest) {
+        return group.getGroupName() + "/" + chest;
+    }
+
+    private boolean isStopped() {
+        if (plugin.getChestCache() != target || !plugin.canSaveAndLoad()) {
+            // Reloaded, or saving is disabled because of an error
+            aborted = true;
+        }
+        return aborted;
+    }
+
+    private void logProgress(String groupName, int done, int total, long startTime) {
+        double seconds = (System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1);
+        long perSecond = seconds > 0 ? Math.round(migrated.get() / seconds) : 0;
+        plugin.log("Migrating chests of group " + groupName + ": " + done + "/" + total + " done, "
+                + migrated.get() + " migrated in total (" + perSecond + " chests/s)");
+    }
+
+    private boolean migrateGroup(final WorldGroup group, Set<String> checkpoint, BufferedWriter checkpointWriter)
+            throws IOException, InterruptedException {
+        final List<String> chests = new ArrayList<>();
+        Collection<String> existing = Collections.emptySet();
+        ChestLister targetLister = target.getChestLister();
+        if (targetLister != null) {
+            existing = new HashSet<>(targetLister.listChests(group));
+        }
+        for (String chest : sourceLister.listChests(group)) {
+            if (checkpoint.contains(getCheckpointKey(group, chest)) || existing.contains(chest)) {
+                skipped.incrementAndGet();
+            } else {
+                chests.add(chest);
+            }
+        }
+        if (chests.isEmpty()) {
+            return true;
+        }
+
+        final BlockingQueue<SaveEntry> queue = new ArrayBlockingQueue<>(batchSize * 2);
+        final AtomicInteger nextChest = new AtomicInteger();
+        final AtomicInteger readersRunning = new AtomicInteger(readerThreads);
+        ExecutorService readers = Executors.newFixedThreadPool(readerThreads, new ThreadFactoryBuilder()
+                .setNameFormat(plugin.getPlugin().getName() + "-migrate-%d").setDaemon(true).build());
+        try {
+            for (int i = 0; i < readerThreads; i++) {
+                readers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            int index;
+                            while (!aborted && (index = nextChest.getAndIncrement()) < chests.size()) {
+                                SaveEntry saveEntry = readChest(group, chests.get(index));
+                                if (saveEntry == null) {
+                                    continue;
+                                }
+                                // Wait if the writer is behind
+                                while (!queue.offer(saveEntry, 100, TimeUnit.MILLISECONDS)) {
+                                    if (aborted) {
+                                        return;
+                                    }
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            aborted = true;
+                        } finally {
+                            readersRunning.decrementAndGet();
+                        }
+                    }
+                });
+            }
+
+            // Write the chests on this thread
+            long startTime = System.nanoTime();
+            long lastProgress = startTime;
+            List<SaveEntry> batch = new ArrayList<>(batchSize);
+            while (true) {
+                if (isStopped()) {
+                    return false;
+                }
+
+                // Check for readers before polling, so that no chest is missed
+                boolean readersDone = readersRunning.get() == 0;
+                SaveEntry saveEntry = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (saveEntry != null) {
+                    batch.add(saveEntry);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+                boolean allRead = readersDone && saveEntry == null;
+                if (batch.size() >= batchSize || (!batch.isEmpty() && (saveEntry == null || allRead))) {
+                    writeBatch(batch, checkpointWriter);
+                    batch.clear();
+                }
+
+                long now = System.nanoTime();
+                if (now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                    lastProgress = now;
+                    logProgress(group.getGroupName(), Math.min(nextChest.get(), chests.size()), chests.size(), startTime);
+                }
+                if (allRead && batch.isEmpty()) {
+                    return true;
+                }
+            }
+        } finally {
+            if (readersRunning.get() != 0) {
+                // Stopped by an error, make the readers stop too
+                aborted = true;
+            }
+            readers.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads a chest from the source storage. Errors are logged.
+     *
+     * @param group
+     *            Group of the chest.
+     * @param chest
+     *            Save file name of the chest.
+     * @return The chest, or null if the chest was not read.
+     */
+    private SaveEntry readChest(WorldGroup group, String chest) {
+        ChestOwner chestOwner = plugin.getChestOwners().fromSaveFileName(chest);
+        if (chestOwner == null) {
+            plugin.debug("Skipping chest " + chest + " in group " + group.getGroupName() + ", not a valid owner");
+            skipped.incrementAndGet();
+            return null;
+        }
+        try {
+            Inventory inventory = sourceLoader.loadInventory(chestOwner, group);
+            return SaveEntry.copyOf(inventory);
+        } catch (ChestNotFoundException e) {
+            // Removed since it was listed
+            skipped.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            plugin.severe("Failed to read chest " + chest + " in group " + group.getGroupName() + " for migration", e);
+            failed.incrementAndGet();
+        }
+        return null;
+    }
+
+    private Set<String> readCheckpoint() throws IOException {
+        Set<String> checkpoint = new HashSet<>();
+        if (checkpointFile.exists()) {
+            checkpoint.addAll(Files.readAllLines(checkpointFile.toPath(), StandardCharsets.UTF_8));
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Copies all chests of the given groups. Blocks until all chests are
+     * copied, so this method must not be called on the server thread.
+     *
+     * @param groups
+     *            The groups.
+     * @return True if all chests were tried, false if the migration was
+     *         stopped by a reload or because saving was disabled.
+     * @throws IOException
+     *             If the chests cannot be listed, or if the checkpoint file
+     *             cannot be read or written.
+     * @throws InterruptedException
+     *             If the thread was interrupted.
+     */
+    public boolean run(List<WorldGroup> groups) throws IOException, InterruptedException {
+        Set<String> checkpoint = readCheckpoint();
+        if (!checkpoint.isEmpty()) {
+            plugin.log("Resuming migration, " + checkpoint.size() + " chests were already migrated");
+        }
+
+        try (BufferedWriter checkpointWriter = Files.newBufferedWriter(checkpointFile.toPath(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (WorldGroup group : groups) {
+                if (!migrateGroup(group, checkpoint, checkpointWriter)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void writeBatch(List<SaveEntry> batch, BufferedWriter checkpointWriter) throws IOException {
+        // Chests in use were already imported or created by the cache
+        List<SaveEntry> inUse = new ArrayList<>();
+        Map<SaveEntry, IOException> failures = target.saveUnloadedChests(batch, inUse);
+        skipped.addAndGet(inUse.size());
+        for (SaveEntry saveEntry : batch) {
+            if (inUse.contains(saveEntry)) {
+                continue;
+            }
+            IOException failure = failures.get(saveEntry);
+            if (failure != null) {
+                plugin.severe("Failed to write chest of " + saveEntry.getChestOwner().getDisplayName() + " in group "
+                        + saveEntry.getWorldGroup().getGroupName() + " for migration", failure);
+                failed.incrementAndGet();
+                continue;
+            }
+            migrated.incrementAndGet();
+            checkpointWriter.write(getCheckpointKey(saveEntry.getWorldGroup(), saveEntry.getChestOwner().getSaveFileName()));
+            checkpointWriter.newLine();
+        }
+        checkpointWriter.flush();
+    }
+}
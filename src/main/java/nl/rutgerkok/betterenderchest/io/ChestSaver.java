@@ -1,6 +1,9 @@
 package nl.rutgerkok.betterenderchest.io;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Low-level interface for saving chests.
@@ -17,4 +20,26 @@ public interface ChestSaver {
      *             When an IO error occurs.
      */
     void saveChest(SaveEntry saveEntry) throws IOException;
+
+    /**
+     * Saves multiple chests on the current thread. The default implementation
+     * just calls {@link #saveChest(SaveEntry)} for each chest, but savers can
+     * override this method to write all chests at once.
+     *
+     * @param saveEntries
+     *            The chests to save.
+     * @return The chests that failed to save, together with the reason. The
+     *         map is empty if all chests were saved.
+     */
+    default Map<SaveEntry, IOException> saveChests(List<SaveEntry> saveEntries) {
+        Map<SaveEntry, IOException> failures = new HashMap<>();
+        for (SaveEntry saveEntry : saveEntries) {
+            try {
+                saveChest(saveEntry);
+            } catch (IOException e) {
+                failures.put(saveEntry, e);
+            }
+        }
+        return failures;
+    }
 }
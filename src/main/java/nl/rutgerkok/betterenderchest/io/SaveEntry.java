@@ -9,6 +9,7 @@ import org.bukkit.inventory.ItemStack;
 
 import nl.rutgerkok.betterenderchest.BetterEnderInventoryHolder;
 import nl.rutgerkok.betterenderchest.ChestRestrictions;
+import nl.rutgerkok.betterenderchest.ChestSnapshot;
 import nl.rutgerkok.betterenderchest.WorldGroup;
 import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
 
@@ -29,6 +30,24 @@ public final class SaveEntry {
         BetterEnderInventoryHolder holder = BetterEnderInventoryHolder.of(inventory);
         return new SaveEntry(holder.getChestOwner(), holder.getWorldGroup(), holder.getChestRestrictions(), inventory.getContents());
     }
+
+    /**
+     * Creates a new save entry for a snapshot of a chest. The stacks of the
+     * snapshot are never modified, so unlike the other methods this method
+     * doesn't copy them.
+     *
+     * @param holder
+     *            Holder of the chest.
+     * @param snapshot
+     *            The snapshot, taken using
+     *            {@link BetterEnderInventoryHolder#takeSnapshot(Inventory, boolean)}.
+     * @return The save entry.
+     */
+    public static SaveEntry of(BetterEnderInventoryHolder holder, ChestSnapshot snapshot) {
+        return new SaveEntry(snapshot.getContents(), holder.getChestOwner(), holder.getWorldGroup(),
+                holder.getChestRestrictions());
+    }
+
     private final ChestOwner chestOwner;
     private final ChestRestrictions chestRestrictions;
     private final WorldGroup group;
@@ -60,6 +79,13 @@ public final class SaveEntry {
         }
     }
 
+    private SaveEntry(ItemStack[] stacks, ChestOwner owner, WorldGroup group, ChestRestrictions restrictions) {
+        this.chestOwner = Objects.requireNonNull(owner, "owner");
+        this.group = Objects.requireNonNull(group, "group");
+        this.chestRestrictions = Objects.requireNonNull(restrictions, "restrictions");
+        this.stacks = stacks;
+    }
+
     public ChestOwner getChestOwner() {
         return chestOwner;
     }
@@ -1,30 +1,52 @@
 package nl.rutgerkok.betterenderchest.io;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 
-import org.bukkit.entity.HumanEntity;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.scheduler.BukkitTask;
 
 import com.google.common.base.Function;
-import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.AbstractFuture;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 import nl.rutgerkok.betterenderchest.BetterEnderChest;
 import nl.rutgerkok.betterenderchest.BetterEnderChestPlugin.AutoSave;
+import nl.rutgerkok.betterenderchest.BetterEnderChestPlugin.Cache;
+import nl.rutgerkok.betterenderchest.BetterEnderChestPlugin.ChestIndexing;
 import nl.rutgerkok.betterenderchest.BetterEnderInventoryHolder;
+import nl.rutgerkok.betterenderchest.ChestRestrictions;
+import nl.rutgerkok.betterenderchest.ChestSnapshot;
+import nl.rutgerkok.betterenderchest.EmptyInventoryProvider;
 import nl.rutgerkok.betterenderchest.WorldGroup;
 import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
+import nl.rutgerkok.betterenderchest.exception.ChestBusyException;
 import nl.rutgerkok.betterenderchest.exception.ChestNotFoundException;
+import nl.rutgerkok.betterenderchest.metrics.Counter;
+import nl.rutgerkok.betterenderchest.metrics.LatencyHistogram;
+import nl.rutgerkok.betterenderchest.metrics.Metrics;
 
 /**
  * Simple implementation of {@link BetterEnderCache}. You need to provide a
@@ -36,6 +58,13 @@ import nl.rutgerkok.betterenderchest.exception.ChestNotFoundException;
  * the same inventory, the changes made by one of them will be lost.
  * </p>
  *
+ * <p>
+ * Chests are unloaded by the autosave once nobody has used them for
+ * {@link Cache#idleSeconds}, or earlier if the cache holds more than
+ * {@link Cache#maxChests} chests or {@link Cache#maxSlots} slots. Chests that
+ * are being viewed, or that could not be saved, are never unloaded.
+ * </p>
+ *
  */
 public class SimpleEnderCache implements BetterEnderCache {
 
@@ -84,33 +113,242 @@ public class SimpleEnderCache implements BetterEnderCache {
         }
     }
 
+    /**
+     * Placed in {@link SimpleEnderCache#loadingInventories} while a chest that
+     * isn't loaded is written by
+     * {@link SimpleEnderCache#saveUnloadedChests(List, List)}. Callers asking
+     * for the chest wait for the write, and then load the chest.
+     *
+     */
+    private static final class SaveReservation extends AbstractFuture<Inventory> {
+        private void release() {
+            set(null);
+        }
+    }
+
+    /**
+     * A loaded chest, along with the information needed to decide when it can
+     * be unloaded.
+     *
+     */
+    private static final class CacheEntry {
+
+        private final ChestKey chestKey;
+        /**
+         * Whether the chest had slots marked as changed during the last
+         * autosave run. Only accessed from the server thread.
+         */
+        private boolean dirty;
+        /**
+         * The {@link System#nanoTime()} at which the chest was first seen with
+         * slots marked as changed. Only accessed from the server thread.
+         */
+        private long dirtySince;
+        private final Inventory inventory;
+        /**
+         * The {@link System#nanoTime()} of the last time the chest was used.
+         */
+        private volatile long lastAccess;
+        /**
+         * The {@link System#nanoTime()} until which the chest is never
+         * unloaded, used for preloaded chests.
+         */
+        private volatile long keepUntil;
+        /**
+         * Whether the chest was used at least once. Preloaded chests that are
+         * never used are unloaded without waiting for the idle timeout.
+         */
+        private volatile boolean used;
+
+        CacheEntry(ChestKey chestKey, Inventory inventory, long now, long keepUntil, boolean used) {
+            this.chestKey = chestKey;
+            this.inventory = inventory;
+            this.lastAccess = now;
+            this.keepUntil = keepUntil;
+            this.used = used;
+        }
+
+        boolean isIdle(long now, long idleNanos) {
+            if (now - keepUntil < 0) {
+                return false;
+            }
+            return !used || now - lastAccess >= idleNanos;
+        }
+
+        void markUsed(long now) {
+            used = true;
+            lastAccess = now;
+            keepUntil = now;
+        }
+    }
+
     private final BukkitTask autoSaveTask;
+    /**
+     * Which chests are stored, or null if not indexing chests.
+     */
+    private final ChestIndex chestIndex;
+    private final ChestLister chestLister;
     private final ChestLoadLogic chestLoader;
+    /**
+     * The chest saver, wrapped by {@link #wrapSaver(ChestSaver)}.
+     */
     private final ChestSaver chestSaver;
-    private final ConcurrentMap<ChestKey, Inventory> inventories;
+    /**
+     * Time taken to compare a snapshot to the saved contents.
+     */
+    private final LatencyHistogram checksumTime;
+    private final LongAdder evictions = new LongAdder();
+    /**
+     * Part of the cache that is compared to the saved contents during this
+     * autosave run, see {@link #autoSaveRun()}. Only accessed from the server
+     * thread.
+     */
+    private int fullCheckSlot;
+    private final LongAdder hits = new LongAdder();
+    private final ConcurrentMap<ChestKey, CacheEntry> inventories;
+    /**
+     * Chests that are currently being loaded. Callers asking for a chest that
+     * is being loaded share the same future, so that each chest is only read
+     * once.
+     */
+    private final ConcurrentMap<ChestKey, ListenableFuture<Inventory>> loadingInventories = new ConcurrentHashMap<>();
+    private final LongAdder misses = new LongAdder();
+    /**
+     * Set while the chests of an autosave run are being saved, so that runs
+     * never overlap.
+     */
+    private final AtomicBoolean saving = new AtomicBoolean();
+    private final Counter savedChests;
+    /**
+     * Time taken by one call to the chest saver, which may save many chests.
+     */
+    private final LatencyHistogram saveTime;
     protected final BetterEnderChest plugin;
 
     public SimpleEnderCache(BetterEnderChest plugin, ChestLoader chestLoader, ChestSaver chestSaver) {
+        this(plugin, chestLoader, chestSaver, ChestIndexing.enabled);
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param plugin
+     *            The plugin.
+     * @param chestLoader
+     *            Loads the chests.
+     * @param chestSaver
+     *            Saves the chests.
+     * @param indexChests
+     *            True to keep track of which chests are stored, so that chests
+     *            of new players are created without asking the chest loader.
+     *            Only possible if the chest loader is a {@link ChestLister},
+     *            and only correct if all chests are saved through this cache.
+     */
+    protected SimpleEnderCache(BetterEnderChest plugin, ChestLoader chestLoader, ChestSaver chestSaver,
+            boolean indexChests) {
         this.plugin = Preconditions.checkNotNull(plugin, "plugin");
-        this.chestLoader = new ChestLoadLogic(plugin, chestLoader);
-        this.chestSaver = Preconditions.checkNotNull(chestSaver, "chestSaver");
+        this.chestLister = chestLoader instanceof ChestLister ? (ChestLister) chestLoader : null;
+        this.chestIndex = indexChests && chestLister != null ? new ChestIndex() : null;
+        this.chestLoader = new ChestLoadLogic(plugin, chestLoader, chestIndex);
+        this.chestSaver = wrapSaver(Preconditions.checkNotNull(chestSaver, "chestSaver"));
+
+        Metrics metrics = plugin.getMetrics();
+        String backend = chestSaver.getClass().getSimpleName(); // Not the wrapper
+        this.checksumTime = metrics.histogram("betterenderchest_checksum_seconds",
+                "Time taken to check whether a chest changed since it was saved");
+        this.savedChests = metrics.counter("betterenderchest_saved_chests_total", "Chests written to the backend",
+                "backend", backend);
+        this.saveTime = metrics.histogram("betterenderchest_save_seconds",
+                "Time taken by one write to the backend, which may contain many chests", "backend", backend);
 
         this.inventories = new MapMaker()
                 .concurrencyLevel(2)
                 .initialCapacity(16)
                 .makeMap();
 
-        // Attach inventories.cleanUp to Bukkit's scheduler
-        autoSaveTask = plugin.getExecutors().workerThreadExecutor().executeTimer(AutoSave.autoSaveIntervalTicks, new Runnable() {
+        // Snapshots are taken on the server thread, see autoSaveRun
+        autoSaveTask = plugin.getExecutors().serverThreadExecutor().executeTimer(AutoSave.saveRunIntervalTicks, new Runnable() {
             @Override
             public void run() {
-                cleanupCache();
+                autoSaveRun();
             }
         });
+
+        if (chestIndex != null) {
+            plugin.getExecutors().loadExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    indexChests();
+                }
+            });
+        }
     }
 
-    private boolean canEvict(Inventory inventory) {
-        return inventory.getViewers().isEmpty();
+    /**
+     * Called after a chest was saved, even if saving failed. A default chest
+     * may have been read while it was being saved, so its contents are
+     * forgotten again.
+     *
+     * @param saveEntry
+     *            The chest.
+     */
+    private void afterSave(SaveEntry saveEntry) {
+        if (saveEntry.getChestOwner().equals(plugin.getChestOwners().defaultChest())) {
+            plugin.getEmptyInventoryProvider().forgetDefaultChest(saveEntry.getWorldGroup());
+        }
+    }
+
+    /**
+     * Saves and unloads a part of the cache. Runs on the server thread every
+     * {@link AutoSave#saveRunIntervalTicks}, so that the work of an autosave
+     * interval is spread out instead of hitting the disk or database all at
+     * once. Only snapshots of the chests are taken on the server thread, the
+     * chests are compared and saved on the save threads.
+     *
+     * <ul>
+     * <li>Chests that have had changed slots for
+     * {@link AutoSave#autoSaveIntervalTicks} are saved, the longest changed
+     * chests first. At most {@link AutoSave#chestsPerSaveRun} chests are saved
+     * per run, unless chests have been waiting for twice the autosave
+     * interval.</li>
+     * <li>Every {@link AutoSave#fullCheckIntervalTicks}, each chest is compared
+     * to its saved contents once, in case another plugin modified it without
+     * reporting. The chests are divided over the runs by their hash code.</li>
+     * <li>Idle chests and chests that don't fit in the cache anymore are
+     * saved and unloaded.</li>
+     * </ul>
+     */
+    private void autoSaveRun() {
+        if (!saving.compareAndSet(false, true)) {
+            // Previous run is still saving
+            return;
+        }
+
+        boolean handedOff = false;
+        try {
+            handedOff = startAutoSave();
+        } finally {
+            if (!handedOff) {
+                saving.set(false);
+            }
+        }
+    }
+
+    /**
+     * Called before a chest is saved.
+     *
+     * @param saveEntry
+     *            The chest.
+     */
+    private void beforeSave(SaveEntry saveEntry) {
+        if (chestIndex != null) {
+            // Marked first, so that the chest is never thought missing while
+            // it is stored
+            chestIndex.markSaved(saveEntry);
+        }
+        if (saveEntry.getChestOwner().equals(plugin.getChestOwners().defaultChest())) {
+            plugin.getEmptyInventoryProvider().forgetDefaultChest(saveEntry.getWorldGroup());
+        }
     }
 
     private final AsyncFunction<Throwable, Inventory> chestNotFoundToEmptyInventory(final ChestOwner chestOwner,
@@ -119,6 +357,16 @@ public class SimpleEnderCache implements BetterEnderCache {
 
             @Override
             public ListenableFuture<Inventory> apply(Throwable t) throws Exception {
+                if (t instanceof ChestBusyException) {
+                    // Too many chests are being loaded right now. Hand out a
+                    // chest that isn't cached, so it is never saved over the
+                    // real chest, and that doesn't accept items
+                    plugin.warning("Too many chests are waiting to be loaded, gave " + chestOwner.getDisplayName()
+                            + " a temporary chest");
+                    EmptyInventoryProvider provider = plugin.getEmptyInventoryProvider();
+                    ChestRestrictions readOnly = new ChestRestrictions(provider.getInventoryRows(chestOwner), 0, false);
+                    return Futures.immediateFuture(provider.loadEmptyInventory(chestOwner, worldGroup, readOnly));
+                }
                 if (!(t instanceof ChestNotFoundException)) {
                     // IO error, disable further saving and loading
                     plugin.disableSaveAndLoad("Failed to load chest of " + chestOwner.getDisplayName(), t);
@@ -129,92 +377,252 @@ public class SimpleEnderCache implements BetterEnderCache {
         };
     }
 
-    private void cleanupCache() {
-        for (Entry<ChestKey, Inventory> entry : inventories.entrySet()) {
-            Inventory inventory = entry.getValue();
-            if (needsSave(inventory)) {
-                scheduleSave(inventory);
-            } else if (canEvict(inventory)) {
-                unload(inventory);
-            } else {
-                plugin.debug("Not unloading, but also not saving chest of " + entry.getKey().chestOwner.getDisplayName()
-                        + " - no items changed, but chest is still in use. Viewers: "
-                        + viewersToString(inventory.getViewers()));
-            }
+    /**
+     * Creates a save entry for the snapshot, if its contents are different
+     * from the contents that were saved previously. The caller must hold the
+     * save lock of the inventory. The contents are marked as saved, so the
+     * caller must actually save the entry.
+     *
+     * @param inventory
+     *            The inventory.
+     * @param snapshot
+     *            Snapshot of the inventory.
+     * @param checkAll
+     *            True to compare the contents even if no slots were marked as
+     *            changed.
+     * @return The save entry, or null if nothing needs to be saved.
+     */
+    private SaveEntry createSaveEntry(Inventory inventory, ChestSnapshot snapshot, boolean checkAll) {
+        BetterEnderInventoryHolder holder = BetterEnderInventoryHolder.of(inventory);
+        long startTime = System.nanoTime();
+        boolean changed = holder.markSnapshotAsSavedIfChanged(snapshot, checkAll);
+        checksumTime.recordSince(startTime);
+        if (!changed) {
+            plugin.debug("Not saving chest of " + holder.getChestOwner().getDisplayName()
+                    + " - no items changed");
+            return null;
         }
+
+        plugin.debug("Saving chest of " + holder.getChestOwner().getDisplayName());
+        return SaveEntry.of(holder, snapshot);
     }
 
     @Override
     public void disable() {
-        for (Inventory inventory : inventories.values()) {
+        // No more staggered saves, everything is saved right now
+        autoSaveTask.cancel();
+
+        Map<Inventory, ChestSnapshot> snapshots = new IdentityHashMap<>();
+        for (CacheEntry entry : inventories.values()) {
+            Inventory inventory = entry.inventory;
+            snapshots.put(inventory, BetterEnderInventoryHolder.of(inventory).takeSnapshot(inventory, true));
+        }
+        List<Inventory> skipped = saveSnapshots(snapshots, true, Collections.<Inventory> emptySet());
+
+        // Wait for the chests that were being saved by another thread
+        for (Inventory inventory : skipped) {
             try {
-                executeSaveProcedure(inventory);
+                executeSaveProcedure(inventory, snapshots.get(inventory), true);
             } catch (IOException e) {
                 handleSaveError(inventory, e);
             }
         }
 
         inventories.clear();
-        autoSaveTask.cancel();
     }
 
     /**
-     * Saves an inventory, by acquiring the save lock, checking the needsSave
-     * flag, saving the inventory and setting the needsSave flag to false.
+     * Unloads a chest that was just saved, unless it was used or changed since
+     * the decision to unload it was made.
+     *
+     * @param entry
+     *            The chest.
+     * @param decisionTime
+     *            The {@link System#nanoTime()} at which it was decided to
+     *            unload the chest.
+     */
+    private void evict(CacheEntry entry, long decisionTime) {
+        if (entry.lastAccess - decisionTime > 0 || !entry.inventory.getViewers().isEmpty()
+                || BetterEnderInventoryHolder.of(entry.inventory).hasChangedSlots()) {
+            return;
+        }
+        if (inventories.remove(entry.chestKey, entry)) {
+            plugin.debug("Unloading chest of " + entry.chestKey.chestOwner.getDisplayName());
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Saves a snapshot of an inventory, by acquiring the save lock, comparing
+     * the contents to the contents that were saved previously and saving the
+     * snapshot if they are different.
      *
      * @param inventory
      *            The inventory.
+     * @param snapshot
+     *            Snapshot of the inventory.
+     * @param checkAll
+     *            True to compare the contents even if no slots were marked as
+     *            changed.
      * @throws IOException
      *             If saving fails.
      */
-    private void executeSaveProcedure(Inventory inventory) throws IOException {
-        BetterEnderInventoryHolder holder = BetterEnderInventoryHolder.of(inventory);
-
-        Lock lock = holder.getSaveLock();
+    private void executeSaveProcedure(Inventory inventory, ChestSnapshot snapshot, boolean checkAll) throws IOException {
+        Lock lock = BetterEnderInventoryHolder.of(inventory).getSaveLock();
         lock.lock();
         try {
-            if (!needsSave(inventory)) {
-                // Apparently the needsSave flag was recently changed
-                plugin.debug("Cancelling save for inventory of " + holder.getChestOwner().getDisplayName()
-                        + " - it was just saved");
-                return;
+            SaveEntry saveEntry = createSaveEntry(inventory, snapshot, checkAll);
+            if (saveEntry != null) {
+                long startTime = System.nanoTime();
+                try {
+                    chestSaver.saveChest(saveEntry);
+                } finally {
+                    saveTime.recordSince(startTime);
+                }
+                savedChests.increment();
             }
-            holder.markContentsAsSaved(inventory.getContents());
-
-            plugin.debug("Saving chest of " + holder.getChestOwner().getDisplayName());
-            chestSaver.saveChest(SaveEntry.copyOf(inventory));
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * Gets the object that lists the chests stored by the chest loader of this
+     * cache.
+     *
+     * @return The lister, or null if the chest loader cannot list its chests.
+     */
+    public ChestLister getChestLister() {
+        return chestLister;
+    }
+
+    /**
+     * Gets the object that writes the chests of this cache. Saving a chest
+     * that is loaded in this cache with it directly is not a good idea: the
+     * cache will overwrite it on the next save.
+     *
+     * @return The chest saver.
+     * @see #isLoaded(ChestOwner, WorldGroup)
+     */
+    public ChestSaver getChestSaver() {
+        return chestSaver;
+    }
+
     @Override
-    public ListenableFuture<Inventory> getInventory(final ChestOwner chestOwner, final WorldGroup worldGroup) {
+    public ListenableFuture<Inventory> getInventory(ChestOwner chestOwner, WorldGroup worldGroup) {
+        return getInventory(chestOwner, worldGroup, -1);
+    }
+
+    /**
+     * Gets an inventory, loading it if necessary.
+     *
+     * @param chestOwner
+     *            Owner of the chest.
+     * @param worldGroup
+     *            Group of the chest.
+     * @param keepLoadedNanos
+     *            For preloads, how long the chest must stay loaded if nobody
+     *            uses it. Negative if the chest is used right now.
+     * @return The inventory.
+     */
+    private ListenableFuture<Inventory> getInventory(final ChestOwner chestOwner, final WorldGroup worldGroup,
+            final long keepLoadedNanos) {
         if (!plugin.canSaveAndLoad()) {
             Inventory emptyInventory = plugin.getEmptyInventoryProvider().loadEmptyInventory(chestOwner, worldGroup);
             return Futures.immediateFuture(emptyInventory);
         }
+        final boolean preload = keepLoadedNanos >= 0;
 
         // Try to get from cache
         final ChestKey chestKey = new ChestKey(chestOwner, worldGroup);
-        Inventory inventory = inventories.get(chestKey);
-        if (inventory != null) {
-            return Futures.immediateFuture(inventory);
+        CacheEntry entry = inventories.get(chestKey);
+        if (entry != null) {
+            if (!preload) {
+                entry.markUsed(System.nanoTime());
+                hits.increment();
+            }
+            return Futures.immediateFuture(entry.inventory);
+        }
+
+        // Maybe someone else is already loading it
+        final SettableFuture<Inventory> loading = SettableFuture.create();
+        ListenableFuture<Inventory> loadingEarlier = loadingInventories.putIfAbsent(chestKey, loading);
+        if (loadingEarlier instanceof SaveReservation) {
+            // Chest is being written, load it afterwards
+            return Futures.transformAsync(loadingEarlier, new AsyncFunction<Inventory, Inventory>() {
+                @Override
+                public ListenableFuture<Inventory> apply(Inventory ignored) {
+                    return getInventory(chestOwner, worldGroup, keepLoadedNanos);
+                }
+            }, Runnable::run);
+        }
+        if (loadingEarlier != null) {
+            if (!preload) {
+                misses.increment();
+                loadingEarlier.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        // The earlier load may have been a preload
+                        CacheEntry loaded = inventories.get(chestKey);
+                        if (loaded != null) {
+                            loaded.markUsed(System.nanoTime());
+                        }
+                    }
+                }, Runnable::run);
+            }
+            return Futures.nonCancellationPropagating(loadingEarlier);
+        }
+        loading.addListener(new Runnable() {
+            @Override
+            public void run() {
+                loadingInventories.remove(chestKey, loading);
+            }
+        }, Runnable::run);
+
+        // The load that just finished may have been missed above
+        entry = inventories.get(chestKey);
+        if (entry != null) {
+            if (!preload) {
+                entry.markUsed(System.nanoTime());
+                hits.increment();
+            }
+            loading.set(entry.inventory);
+            return loading;
         }
 
         // We will have to load it
-        ListenableFuture<Inventory> loadingInventory = chestLoader.loadInventory(chestOwner, worldGroup);
-        return Futures.transform(loadingInventory, new Function<Inventory, Inventory>() {
+        if (!preload) {
+            misses.increment();
+        }
+        plugin.getChestOwners().rememberProfile(chestOwner);
+        ListenableFuture<Inventory> loadingInventory;
+        try {
+            loadingInventory = chestLoader.loadInventory(chestOwner, worldGroup, preload);
+        } catch (RuntimeException e) {
+            // Don't leave the other callers waiting forever
+            loading.setException(e);
+            throw e;
+        }
+        loading.setFuture(Futures.transform(loadingInventory, new Function<Inventory, Inventory>() {
 
             @Override
             public Inventory apply(Inventory newlyLoaded) {
-                // A second call to getInventory may have interfered with this
-                // call, causing the inventory to load twice. If that's the
-                // case, use the inventory loaded by the first call
-                Inventory loadedEarlier = inventories.putIfAbsent(chestKey, newlyLoaded);
-                return MoreObjects.firstNonNull(loadedEarlier, newlyLoaded);
+                // The inventory may have been added using setInventory in
+                // the meantime. If that's the case, use that inventory
+                long now = System.nanoTime();
+                CacheEntry newEntry = new CacheEntry(chestKey, newlyLoaded, now,
+                        preload ? now + keepLoadedNanos : now, !preload);
+                CacheEntry loadedEarlier = inventories.putIfAbsent(chestKey, newEntry);
+                if (loadedEarlier != null) {
+                    if (!preload) {
+                        loadedEarlier.markUsed(now);
+                    }
+                    return loadedEarlier.inventory;
+                }
+                return newlyLoaded;
             }
-        }, Runnable::run);
+        }, Runnable::run));
+        return Futures.nonCancellationPropagating(loading);
     }
 
     @Override
@@ -240,40 +648,308 @@ public class SimpleEnderCache implements BetterEnderCache {
         }, plugin.getExecutors().serverThreadExecutor());
     }
 
+    /**
+     * Gets statistics about this cache. Can be called from any thread.
+     *
+     * @return The statistics.
+     */
+    public CacheStatistics getStatistics() {
+        int loadedChests = 0;
+        long loadedSlots = 0;
+        for (CacheEntry entry : inventories.values()) {
+            loadedChests++;
+            loadedSlots += entry.inventory.getSize();
+        }
+        return new CacheStatistics(hits.sum(), misses.sum(), evictions.sum(), loadedChests, loadedSlots);
+    }
+
     private void handleSaveError(Inventory inventory, IOException exception) {
         BetterEnderInventoryHolder holder = BetterEnderInventoryHolder.of(inventory);
         plugin.disableSaveAndLoad("Failed to save chest of " + holder.getChestOwner().getDisplayName(), exception);
     }
 
-    private boolean needsSave(Inventory inventory) {
-        return BetterEnderInventoryHolder.of(inventory).hasUnsavedChanges(inventory.getContents());
+    /**
+     * Lists the stored chests of all groups for the {@link #chestIndex}. Runs
+     * on a load thread. Groups that cannot be listed are not indexed, so
+     * their chests are always read from the chest loader.
+     */
+    private void indexChests() {
+        for (WorldGroup worldGroup : plugin.getWorldGroupManager().getGroups()) {
+            try {
+                chestIndex.list(chestLister, worldGroup);
+            } catch (IOException e) {
+                plugin.warning("Failed to list the chests of group " + worldGroup.getGroupName()
+                        + ", so chests of new players will be looked up: " + e.getMessage());
+            }
+        }
+        plugin.debug("Indexed the stored chests");
     }
 
-    private void scheduleSave(final Inventory inventory) {
-        plugin.debug("Scheduling save for chest of "
-                + BetterEnderInventoryHolder.of(inventory).getChestOwner().getDisplayName());
+    /**
+     * Gets whether the given chest is loaded or being loaded in this cache.
+     * Can be called from any thread.
+     *
+     * @param chestOwner
+     *            Owner of the chest.
+     * @param worldGroup
+     *            Group of the chest.
+     * @return True if the chest is loaded or being loaded, false otherwise.
+     */
+    public boolean isLoaded(ChestOwner chestOwner, WorldGroup worldGroup) {
+        ChestKey chestKey = new ChestKey(chestOwner, worldGroup);
+        return inventories.containsKey(chestKey) || loadingInventories.containsKey(chestKey);
+    }
 
-        plugin.getExecutors().workerThreadExecutor().execute(new Runnable() {
+    @Override
+    public ListenableFuture<Inventory> preloadInventory(ChestOwner chestOwner, WorldGroup worldGroup, long keepLoadedMillis) {
+        return getInventory(chestOwner, worldGroup, TimeUnit.MILLISECONDS.toNanos(Math.max(0, keepLoadedMillis)));
+    }
 
-            @Override
-            public void run() {
-                try {
-                    executeSaveProcedure(inventory);
-                } catch (IOException e) {
-                    handleSaveError(inventory, e);
+    /**
+     * Saves all given snapshots that have changed in a single batch. Chests
+     * that are currently being saved by another thread are skipped, so that
+     * this method never waits for a save lock. The skipped chests are marked
+     * as changed again, so that they are saved later.
+     *
+     * @param snapshots
+     *            The inventories, with their snapshots.
+     * @param checkAll
+     *            True to compare the contents even if no slots were marked as
+     *            changed.
+     * @param fullCompare
+     *            Inventories that are compared even if no slots were marked as
+     *            changed.
+     * @return The inventories that were skipped.
+     */
+    private List<Inventory> saveSnapshots(Map<Inventory, ChestSnapshot> snapshots, boolean checkAll,
+            Set<Inventory> fullCompare) {
+        List<Inventory> skipped = new ArrayList<>();
+        List<Lock> locks = new ArrayList<>();
+        Map<SaveEntry, Inventory> saveEntries = new LinkedHashMap<>();
+        try {
+            for (Entry<Inventory, ChestSnapshot> snapshot : snapshots.entrySet()) {
+                Inventory inventory = snapshot.getKey();
+                BetterEnderInventoryHolder holder = BetterEnderInventoryHolder.of(inventory);
+                Lock lock = holder.getSaveLock();
+                if (!lock.tryLock()) {
+                    // The marks were cleared when the snapshot was taken
+                    holder.markAllSlotsChanged();
+                    skipped.add(inventory);
+                    continue;
                 }
-                if (canEvict(inventory)) {
-                    unload(inventory);
+                locks.add(lock);
+
+                SaveEntry saveEntry = createSaveEntry(inventory, snapshot.getValue(),
+                        checkAll || fullCompare.contains(inventory));
+                if (saveEntry != null) {
+                    saveEntries.put(saveEntry, inventory);
                 }
             }
-        });
+
+            if (!saveEntries.isEmpty()) {
+                long startTime = System.nanoTime();
+                Map<SaveEntry, IOException> failures = chestSaver.saveChests(new ArrayList<>(saveEntries.keySet()));
+                saveTime.recordSince(startTime);
+                savedChests.add(saveEntries.size() - failures.size());
+                for (Entry<SaveEntry, IOException> failure : failures.entrySet()) {
+                    handleSaveError(saveEntries.get(failure.getKey()), failure.getValue());
+                }
+            }
+        } finally {
+            for (Lock lock : locks) {
+                lock.unlock();
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * Saves chests that are not loaded in this cache, like chests copied from
+     * another storage. While the chests are saved, they cannot be loaded, so
+     * that the cache never creates a new chest that is later saved over the
+     * written chest. Chests that are loaded are not saved, as the cache would
+     * overwrite them.
+     *
+     * @param saveEntries
+     *            The chests to save.
+     * @param skipped
+     *            Chests that were not saved because they are loaded are added
+     *            to this list.
+     * @return The chests that failed to save, along with the reason.
+     */
+    Map<SaveEntry, IOException> saveUnloadedChests(List<SaveEntry> saveEntries, List<SaveEntry> skipped) {
+        Map<ChestKey, SaveReservation> reservations = new HashMap<>();
+        List<SaveEntry> toSave = new ArrayList<>(saveEntries.size());
+        try {
+            for (SaveEntry saveEntry : saveEntries) {
+                ChestKey chestKey = new ChestKey(saveEntry.getChestOwner(), saveEntry.getWorldGroup());
+                SaveReservation reservation = new SaveReservation();
+                if (inventories.containsKey(chestKey) || loadingInventories.putIfAbsent(chestKey, reservation) != null) {
+                    skipped.add(saveEntry);
+                    continue;
+                }
+                reservations.put(chestKey, reservation);
+                if (inventories.containsKey(chestKey)) {
+                    // A load finished just before the reservation was made
+                    skipped.add(saveEntry);
+                    continue;
+                }
+                toSave.add(saveEntry);
+            }
+
+            if (toSave.isEmpty()) {
+                return Collections.emptyMap();
+            }
+            return chestSaver.saveChests(toSave);
+        } finally {
+            for (Entry<ChestKey, SaveReservation> reservation : reservations.entrySet()) {
+                loadingInventories.remove(reservation.getKey(), reservation.getValue());
+                reservation.getValue().release();
+            }
+        }
     }
 
     @Override
     public void setInventory(Inventory inventory) {
         BetterEnderInventoryHolder holder = BetterEnderInventoryHolder.of(inventory);
         ChestKey chestKey = new ChestKey(holder.getChestOwner(), holder.getWorldGroup());
-        this.inventories.put(chestKey, inventory);
+        plugin.getChestOwners().rememberProfile(holder.getChestOwner());
+        long now = System.nanoTime();
+        this.inventories.put(chestKey, new CacheEntry(chestKey, inventory, now, now, true));
+    }
+
+    /**
+     * Selects the chests of an autosave run and takes their snapshots, see
+     * {@link #autoSaveRun()}.
+     *
+     * @return True if a task was submitted to the save threads, which will
+     *         clear {@link #saving} when done. False if there was nothing to
+     *         save, or if the save threads didn't accept the task.
+     */
+    private boolean startAutoSave() {
+        final long now = System.nanoTime();
+        long saveIntervalNanos = TimeUnit.MILLISECONDS.toNanos(AutoSave.autoSaveIntervalTicks * 50L);
+        int fullCheckSlots = Math.max(1, AutoSave.fullCheckIntervalTicks / AutoSave.saveRunIntervalTicks);
+        fullCheckSlot = (fullCheckSlot + 1) % fullCheckSlots;
+
+        // Chests that are being viewed are pinned, the others are candidates
+        // for unloading
+        int loadedChests = 0;
+        long loadedSlots = 0;
+        List<CacheEntry> unviewed = new ArrayList<>();
+        List<CacheEntry> dirty = new ArrayList<>();
+        Set<Inventory> toSave = Collections.newSetFromMap(new IdentityHashMap<Inventory, Boolean>());
+        final Set<Inventory> fullCompare = Collections.newSetFromMap(new IdentityHashMap<Inventory, Boolean>());
+        for (CacheEntry entry : inventories.values()) {
+            Inventory inventory = entry.inventory;
+            loadedChests++;
+            loadedSlots += inventory.getSize();
+            if (inventory.getViewers().isEmpty()) {
+                unviewed.add(entry);
+            } else {
+                entry.markUsed(now);
+            }
+
+            if (BetterEnderInventoryHolder.of(inventory).hasChangedSlots()) {
+                if (!entry.dirty) {
+                    entry.dirty = true;
+                    entry.dirtySince = now;
+                }
+                dirty.add(entry);
+            } else {
+                entry.dirty = false;
+                if (Math.floorMod(entry.chestKey.hashCode(), fullCheckSlots) == fullCheckSlot) {
+                    toSave.add(inventory);
+                    fullCompare.add(inventory);
+                }
+            }
+        }
+
+        // Save the chests that were changed longest ago first
+        dirty.sort(new Comparator<CacheEntry>() {
+            @Override
+            public int compare(CacheEntry a, CacheEntry b) {
+                return Long.signum(a.dirtySince - b.dirtySince);
+            }
+        });
+        int budget = AutoSave.chestsPerSaveRun;
+        for (CacheEntry entry : dirty) {
+            long dirtyNanos = now - entry.dirtySince;
+            if (dirtyNanos < saveIntervalNanos) {
+                break;
+            }
+            if (budget <= 0 && dirtyNanos < 2 * saveIntervalNanos) {
+                // Remaining chests will be saved in the next runs
+                break;
+            }
+            budget--;
+            toSave.add(entry.inventory);
+        }
+
+        // Unload idle chests, and the least recently used chests while the
+        // cache is too large
+        unviewed.sort(new Comparator<CacheEntry>() {
+            @Override
+            public int compare(CacheEntry a, CacheEntry b) {
+                return Long.signum(a.lastAccess - b.lastAccess);
+            }
+        });
+        long idleNanos = TimeUnit.SECONDS.toNanos(Cache.idleSeconds);
+        final List<CacheEntry> unloading = new ArrayList<>();
+        for (CacheEntry entry : unviewed) {
+            boolean tooLarge = (Cache.maxChests > 0 && loadedChests > Cache.maxChests)
+                    || (Cache.maxSlots > 0 && loadedSlots > Cache.maxSlots);
+            if (tooLarge || entry.isIdle(now, idleNanos)) {
+                // Chests that are about to be unloaded are always compared,
+                // as unreported changes would otherwise be lost
+                unloading.add(entry);
+                toSave.add(entry.inventory);
+                fullCompare.add(entry.inventory);
+                loadedChests--;
+                loadedSlots -= entry.inventory.getSize();
+            }
+        }
+        if (toSave.isEmpty()) {
+            return false;
+        }
+
+        // Nobody is halfway a click right now, so this is the moment to read
+        // the chests. Only changed slots are copied
+        final Map<Inventory, ChestSnapshot> snapshots = new IdentityHashMap<>();
+        for (Inventory inventory : toSave) {
+            BetterEnderInventoryHolder holder = BetterEnderInventoryHolder.of(inventory);
+            snapshots.put(inventory, holder.takeSnapshot(inventory, fullCompare.contains(inventory)));
+        }
+
+        try {
+            plugin.getExecutors().saveExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        List<Inventory> skipped = saveSnapshots(snapshots, false, fullCompare);
+                        if (!plugin.canSaveAndLoad()) {
+                            // Saving failed, so keep everything in memory
+                            return;
+                        }
+                        for (CacheEntry entry : unloading) {
+                            if (!skipped.contains(entry.inventory)) {
+                                evict(entry, now);
+                            }
+                        }
+                    } finally {
+                        saving.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The marks were cleared when the snapshots were taken
+            for (Inventory inventory : snapshots.keySet()) {
+                BetterEnderInventoryHolder.of(inventory).markAllSlotsChanged();
+            }
+            plugin.debug("Save threads are busy, postponing the autosave");
+            return false;
+        }
+        return true;
     }
 
     @Override
@@ -297,31 +973,40 @@ public class SimpleEnderCache implements BetterEnderCache {
     }
 
     /**
-     * Unloads an inventory without saving. Does nothing if the inventory was
-     * not loaded. Can be called from any thread.
+     * Wraps the chest saver so that saved chests are added to the
+     * {@link #chestIndex}, and so that the contents of the default chest are
+     * forgotten when it is saved.
      *
-     * @param inventory
-     *            The inventory.
+     * @param chestSaver
+     *            The chest saver.
+     * @return The wrapped chest saver.
      */
-    private void unload(Inventory inventory) {
-        BetterEnderInventoryHolder holder = BetterEnderInventoryHolder.of(inventory);
-        ChestKey chestKey = new ChestKey(holder.getChestOwner(), holder.getWorldGroup());
+    private ChestSaver wrapSaver(final ChestSaver chestSaver) {
+        return new ChestSaver() {
 
-        plugin.debug("Unloading chest of " + chestKey.chestOwner.getDisplayName());
-        inventories.remove(chestKey);
-    }
+            @Override
+            public void saveChest(SaveEntry saveEntry) throws IOException {
+                beforeSave(saveEntry);
+                try {
+                    chestSaver.saveChest(saveEntry);
+                } finally {
+                    afterSave(saveEntry);
+                }
+            }
 
-    private String viewersToString(List<HumanEntity> viewers) {
-        if (viewers.isEmpty()) {
-            return "none";
-        }
-        StringBuilder builder = new StringBuilder();
-        for (HumanEntity humanEntity : viewers) {
-            builder.append(humanEntity.getName());
-            builder.append(", ");
-        }
-        builder.delete(builder.length() - 2, builder.length());
-        return builder.toString();
+            @Override
+            public Map<SaveEntry, IOException> saveChests(List<SaveEntry> saveEntries) {
+                for (SaveEntry saveEntry : saveEntries) {
+                    beforeSave(saveEntry);
+                }
+                try {
+                    return chestSaver.saveChests(saveEntries);
+                } finally {
+                    for (SaveEntry saveEntry : saveEntries) {
+                        afterSave(saveEntry);
+                    }
+                }
+            }
+        };
     }
-
 }
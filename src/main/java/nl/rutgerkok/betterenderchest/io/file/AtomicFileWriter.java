@@ -0,0 +1,170 @@
+package nl.rutgerkok.betterenderchest.io.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replaces files without ever leaving a half-written file behind. The data is
+ * first written to a temporary file next to the target file, which is then
+ * renamed to the target file. Every write uses its own temporary file, so two
+ * writers of the same file never write to the same temporary file.
+ *
+ */
+final class AtomicFileWriter {
+
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    /**
+     * Makes the names of the temporary files unique.
+     */
+    private static final AtomicLong tempFileCounter = new AtomicLong();
+
+    /**
+     * Deletes a temporary file after a failed write, if it still exists.
+     *
+     * @param tempFile
+     *            The temporary file.
+     * @param cause
+     *            The reason of the failure, to which a failure to delete the
+     *            file is added.
+     */
+    static void deleteTempFile(Path tempFile, IOException cause) {
+        try {
+            Files.deleteIfExists(tempFile);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Deletes the temporary files that were left behind in the directory by
+     * writes that never finished, for example because the server crashed.
+     * Must only be called when nothing is writing to the directory.
+     *
+     * @param directory
+     *            The directory. Subdirectories are not searched.
+     * @param extension
+     *            Extension of the target files, like ".dat".
+     * @return The number of deleted files.
+     * @throws IOException
+     *             If the directory could not be read, or a file could not be
+     *             deleted.
+     */
+    static int deleteOrphanedTempFiles(Path directory, String extension) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + extension + ".*" + TEMP_EXTENSION)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                String counter = fileName.substring(fileName.lastIndexOf(extension) + extension.length() + 1,
+                        fileName.length() - TEMP_EXTENSION.length());
+                if (!counter.isEmpty() && counter.chars().allMatch(Character::isDigit)) {
+                    Files.deleteIfExists(file);
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Forces the changes to the directory (like renamed files) to disk. Not
+     * all operating systems support this, in which case this method does
+     * nothing.
+     *
+     * @param directory
+     *            The directory.
+     */
+    static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on Windows, nothing we can do
+        }
+    }
+
+    /**
+     * Forces the contents of an already written file to disk. Metadata that
+     * is not needed to read the file back, like the modification time, is
+     * not forced.
+     *
+     * @param file
+     *            The file.
+     * @throws IOException
+     *             If the file could not be forced to disk.
+     */
+    static void forceFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Renames the temporary file to the target file, replacing the target file
+     * if it exists.
+     *
+     * @param tempFile
+     *            The temporary file, see
+     *            {@link #writeTempFile(Path, byte[], boolean)}.
+     * @param target
+     *            The target file.
+     * @throws IOException
+     *             If renaming failed. The temporary file is not deleted.
+     */
+    static void moveIntoPlace(Path tempFile, Path target) throws IOException {
+        try {
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes the data to a new temporary file next to the target file. The
+     * target file itself is not modified.
+     *
+     * @param target
+     *            The target file.
+     * @param data
+     *            The data to write.
+     * @param force
+     *            Whether the temporary file must be forced to disk.
+     * @return The temporary file.
+     * @throws IOException
+     *             If writing fails. The temporary file is deleted in that
+     *             case.
+     */
+    static Path writeTempFile(Path target, byte[] data, boolean force) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path tempFile = target.resolveSibling(target.getFileName() + "." + tempFileCounter.incrementAndGet()
+                + TEMP_EXTENSION);
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (force) {
+                channel.force(true);
+            }
+        } catch (IOException e) {
+            deleteTempFile(tempFile, e);
+            throw e;
+        }
+        return tempFile;
+    }
+
+    private AtomicFileWriter() {
+        // No instances
+    }
+}
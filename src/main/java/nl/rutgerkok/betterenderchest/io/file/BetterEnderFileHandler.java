@@ -2,11 +2,24 @@ package nl.rutgerkok.betterenderchest.io.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import nl.rutgerkok.betterenderchest.BetterEnderChest;
 import nl.rutgerkok.betterenderchest.WorldGroup;
 import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
 import nl.rutgerkok.betterenderchest.exception.ChestNotFoundException;
+import nl.rutgerkok.betterenderchest.io.ChestLister;
 import nl.rutgerkok.betterenderchest.io.ChestLoader;
 import nl.rutgerkok.betterenderchest.io.ChestSaver;
 import nl.rutgerkok.betterenderchest.io.SaveEntry;
@@ -18,12 +31,15 @@ import com.google.common.base.Preconditions;
 
 /**
  * Loads Ender Chests from an NBT file, or saves Ender Chests to an NBT file.
+ * Chest files are never overwritten in place: the new contents are written to
+ * a temporary file first, which then replaces the old file.
  * 
  */
-public final class BetterEnderFileHandler implements ChestLoader, ChestSaver {
+public final class BetterEnderFileHandler implements ChestLister, ChestLoader, ChestSaver {
 
     private static final String EXTENSION = ".dat";
     private final File chestFolder;
+    private final FsyncMode fsyncMode;
     private final NMSHandler nmsHandler;
 
     /**
@@ -36,8 +52,48 @@ public final class BetterEnderFileHandler implements ChestLoader, ChestSaver {
      *            world groups.
      */
     public BetterEnderFileHandler(NMSHandler nmsHandler, File chestFolder) {
+        this(nmsHandler, chestFolder, FsyncMode.NONE);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param nmsHandler
+     *            The nms handler, for reading NBT files.
+     * @param chestFolder
+     *            The folder to save the chests in. Subfolders are created for
+     *            world groups.
+     * @param fsyncMode
+     *            When saved chests are forced to disk.
+     */
+    public BetterEnderFileHandler(NMSHandler nmsHandler, File chestFolder, FsyncMode fsyncMode) {
         this.nmsHandler = Preconditions.checkNotNull(nmsHandler, "nmsHandler");
         this.chestFolder = Preconditions.checkNotNull(chestFolder, "chestFolder");
+        this.fsyncMode = Preconditions.checkNotNull(fsyncMode, "fsyncMode");
+    }
+
+    /**
+     * Deletes the temporary files that were left behind by saves that never
+     * finished, for example because the server crashed while saving. Must be
+     * called before any chest is saved.
+     *
+     * @return The number of deleted files.
+     * @throws IOException
+     *             If a directory could not be read, or a file could not be
+     *             deleted.
+     */
+    public int deleteOrphanedTempFiles() throws IOException {
+        Path directory = chestFolder.toPath();
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        int deleted = AtomicFileWriter.deleteOrphanedTempFiles(directory, EXTENSION);
+        try (DirectoryStream<Path> groupDirectories = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path groupDirectory : groupDirectories) {
+                deleted += AtomicFileWriter.deleteOrphanedTempFiles(groupDirectory, EXTENSION);
+            }
+        }
+        return deleted;
     }
 
     /**
@@ -70,6 +126,22 @@ public final class BetterEnderFileHandler implements ChestLoader, ChestSaver {
         return new File(directory, chestOwner.getSaveFileName() + EXTENSION);
     }
 
+    @Override
+    public List<String> listChests(WorldGroup worldGroup) throws IOException {
+        List<String> chests = new ArrayList<>();
+        Path directory = getChestDirectory(worldGroup).toPath();
+        if (!Files.isDirectory(directory)) {
+            return chests;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                chests.add(fileName.substring(0, fileName.length() - EXTENSION.length()));
+            }
+        }
+        return chests;
+    }
+
     @Override
     public Inventory loadInventory(ChestOwner chestOwner, WorldGroup worldGroup) throws ChestNotFoundException, IOException {
         File file = getChestFile(chestOwner, worldGroup);
@@ -82,7 +154,80 @@ public final class BetterEnderFileHandler implements ChestLoader, ChestSaver {
 
     @Override
     public void saveChest(SaveEntry saveEntry) throws IOException {
-        File file = getChestFile(saveEntry.getChestOwner(), saveEntry.getWorldGroup());
-        nmsHandler.saveInventoryToFile(file, saveEntry);
+        Path file = getChestFile(saveEntry.getChestOwner(), saveEntry.getWorldGroup()).toPath();
+        boolean force = fsyncMode != FsyncMode.NONE;
+
+        Path tempFile = AtomicFileWriter.writeTempFile(file, nmsHandler.saveInventoryToBytes(saveEntry), force);
+        try {
+            AtomicFileWriter.moveIntoPlace(tempFile, file);
+        } catch (IOException e) {
+            AtomicFileWriter.deleteTempFile(tempFile, e);
+            throw e;
+        }
+        if (force) {
+            AtomicFileWriter.forceDirectory(file.getParent());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * When using {@link FsyncMode#PER_BATCH}, the batch is saved in passes:
+     * first all temporary files are written, then all of them are forced to
+     * disk, then all of them replace the old files, and finally each
+     * directory is forced to disk once. Java cannot force many files with one
+     * call, so each temporary file is still forced on its own, but no old file
+     * is replaced before every new file is on disk, and the renames share a
+     * single directory fsync.
+     */
+    @Override
+    public Map<SaveEntry, IOException> saveChests(List<SaveEntry> saveEntries) {
+        if (fsyncMode != FsyncMode.PER_BATCH) {
+            return ChestSaver.super.saveChests(saveEntries);
+        }
+
+        Map<SaveEntry, IOException> failures = new HashMap<>();
+
+        // Write all temp files
+        Map<SaveEntry, Path> tempFiles = new LinkedHashMap<>();
+        for (SaveEntry saveEntry : saveEntries) {
+            Path file = getChestFile(saveEntry.getChestOwner(), saveEntry.getWorldGroup()).toPath();
+            try {
+                tempFiles.put(saveEntry, AtomicFileWriter.writeTempFile(file, nmsHandler.saveInventoryToBytes(saveEntry), false));
+            } catch (IOException e) {
+                failures.put(saveEntry, e);
+            }
+        }
+
+        // Force all of them to disk
+        for (Iterator<Entry<SaveEntry, Path>> it = tempFiles.entrySet().iterator(); it.hasNext();) {
+            Entry<SaveEntry, Path> tempFile = it.next();
+            try {
+                AtomicFileWriter.forceFile(tempFile.getValue());
+            } catch (IOException e) {
+                AtomicFileWriter.deleteTempFile(tempFile.getValue(), e);
+                failures.put(tempFile.getKey(), e);
+                it.remove();
+            }
+        }
+
+        // Only then replace the old files
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Entry<SaveEntry, Path> tempFile : tempFiles.entrySet()) {
+            SaveEntry saveEntry = tempFile.getKey();
+            Path file = getChestFile(saveEntry.getChestOwner(), saveEntry.getWorldGroup()).toPath();
+            try {
+                AtomicFileWriter.moveIntoPlace(tempFile.getValue(), file);
+                directories.add(file.getParent());
+            } catch (IOException e) {
+                AtomicFileWriter.deleteTempFile(tempFile.getValue(), e);
+                failures.put(saveEntry, e);
+            }
+        }
+        for (Path directory : directories) {
+            AtomicFileWriter.forceDirectory(directory);
+        }
+        return failures;
     }
 }
@@ -0,0 +1,527 @@
+package nl.rutgerkok.betterenderchest.io.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A file containing many chests, similar to the region files of Minecraft.
+ *
+ * <p>
+ * The file is divided in sectors of {@value #SECTOR_SIZE} bytes. The first
+ * sector holds two header slots. The index maps the key of each chest to the
+ * sectors that contain the chest. It is stored as a checkpoint, which holds
+ * the complete index, followed by a log of records that each hold the chests
+ * of one write. A header slot points to the checkpoint and to the newest log
+ * record, and each log record points to the record before it. This way, a
+ * write only needs to add a small log record instead of rewriting the whole
+ * index. Once the log becomes as large as the checkpoint, a new checkpoint is
+ * written and the log starts over.
+ *
+ * <p>
+ * Chests, checkpoints and log records are never overwritten in place: new data
+ * is written to free sectors, after which the header slot that is not in use
+ * is updated to point to the new data. If the server crashes halfway, the
+ * other header slot still points to the old, complete index.
+ *
+ * <p>
+ * All methods are synchronized. The data of a single chest is small, so a read
+ * takes very little time.
+ */
+final class ChestRegionFile implements Closeable {
+
+    /**
+     * Location of a chest in the file.
+     */
+    private static final class Location {
+        private final int length;
+        private final int sector;
+
+        Location(int sector, int length) {
+            this.sector = sector;
+            this.length = length;
+        }
+
+        int getSectorCount() {
+            return sectorsFor(length);
+        }
+    }
+
+    /**
+     * Version 1 had no log, only a checkpoint.
+     */
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_MAGIC = 0x42454352; // "BECR"
+    private static final int HEADER_SLOT_SIZE = 48;
+    private static final int HEADER_SLOT_SIZE_V1 = 32;
+    private static final int[] HEADER_SLOT_OFFSETS = { 0, 2048 };
+    /**
+     * A new checkpoint is written once the log uses as many sectors as the
+     * checkpoint, but never before the log uses this many sectors.
+     */
+    private static final int MIN_LOG_SECTORS = 16;
+    static final int SECTOR_SIZE = 4096;
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Opens the given region file, creating it if it doesn't exist.
+     *
+     * @param file
+     *            The file.
+     * @return The region file.
+     * @throws IOException
+     *             If the file exists, but cannot be read or is corrupted.
+     */
+    static ChestRegionFile open(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            ChestRegionFile regionFile = new ChestRegionFile(file, channel);
+            regionFile.readHeader();
+            return regionFile;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static int sectorsFor(int length) {
+        return Math.max(1, (length + SECTOR_SIZE - 1) / SECTOR_SIZE);
+    }
+
+    private final FileChannel channel;
+    /**
+     * Checksum of the checkpoint, stored in the header.
+     */
+    private int checkpointCrc = 0;
+    /**
+     * Location of the checkpoint, or null if none was written yet.
+     */
+    private Location checkpointLocation = null;
+    private final Path file;
+    private long generation = 0;
+    private Map<String, Location> index = new HashMap<>();
+    /**
+     * All log records written after the checkpoint, oldest first.
+     */
+    private final List<Location> logLocations = new ArrayList<>();
+    /**
+     * Checksum of the newest log record, stored in the header.
+     */
+    private int logTailCrc = 0;
+    private final BitSet usedSectors = new BitSet();
+
+    private ChestRegionFile(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+        this.usedSectors.set(0); // Header
+    }
+
+    private int allocate(int sectorCount) {
+        int start = 1;
+        while (true) {
+            start = usedSectors.nextClearBit(start);
+            int nextUsed = usedSectors.nextSetBit(start);
+            if (nextUsed == -1 || nextUsed - start >= sectorCount) {
+                usedSectors.set(start, start + sectorCount);
+                return start;
+            }
+            start = nextUsed;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Gets whether a chest with the given key is stored in this file.
+     *
+     * @param key
+     *            The key of the chest.
+     * @return True if stored, false otherwise.
+     */
+    synchronized boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Gets the keys of all chests stored in this file.
+     *
+     * @return The keys.
+     */
+    synchronized Set<String> getKeys() {
+        return ImmutableSet.copyOf(index.keySet());
+    }
+
+    /**
+     * Reads the chest with the given key.
+     *
+     * @param key
+     *            The key of the chest.
+     * @return The chest data, or null if there is no chest with that key.
+     * @throws IOException
+     *             If reading fails.
+     */
+    synchronized byte[] read(String key) throws IOException {
+        Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+        return readFully(location);
+    }
+
+    private byte[] readVerified(Location location, int expectedCrc, String description) throws IOException {
+        byte[] bytes = readFully(location);
+        if (crc(bytes, 0, bytes.length) != expectedCrc) {
+            throw new IOException(description + " checksum mismatch in " + file);
+        }
+        return bytes;
+    }
+
+    private byte[] readFully(Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.length);
+        long position = (long) location.sector * SECTOR_SIZE;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException("Chest data ends beyond the end of " + file);
+            }
+        }
+        return buffer.array();
+    }
+
+    private void readHeader() throws IOException {
+        if (channel.size() == 0) {
+            return; // New file
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(SECTOR_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) != -1) {
+            // Keep reading
+        }
+        byte[] bytes = header.array();
+
+        // Try the newest valid header slot first
+        List<ByteBuffer> slots = new ArrayList<>();
+        for (int offset : HEADER_SLOT_OFFSETS) {
+            ByteBuffer slot = ByteBuffer.wrap(bytes, offset, HEADER_SLOT_SIZE).slice();
+            int slotSize = slot.getInt(4) == 1 ? HEADER_SLOT_SIZE_V1 : HEADER_SLOT_SIZE;
+            if (slot.getInt(0) == HEADER_MAGIC
+                    && slot.getInt(slotSize - 4) == crc(bytes, offset, slotSize - 4)) {
+                slots.add(slot);
+            }
+        }
+        slots.sort((a, b) -> Long.compare(b.getLong(8), a.getLong(8)));
+
+        IOException failure = null;
+        for (ByteBuffer slot : slots) {
+            int version = slot.getInt(4);
+            if (version > FORMAT_VERSION) {
+                throw new IOException(file + " was written by a newer version of the plugin");
+            }
+            try {
+                readIndex(slot, version);
+                this.generation = slot.getLong(8);
+                return;
+            } catch (IOException e) {
+                // Try the older header slot
+                failure = e;
+                this.index = new HashMap<>();
+                this.checkpointLocation = null;
+                this.checkpointCrc = 0;
+                this.logLocations.clear();
+                this.logTailCrc = 0;
+                this.usedSectors.clear();
+                this.usedSectors.set(0);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        for (byte b : bytes) {
+            if (b != 0) {
+                throw new IOException(file + " is not a chest region file, or is corrupted");
+            }
+        }
+        // No header was ever written, so nothing was stored yet
+    }
+
+    /**
+     * Reads the checkpoint and the log that the given header slot points to.
+     *
+     * @param slot
+     *            The header slot.
+     * @param version
+     *            The format version of the slot.
+     * @throws IOException
+     *             If reading fails, or if the data is corrupted.
+     */
+    private void readIndex(ByteBuffer slot, int version) throws IOException {
+        Location checkpoint = slot.getInt(16) == 0 ? null : new Location(slot.getInt(16), slot.getInt(20));
+        if (checkpoint != null) {
+            this.index = readEntries(readVerified(checkpoint, slot.getInt(24), "Index"));
+            this.checkpointLocation = checkpoint;
+            this.checkpointCrc = slot.getInt(24);
+            this.usedSectors.set(checkpoint.sector, checkpoint.sector + checkpoint.getSectorCount());
+        }
+
+        if (version >= 2 && slot.getInt(28) != 0) {
+            // Walk the log from new to old, then apply it from old to new
+            List<byte[]> records = new ArrayList<>();
+            Location record = new Location(slot.getInt(28), slot.getInt(32));
+            int recordCrc = slot.getInt(36);
+            this.logTailCrc = recordCrc;
+            while (record != null) {
+                byte[] recordBytes = readVerified(record, recordCrc, "Log record");
+                this.logLocations.add(0, record);
+                this.usedSectors.set(record.sector, record.sector + record.getSectorCount());
+                records.add(0, recordBytes);
+
+                ByteBuffer previous = ByteBuffer.wrap(recordBytes);
+                record = previous.getInt(0) == 0 ? null : new Location(previous.getInt(0), previous.getInt(4));
+                recordCrc = previous.getInt(8);
+            }
+            for (byte[] recordBytes : records) {
+                this.index.putAll(readEntries(Arrays.copyOfRange(recordBytes, 12, recordBytes.length)));
+            }
+        }
+
+        for (Location chest : index.values()) {
+            this.usedSectors.set(chest.sector, chest.sector + chest.getSectorCount());
+        }
+    }
+
+    private Map<String, Location> readEntries(byte[] bytes) throws IOException {
+        DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes));
+        int count = stream.readInt();
+        Map<String, Location> index = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String key = stream.readUTF();
+            int sector = stream.readInt();
+            int length = stream.readInt();
+            index.put(key, new Location(sector, length));
+        }
+        return index;
+    }
+
+    /**
+     * Writes the given chests to the file, replacing chests with the same key.
+     * All chests are written in a single step: after a crash, either all or
+     * none of the chests have been written.
+     *
+     * @param chests
+     *            The chest data, by key.
+     * @param onlyIfAbsent
+     *            If true, chests that are already stored are skipped.
+     * @param force
+     *            Whether the changes must be forced to disk before this method
+     *            returns.
+     * @return The keys of the chests that were skipped because they were
+     *         already stored. Always empty if onlyIfAbsent is false.
+     * @throws IOException
+     *             If writing fails.
+     */
+    synchronized Set<String> write(Map<String, byte[]> chests, boolean onlyIfAbsent, boolean force)
+            throws IOException {
+        ImmutableSet.Builder<String> skipped = ImmutableSet.builder();
+        Map<String, Location> written = new HashMap<>();
+        List<Location> freedLocations = new ArrayList<>();
+        List<Location> allocatedLocations = new ArrayList<>();
+
+        try {
+            // Write chest data to free sectors
+            for (Entry<String, byte[]> chest : chests.entrySet()) {
+                if (onlyIfAbsent && index.containsKey(chest.getKey())) {
+                    skipped.add(chest.getKey());
+                    continue;
+                }
+                byte[] data = chest.getValue();
+                Location location = new Location(allocate(sectorsFor(data.length)), data.length);
+                allocatedLocations.add(location);
+                writeFully(data, location);
+                written.put(chest.getKey(), location);
+                Location old = index.get(chest.getKey());
+                if (old != null) {
+                    freedLocations.add(old);
+                }
+            }
+            if (allocatedLocations.isEmpty()) {
+                return skipped.build();
+            }
+
+            int logSectors = 1;
+            for (Location logLocation : logLocations) {
+                logSectors += logLocation.getSectorCount();
+            }
+            int checkpointSectors = checkpointLocation == null ? 0 : checkpointLocation.getSectorCount();
+            if (logSectors > Math.max(MIN_LOG_SECTORS, checkpointSectors)) {
+                writeCheckpoint(written, freedLocations, allocatedLocations, force);
+            } else {
+                writeLogRecord(written, freedLocations, allocatedLocations, force);
+            }
+            return skipped.build();
+        } catch (IOException | RuntimeException e) {
+            // Nothing refers to the new sectors
+            for (Location location : allocatedLocations) {
+                usedSectors.clear(location.sector, location.sector + location.getSectorCount());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a checkpoint with the complete index, after which the old
+     * checkpoint and the log are no longer needed. Free space at the end of
+     * the file is removed.
+     */
+    private void writeCheckpoint(Map<String, Location> written, List<Location> freedLocations,
+            List<Location> allocatedLocations, boolean force) throws IOException {
+        Map<String, Location> newIndex = new HashMap<>(index);
+        newIndex.putAll(written);
+        byte[] checkpointBytes = writeEntries(newIndex, new byte[0]);
+        Location newCheckpoint = new Location(allocate(sectorsFor(checkpointBytes.length)), checkpointBytes.length);
+        allocatedLocations.add(newCheckpoint);
+        writeFully(checkpointBytes, newCheckpoint);
+        if (force) {
+            channel.force(false);
+        }
+
+        // Point the unused header slot to the new checkpoint
+        int newCheckpointCrc = crc(checkpointBytes, 0, checkpointBytes.length);
+        writeHeader(generation + 1, newCheckpoint, newCheckpointCrc, null, 0);
+        if (force) {
+            channel.force(false);
+        }
+
+        // Success, the old data can now be overwritten
+        if (checkpointLocation != null) {
+            freedLocations.add(checkpointLocation);
+        }
+        freedLocations.addAll(logLocations);
+        for (Location location : freedLocations) {
+            usedSectors.clear(location.sector, location.sector + location.getSectorCount());
+        }
+        this.generation++;
+        this.index = newIndex;
+        this.checkpointLocation = newCheckpoint;
+        this.checkpointCrc = newCheckpointCrc;
+        this.logLocations.clear();
+        this.logTailCrc = 0;
+
+        long end = (long) usedSectors.length() * SECTOR_SIZE;
+        if (channel.size() > end) {
+            channel.truncate(end);
+        }
+    }
+
+    private byte[] writeEntries(Map<String, Location> entries, byte[] prefix) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(prefix.length + 4 + entries.size() * 48);
+        DataOutputStream stream = new DataOutputStream(bytes);
+        stream.write(prefix);
+        stream.writeInt(entries.size());
+        for (Entry<String, Location> entry : entries.entrySet()) {
+            stream.writeUTF(entry.getKey());
+            stream.writeInt(entry.getValue().sector);
+            stream.writeInt(entry.getValue().length);
+        }
+        stream.flush();
+        return bytes.toByteArray();
+    }
+
+    private void writeFully(byte[] data, Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long position = (long) location.sector * SECTOR_SIZE;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private void writeHeader(long generation, Location checkpoint, int checkpointCrc, Location logTail,
+            int logTailCrc) throws IOException {
+        byte[] slot = new byte[HEADER_SLOT_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(slot);
+        buffer.putInt(HEADER_MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putLong(generation);
+        buffer.putInt(checkpoint == null ? 0 : checkpoint.sector);
+        buffer.putInt(checkpoint == null ? 0 : checkpoint.length);
+        buffer.putInt(checkpointCrc);
+        buffer.putInt(logTail == null ? 0 : logTail.sector);
+        buffer.putInt(logTail == null ? 0 : logTail.length);
+        buffer.putInt(logTailCrc);
+        buffer.putInt(HEADER_SLOT_SIZE - 4, crc(slot, 0, HEADER_SLOT_SIZE - 4));
+        buffer.rewind();
+
+        // Alternate between the slots, so that the current slot stays intact
+        long position = HEADER_SLOT_OFFSETS[(int) (generation % HEADER_SLOT_OFFSETS.length)];
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Adds a log record with the locations of the chests that were just
+     * written.
+     */
+    private void writeLogRecord(Map<String, Location> written, List<Location> freedLocations,
+            List<Location> allocatedLocations, boolean force) throws IOException {
+        // Each record starts with the location and checksum of the previous
+        // record
+        Location previous = logLocations.isEmpty() ? null : logLocations.get(logLocations.size() - 1);
+        ByteBuffer prefix = ByteBuffer.allocate(12);
+        prefix.putInt(previous == null ? 0 : previous.sector);
+        prefix.putInt(previous == null ? 0 : previous.length);
+        prefix.putInt(previous == null ? 0 : logTailCrc);
+
+        byte[] recordBytes = writeEntries(written, prefix.array());
+        Location record = new Location(allocate(sectorsFor(recordBytes.length)), recordBytes.length);
+        allocatedLocations.add(record);
+        writeFully(recordBytes, record);
+        if (force) {
+            channel.force(false);
+        }
+
+        // Point the unused header slot to the new record
+        int recordCrc = crc(recordBytes, 0, recordBytes.length);
+        writeHeader(generation + 1, checkpointLocation, checkpointCrc, record, recordCrc);
+        if (force) {
+            channel.force(false);
+        }
+
+        // Success, the old data can now be overwritten
+        for (Location location : freedLocations) {
+            usedSectors.clear(location.sector, location.sector + location.getSectorCount());
+        }
+        this.generation++;
+        this.index.putAll(written);
+        this.logLocations.add(record);
+        this.logTailCrc = recordCrc;
+    }
+}
@@ -0,0 +1,30 @@
+package nl.rutgerkok.betterenderchest.io.file;
+
+/**
+ * When chest files are forced to disk. Forcing files to disk protects against
+ * losing recently saved chests when the machine (not just the server)
+ * crashes, but it is slow.
+ *
+ */
+public enum FsyncMode {
+    /**
+     * Never force files to disk, the operating system decides when the data is
+     * written. Files are still replaced atomically, so a chest file is never
+     * half-written, but a power loss can undo recent saves. This is the
+     * default, and what older versions always did.
+     */
+    NONE,
+    /**
+     * All chests saved at the same time are written first, then all of them
+     * are forced to disk, and only then they replace the old files. Each new
+     * file still needs its own fsync, but the directory is forced once per
+     * batch instead of once per chest. Much slower than {@link #NONE} on most
+     * disks.
+     */
+    PER_BATCH,
+    /**
+     * Each chest file is forced to disk on its own before it replaces the old
+     * file. This is the slowest mode.
+     */
+    PER_FILE
+}
@@ -0,0 +1,318 @@
+package nl.rutgerkok.betterenderchest.io.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.bukkit.inventory.Inventory;
+
+import com.google.common.base.Preconditions;
+
+import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
+import nl.rutgerkok.betterenderchest.exception.ChestNotFoundException;
+import nl.rutgerkok.betterenderchest.io.ChestLister;
+import nl.rutgerkok.betterenderchest.io.ChestLoader;
+import nl.rutgerkok.betterenderchest.io.ChestSaver;
+import nl.rutgerkok.betterenderchest.io.SaveEntry;
+import nl.rutgerkok.betterenderchest.nms.NMSHandler;
+
+/**
+ * Loads and saves Ender Chests using region files: many chests are stored in a
+ * single file. Each world group has {@value #SHARD_COUNT} region files, a chest
+ * is placed in one of them based on the hash of its owner.
+ *
+ * <p>
+ * Chests that are not yet in a region file are loaded from the
+ * one-file-per-chest format of {@link BetterEnderFileHandler}. They are stored
+ * in a region file the next time they are saved, or when
+ * {@link #convertLegacyFiles(WorldGroup)} is called.
+ *
+ */
+public final class RegionChestHandler implements ChestLister, ChestLoader, ChestSaver, Closeable {
+
+    /**
+     * Number of chests converted in one write.
+     */
+    private static final int CONVERSION_BATCH_SIZE = 256;
+    private static final String LEGACY_EXTENSION = ".dat";
+    private static final String REGION_FILE_PREFIX = "chests-";
+    private static final String REGION_FILE_EXTENSION = ".becr";
+    private static final int SHARD_COUNT = 64;
+
+    private final File chestFolder;
+    private final FsyncMode fsyncMode;
+    private final NMSHandler nmsHandler;
+    private final Map<Path, ChestRegionFile> openRegions = new HashMap<>();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param nmsHandler
+     *            The nms handler, for reading NBT.
+     * @param chestFolder
+     *            The folder to save the chests in. Subfolders are created for
+     *            world groups.
+     * @param fsyncMode
+     *            When saved chests are forced to disk.
+     */
+    public RegionChestHandler(NMSHandler nmsHandler, File chestFolder, FsyncMode fsyncMode) {
+        this.nmsHandler = Preconditions.checkNotNull(nmsHandler, "nmsHandler");
+        this.chestFolder = Preconditions.checkNotNull(chestFolder, "chestFolder");
+        this.fsyncMode = Preconditions.checkNotNull(fsyncMode, "fsyncMode");
+    }
+
+    /**
+     * Closes all region files. Region files are opened again when needed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (ChestRegionFile regionFile : openRegions.values()) {
+            try {
+                regionFile.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        openRegions.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Moves all chests of the given group that are still stored in separate
+     * files to the region files. Chests that are already in a region file are
+     * not overwritten, as the region file is always newer. The separate files
+     * are deleted afterwards. Files that are not compressed NBT files are
+     * left alone and added to the given collection.
+     *
+     * @param worldGroup
+     *            The world group to convert.
+     * @param invalidFiles
+     *            Files that could not be converted are added to this
+     *            collection.
+     * @return The number of files that were converted.
+     * @throws IOException
+     *             If reading or writing fails. Files that were converted
+     *             before the error occurred stay converted.
+     */
+    public int convertLegacyFiles(WorldGroup worldGroup, Collection<Path> invalidFiles) throws IOException {
+        Path directory = getChestDirectory(worldGroup).toPath();
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+
+        int converted = 0;
+        Map<ChestRegionFile, Map<String, Path>> batch = new HashMap<>();
+        int batchSize = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + LEGACY_EXTENSION)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                String key = fileName.substring(0, fileName.length() - LEGACY_EXTENSION.length());
+                batch.computeIfAbsent(getRegionFile(worldGroup, key), region -> new LinkedHashMap<>()).put(key, file);
+                batchSize++;
+                if (batchSize >= CONVERSION_BATCH_SIZE) {
+                    converted += convertLegacyFiles(batch, invalidFiles);
+                    batch.clear();
+                    batchSize = 0;
+                }
+            }
+        }
+        converted += convertLegacyFiles(batch, invalidFiles);
+        return converted;
+    }
+
+    private int convertLegacyFiles(Map<ChestRegionFile, Map<String, Path>> batch, Collection<Path> invalidFiles)
+            throws IOException {
+        int converted = 0;
+        for (Entry<ChestRegionFile, Map<String, Path>> region : batch.entrySet()) {
+            // The legacy files are compressed NBT too, so they can be copied
+            Map<String, byte[]> chests = new LinkedHashMap<>();
+            for (Entry<String, Path> file : region.getValue().entrySet()) {
+                byte[] data = Files.readAllBytes(file.getValue());
+                if (data.length < 2 || data[0] != (byte) 0x1f || data[1] != (byte) 0x8b) {
+                    // Not a compressed NBT file, leave it for the admin
+                    invalidFiles.add(file.getValue());
+                    continue;
+                }
+                chests.put(file.getKey(), data);
+            }
+            Set<String> skipped = region.getKey().write(chests, true, fsyncMode != FsyncMode.NONE);
+            converted += chests.size() - skipped.size();
+
+            for (String key : chests.keySet()) {
+                Files.deleteIfExists(region.getValue().get(key));
+            }
+        }
+        return converted;
+    }
+
+    private File getChestDirectory(WorldGroup worldGroup) {
+        if (worldGroup.getGroupName().equals(BetterEnderChest.STANDARD_GROUP_NAME)) {
+            return chestFolder;
+        } else {
+            return new File(chestFolder, worldGroup.getGroupName());
+        }
+    }
+
+    private synchronized ChestRegionFile getRegionFile(Path file) throws IOException {
+        ChestRegionFile regionFile = openRegions.get(file);
+        if (regionFile == null) {
+            regionFile = ChestRegionFile.open(file);
+            openRegions.put(file, regionFile);
+        }
+        return regionFile;
+    }
+
+    private ChestRegionFile getRegionFile(WorldGroup worldGroup, String key) throws IOException {
+        return getRegionFile(getRegionFilePath(worldGroup, key));
+    }
+
+    private Path getRegionFilePath(WorldGroup worldGroup, String key) {
+        int shard = Math.floorMod(key.hashCode(), SHARD_COUNT);
+        return new File(getChestDirectory(worldGroup), REGION_FILE_PREFIX + shard + REGION_FILE_EXTENSION).toPath();
+    }
+
+    /**
+     * Reads a chest from its region file. Region files that don't exist are
+     * not created, so looking up chests never creates files.
+     *
+     * @param worldGroup
+     *            The group of the chest.
+     * @param key
+     *            The key of the chest.
+     * @return The chest data, or null if not stored in a region file.
+     * @throws IOException
+     *             If reading fails.
+     */
+    private byte[] readFromRegionFile(WorldGroup worldGroup, String key) throws IOException {
+        Path file = getRegionFilePath(worldGroup, key);
+        synchronized (this) {
+            if (!openRegions.containsKey(file) && !Files.exists(file)) {
+                return null;
+            }
+        }
+        return getRegionFile(file).read(key);
+    }
+
+    @Override
+    public Set<String> listChests(WorldGroup worldGroup) throws IOException {
+        Set<String> chests = new LinkedHashSet<>();
+        Path directory = getChestDirectory(worldGroup).toPath();
+        if (!Files.isDirectory(directory)) {
+            return chests;
+        }
+
+        // Only existing region files, don't create all shards
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, REGION_FILE_PREFIX + "*" + REGION_FILE_EXTENSION)) {
+            for (Path file : files) {
+                chests.addAll(getRegionFile(file).getKeys());
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + LEGACY_EXTENSION)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                chests.add(fileName.substring(0, fileName.length() - LEGACY_EXTENSION.length()));
+            }
+        }
+        return chests;
+    }
+
+    @Override
+    public Inventory loadInventory(ChestOwner chestOwner, WorldGroup worldGroup) throws ChestNotFoundException, IOException {
+        String key = chestOwner.getSaveFileName();
+        byte[] data = readFromRegionFile(worldGroup, key);
+        if (data != null) {
+            return nmsHandler.loadNBTInventoryFromBytes(data, chestOwner, worldGroup);
+        }
+
+        // Not converted yet?
+        File legacyFile = new File(getChestDirectory(worldGroup), key + LEGACY_EXTENSION);
+        if (legacyFile.exists()) {
+            return nmsHandler.loadNBTInventoryFromFile(legacyFile, chestOwner, worldGroup, "Inventory");
+        }
+
+        // Maybe it was converted just now
+        data = readFromRegionFile(worldGroup, key);
+        if (data != null) {
+            return nmsHandler.loadNBTInventoryFromBytes(data, chestOwner, worldGroup);
+        }
+        throw new ChestNotFoundException(chestOwner, worldGroup);
+    }
+
+    @Override
+    public void saveChest(SaveEntry saveEntry) throws IOException {
+        IOException failure = saveChests(Collections.singletonList(saveEntry)).get(saveEntry);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * All chests that end up in the same region file are written in a single
+     * step, so they are also forced to disk together.
+     */
+    @Override
+    public Map<SaveEntry, IOException> saveChests(List<SaveEntry> saveEntries) {
+        Map<SaveEntry, IOException> failures = new HashMap<>();
+
+        Map<ChestRegionFile, List<SaveEntry>> byRegion = new LinkedHashMap<>();
+        for (SaveEntry saveEntry : saveEntries) {
+            try {
+                ChestRegionFile regionFile = getRegionFile(saveEntry.getWorldGroup(), saveEntry.getChestOwner().getSaveFileName());
+                byRegion.computeIfAbsent(regionFile, region -> new ArrayList<>()).add(saveEntry);
+            } catch (IOException e) {
+                failures.put(saveEntry, e);
+            }
+        }
+
+        for (Entry<ChestRegionFile, List<SaveEntry>> region : byRegion.entrySet()) {
+            Map<String, byte[]> chests = new LinkedHashMap<>();
+            List<SaveEntry> written = new ArrayList<>();
+            for (SaveEntry saveEntry : region.getValue()) {
+                try {
+                    chests.put(saveEntry.getChestOwner().getSaveFileName(), nmsHandler.saveInventoryToBytes(saveEntry));
+                    written.add(saveEntry);
+                } catch (IOException e) {
+                    failures.put(saveEntry, e);
+                }
+            }
+
+            try {
+                region.getKey().write(chests, false, fsyncMode != FsyncMode.NONE);
+            } catch (IOException e) {
+                for (SaveEntry saveEntry : written) {
+                    failures.put(saveEntry, e);
+                }
+                continue;
+            }
+
+            // The separate file is outdated now
+            for (SaveEntry saveEntry : written) {
+                File legacyFile = new File(getChestDirectory(saveEntry.getWorldGroup()),
+                        saveEntry.getChestOwner().getSaveFileName() + LEGACY_EXTENSION);
+                legacyFile.delete();
+            }
+        }
+        return failures;
+    }
+}
@@ -0,0 +1,43 @@
+package nl.rutgerkok.betterenderchest.io.file;
+
+import java.io.IOException;
+
+import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.io.SimpleEnderCache;
+
+/**
+ * A variant of {@link SimpleEnderCache} that stores chests in region files
+ * using a {@link RegionChestHandler}. The region files are closed in the
+ * {@link #disable()} method.
+ *
+ */
+public final class RegionEnderCache extends SimpleEnderCache {
+
+    private final RegionChestHandler regionHandler;
+
+    public RegionEnderCache(BetterEnderChest plugin, RegionChestHandler regionHandler) {
+        super(plugin, regionHandler, regionHandler);
+        this.regionHandler = regionHandler;
+    }
+
+    @Override
+    public void disable() {
+        super.disable();
+
+        try {
+            regionHandler.close();
+        } catch (IOException e) {
+            plugin.severe("Failed to close region files", e);
+        }
+    }
+
+    /**
+     * Gets the handler that reads and writes the region files.
+     *
+     * @return The handler.
+     */
+    public RegionChestHandler getRegionHandler() {
+        return regionHandler;
+    }
+
+}
@@ -0,0 +1,394 @@
+package nl.rutgerkok.betterenderchest.io.journal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of saved chests, stored in a directory as a series of
+ * segment files. Every record gets a sequence number, which is one higher
+ * than the previous one.
+ *
+ * <p>
+ * Each record is written as a magic number, the sequence number, the save
+ * file name of the chest, the name of its group, the chest data and a CRC of
+ * all of that. A record that was only partly written because the server
+ * crashed fails the CRC check, and ends the segment it is in.
+ *
+ * <p>
+ * Segments are deleted once all of their records are
+ * {@link #markFlushed(long) flushed}. All methods are synchronized.
+ */
+final class SaveJournal implements Closeable {
+
+    /**
+     * A chest in the journal.
+     */
+    static final class Record {
+        private final String chestName;
+        private final byte[] data;
+        private final String groupName;
+        private final long sequence;
+
+        Record(long sequence, String chestName, String groupName, byte[] data) {
+            this.sequence = sequence;
+            this.chestName = Objects.requireNonNull(chestName, "chestName");
+            this.groupName = Objects.requireNonNull(groupName, "groupName");
+            this.data = Objects.requireNonNull(data, "data");
+        }
+
+        /**
+         * Gets the save file name of the chest.
+         *
+         * @return The name.
+         */
+        String getChestName() {
+            return chestName;
+        }
+
+        /**
+         * Gets the chest, as stored by the NMS handler.
+         *
+         * @return The data.
+         */
+        byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Gets the name of the group of the chest.
+         *
+         * @return The name.
+         */
+        String getGroupName() {
+            return groupName;
+        }
+
+        /**
+         * Gets the sequence number of the record.
+         *
+         * @return The sequence number.
+         */
+        long getSequence() {
+            return sequence;
+        }
+    }
+
+    /**
+     * A file of the journal.
+     */
+    private static final class Segment {
+        private final Path file;
+        private final long firstSequence;
+        /**
+         * Sequence number of the last record, or one less than
+         * {@link #firstSequence} if the segment is empty.
+         */
+        private long lastSequence;
+
+        Segment(Path file, long firstSequence) {
+            this.file = file;
+            this.firstSequence = firstSequence;
+            this.lastSequence = firstSequence - 1;
+        }
+
+        boolean isEmpty() {
+            return lastSequence < firstSequence;
+        }
+    }
+
+    private static final int MAGIC = 0x4245434a; // "BECJ"
+    /**
+     * Records larger than this are considered corrupted.
+     */
+    private static final int MAX_DATA_LENGTH = 64 * 1024 * 1024;
+    private static final String SEGMENT_EXTENSION = ".journal";
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encodeBody(long sequence, String chestName, String groupName, byte[] data)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(sequence);
+        out.writeUTF(chestName);
+        out.writeUTF(groupName);
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Opens the journal in the given directory, creating the directory if
+     * needed. All records in the directory can be read once using
+     * {@link #takeRecords()}. New records are always written to a new
+     * segment, so that they never follow a half-written record.
+     *
+     * @param directory
+     *            The directory.
+     * @param maxSegmentBytes
+     *            When a segment becomes larger than this, a new segment is
+     *            started.
+     * @param force
+     *            Whether appended records must be forced to disk.
+     * @return The journal.
+     * @throws IOException
+     *             If the directory cannot be read.
+     */
+    static SaveJournal open(Path directory, long maxSegmentBytes, boolean force) throws IOException {
+        Files.createDirectories(directory);
+        List<Segment> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_EXTENSION)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                try {
+                    long firstSequence = Long.parseLong(fileName.substring(0,
+                            fileName.length() - SEGMENT_EXTENSION.length()));
+                    segments.add(new Segment(file, firstSequence));
+                } catch (NumberFormatException e) {
+                    // Not a segment
+                }
+            }
+        }
+        Collections.sort(segments, (a, b) -> Long.compare(a.firstSequence, b.firstSequence));
+
+        List<Record> records = new ArrayList<>();
+        List<String> problems = new ArrayList<>();
+        long nextSequence = 1;
+        for (Segment segment : segments) {
+            String problem = readSegment(segment, records);
+            if (problem != null) {
+                problems.add(segment.file.getFileName() + ": " + problem);
+            }
+            // Never reuse the name of an existing segment
+            nextSequence = Math.max(nextSequence, Math.max(segment.lastSequence, segment.firstSequence) + 1);
+        }
+        return new SaveJournal(directory, segments, records, problems, nextSequence, maxSegmentBytes, force);
+    }
+
+    /**
+     * Reads all complete records of a segment.
+     *
+     * @param segment
+     *            The segment, its last sequence number is updated.
+     * @param records
+     *            The records are added to this list.
+     * @return Null if the segment was read completely, otherwise a
+     *         description of the problem.
+     * @throws IOException
+     *             If the file cannot be read.
+     */
+    private static String readSegment(Segment segment, List<Record> records) throws IOException {
+        try (InputStream stream = Files.newInputStream(segment.file)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            while (true) {
+                int magic;
+                try {
+                    magic = in.readInt();
+                } catch (EOFException e) {
+                    return null;
+                }
+                if (magic != MAGIC) {
+                    return "invalid record after sequence number " + segment.lastSequence;
+                }
+                try {
+                    long sequence = in.readLong();
+                    String chestName = in.readUTF();
+                    String groupName = in.readUTF();
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_DATA_LENGTH) {
+                        return "invalid record length " + length + " after sequence number " + segment.lastSequence;
+                    }
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    int crc = in.readInt();
+                    if (crc != crc(encodeBody(sequence, chestName, groupName, data))) {
+                        return "checksum mismatch for sequence number " + sequence;
+                    }
+                    records.add(new Record(sequence, chestName, groupName, data));
+                    segment.lastSequence = sequence;
+                } catch (EOFException e) {
+                    return "incomplete record after sequence number " + segment.lastSequence;
+                }
+            }
+        }
+    }
+
+    private FileChannel channel;
+    private Segment current;
+    private final Path directory;
+    private final boolean force;
+    private final long maxSegmentBytes;
+    private long nextSequence;
+    private final List<String> problems;
+    private List<Record> records;
+    private final List<Segment> segments;
+
+    private SaveJournal(Path directory, List<Segment> segments, List<Record> records, List<String> problems,
+            long nextSequence, long maxSegmentBytes, boolean force) {
+        this.directory = directory;
+        this.segments = segments;
+        this.records = records;
+        this.problems = problems;
+        this.nextSequence = nextSequence;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.force = force;
+    }
+
+    /**
+     * Appends chests to the journal. If forcing is enabled, all chests are
+     * forced to disk together before this method returns.
+     *
+     * @param chests
+     *            The chests. The sequence numbers of these records are
+     *            ignored.
+     * @return The sequence numbers given to the chests, in the same order.
+     * @throws IOException
+     *             If writing fails.
+     */
+    synchronized long[] append(List<Record> chests) throws IOException {
+        ensureOpen();
+        long[] sequences = new long[chests.size()];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < sequences.length; i++) {
+            Record chest = chests.get(i);
+            sequences[i] = nextSequence + i;
+            byte[] body = encodeBody(sequences[i], chest.getChestName(), chest.getGroupName(), chest.getData());
+            out.writeInt(MAGIC);
+            out.write(body);
+            out.writeInt(crc(body));
+        }
+        out.flush();
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (force) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            // The segment may now end with a half-written record, so nothing
+            // can be appended to it anymore
+            nextSequence += sequences.length;
+            try {
+                closeCurrent();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        nextSequence += sequences.length;
+        current.lastSequence = nextSequence - 1;
+
+        if (channel.size() > maxSegmentBytes) {
+            closeCurrent();
+        }
+        return sequences;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeCurrent();
+    }
+
+    private void closeCurrent() throws IOException {
+        FileChannel channel = this.channel;
+        if (channel != null) {
+            this.channel = null;
+            this.current = null;
+            channel.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        Segment segment = new Segment(directory.resolve(String.format("%020d", nextSequence) + SEGMENT_EXTENSION),
+                nextSequence);
+        channel = FileChannel.open(segment.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        current = segment;
+        segments.add(segment);
+    }
+
+    /**
+     * Gets the sequence number that the next record will get.
+     *
+     * @return The sequence number.
+     */
+    synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Gets the problems found while opening the journal, like a record that
+     * was only partly written.
+     *
+     * @return The problems, empty if there were none.
+     */
+    synchronized List<String> getProblems() {
+        return new ArrayList<>(problems);
+    }
+
+    /**
+     * Marks all records with a lower sequence number as flushed. Segments
+     * containing only such records are deleted.
+     *
+     * @param sequence
+     *            The sequence number.
+     * @throws IOException
+     *             If deleting a segment fails.
+     */
+    synchronized void markFlushed(long sequence) throws IOException {
+        if (current != null && !current.isEmpty() && current.lastSequence < sequence) {
+            // Everything in the current segment is flushed, start a new one
+            closeCurrent();
+        }
+        for (Iterator<Segment> it = segments.iterator(); it.hasNext();) {
+            Segment segment = it.next();
+            if (segment == current || segment.lastSequence >= sequence) {
+                continue;
+            }
+            Files.deleteIfExists(segment.file);
+            it.remove();
+        }
+    }
+
+    /**
+     * Gets the records that were in the journal when it was opened, in the
+     * order they were written. Can only be called once.
+     *
+     * @return The records.
+     */
+    synchronized List<Record> takeRecords() {
+        List<Record> records = this.records;
+        this.records = Collections.emptyList();
+        return records;
+    }
+}
@@ -0,0 +1,561 @@
+package nl.rutgerkok.betterenderchest.io.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.bukkit.inventory.Inventory;
+import org.bukkit.scheduler.BukkitTask;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+
+import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.BetterEnderChestPlugin.WriteBehind;
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
+import nl.rutgerkok.betterenderchest.exception.ChestNotFoundException;
+import nl.rutgerkok.betterenderchest.io.ChestLister;
+import nl.rutgerkok.betterenderchest.io.ChestLoader;
+import nl.rutgerkok.betterenderchest.io.ChestSaver;
+import nl.rutgerkok.betterenderchest.io.SaveEntry;
+import nl.rutgerkok.betterenderchest.io.file.FsyncMode;
+import nl.rutgerkok.betterenderchest.metrics.Counter;
+import nl.rutgerkok.betterenderchest.metrics.LatencyHistogram;
+import nl.rutgerkok.betterenderchest.nms.NMSHandler;
+
+/**
+ * Saves chests to a local {@link SaveJournal} first, and copies them from
+ * there to the real storage in the background. Saving a chest therefore only
+ * waits for the local disk: when the database is slow or down, the chests
+ * wait in the journal until it is back, instead of locking all chests.
+ *
+ * <p>
+ * Chests that are in the journal but not yet in the real storage are loaded
+ * from the journal. When the store is opened, the chests that were left in
+ * the journal by the previous run are read back before anything else can be
+ * loaded. They are copied to the real storage in the background, like all
+ * other chests.
+ *
+ * <p>
+ * A chest that the real storage rejects is retried later, with a growing
+ * delay, while the other chests are still copied. It is written to the end
+ * of the journal again, so that it doesn't keep old journal segments around.
+ * A chest that cannot even be read back from the journal is moved to the
+ * {@value #REJECTED_DIRECTORY} directory next to the journal.
+ *
+ * <p>
+ * Chests are copied to the real storage without checking what is stored
+ * there already, so a chest saved in the meantime by another server would be
+ * overwritten with an older version. This store must therefore only be used
+ * by a single server.
+ *
+ */
+public final class WriteBehindChestStore implements ChestLister, ChestLoader, ChestSaver, Closeable {
+
+    private static final class ChestKey {
+
+        private final ChestOwner chestOwner;
+        private final WorldGroup worldGroup;
+
+        ChestKey(ChestOwner chestOwner, WorldGroup worldGroup) {
+            this.worldGroup = Preconditions.checkNotNull(worldGroup, "worldGroup");
+            this.chestOwner = Preconditions.checkNotNull(chestOwner, "chestOwner");
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            ChestKey other = (ChestKey) obj;
+            if (!chestOwner.equals(other.chestOwner)) {
+                return false;
+            }
+            if (!worldGroup.equals(other.worldGroup)) {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int prime = 31;
+            int result = 1;
+            result = prime * result + chestOwner.hashCode();
+            result = prime * result + worldGroup.hashCode();
+            return result;
+        }
+    }
+
+    /**
+     * A chest that is in the journal, but not yet in the real storage.
+     */
+    private static final class PendingChest {
+        private final byte[] data;
+        /**
+         * Number of times the real storage rejected this chest. Only accessed
+         * while holding {@link WriteBehindChestStore#flushLock}.
+         */
+        private int failedAttempts;
+        private final ChestKey key;
+        /**
+         * The {@link System#nanoTime()} before which the chest is not copied
+         * again. Only accessed while holding
+         * {@link WriteBehindChestStore#flushLock}.
+         */
+        private long retryAt;
+        /**
+         * The chest as it was saved, or null if the chest was read back from
+         * the journal.
+         */
+        private final SaveEntry saveEntry;
+        private final long sequence;
+
+        PendingChest(ChestKey key, long sequence, byte[] data, SaveEntry saveEntry) {
+            this.key = key;
+            this.sequence = sequence;
+            this.data = data;
+            this.saveEntry = saveEntry;
+        }
+    }
+
+    /**
+     * Longest delay before a rejected chest is copied again.
+     */
+    private static final long MAX_RETRY_DELAY_SECONDS = 300;
+
+    /**
+     * Directory, next to the journal, for chests that could not be read back
+     * from the journal.
+     */
+    static final String REJECTED_DIRECTORY = "rejected";
+
+    /**
+     * Opens the journal in the given directory and reads back the chests that
+     * were left in it. The chests are not copied to the real storage until
+     * {@link #startFlushing()} is called.
+     *
+     * @param plugin
+     *            The plugin.
+     * @param nmsHandler
+     *            Used to convert chests to bytes and back.
+     * @param directory
+     *            Directory of the journal.
+     * @param fsyncMode
+     *            Whether journal writes are forced to disk.
+     * @param backendLoader
+     *            Loads chests from the real storage.
+     * @param backendSaver
+     *            Saves chests to the real storage.
+     * @return The store.
+     * @throws IOException
+     *             If the journal cannot be read, or contains a chest of an
+     *             unknown player or group.
+     */
+    public static WriteBehindChestStore open(BetterEnderChest plugin, NMSHandler nmsHandler, File directory,
+            FsyncMode fsyncMode, ChestLoader backendLoader, ChestSaver backendSaver) throws IOException {
+        SaveJournal journal = SaveJournal.open(directory.toPath(), WriteBehind.segmentSizeMegabytes * 1024L * 1024L,
+                fsyncMode != FsyncMode.NONE);
+        WriteBehindChestStore store = new WriteBehindChestStore(plugin, nmsHandler, journal,
+                new File(directory.getParentFile(), REJECTED_DIRECTORY), backendLoader, backendSaver);
+        try {
+            store.replay();
+        } catch (IOException | RuntimeException e) {
+            try {
+                journal.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        return store;
+    }
+
+    private final ChestLoader backendLoader;
+    private final ChestSaver backendSaver;
+    /**
+     * Only accessed while holding {@link #flushLock}.
+     */
+    private boolean backendFailing;
+    private final Counter flushFailures;
+    private final Lock flushLock = new ReentrantLock();
+    private BukkitTask flushTask;
+    private final LatencyHistogram flushTime;
+    private final SaveJournal journal;
+    private final NMSHandler nmsHandler;
+    private final ConcurrentMap<ChestKey, PendingChest> pending = new ConcurrentHashMap<>();
+    private final BetterEnderChest plugin;
+    private final File rejectedDirectory;
+
+    private WriteBehindChestStore(BetterEnderChest plugin, NMSHandler nmsHandler, SaveJournal journal,
+            File rejectedDirectory, ChestLoader backendLoader, ChestSaver backendSaver) {
+        this.plugin = Preconditions.checkNotNull(plugin, "plugin");
+        this.nmsHandler = Preconditions.checkNotNull(nmsHandler, "nmsHandler");
+        this.journal = journal;
+        this.rejectedDirectory = rejectedDirectory;
+        this.backendLoader = Preconditions.checkNotNull(backendLoader, "backendLoader");
+        this.backendSaver = Preconditions.checkNotNull(backendSaver, "backendSaver");
+
+        String backend = backendSaver.getClass().getSimpleName();
+        this.flushFailures = plugin.getMetrics().counter("betterenderchest_journal_flush_failures_total",
+                "Chests that could not be copied from the save journal to the backend yet", "backend", backend);
+        this.flushTime = plugin.getMetrics().histogram("betterenderchest_journal_flush_seconds",
+                "Time taken to copy one batch of chests from the save journal to the backend", "backend", backend);
+        plugin.getMetrics().gauge("betterenderchest_journal_pending_chests",
+                "Chests in the save journal that are not yet in the backend", new Supplier<Integer>() {
+                    @Override
+                    public Integer get() {
+                        return pending.size();
+                    }
+                });
+    }
+
+    /**
+     * Adds chests to the journal. When this method returns, the chests can be
+     * loaded again and will be copied to the real storage.
+     *
+     * @param chests
+     *            The chests, with their data.
+     * @throws IOException
+     *             If writing to the journal fails.
+     */
+    private void append(Map<SaveEntry, byte[]> chests) throws IOException {
+        List<SaveJournal.Record> records = new ArrayList<>(chests.size());
+        for (Entry<SaveEntry, byte[]> chest : chests.entrySet()) {
+            SaveEntry saveEntry = chest.getKey();
+            records.add(new SaveJournal.Record(0, saveEntry.getChestOwner().getSaveFileName(),
+                    saveEntry.getWorldGroup().getGroupName(), chest.getValue()));
+        }
+
+        // Appending and updating the pending chests must happen together,
+        // see updateFlushedSequence()
+        synchronized (this) {
+            long[] sequences = journal.append(records);
+            int i = 0;
+            for (Entry<SaveEntry, byte[]> chest : chests.entrySet()) {
+                SaveEntry saveEntry = chest.getKey();
+                ChestKey key = new ChestKey(saveEntry.getChestOwner(), saveEntry.getWorldGroup());
+                pending.put(key, new PendingChest(key, sequences[i++], chest.getValue(), saveEntry));
+            }
+        }
+    }
+
+    /**
+     * Stops copying chests in the background, and makes a last attempt to
+     * copy all chests to the real storage. Chests that could not be copied
+     * stay in the journal, and are copied when the store is opened again.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (flushTask != null) {
+                flushTask.cancel();
+                flushTask = null;
+            }
+        }
+        flush();
+        if (!pending.isEmpty()) {
+            plugin.warning(pending.size() + " chests are still in the save journal. They will be saved when"
+                    + " the plugin is enabled again.");
+        }
+        journal.close();
+    }
+
+    /**
+     * Copies all chests that are in the journal to the real storage, in
+     * batches. Chests that are rejected on their own are retried later, see
+     * {@link #retryLater(PendingChest)}. Stops at the first batch of which all
+     * chests are rejected, as then the real storage itself is probably
+     * failing. The next run will try all chests again.
+     */
+    void flush() {
+        flushLock.lock();
+        try {
+            long now = System.nanoTime();
+            List<PendingChest> chests = new ArrayList<>(pending.size());
+            for (PendingChest chest : pending.values()) {
+                if (chest.failedAttempts == 0 || now - chest.retryAt >= 0) {
+                    chests.add(chest);
+                }
+            }
+
+            int batchSize = Math.max(1, WriteBehind.batchSize);
+            for (int start = 0; start < chests.size(); start += batchSize) {
+                if (!flushBatch(chests.subList(start, Math.min(chests.size(), start + batchSize)))) {
+                    break;
+                }
+            }
+            updateFlushedSequence();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Copies the given chests to the real storage.
+     *
+     * @param chests
+     *            The chests.
+     * @return False if the real storage rejected all chests, true otherwise.
+     */
+    private boolean flushBatch(List<PendingChest> chests) {
+        Map<SaveEntry, PendingChest> saveEntries = new LinkedHashMap<>();
+        for (PendingChest chest : chests) {
+            try {
+                saveEntries.put(toSaveEntry(chest), chest);
+            } catch (IOException | RuntimeException e) {
+                plugin.severe("Cannot read chest of " + chest.key.chestOwner.getDisplayName()
+                        + " from the save journal", e);
+                reject(chest);
+            }
+        }
+        if (saveEntries.isEmpty()) {
+            return true;
+        }
+
+        long startTime = System.nanoTime();
+        Map<SaveEntry, IOException> failures = backendSaver.saveChests(new ArrayList<>(saveEntries.keySet()));
+        flushTime.recordSince(startTime);
+        boolean allFailed = failures.size() == saveEntries.size();
+        for (Entry<SaveEntry, PendingChest> entry : saveEntries.entrySet()) {
+            PendingChest chest = entry.getValue();
+            if (!failures.containsKey(entry.getKey())) {
+                // Still pending if the chest was saved again in the meantime
+                pending.remove(chest.key, chest);
+            } else if (!allFailed) {
+                // Rejected on its own, so don't let it block the journal
+                retryLater(chest);
+            }
+        }
+
+        if (failures.isEmpty()) {
+            if (backendFailing) {
+                backendFailing = false;
+                plugin.log("Saving chests from the save journal works again.");
+            }
+            return true;
+        }
+
+        flushFailures.add(failures.size());
+        if (allFailed && !backendFailing) {
+            backendFailing = true;
+            IOException example = failures.values().iterator().next();
+            plugin.warning("Failed to save " + failures.size() + " chests from the save journal, will keep"
+                    + " retrying. The chests are safe in the journal. Cause: " + example.getMessage());
+        } else if (!allFailed) {
+            for (Entry<SaveEntry, IOException> failure : failures.entrySet()) {
+                plugin.warning("Failed to save chest of " + failure.getKey().getChestOwner().getDisplayName()
+                        + " from the save journal, will retry later: " + failure.getValue().getMessage());
+            }
+        }
+        return !allFailed;
+    }
+
+    @Override
+    public List<String> listChests(WorldGroup worldGroup) throws IOException {
+        Set<String> chests = new LinkedHashSet<>();
+        if (backendLoader instanceof ChestLister) {
+            chests.addAll(((ChestLister) backendLoader).listChests(worldGroup));
+        }
+        for (ChestKey key : pending.keySet()) {
+            if (key.worldGroup.equals(worldGroup)) {
+                chests.add(key.chestOwner.getSaveFileName());
+            }
+        }
+        return new ArrayList<>(chests);
+    }
+
+    @Override
+    public Inventory loadInventory(ChestOwner chestOwner, WorldGroup worldGroup) throws ChestNotFoundException,
+            IOException {
+        PendingChest chest = pending.get(new ChestKey(chestOwner, worldGroup));
+        if (chest != null) {
+            return nmsHandler.loadNBTInventoryFromBytes(chest.data, chestOwner, worldGroup);
+        }
+        return backendLoader.loadInventory(chestOwner, worldGroup);
+    }
+
+    /**
+     * Moves a chest that cannot be read back from the journal to the
+     * {@link #rejectedDirectory}, so that it no longer blocks the journal.
+     * The caller must hold the {@link #flushLock}.
+     *
+     * @param chest
+     *            The chest.
+     */
+    private void reject(PendingChest chest) {
+        File file = new File(rejectedDirectory, chest.key.worldGroup.getGroupName() + "-"
+                + chest.key.chestOwner.getSaveFileName() + "-" + chest.sequence + ".dat");
+        try {
+            Files.createDirectories(rejectedDirectory.toPath());
+            Files.write(file.toPath(), chest.data);
+        } catch (IOException e) {
+            plugin.severe("Failed to move the chest of " + chest.key.chestOwner.getDisplayName() + " out of the"
+                    + " save journal, will try again later", e);
+            return;
+        }
+        if (pending.remove(chest.key, chest)) {
+            plugin.warning("Moved the unreadable chest of " + chest.key.chestOwner.getDisplayName() + " to "
+                    + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Reads back the chests that were left in the journal.
+     *
+     * @throws IOException
+     *             If the journal contains a chest of an unknown player or
+     *             group.
+     */
+    private void replay() throws IOException {
+        for (String problem : journal.getProblems()) {
+            plugin.warning("Save journal was not written completely, probably because the server crashed: "
+                    + problem);
+        }
+        List<SaveJournal.Record> records = journal.takeRecords();
+        for (SaveJournal.Record record : records) {
+            WorldGroup worldGroup = plugin.getWorldGroupManager().getGroupByGroupName(record.getGroupName());
+            if (worldGroup == null) {
+                throw new IOException("The save journal contains a chest of the group " + record.getGroupName()
+                        + ", but that group no longer exists");
+            }
+            ChestOwner chestOwner = plugin.getChestOwners().fromSaveFileName(record.getChestName());
+            if (chestOwner == null) {
+                throw new IOException("The save journal contains a chest of " + record.getChestName()
+                        + ", which is not valid with the current UUID setting");
+            }
+            // Records are in order, so later records replace earlier ones
+            ChestKey key = new ChestKey(chestOwner, worldGroup);
+            pending.put(key, new PendingChest(key, record.getSequence(), record.getData(), null));
+        }
+        if (!records.isEmpty()) {
+            plugin.log("Found " + pending.size() + " chests in the save journal, they will be saved in the"
+                    + " background.");
+        }
+    }
+
+    /**
+     * Makes sure a chest that was rejected by the real storage is copied
+     * again later, after a delay that grows with every attempt. The chest is
+     * written to the end of the journal again, so that the older segments of
+     * the journal can be deleted. The caller must hold the {@link #flushLock}.
+     *
+     * @param chest
+     *            The chest.
+     */
+    private void retryLater(PendingChest chest) {
+        PendingChest retry = chest;
+        synchronized (this) {
+            if (pending.get(chest.key) != chest) {
+                // Saved again in the meantime, so the new version is copied
+                return;
+            }
+            try {
+                long[] sequences = journal.append(Collections.singletonList(new SaveJournal.Record(0,
+                        chest.key.chestOwner.getSaveFileName(), chest.key.worldGroup.getGroupName(), chest.data)));
+                retry = new PendingChest(chest.key, sequences[0], chest.data, chest.saveEntry);
+                pending.put(chest.key, retry);
+            } catch (IOException e) {
+                // Still in its old place in the journal
+                plugin.warning("Failed to move a chest to the end of the save journal: " + e.getMessage());
+            }
+        }
+        retry.failedAttempts = chest.failedAttempts + 1;
+        long delaySeconds = Math.min(MAX_RETRY_DELAY_SECONDS, 1L << Math.min(chest.failedAttempts, 16));
+        retry.retryAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(delaySeconds);
+    }
+
+    @Override
+    public void saveChest(SaveEntry saveEntry) throws IOException {
+        byte[] data = nmsHandler.saveInventoryToBytes(saveEntry);
+        append(Collections.singletonMap(saveEntry, data));
+    }
+
+    @Override
+    public Map<SaveEntry, IOException> saveChests(List<SaveEntry> saveEntries) {
+        Map<SaveEntry, IOException> failures = new LinkedHashMap<>();
+        Map<SaveEntry, byte[]> chests = new LinkedHashMap<>();
+        for (SaveEntry saveEntry : saveEntries) {
+            try {
+                chests.put(saveEntry, nmsHandler.saveInventoryToBytes(saveEntry));
+            } catch (IOException e) {
+                failures.put(saveEntry, e);
+            }
+        }
+        if (chests.isEmpty()) {
+            return failures;
+        }
+
+        try {
+            append(chests);
+        } catch (IOException e) {
+            // Nothing was added to the journal
+            for (SaveEntry saveEntry : chests.keySet()) {
+                failures.put(saveEntry, e);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Starts copying chests to the real storage in the background, on the
+     * save threads of the plugin.
+     */
+    public synchronized void startFlushing() {
+        if (flushTask != null) {
+            return;
+        }
+        flushTask = plugin.getExecutors().saveExecutor().executeTimer(WriteBehind.flushIntervalTicks,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+    }
+
+    private SaveEntry toSaveEntry(PendingChest chest) throws IOException {
+        if (chest.saveEntry != null) {
+            return chest.saveEntry;
+        }
+        return SaveEntry.copyOf(nmsHandler.loadNBTInventoryFromBytes(chest.data, chest.key.chestOwner,
+                chest.key.worldGroup));
+    }
+
+    /**
+     * Lets the journal delete the records that are in the real storage, or
+     * that were replaced by a newer record.
+     */
+    private synchronized void updateFlushedSequence() {
+        long flushed = journal.getNextSequence();
+        for (PendingChest chest : pending.values()) {
+            flushed = Math.min(flushed, chest.sequence);
+        }
+        try {
+            journal.markFlushed(flushed);
+        } catch (IOException e) {
+            plugin.warning("Failed to clean up the save journal: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * Write-behind saving: chests are first written to a local journal, and from
+ * there to the real storage.
+ *
+ */
+package nl.rutgerkok.betterenderchest.io.journal;
@@ -1,12 +1,20 @@
 package nl.rutgerkok.betterenderchest.io.mysql;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.SQLException;
 
 import nl.rutgerkok.betterenderchest.BetterEnderChest;
+import nl.rutgerkok.betterenderchest.BetterEnderChestPlugin.ChestIndexing;
+import nl.rutgerkok.betterenderchest.BetterEnderChestPlugin.WriteBehind;
 import nl.rutgerkok.betterenderchest.WorldGroup;
 import nl.rutgerkok.betterenderchest.io.BetterEnderCache;
+import nl.rutgerkok.betterenderchest.io.ChestLoader;
+import nl.rutgerkok.betterenderchest.io.ChestSaver;
 import nl.rutgerkok.betterenderchest.io.DiscardingEnderCache;
 import nl.rutgerkok.betterenderchest.io.SimpleEnderCache;
+import nl.rutgerkok.betterenderchest.io.file.FsyncMode;
+import nl.rutgerkok.betterenderchest.io.journal.WriteBehindChestStore;
 import nl.rutgerkok.betterenderchest.nms.NMSHandler;
 
 /**
@@ -14,10 +22,28 @@ import nl.rutgerkok.betterenderchest.nms.NMSHandler;
  * for a database. The connection with the database is closed in the
  * {@link #disable()} method.
  *
+ * <p>
+ * If {@link WriteBehind#enabled} is set, chests are saved to a
+ * {@link WriteBehindChestStore save journal} first, so that a slow or
+ * unavailable database doesn't hold up saving. The journal is copied to the
+ * database without checking whether another server has saved a newer version
+ * of a chest, so it is refused unless
+ * {@link WriteBehind#onlyServerUsingDatabase} is set too.
+ *
  */
 public final class BetterEnderSQLCache extends SimpleEnderCache {
 
-    public static final BetterEnderCache create(BetterEnderChest plugin) {
+    /**
+     * Connects to the database and creates the cache.
+     *
+     * @param plugin
+     *            The plugin.
+     * @param fsyncMode
+     *            Whether the save journal is forced to disk.
+     * @return The cache, or a {@link DiscardingEnderCache} if the database or
+     *         the save journal is not available.
+     */
+    public static final BetterEnderCache create(BetterEnderChest plugin, FsyncMode fsyncMode) {
         // Set up the connection
         DatabaseSettings settings = plugin.getDatabaseSettings();
         SQLHandler sqlHandler = null;
@@ -32,23 +58,63 @@ public final class BetterEnderSQLCache extends SimpleEnderCache {
         }
 
         NMSHandler nmsHandler = plugin.getNMSHandlers().getSelectedRegistration();
+        SQLChestLoader chestLoader = new SQLChestLoader(sqlHandler, nmsHandler);
+        SQLChestSaver chestSaver = new SQLChestSaver(sqlHandler, nmsHandler);
+        if (WriteBehind.enabled && !WriteBehind.onlyServerUsingDatabase) {
+            plugin.warning("WriteBehind.enabled is ignored, as other servers may use the same database. Set"
+                    + " WriteBehind.onlyServerUsingDatabase to true if this is the only server using the database.");
+            File leftOver = new File(plugin.getPluginFolder(), "saveJournal");
+            String[] leftOverFiles = leftOver.list();
+            if (leftOverFiles != null && leftOverFiles.length > 0) {
+                plugin.warning("The save journal in " + leftOver.getAbsolutePath() + " is not copied to the"
+                        + " database. It may still contain chests that were saved by an earlier run.");
+            }
+        }
+        if (!WriteBehind.enabled || !WriteBehind.onlyServerUsingDatabase) {
+            return new BetterEnderSQLCache(plugin, sqlHandler, chestLoader, chestSaver, null);
+        }
 
-        return new BetterEnderSQLCache(plugin, sqlHandler, nmsHandler);
+        // Read back what is still in the journal before serving any chest
+        WriteBehindChestStore journal;
+        try {
+            journal = WriteBehindChestStore.open(plugin, nmsHandler, new File(plugin.getPluginFolder(), "saveJournal"),
+                    fsyncMode, chestLoader, chestSaver);
+        } catch (IOException e) {
+            plugin.disableSaveAndLoad("Error reading the save journal", e);
+            try {
+                sqlHandler.closeConnection();
+            } catch (SQLException e1) {
+                plugin.severe("Failed to close connection with database", e1);
+            }
+            return new DiscardingEnderCache(plugin);
+        }
+        journal.startFlushing();
+        return new BetterEnderSQLCache(plugin, sqlHandler, journal, journal, journal);
     }
 
+    private final WriteBehindChestStore journal;
     private final SQLHandler sqlHandler;
 
-    private BetterEnderSQLCache(BetterEnderChest plugin, SQLHandler sqlHandler, NMSHandler nmsHandler) {
-        super(plugin,
-                new SQLChestLoader(sqlHandler, nmsHandler),
-                new SQLChestSaver(sqlHandler, nmsHandler));
+    private BetterEnderSQLCache(BetterEnderChest plugin, SQLHandler sqlHandler, ChestLoader chestLoader,
+            ChestSaver chestSaver, WriteBehindChestStore journal) {
+        // Other servers may add chests to the database
+        super(plugin, chestLoader, chestSaver, ChestIndexing.enabled && ChestIndexing.useForDatabase);
         this.sqlHandler = sqlHandler;
+        this.journal = journal;
     }
 
     @Override
     public void disable() {
         super.disable();
 
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                plugin.severe("Failed to close the save journal", e);
+            }
+        }
+
         try {
             sqlHandler.closeConnection();
         } catch (SQLException e) {
@@ -56,6 +122,4 @@ public final class BetterEnderSQLCache extends SimpleEnderCache {
         }
     }
 
- 
-
 }
@@ -0,0 +1,235 @@
+package nl.rutgerkok.betterenderchest.io.mysql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small pool of database connections. At most
+ * {@link DatabaseSettings#getMaxConnections()} connections are open at the same
+ * time. Connections are only validated when they have been idle for a while,
+ * instead of before every query.
+ *
+ */
+final class ConnectionPool {
+
+    /**
+     * Action that needs a connection.
+     *
+     * @param <T>
+     *            Type of the result.
+     */
+    interface ConnectionAction<T> {
+        T run(PooledConnection connection) throws SQLException;
+    }
+
+    /**
+     * A connection borrowed from the pool. Prepared statements are cached per
+     * query, so that they can be reused the next time this connection is
+     * borrowed.
+     *
+     */
+    static final class PooledConnection {
+        private final Connection connection;
+        private long lastUsed;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.lastUsed = System.nanoTime();
+        }
+
+        private void closeQuietly() {
+            try {
+                connection.close(); // Also closes the statements
+            } catch (SQLException e) {
+                // Ignore, the connection is discarded anyway
+            }
+        }
+
+        /**
+         * Gets the underlying connection. Don't close it, and restore the
+         * auto-commit mode after using a transaction.
+         *
+         * @return The connection.
+         */
+        Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Gets a prepared statement for the given query. Don't close it, it is
+         * reused the next time the same query is executed on this connection.
+         *
+         * @param query
+         *            The query.
+         * @return The statement, with all parameters and batches cleared.
+         * @throws SQLException
+         *             If the statement could not be prepared.
+         */
+        PreparedStatement prepareStatement(String query) throws SQLException {
+            PreparedStatement statement = statements.get(query);
+            if (statement == null || statement.isClosed()) {
+                statement = connection.prepareStatement(query);
+                statements.put(query, statement);
+            } else {
+                statement.clearParameters();
+                statement.clearBatch();
+            }
+            return statement;
+        }
+    }
+
+    private static final long BORROW_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Adds a parameter to a JDBC URL, which may already have parameters.
+     *
+     * @param url
+     *            The URL.
+     * @param parameter
+     *            The parameter, like "key=value".
+     */
+    static void appendParameter(StringBuilder url, String parameter) {
+        url.append(url.indexOf("?") == -1 ? '?' : '&').append(parameter);
+    }
+
+    private boolean closed = false;
+    private final Deque<PooledConnection> idleConnections = new ArrayDeque<>();
+    private final Semaphore permits;
+    private final DatabaseSettings settings;
+    private final long validationIntervalNanos;
+
+    ConnectionPool(DatabaseSettings settings) {
+        this.settings = settings;
+        this.permits = new Semaphore(settings.getMaxConnections(), true);
+        this.validationIntervalNanos = TimeUnit.SECONDS.toNanos(settings.getValidationIntervalSeconds());
+    }
+
+    private PooledConnection borrow() throws SQLException {
+        try {
+            if (!permits.tryAcquire(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new SQLException("Timed out waiting for a free database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a free database connection", e);
+        }
+
+        try {
+            while (true) {
+                PooledConnection connection;
+                synchronized (this) {
+                    if (closed) {
+                        throw new SQLException("Connection pool is closed");
+                    }
+                    connection = idleConnections.pollFirst();
+                }
+                if (connection == null) {
+                    return new PooledConnection(openConnection());
+                }
+                if (System.nanoTime() - connection.lastUsed < validationIntervalNanos || isValid(connection)) {
+                    return connection;
+                }
+                // Connection was idle for too long and timed out
+                connection.closeQuietly();
+            }
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes all idle connections. Connections that are in use are closed as
+     * soon as they are returned.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            for (PooledConnection connection : idleConnections) {
+                connection.closeQuietly();
+            }
+            idleConnections.clear();
+        }
+    }
+
+    /**
+     * Runs the given action using a connection from the pool. This method
+     * blocks until a connection is available.
+     *
+     * @param action
+     *            The action.
+     * @return The result of the action.
+     * @throws SQLException
+     *             If no connection could be made, or if the action failed.
+     */
+    <T> T execute(ConnectionAction<T> action) throws SQLException {
+        PooledConnection connection = borrow();
+        boolean success = false;
+        try {
+            T result = action.run(connection);
+            success = true;
+            return result;
+        } finally {
+            release(connection, success);
+        }
+    }
+
+    /**
+     * Checks whether an idle connection still works. A connection that fails
+     * the check with an exception is treated as broken.
+     *
+     * @param connection
+     *            The connection.
+     * @return True if the connection still works, false otherwise.
+     */
+    private boolean isValid(PooledConnection connection) {
+        try {
+            return connection.connection.isValid(1);
+        } catch (SQLException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private Connection openConnection() throws SQLException {
+        StringBuilder connectionString = new StringBuilder("jdbc:mysql://").append(settings.getHost())
+                .append(":").append(settings.getPort())
+                .append("/").append(settings.getDatabaseName());
+        // Otherwise batches are sent as one statement per chest
+        appendParameter(connectionString, "rewriteBatchedStatements=true");
+        if (settings.useUtf8()) {
+            appendParameter(connectionString, "useUnicode=true");
+            appendParameter(connectionString, "characterEncoding=UTF-8");
+        }
+        return DriverManager.getConnection(connectionString.toString(), settings.getUsername(), settings.getPassword());
+    }
+
+    private void release(PooledConnection connection, boolean success) {
+        try {
+            // After a failure, make sure the connection is still usable
+            boolean reusable = !connection.connection.isClosed() && (success || connection.connection.isValid(1));
+            if (reusable) {
+                connection.lastUsed = System.nanoTime();
+                synchronized (this) {
+                    if (!closed) {
+                        idleConnections.addFirst(connection);
+                        return;
+                    }
+                }
+            }
+            connection.closeQuietly();
+        } catch (SQLException e) {
+            connection.closeQuietly();
+        } finally {
+            permits.release();
+        }
+    }
+}
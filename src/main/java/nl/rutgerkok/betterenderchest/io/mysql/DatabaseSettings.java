@@ -6,12 +6,19 @@ public class DatabaseSettings {
     private final String databaseName;
     private final boolean enabled;
     private final String host;
+    private final int maxConnections;
     private final String password;
     private final int port;
     private final String username;
     private final boolean useUtf8;
+    private final int validationIntervalSeconds;
 
     public DatabaseSettings(boolean enabled, String host, int port, String databaseName, String username, String password, boolean useUtf8) {
+        this(enabled, host, port, databaseName, username, password, useUtf8, 4, 30);
+    }
+
+    public DatabaseSettings(boolean enabled, String host, int port, String databaseName, String username, String password, boolean useUtf8,
+            int maxConnections, int validationIntervalSeconds) {
         this.enabled = enabled;
         this.host = host;
         this.port = port;
@@ -19,6 +26,8 @@ public class DatabaseSettings {
         this.username = username;
         this.password = password;
         this.useUtf8 = useUtf8;
+        this.maxConnections = maxConnections;
+        this.validationIntervalSeconds = validationIntervalSeconds;
     }
 
     /**
@@ -53,6 +62,20 @@ public class DatabaseSettings {
         password = config.getString("Database.password", "");
         config.set("Database.password", password);
         config.set("Database.useUtf8", useUtf8);
+
+        // Connection pool
+        int maxConnections = config.getInt("Database.maxConnections", 4);
+        if (maxConnections < 1) {
+            maxConnections = 1;
+        }
+        this.maxConnections = maxConnections;
+        config.set("Database.maxConnections", maxConnections);
+        int validationIntervalSeconds = config.getInt("Database.validateIdleConnectionsAfterSeconds", 30);
+        if (validationIntervalSeconds < 0) {
+            validationIntervalSeconds = 0;
+        }
+        this.validationIntervalSeconds = validationIntervalSeconds;
+        config.set("Database.validateIdleConnectionsAfterSeconds", validationIntervalSeconds);
     }
 
     /**
@@ -74,6 +97,16 @@ public class DatabaseSettings {
         return host;
     }
 
+    /**
+     * Gets the maximum number of connections that are open at the same time.
+     * Loads and saves can run in parallel, up to this number.
+     *
+     * @return The maximum number of connections, at least 1.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
     /**
      * Gets the password used to contact the database.
      * 
@@ -101,6 +134,17 @@ public class DatabaseSettings {
         return username;
     }
 
+    /**
+     * Gets how long a connection can be idle before it is checked again before
+     * use. Connections that were used more recently are assumed to be still
+     * valid.
+     *
+     * @return The time in seconds.
+     */
+    public int getValidationIntervalSeconds() {
+        return validationIntervalSeconds;
+    }
+
     /**
      * Gets whether the user has enabled database support. If not,
      * BetterEnderChest will save to files.
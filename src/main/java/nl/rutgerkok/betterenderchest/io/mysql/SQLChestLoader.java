@@ -2,10 +2,12 @@ package nl.rutgerkok.betterenderchest.io.mysql;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.List;
 
 import nl.rutgerkok.betterenderchest.WorldGroup;
 import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
 import nl.rutgerkok.betterenderchest.exception.ChestNotFoundException;
+import nl.rutgerkok.betterenderchest.io.ChestLister;
 import nl.rutgerkok.betterenderchest.io.ChestLoader;
 import nl.rutgerkok.betterenderchest.nms.NMSHandler;
 
@@ -17,7 +19,7 @@ import com.google.common.base.Preconditions;
  * A chest loader that loads from a database.
  *
  */
-final class SQLChestLoader implements ChestLoader {
+final class SQLChestLoader implements ChestLister, ChestLoader {
 
     private final NMSHandler nmsHandler;
     private final SQLHandler sqlHandler;
@@ -27,14 +29,23 @@ final class SQLChestLoader implements ChestLoader {
         this.nmsHandler = Preconditions.checkNotNull(nmsHandler);
     }
 
+    @Override
+    public List<String> listChests(WorldGroup worldGroup) throws IOException {
+        try {
+            return sqlHandler.listChestOwners(worldGroup);
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
     @Override
     public Inventory loadInventory(ChestOwner chestOwner, WorldGroup worldGroup) throws ChestNotFoundException, IOException {
         try {
-            String inventory = sqlHandler.loadChest(chestOwner, worldGroup);
-            if (inventory == null) {
+            StoredChest storedChest = sqlHandler.loadChest(chestOwner, worldGroup);
+            if (storedChest == null) {
                 throw new ChestNotFoundException(chestOwner, worldGroup);
             }
-            return nmsHandler.loadNBTInventoryFromJson(inventory, chestOwner, worldGroup);
+            return storedChest.toInventory(nmsHandler, chestOwner, worldGroup);
         } catch (SQLException e) {
             throw new IOException(e);
         }
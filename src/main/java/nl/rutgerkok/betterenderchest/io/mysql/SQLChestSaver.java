@@ -2,7 +2,14 @@ package nl.rutgerkok.betterenderchest.io.mysql;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
 import nl.rutgerkok.betterenderchest.io.ChestSaver;
 import nl.rutgerkok.betterenderchest.io.SaveEntry;
 import nl.rutgerkok.betterenderchest.nms.NMSHandler;
@@ -21,13 +28,47 @@ final class SQLChestSaver implements ChestSaver {
         this.nmsHandler = nmsHandler;
     }
 
+    private IOException createSaveException(SaveEntry saveEntry, SQLException e) {
+        return new IOException("Failed to save chest. Contents:\n\n" + saveEntry.getDebugYaml() + "\n\n", e);
+    }
+
     @Override
     public void saveChest(SaveEntry saveEntry) throws IOException {
-        String json = nmsHandler.saveInventoryToJson(saveEntry);
+        byte[] data = StoredChest.toBinary(nmsHandler, saveEntry);
         try {
-            sqlHandler.updateChest(saveEntry.getChestOwner(), saveEntry.getWorldGroup(), json);
+            sqlHandler.updateChest(saveEntry.getChestOwner(), saveEntry.getWorldGroup(), data);
         } catch (SQLException e) {
-            throw new IOException("Failed to save chest. Contents:\n\n" + saveEntry.getDebugYaml() + "\n\n", e);
+            throw createSaveException(saveEntry, e);
+        }
+    }
+
+    @Override
+    public Map<SaveEntry, IOException> saveChests(List<SaveEntry> saveEntries) {
+        Map<SaveEntry, IOException> failures = new HashMap<>();
+
+        // Every world group has its own table
+        Map<WorldGroup, Map<ChestOwner, SaveEntry>> byGroup = new LinkedHashMap<>();
+        for (SaveEntry saveEntry : saveEntries) {
+            byGroup.computeIfAbsent(saveEntry.getWorldGroup(), group -> new LinkedHashMap<>())
+                    .put(saveEntry.getChestOwner(), saveEntry);
+        }
+
+        for (Entry<WorldGroup, Map<ChestOwner, SaveEntry>> group : byGroup.entrySet()) {
+            Map<ChestOwner, byte[]> chests = new LinkedHashMap<>();
+            for (SaveEntry saveEntry : group.getValue().values()) {
+                try {
+                    chests.put(saveEntry.getChestOwner(), StoredChest.toBinary(nmsHandler, saveEntry));
+                } catch (IOException e) {
+                    failures.put(saveEntry, e);
+                }
+            }
+
+            Map<ChestOwner, SQLException> sqlFailures = sqlHandler.updateChests(group.getKey(), chests);
+            for (Entry<ChestOwner, SQLException> failure : sqlFailures.entrySet()) {
+                SaveEntry saveEntry = group.getValue().get(failure.getKey());
+                failures.put(saveEntry, createSaveException(saveEntry, failure.getValue()));
+            }
         }
+        return failures;
     }
 }
@@ -0,0 +1,86 @@
+package nl.rutgerkok.betterenderchest.io.mysql;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
+import nl.rutgerkok.betterenderchest.exception.ChestNotFoundException;
+import nl.rutgerkok.betterenderchest.io.ChestLister;
+import nl.rutgerkok.betterenderchest.io.ChestLoader;
+import nl.rutgerkok.betterenderchest.nms.NMSHandler;
+
+import org.bukkit.inventory.Inventory;
+
+/**
+ * Reads chests from a database that is not used by the cache, for example to
+ * migrate the chests to another storage. Has its own connections, which are
+ * closed by {@link #close()}.
+ *
+ */
+public final class SQLChestSource implements ChestLister, ChestLoader, Closeable {
+
+    /**
+     * Connects to the database.
+     *
+     * @param settings
+     *            Settings of the database.
+     * @param nmsHandler
+     *            Used to read the chests.
+     * @param groups
+     *            The groups, their tables are created if they don't exist yet.
+     * @return The source.
+     * @throws IOException
+     *             If connecting fails.
+     */
+    public static SQLChestSource open(DatabaseSettings settings, NMSHandler nmsHandler, List<WorldGroup> groups)
+            throws IOException {
+        SQLHandler sqlHandler = null;
+        try {
+            sqlHandler = new SQLHandler(settings);
+            for (WorldGroup group : groups) {
+                sqlHandler.createGroupTable(group);
+            }
+            return new SQLChestSource(sqlHandler, nmsHandler);
+        } catch (SQLException e) {
+            if (sqlHandler != null) {
+                try {
+                    sqlHandler.closeConnection();
+                } catch (SQLException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw new IOException("Error creating a connection with database", e);
+        }
+    }
+
+    private final SQLChestLoader chestLoader;
+    private final SQLHandler sqlHandler;
+
+    private SQLChestSource(SQLHandler sqlHandler, NMSHandler nmsHandler) {
+        this.sqlHandler = sqlHandler;
+        this.chestLoader = new SQLChestLoader(sqlHandler, nmsHandler);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sqlHandler.closeConnection();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public List<String> listChests(WorldGroup worldGroup) throws IOException {
+        return chestLoader.listChests(worldGroup);
+    }
+
+    @Override
+    public Inventory loadInventory(ChestOwner chestOwner, WorldGroup worldGroup) throws ChestNotFoundException, IOException {
+        return chestLoader.loadInventory(chestOwner, worldGroup);
+    }
+
+}
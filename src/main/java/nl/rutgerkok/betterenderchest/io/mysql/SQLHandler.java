@@ -1,27 +1,29 @@
 package nl.rutgerkok.betterenderchest.io.mysql;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import nl.rutgerkok.betterenderchest.WorldGroup;
 import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
+import nl.rutgerkok.betterenderchest.io.mysql.ConnectionPool.PooledConnection;
 
 /**
  * Class that executes all queries. This should be the only class with SQL code.
  *
  */
 public final class SQLHandler {
+    private static final String BINARY_COLUMN = "chest_data_binary";
     private static final String TABLE_NAME_PREFIX = "bec_chestdata_";
-    /**
-     * Never use this field directly, use {@link #getConnection()} or
-     * {@link #closeConnection()}.
-     */
-    private Connection connection;
-    private final Object connectionLock = new Object();
+
+    private final ConnectionPool connectionPool;
     private final DatabaseSettings settings;
 
     public SQLHandler(DatabaseSettings settings) throws SQLException {
@@ -39,59 +41,28 @@ public final class SQLHandler {
             }
         }
 
-        getConnection(); // Initializes the connection, so that errors are
-        // displayed at server startup
-    }
+        this.connectionPool = new ConnectionPool(settings);
 
-    /**
-     * Adds a new chest to the database. (INSERT query)
-     *
-     * @param chestOwner
-     *            Owner of the chest.
-     * @param worldGroup
-     *            The world group of the chest.
-     * @param json
-     *            The raw JSON of the chest.
-     * @throws SQLException
-     *             If something went wrong. For example, the chest already
-     *             exists.
-     */
-    private void addChest(ChestOwner chestOwner, WorldGroup worldGroup, String json) throws SQLException {
-        PreparedStatement statement = null;
-        try {
-            // New chest, insert in database
-            String query = "INSERT INTO `" + getTableName(worldGroup) + "` (`chest_owner`, `chest_data`) ";
-            query += "VALUES (?, ?)";
-            statement = getConnection().prepareStatement(query);
-            statement.setString(1, chestOwner.getSaveFileName());
-            statement.setString(2, json);
-            statement.executeUpdate();
-        } finally {
-            if (statement != null) {
-                statement.close();
-            }
-        }
+        // Opens the first connection, so that errors are displayed at server
+        // startup
+        connectionPool.execute(connection -> null);
     }
 
     /**
-     * Closes the connection. Does nothing if the connection was already closed.
+     * Closes all connections. Connections that are still in use are closed as
+     * soon as they are no longer used.
      *
      * @throws SQLException
      *             If something went wrong.
      */
     void closeConnection() throws SQLException {
-        synchronized (connectionLock) {
-            // Connection status may have been changed since method was called,
-            // so do a quick recheck
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-            }
-        }
+        connectionPool.close();
     }
 
     /**
      * Creates the table for the given world group. Does nothing if the table
-     * already exists.
+     * already exists, except for adding the binary column if the table was
+     * created by an older version of the plugin.
      *
      * @param group
      *            The world group to create the table for.
@@ -99,65 +70,75 @@ public final class SQLHandler {
      *             If something went wrong.
      */
     void createGroupTable(WorldGroup group) throws SQLException {
+        String tableName = getTableName(group);
+        String query;
+        if (this.settings.useUtf8()) {
+            query = "CREATE TABLE IF NOT EXISTS `" + tableName + "` ("
+                    + " `chest_id` int(10) unsigned NOT NULL AUTO_INCREMENT,"
+                    + " `chest_owner` char(36) CHARACTER SET utf8mb4 NOT NULL,"
+                    + " `chest_data` mediumtext CHARACTER SET utf8mb4 NOT NULL,"
+                    + " `" + BINARY_COLUMN + "` mediumblob NULL,"
+                    + " PRIMARY KEY (`chest_id`),"
+                    + " UNIQUE KEY `chest_owner` (`chest_owner`)"
+                    + " ) ENGINE=InnoDB  DEFAULT CHARSET=utf8mb4  COLLATE=utf8mb4_unicode_ci;";
+        } else {
+            query = "CREATE TABLE IF NOT EXISTS `" + tableName + "` ("
+                    + " `chest_id` int(10) unsigned NOT NULL AUTO_INCREMENT,"
+                    + " `chest_owner` char(36) NOT NULL,"
+                    + " `chest_data` mediumtext NOT NULL,"
+                    + " `" + BINARY_COLUMN + "` mediumblob NULL,"
+                    + " PRIMARY KEY (`chest_id`),"
+                    + " UNIQUE KEY `chest_owner` (`chest_owner`)"
+                    + " ) ENGINE=InnoDB;";
+        }
 
-        Statement statement = getConnection().createStatement();
-        try {
-            String query;
-            if (this.settings.useUtf8()) {
-                query = "CREATE TABLE IF NOT EXISTS `" + getTableName(group) + "` ("
-                        + " `chest_id` int(10) unsigned NOT NULL AUTO_INCREMENT,"
-                        + " `chest_owner` char(36) CHARACTER SET utf8mb4 NOT NULL,"
-                        + " `chest_data` mediumtext CHARACTER SET utf8mb4 NOT NULL,"
-                        + " PRIMARY KEY (`chest_id`),"
-                        + " UNIQUE KEY `chest_owner` (`chest_owner`)"
-                        + " ) ENGINE=InnoDB  DEFAULT CHARSET=utf8mb4  COLLATE=utf8mb4_unicode_ci;";
-            } else {
-                query = "CREATE TABLE IF NOT EXISTS `" + getTableName(group) + "` ("
-                        + " `chest_id` int(10) unsigned NOT NULL AUTO_INCREMENT,"
-                        + " `chest_owner` char(36) NOT NULL,"
-                        + " `chest_data` mediumtext NOT NULL,"
-                        + " PRIMARY KEY (`chest_id`),"
-                        + " UNIQUE KEY `chest_owner` (`chest_owner`)"
-                        + " ) ENGINE=InnoDB;";
+        connectionPool.execute(connection -> {
+            try (Statement statement = connection.getConnection().createStatement()) {
+                statement.execute(query);
+                if (!hasColumn(connection, tableName, BINARY_COLUMN)) {
+                    // Table of an older version, existing rows stay in the
+                    // text column until they are saved again
+                    statement.execute("ALTER TABLE `" + tableName + "` ADD COLUMN `" + BINARY_COLUMN
+                            + "` mediumblob NULL");
+                }
             }
-            statement.execute(query);
-        } finally {
-            statement.close();
+            return null;
+        });
+    }
+
+    private String getTableName(WorldGroup group) {
+        return TABLE_NAME_PREFIX + group.getGroupName();
+    }
+
+    private boolean hasColumn(PooledConnection connection, String tableName, String columnName) throws SQLException {
+        Connection rawConnection = connection.getConnection();
+        try (ResultSet columns = rawConnection.getMetaData().getColumns(rawConnection.getCatalog(), null,
+                tableName, columnName)) {
+            return columns.next();
         }
     }
 
     /**
-     * Gets the active connection. If the connection is not active yet/anymore,
-     * an attempt to (re)connect is made.
+     * Lists the owners of all chests in the database.
      *
-     * @return The active connection.
+     * @param group
+     *            The group of the chests.
+     * @return The save file names of the owners.
      * @throws SQLException
-     *             If no connection could be made
+     *             If something went wrong.
      */
-    private Connection getConnection() throws SQLException {
-        synchronized (connectionLock) {
-            if (connection != null && !connection.isClosed() && connection.isValid(1)) {
-                // We already have a valid connection
-                return connection;
-            }
-            if (connection != null) {
-                // We have a connection, but it's invalid
-                connection.close();
+    public List<String> listChestOwners(WorldGroup group) throws SQLException {
+        String query = "SELECT `chest_owner` FROM `" + getTableName(group) + "`";
+        return connectionPool.execute(connection -> {
+            List<String> owners = new ArrayList<>();
+            try (Statement statement = connection.getConnection().createStatement();
+                    ResultSet result = statement.executeQuery(query)) {
+                while (result.next()) {
+                    owners.add(result.getString("chest_owner"));
+                }
             }
-
-            String connectionString = "jdbc:mysql://" + settings.getHost()
-                    + ":" + settings.getPort()
-                    + "/" + settings.getDatabaseName();
-            if (settings.useUtf8()) {
-                connectionString += "?useUnicode=true&characterEncoding=UTF-8";
-            }
-            connection = DriverManager.getConnection(connectionString, settings.getUsername(), settings.getPassword());
-            return connection;
-        }
-    }
-
-    private String getTableName(WorldGroup group) {
-        return TABLE_NAME_PREFIX + group.getGroupName();
+            return owners;
+        });
     }
 
     /**
@@ -171,28 +152,20 @@ public final class SQLHandler {
      * @throws SQLException
      *             If something went wrong.
      */
-    public String loadChest(ChestOwner chestOwner, WorldGroup group) throws SQLException {
-        PreparedStatement statement = null;
-        ResultSet result = null;
-        try {
-            String query = "SELECT `chest_data` FROM `" + getTableName(group);
-            query += "` WHERE `chest_owner` = ?";
-            statement = getConnection().prepareStatement(query);
+    public StoredChest loadChest(ChestOwner chestOwner, WorldGroup group) throws SQLException {
+        String query = "SELECT `chest_data`, `" + BINARY_COLUMN + "` FROM `" + getTableName(group)
+                + "` WHERE `chest_owner` = ?";
+        return connectionPool.execute(connection -> {
+            PreparedStatement statement = connection.prepareStatement(query);
             statement.setString(1, chestOwner.getSaveFileName());
-            result = statement.executeQuery();
-            if (result.next()) {
-                return result.getString("chest_data");
-            } else {
-                return null;
-            }
-        } finally {
-            if (statement != null) {
-                statement.close();
+            try (ResultSet result = statement.executeQuery()) {
+                if (result.next()) {
+                    return new StoredChest(result.getBytes(BINARY_COLUMN), result.getString("chest_data"));
+                } else {
+                    return null;
+                }
             }
-            if (result != null) {
-                result.close();
-            }
-        }
+        });
     }
 
     /**
@@ -203,33 +176,91 @@ public final class SQLHandler {
      *            The owner of the chest.
      * @param worldGroup
      *            The group the chest belongs in.
-     * @param json
-     *            The raw json of the chest.
+     * @param data
+     *            The binary data of the chest, including the format byte.
      * @throws SQLException
      *             If something went wrong.
      */
-    public void updateChest(ChestOwner chestOwner, WorldGroup worldGroup, String json) throws SQLException {
-        PreparedStatement statement = null;
-        boolean performInsert = false;
-        try {
-            // Existing chest, update row
-            String query = "UPDATE `" + getTableName(worldGroup) + "` SET `chest_data` = ? WHERE `chest_owner` = ?";
-            statement = getConnection().prepareStatement(query);
-            statement.setString(1, json);
-            statement.setString(2, chestOwner.getSaveFileName());
-            int changedRows = statement.executeUpdate();
-            if (changedRows == 0) {
-                // Chest doesn't exist yet
-                performInsert = true;
-            }
-        } finally {
-            if (statement != null) {
-                statement.close();
-            }
+    public void updateChest(ChestOwner chestOwner, WorldGroup worldGroup, byte[] data) throws SQLException {
+        connectionPool.execute(connection -> {
+            updateChest(connection, chestOwner, worldGroup, data);
+            return null;
+        });
+    }
+
+    private void updateChest(PooledConnection connection, ChestOwner chestOwner, WorldGroup worldGroup, byte[] data)
+            throws SQLException {
+        // Existing chest, update row (also clears the legacy text column)
+        String query = "UPDATE `" + getTableName(worldGroup) + "` SET `chest_data` = '', `" + BINARY_COLUMN
+                + "` = ? WHERE `chest_owner` = ?";
+        PreparedStatement statement = connection.prepareStatement(query);
+        statement.setBytes(1, data);
+        statement.setString(2, chestOwner.getSaveFileName());
+        if (statement.executeUpdate() > 0) {
+            return;
         }
 
-        if (performInsert) {
-            addChest(chestOwner, worldGroup, json);
+        // New chest, insert in database
+        String insertQuery = "INSERT INTO `" + getTableName(worldGroup) + "` (`chest_owner`, `chest_data`, `"
+                + BINARY_COLUMN + "`) VALUES (?, '', ?)";
+        PreparedStatement insertStatement = connection.prepareStatement(insertQuery);
+        insertStatement.setString(1, chestOwner.getSaveFileName());
+        insertStatement.setBytes(2, data);
+        insertStatement.executeUpdate();
+    }
+
+    /**
+     * Saves multiple chests of the same world group to the database, using a
+     * single transaction. If that transaction fails, each chest is saved on its
+     * own, so that only the chests that are really broken fail.
+     *
+     * @param worldGroup
+     *            The group the chests belong in.
+     * @param chests
+     *            The binary data of each chest, by owner.
+     * @return The chests that could not be saved, with the reason. The map is
+     *         empty if all chests were saved.
+     */
+    public Map<ChestOwner, SQLException> updateChests(WorldGroup worldGroup, Map<ChestOwner, byte[]> chests) {
+        Map<ChestOwner, SQLException> failures = new LinkedHashMap<>();
+        if (chests.isEmpty()) {
+            return failures;
+        }
+
+        String query = "INSERT INTO `" + getTableName(worldGroup) + "` (`chest_owner`, `chest_data`, `"
+                + BINARY_COLUMN + "`) VALUES (?, '', ?)"
+                + " ON DUPLICATE KEY UPDATE `chest_data` = '', `" + BINARY_COLUMN + "` = VALUES(`" + BINARY_COLUMN + "`)";
+        try {
+            connectionPool.execute(connection -> {
+                Connection rawConnection = connection.getConnection();
+                rawConnection.setAutoCommit(false);
+                try {
+                    PreparedStatement statement = connection.prepareStatement(query);
+                    for (Entry<ChestOwner, byte[]> chest : chests.entrySet()) {
+                        statement.setString(1, chest.getKey().getSaveFileName());
+                        statement.setBytes(2, chest.getValue());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                    rawConnection.commit();
+                } catch (SQLException e) {
+                    rawConnection.rollback();
+                    throw e;
+                } finally {
+                    rawConnection.setAutoCommit(true);
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            // Find out which chests are to blame
+            for (Entry<ChestOwner, byte[]> chest : chests.entrySet()) {
+                try {
+                    updateChest(chest.getKey(), worldGroup, chest.getValue());
+                } catch (SQLException e1) {
+                    failures.put(chest.getKey(), e1);
+                }
+            }
         }
+        return failures;
     }
 }
@@ -0,0 +1,102 @@
+package nl.rutgerkok.betterenderchest.io.mysql;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.bukkit.inventory.Inventory;
+
+import com.google.common.base.Preconditions;
+
+import nl.rutgerkok.betterenderchest.WorldGroup;
+import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
+import nl.rutgerkok.betterenderchest.io.SaveEntry;
+import nl.rutgerkok.betterenderchest.nms.NMSHandler;
+
+/**
+ * The raw data of a chest, as stored in the database. Chests are stored as
+ * compressed NBT, prefixed by a byte indicating the format. Chests saved by
+ * older versions of the plugin are stored as Mojangson text instead; these are
+ * converted to the binary format the next time they are saved.
+ *
+ */
+public final class StoredChest {
+
+    /**
+     * Format byte for compressed NBT, as written by
+     * {@link NMSHandler#saveInventoryToBytes(SaveEntry)}.
+     */
+    static final byte FORMAT_COMPRESSED_NBT = 1;
+
+    /**
+     * Creates the bytes that are stored in the binary column of the database.
+     *
+     * @param nmsHandler
+     *            The NMS handler, used to serialize the chest.
+     * @param saveEntry
+     *            The chest.
+     * @return The bytes, including the format byte.
+     * @throws IOException
+     *             If the chest could not be serialized.
+     */
+    static byte[] toBinary(NMSHandler nmsHandler, SaveEntry saveEntry) throws IOException {
+        byte[] nbt = nmsHandler.saveInventoryToBytes(saveEntry);
+        byte[] binary = new byte[nbt.length + 1];
+        binary[0] = FORMAT_COMPRESSED_NBT;
+        System.arraycopy(nbt, 0, binary, 1, nbt.length);
+        return binary;
+    }
+
+    private final byte[] binary;
+    private final String json;
+
+    /**
+     * Creates a new stored chest.
+     *
+     * @param binary
+     *            The contents of the binary column, or null if empty.
+     * @param json
+     *            The contents of the text column, only used if the binary
+     *            column is empty.
+     */
+    StoredChest(byte[] binary, String json) {
+        Preconditions.checkArgument(binary != null || json != null, "no chest data");
+        this.binary = binary;
+        this.json = json;
+    }
+
+    /**
+     * Gets whether the chest is still stored in the old text format.
+     *
+     * @return True if the chest is stored as text, false otherwise.
+     */
+    public boolean isLegacyFormat() {
+        return binary == null;
+    }
+
+    /**
+     * Turns the stored data into an inventory.
+     *
+     * @param nmsHandler
+     *            The NMS handler, used to read the NBT.
+     * @param chestOwner
+     *            The owner of the chest.
+     * @param worldGroup
+     *            The group the chest is in.
+     * @return The inventory.
+     * @throws IOException
+     *             If the data is corrupted, or in an unknown format.
+     */
+    public Inventory toInventory(NMSHandler nmsHandler, ChestOwner chestOwner, WorldGroup worldGroup) throws IOException {
+        if (binary == null) {
+            return nmsHandler.loadNBTInventoryFromJson(json, chestOwner, worldGroup);
+        }
+        if (binary.length == 0) {
+            throw new IOException("Empty chest data for " + chestOwner.getDisplayName());
+        }
+        if (binary[0] != FORMAT_COMPRESSED_NBT) {
+            throw new IOException("Unknown chest data format " + binary[0] + " for " + chestOwner.getDisplayName()
+                    + "; was the chest saved by a newer version of the plugin?");
+        }
+        return nmsHandler.loadNBTInventoryFromBytes(Arrays.copyOfRange(binary, 1, binary.length), chestOwner, worldGroup);
+    }
+}
@@ -0,0 +1,28 @@
+package nl.rutgerkok.betterenderchest.itemfilter;
+
+import org.bukkit.inventory.ItemStack;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+
+/**
+ * Matches items that match both filters. Unlike {@code Predicates.and}, the
+ * filters can be inspected by {@link CompiledItemFilter}.
+ *
+ */
+final class AndFilter implements Predicate<ItemStack> {
+
+    final Predicate<ItemStack> first;
+    final Predicate<ItemStack> second;
+
+    AndFilter(Predicate<ItemStack> first, Predicate<ItemStack> second) {
+        this.first = Preconditions.checkNotNull(first, "first");
+        this.second = Preconditions.checkNotNull(second, "second");
+    }
+
+    @Override
+    public boolean apply(ItemStack stack) {
+        return first.apply(stack) && second.apply(stack);
+    }
+
+}
@@ -0,0 +1,199 @@
+package nl.rutgerkok.betterenderchest.itemfilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bukkit.Material;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.ShulkerBox;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BlockStateMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The item rules from the config, rearranged so that checking an item is
+ * fast. Matches the same items as {@code Predicates.or(rules)}.
+ *
+ * <ul>
+ * <li>Rules that only check the item type are looked up in a set.</li>
+ * <li>Rules that check the name or lore are skipped for items without item
+ * meta. For other items, the item meta is copied only once.</li>
+ * <li>Whether a shulker box contains illegal items is remembered for the
+ * most recently checked shulker boxes.</li>
+ * </ul>
+ *
+ */
+public final class CompiledItemFilter implements Predicate<ItemStack> {
+
+    /**
+     * Maximum number of remembered shulker boxes.
+     */
+    private static final int MAX_SHULKER_VERDICTS = 1000;
+
+    /**
+     * Compiles the given rules.
+     *
+     * @param rules
+     *            The rules, as read by {@link ItemFilterReader}. An item is
+     *            illegal if any rule matches.
+     * @param shulkerBoxes
+     *            All shulker box materials.
+     * @return The compiled rules.
+     */
+    public static CompiledItemFilter compile(Collection<Predicate<ItemStack>> rules, Collection<Material> shulkerBoxes) {
+        Set<Material> illegalTypes = EnumSet.noneOf(Material.class);
+        List<Predicate<ItemStack>> metaRules = new ArrayList<>();
+        List<Predicate<ItemStack>> otherRules = new ArrayList<>();
+        for (Predicate<ItemStack> rule : rules) {
+            if (rule.equals(Predicates.alwaysFalse())) {
+                // Invalid rule, never matches
+                continue;
+            }
+            if (rule instanceof ItemTypeFilter) {
+                illegalTypes.add(((ItemTypeFilter) rule).getItemType());
+            } else if (needsMeta(rule)) {
+                metaRules.add(rule);
+            } else {
+                otherRules.add(rule);
+            }
+        }
+
+        Set<Material> shulkerBoxSet = EnumSet.noneOf(Material.class);
+        shulkerBoxSet.addAll(shulkerBoxes);
+        return new CompiledItemFilter(illegalTypes, metaRules, otherRules, shulkerBoxSet);
+    }
+
+    /**
+     * Checks a rule, without copying the item meta again.
+     *
+     * @param rule
+     *            The rule.
+     * @param stack
+     *            The item.
+     * @param meta
+     *            The item meta of the item.
+     * @return True if the rule matches, false otherwise.
+     */
+    private static boolean evaluate(Predicate<ItemStack> rule, ItemStack stack, ItemMeta meta) {
+        if (rule instanceof MetaFilter) {
+            return ((MetaFilter) rule).apply(stack, meta);
+        }
+        if (rule instanceof AndFilter) {
+            AndFilter andFilter = (AndFilter) rule;
+            return evaluate(andFilter.first, stack, meta) && evaluate(andFilter.second, stack, meta);
+        }
+        return rule.apply(stack);
+    }
+
+    /**
+     * Gets whether the rule can only match items with item meta.
+     *
+     * @param rule
+     *            The rule.
+     * @return True if the rule needs item meta, false otherwise.
+     */
+    private static boolean needsMeta(Predicate<ItemStack> rule) {
+        if (rule instanceof MetaFilter) {
+            return true;
+        }
+        if (rule instanceof AndFilter) {
+            AndFilter andFilter = (AndFilter) rule;
+            return needsMeta(andFilter.first) || needsMeta(andFilter.second);
+        }
+        return false;
+    }
+
+    private final Set<Material> illegalTypes;
+    private final List<Predicate<ItemStack>> metaRules;
+    private final List<Predicate<ItemStack>> otherRules;
+    private final Set<Material> shulkerBoxes;
+    private final Cache<ItemMeta, Boolean> shulkerVerdicts;
+
+    private CompiledItemFilter(Set<Material> illegalTypes, List<Predicate<ItemStack>> metaRules,
+            List<Predicate<ItemStack>> otherRules, Set<Material> shulkerBoxes) {
+        this.illegalTypes = illegalTypes;
+        this.metaRules = metaRules;
+        this.otherRules = otherRules;
+        this.shulkerBoxes = shulkerBoxes;
+        this.shulkerVerdicts = CacheBuilder.newBuilder().maximumSize(MAX_SHULKER_VERDICTS).build();
+    }
+
+    /**
+     * Checks whether the item is illegal. Items inside shulker boxes are not
+     * checked, use {@link #containsIllegalItemInShulker(ItemStack)} for that.
+     *
+     * @param stack
+     *            The item.
+     * @return True if the item is illegal, false otherwise.
+     */
+    @Override
+    public boolean apply(ItemStack stack) {
+        if (illegalTypes.contains(stack.getType())) {
+            return true;
+        }
+        for (Predicate<ItemStack> rule : otherRules) {
+            if (rule.apply(stack)) {
+                return true;
+            }
+        }
+        if (metaRules.isEmpty() || !stack.hasItemMeta()) {
+            return false;
+        }
+        ItemMeta meta = stack.getItemMeta();
+        for (Predicate<ItemStack> rule : metaRules) {
+            if (evaluate(rule, stack, meta)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the item is a shulker box containing an illegal item.
+     *
+     * @param stack
+     *            The item.
+     * @return True if the item is a shulker box with an illegal item, false
+     *         otherwise.
+     */
+    public boolean containsIllegalItemInShulker(ItemStack stack) {
+        if (!shulkerBoxes.contains(stack.getType())) {
+            return false; // Not a shulker
+        }
+        // Check what's in the box
+        ItemMeta meta = stack.getItemMeta();
+        if (!(meta instanceof BlockStateMeta)) {
+            return false; // Invalid item meta - did someone modify the shulker tag?
+        }
+
+        // The meta is a copy, so it can be used as a key
+        Boolean verdict = shulkerVerdicts.getIfPresent(meta);
+        if (verdict == null) {
+            verdict = containsIllegalItem((BlockStateMeta) meta);
+            shulkerVerdicts.put(meta, verdict);
+        }
+        return verdict;
+    }
+
+    private boolean containsIllegalItem(BlockStateMeta meta) {
+        BlockState blockState = meta.getBlockState();
+        if (!(blockState instanceof ShulkerBox)) {
+            return false; // Invalid item meta - did someone modify the shulker tag?
+        }
+        for (ItemStack storedStack : ((ShulkerBox) blockState).getInventory().getContents()) {
+            if (storedStack != null && apply(storedStack)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
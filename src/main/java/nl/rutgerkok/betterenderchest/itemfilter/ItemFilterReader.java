@@ -51,7 +51,7 @@ public final class ItemFilterReader implements Function<Map<?, ?>, Predicate<Ite
     public Predicate<ItemStack> apply(Map<?, ?> configSection) {
         Object andSection = configSection.get("and");
         if (andSection instanceof Map<?, ?>) {
-            return Predicates.and(fromCheckFor(configSection), apply((Map<?, ?>) andSection));
+            return new AndFilter(fromCheckFor(configSection), apply((Map<?, ?>) andSection));
         }
         return fromCheckFor(configSection);
     }
@@ -18,6 +18,10 @@ final class ItemTypeFilter implements Predicate<ItemStack> {
         this.itemType = Preconditions.checkNotNull(itemType);
     }
 
+    Material getItemType() {
+        return itemType;
+    }
+
     @Override
     public boolean apply(ItemStack input) {
         return itemType == input.getType();
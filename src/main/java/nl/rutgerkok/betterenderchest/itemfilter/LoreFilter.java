@@ -8,9 +8,8 @@ import org.bukkit.inventory.meta.ItemMeta;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
 
-final class LoreFilter implements Predicate<ItemStack> {
+final class LoreFilter extends MetaFilter {
     
     private final Pattern pattern;
     private final boolean ignoreColors;
@@ -21,16 +20,13 @@ final class LoreFilter implements Predicate<ItemStack> {
     }
 
     @Override
-    public boolean apply(ItemStack stack) {
-        if (stack.hasItemMeta()) {
-            ItemMeta meta = stack.getItemMeta();
-            if (meta.hasLore()) {
-                String lore = Joiner.on('\n').join(stack.getItemMeta().getLore());
-                if (ignoreColors) {
-                    lore = ChatColor.stripColor(lore);
-                }
-                return pattern.matcher(lore).find();
+    boolean apply(ItemStack stack, ItemMeta meta) {
+        if (meta.hasLore()) {
+            String lore = Joiner.on('\n').join(meta.getLore());
+            if (ignoreColors) {
+                lore = ChatColor.stripColor(lore);
             }
+            return pattern.matcher(lore).find();
         }
         return false;
     }
@@ -0,0 +1,35 @@
+package nl.rutgerkok.betterenderchest.itemfilter;
+
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import com.google.common.base.Predicate;
+
+/**
+ * Filter that only matches items with item meta. The item meta is copied
+ * every time it is requested, so {@link CompiledItemFilter} requests it once
+ * and passes it to all these filters.
+ *
+ */
+abstract class MetaFilter implements Predicate<ItemStack> {
+
+    @Override
+    public final boolean apply(ItemStack stack) {
+        if (stack.hasItemMeta()) {
+            return apply(stack, stack.getItemMeta());
+        }
+        return false;
+    }
+
+    /**
+     * Checks the item.
+     *
+     * @param stack
+     *            The item.
+     * @param meta
+     *            The item meta of the item.
+     * @return True if the item matches, false otherwise.
+     */
+    abstract boolean apply(ItemStack stack, ItemMeta meta);
+
+}
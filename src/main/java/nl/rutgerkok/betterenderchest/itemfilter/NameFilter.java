@@ -7,9 +7,8 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
 
-final class NameFilter implements Predicate<ItemStack> {
+final class NameFilter extends MetaFilter {
 
     private final Pattern namePattern;
     private final boolean ignoreColors;
@@ -20,16 +19,13 @@ final class NameFilter implements Predicate<ItemStack> {
     }
 
     @Override
-    public boolean apply(ItemStack stack) {
-        if (stack.hasItemMeta()) {
-            ItemMeta meta = stack.getItemMeta();
-            if (meta.hasDisplayName()) {
-                String displayName = stack.getItemMeta().getDisplayName();
-                if (ignoreColors) {
-                    displayName = ChatColor.stripColor(displayName);
-                }
-                return namePattern.matcher(displayName).find();
+    boolean apply(ItemStack stack, ItemMeta meta) {
+        if (meta.hasDisplayName()) {
+            String displayName = meta.getDisplayName();
+            if (ignoreColors) {
+                displayName = ChatColor.stripColor(displayName);
             }
+            return namePattern.matcher(displayName).find();
         }
         return false;
     }
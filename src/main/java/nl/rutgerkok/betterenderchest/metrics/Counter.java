@@ -0,0 +1,42 @@
+package nl.rutgerkok.betterenderchest.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A number that only goes up. Can be used from any thread.
+ *
+ */
+public final class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    Counter() {
+        // Use Metrics.counter
+    }
+
+    /**
+     * Adds the given amount.
+     *
+     * @param amount
+     *            The amount, must not be negative.
+     */
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    /**
+     * Gets the current value.
+     *
+     * @return The value.
+     */
+    public long get() {
+        return value.sum();
+    }
+
+    /**
+     * Adds one.
+     */
+    public void increment() {
+        value.increment();
+    }
+}
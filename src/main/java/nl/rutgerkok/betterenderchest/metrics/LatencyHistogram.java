@@ -0,0 +1,145 @@
+package nl.rutgerkok.betterenderchest.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how long something took, in fixed buckets. Can be used from any
+ * thread.
+ *
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Upper bounds of the buckets, in seconds. Chests are usually saved and
+     * loaded in a few milliseconds, a slow database can take seconds.
+     */
+    private static final double[] BUCKET_SECONDS = { 0.0001, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1,
+            0.25, 0.5, 1, 2.5, 5, 10 };
+
+    /**
+     * Gets the upper bounds of the buckets, without the last bucket (which
+     * has no upper bound).
+     *
+     * @return The upper bounds, in seconds.
+     */
+    static double[] getBucketBounds() {
+        return BUCKET_SECONDS.clone();
+    }
+
+    private final long[] boundsNanos;
+    /**
+     * Number of measurements per bucket, the last bucket is for everything
+     * above the highest bound.
+     */
+    private final LongAdder[] buckets;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    LatencyHistogram() {
+        boundsNanos = new long[BUCKET_SECONDS.length];
+        buckets = new LongAdder[BUCKET_SECONDS.length + 1];
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            boundsNanos[i] = (long) (BUCKET_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Gets the number of measurements in or below each bucket.
+     *
+     * @return The counts, one more than {@link #getBucketBounds()}.
+     */
+    long[] getCumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the number of measurements.
+     *
+     * @return The number of measurements.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the average duration.
+     *
+     * @return The average, in milliseconds. 0 if nothing was measured.
+     */
+    public double getMeanMillis() {
+        long count = this.count.sum();
+        if (count == 0) {
+            return 0;
+        }
+        return sumNanos.sum() / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Estimates the duration that the given fraction of measurements stayed
+     * under. The estimate is the upper bound of a bucket, so it is never too
+     * low.
+     *
+     * @param fraction
+     *            The fraction, like 0.95.
+     * @return The duration, in milliseconds. Infinite if the fraction falls
+     *         in the last bucket, 0 if nothing was measured.
+     */
+    public double getPercentileMillis(double fraction) {
+        long[] counts = getCumulativeCounts();
+        long total = counts[counts.length - 1];
+        if (total == 0) {
+            return 0;
+        }
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            if (counts[i] >= fraction * total) {
+                return BUCKET_SECONDS[i] * 1000;
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Gets the sum of all measurements.
+     *
+     * @return The sum, in seconds.
+     */
+    double getSumSeconds() {
+        return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Adds a measurement.
+     *
+     * @param nanos
+     *            The duration, in nanoseconds.
+     */
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < boundsNanos.length && nanos > boundsNanos[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Adds the time since the given moment as a measurement.
+     *
+     * @param startNanos
+     *            The {@link System#nanoTime()} at the start.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,137 @@
+package nl.rutgerkok.betterenderchest.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Supplier;
+
+/**
+ * All metrics with the same name, like the load times of all backends. Each
+ * metric in the family has its own labels.
+ *
+ */
+public final class MetricFamily {
+
+    /**
+     * Labels of metrics without labels.
+     */
+    static final String NO_LABELS = "";
+
+    /**
+     * Values by their labels in the Prometheus format, like
+     * {@code backend="BetterEnderFileHandler"}. Either a {@link Counter}, a
+     * {@link LatencyHistogram} or a {@link Supplier} of a number.
+     */
+    private final ConcurrentMap<String, Object> children = new ConcurrentHashMap<>();
+    private final String help;
+    private final String name;
+    private final MetricType type;
+
+    MetricFamily(String name, String help, MetricType type) {
+        this.name = name;
+        this.help = help;
+        this.type = type;
+    }
+
+    /**
+     * Gets the metric with the given labels, or adds it.
+     *
+     * @param labels
+     *            The labels.
+     * @param child
+     *            The metric to add if there is none yet.
+     * @return The metric.
+     */
+    Object getOrAdd(String labels, Object child) {
+        Object existing = children.putIfAbsent(labels, child);
+        if (existing != null) {
+            return existing;
+        }
+        return child;
+    }
+
+    /**
+     * Gets the explanation of the metric.
+     *
+     * @return The explanation.
+     */
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * Gets all histograms in this family. Empty if this family is not a
+     * histogram family.
+     *
+     * @return The histograms, by their labels. An empty string is used for
+     *         the histogram without labels.
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+        for (Entry<String, Object> entry : children.entrySet()) {
+            if (entry.getValue() instanceof LatencyHistogram) {
+                histograms.put(entry.getKey(), (LatencyHistogram) entry.getValue());
+            }
+        }
+        return histograms;
+    }
+
+    /**
+     * Gets the name of the metric, like
+     * {@code betterenderchest_cache_hits_total}.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the type of the metric.
+     *
+     * @return The type.
+     */
+    public MetricType getType() {
+        return type;
+    }
+
+    /**
+     * Gets the current values of all counters and gauges in this family.
+     * Empty if this family is a histogram family.
+     *
+     * @return The values, by their labels. An empty string is used for the
+     *         value without labels.
+     */
+    public Map<String, Number> getValues() {
+        if (type == MetricType.HISTOGRAM) {
+            return Collections.emptyMap();
+        }
+        Map<String, Number> values = new LinkedHashMap<>();
+        for (Entry<String, Object> entry : children.entrySet()) {
+            Object child = entry.getValue();
+            if (child instanceof Counter) {
+                values.put(entry.getKey(), ((Counter) child).get());
+            } else if (child instanceof Supplier) {
+                Number value = (Number) ((Supplier<?>) child).get();
+                values.put(entry.getKey(), value == null ? 0 : value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Sets the metric with the given labels, replacing any previous metric.
+     *
+     * @param labels
+     *            The labels.
+     * @param child
+     *            The metric.
+     */
+    void set(String labels, Object child) {
+        children.put(labels, child);
+    }
+}
@@ -0,0 +1,31 @@
+package nl.rutgerkok.betterenderchest.metrics;
+
+import java.util.Locale;
+
+/**
+ * The kind of a metric, named like in the Prometheus text format.
+ *
+ */
+public enum MetricType {
+    /**
+     * A number that only goes up.
+     */
+    COUNTER,
+    /**
+     * A number that can go up and down.
+     */
+    GAUGE,
+    /**
+     * Durations, counted in buckets.
+     */
+    HISTOGRAM;
+
+    /**
+     * Gets the name of this type in the Prometheus text format.
+     *
+     * @return The name.
+     */
+    String getPrometheusName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,178 @@
+package nl.rutgerkok.betterenderchest.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+
+/**
+ * Keeps track of all metrics of the plugin. Metrics can be registered and
+ * updated from any thread.
+ *
+ * <p>
+ * Names follow the Prometheus conventions: they start with
+ * {@code betterenderchest_}, counters end with {@code _total} and
+ * histograms with {@code _seconds}.
+ *
+ */
+public final class Metrics {
+
+    private static String toLabels(String labelName, String labelValue) {
+        String escaped = labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return labelName + "=\"" + escaped + "\"";
+    }
+
+    private final List<MetricsExporter> exporters = new ArrayList<>();
+    private final Map<String, MetricFamily> families = new TreeMap<>();
+
+    /**
+     * Starts the given exporter. It will be closed by
+     * {@link #closeExporters()}.
+     *
+     * @param exporter
+     *            The exporter.
+     * @throws IOException
+     *             If the exporter fails to start.
+     */
+    public synchronized void addExporter(MetricsExporter exporter) throws IOException {
+        exporter.start(this);
+        exporters.add(exporter);
+    }
+
+    /**
+     * Closes all exporters.
+     *
+     * @return The errors that occured while closing, empty if all exporters
+     *         closed cleanly.
+     */
+    public synchronized List<IOException> closeExporters() {
+        List<IOException> errors = new ArrayList<>();
+        for (MetricsExporter exporter : exporters) {
+            try {
+                exporter.close();
+            } catch (IOException e) {
+                errors.add(e);
+            }
+        }
+        exporters.clear();
+        return errors;
+    }
+
+    /**
+     * Gets or creates a counter without labels.
+     *
+     * @param name
+     *            Name of the counter.
+     * @param help
+     *            Explanation of the counter.
+     * @return The counter.
+     */
+    public Counter counter(String name, String help) {
+        return (Counter) family(name, help, MetricType.COUNTER).getOrAdd(MetricFamily.NO_LABELS, new Counter());
+    }
+
+    /**
+     * Registers a counter that is kept somewhere else, like the statistics of
+     * a cache. Replaces any previous counter with the same name.
+     *
+     * @param name
+     *            Name of the counter.
+     * @param help
+     *            Explanation of the counter.
+     * @param value
+     *            Gets the current value. Called from the thread that reads
+     *            the metrics.
+     */
+    public void counter(String name, String help, Supplier<? extends Number> value) {
+        family(name, help, MetricType.COUNTER).set(MetricFamily.NO_LABELS, value);
+    }
+
+    /**
+     * Gets or creates a counter with one label.
+     *
+     * @param name
+     *            Name of the counter.
+     * @param help
+     *            Explanation of the counter.
+     * @param labelName
+     *            Name of the label, like {@code backend}.
+     * @param labelValue
+     *            Value of the label.
+     * @return The counter.
+     */
+    public Counter counter(String name, String help, String labelName, String labelValue) {
+        return (Counter) family(name, help, MetricType.COUNTER).getOrAdd(toLabels(labelName, labelValue),
+                new Counter());
+    }
+
+    private synchronized MetricFamily family(String name, String help, MetricType type) {
+        MetricFamily family = families.get(name);
+        if (family == null) {
+            family = new MetricFamily(name, help, type);
+            families.put(name, family);
+        }
+        Preconditions.checkArgument(family.getType() == type, "%s is already registered as a %s", name,
+                family.getType());
+        return family;
+    }
+
+    /**
+     * Registers a gauge. Replaces any previous gauge with the same name.
+     *
+     * @param name
+     *            Name of the gauge.
+     * @param help
+     *            Explanation of the gauge.
+     * @param value
+     *            Gets the current value. Called from the thread that reads
+     *            the metrics.
+     */
+    public void gauge(String name, String help, Supplier<? extends Number> value) {
+        family(name, help, MetricType.GAUGE).set(MetricFamily.NO_LABELS, value);
+    }
+
+    /**
+     * Gets all metrics, sorted by name.
+     *
+     * @return The metrics.
+     */
+    public synchronized List<MetricFamily> getFamilies() {
+        return new ArrayList<>(families.values());
+    }
+
+    /**
+     * Gets or creates a histogram without labels.
+     *
+     * @param name
+     *            Name of the histogram.
+     * @param help
+     *            Explanation of the histogram.
+     * @return The histogram.
+     */
+    public LatencyHistogram histogram(String name, String help) {
+        return (LatencyHistogram) family(name, help, MetricType.HISTOGRAM).getOrAdd(MetricFamily.NO_LABELS,
+                new LatencyHistogram());
+    }
+
+    /**
+     * Gets or creates a histogram with one label.
+     *
+     * @param name
+     *            Name of the histogram.
+     * @param help
+     *            Explanation of the histogram.
+     * @param labelName
+     *            Name of the label, like {@code backend}.
+     * @param labelValue
+     *            Value of the label.
+     * @return The histogram.
+     */
+    public LatencyHistogram histogram(String name, String help, String labelName, String labelValue) {
+        return (LatencyHistogram) family(name, help, MetricType.HISTOGRAM).getOrAdd(
+                toLabels(labelName, labelValue), new LatencyHistogram());
+    }
+}
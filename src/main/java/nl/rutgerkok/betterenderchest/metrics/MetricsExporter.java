@@ -0,0 +1,32 @@
+package nl.rutgerkok.betterenderchest.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Publishes the metrics somewhere outside the server, like a file or a web
+ * page. Add exporters using {@link Metrics#addExporter(MetricsExporter)}.
+ *
+ */
+public interface MetricsExporter extends Closeable {
+
+    /**
+     * Stops publishing. Called on the server thread when the plugin is
+     * disabled or reloaded.
+     *
+     * @throws IOException
+     *             If stopping fails.
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Starts publishing the metrics. Called on the server thread.
+     *
+     * @param metrics
+     *            The metrics to publish.
+     * @throws IOException
+     *             If the exporter cannot be started.
+     */
+    void start(Metrics metrics) throws IOException;
+}
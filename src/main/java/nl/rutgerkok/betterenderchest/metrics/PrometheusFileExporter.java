@@ -0,0 +1,85 @@
+package nl.rutgerkok.betterenderchest.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import nl.rutgerkok.betterenderchest.BetterEnderChest;
+
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Writes the metrics to a file at a fixed interval, in the Prometheus text
+ * format. Meant for the textfile collector of the Prometheus node exporter.
+ * The file is replaced in one go, so that a half-written file is never read.
+ *
+ */
+public final class PrometheusFileExporter implements MetricsExporter {
+
+    private final File file;
+    private final int intervalSeconds;
+    private final BetterEnderChest plugin;
+    private BukkitTask task;
+
+    /**
+     * Creates the exporter. Call {@link Metrics#addExporter(MetricsExporter)}
+     * to start it.
+     *
+     * @param plugin
+     *            The plugin, for scheduling and logging.
+     * @param file
+     *            The file to write to.
+     * @param intervalSeconds
+     *            Seconds between two writes.
+     */
+    public PrometheusFileExporter(BetterEnderChest plugin, File file, int intervalSeconds) {
+        this.plugin = plugin;
+        this.file = file.getAbsoluteFile();
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    @Override
+    public synchronized void start(final Metrics metrics) throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        write(metrics);
+        task = plugin.getExecutors().workerThreadExecutor().executeTimer(intervalSeconds * 20, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(metrics);
+                } catch (IOException e) {
+                    plugin.warning("Failed to write metrics to " + file + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void write(Metrics metrics) throws IOException {
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            PrometheusFormat.write(metrics, writer);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
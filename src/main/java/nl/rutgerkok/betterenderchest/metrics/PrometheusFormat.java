@@ -0,0 +1,93 @@
+package nl.rutgerkok.betterenderchest.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map.Entry;
+
+/**
+ * Writes metrics in the Prometheus text format, version 0.0.4.
+ *
+ */
+final class PrometheusFormat {
+
+    /**
+     * Content type of the format, for HTTP responses.
+     */
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static String format(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        }
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static String format(Number value) {
+        if (value instanceof Double || value instanceof Float) {
+            return format(value.doubleValue());
+        }
+        return Long.toString(value.longValue());
+    }
+
+    private static String joinLabels(String labels, String extraLabel) {
+        if (labels.isEmpty()) {
+            return "{" + extraLabel + "}";
+        }
+        return "{" + labels + "," + extraLabel + "}";
+    }
+
+    private static String wrapLabels(String labels) {
+        if (labels.isEmpty()) {
+            return "";
+        }
+        return "{" + labels + "}";
+    }
+
+    /**
+     * Writes all metrics.
+     *
+     * @param metrics
+     *            The metrics.
+     * @param writer
+     *            The writer, not closed by this method.
+     * @throws IOException
+     *             If writing fails.
+     */
+    static void write(Metrics metrics, Writer writer) throws IOException {
+        for (MetricFamily family : metrics.getFamilies()) {
+            String name = family.getName();
+            writer.write("# HELP " + name + " " + family.getHelp().replace("\\", "\\\\").replace("\n", "\\n")
+                    + "\n");
+            writer.write("# TYPE " + name + " " + family.getType().getPrometheusName() + "\n");
+            if (family.getType() == MetricType.HISTOGRAM) {
+                for (Entry<String, LatencyHistogram> entry : family.getHistograms().entrySet()) {
+                    writeHistogram(writer, name, entry.getKey(), entry.getValue());
+                }
+            } else {
+                for (Entry<String, Number> entry : family.getValues().entrySet()) {
+                    writer.write(name + wrapLabels(entry.getKey()) + " " + format(entry.getValue()) + "\n");
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    private static void writeHistogram(Writer writer, String name, String labels, LatencyHistogram histogram)
+            throws IOException {
+        double[] bounds = LatencyHistogram.getBucketBounds();
+        long[] counts = histogram.getCumulativeCounts();
+        for (int i = 0; i < counts.length; i++) {
+            String bound = i < bounds.length ? format(bounds[i]) : "+Inf";
+            writer.write(name + "_bucket" + joinLabels(labels, "le=\"" + bound + "\"") + " " + counts[i] + "\n");
+        }
+        writer.write(name + "_sum" + wrapLabels(labels) + " " + format(histogram.getSumSeconds()) + "\n");
+        writer.write(name + "_count" + wrapLabels(labels) + " " + counts[counts.length - 1] + "\n");
+    }
+
+    private PrometheusFormat() {
+
+    }
+}
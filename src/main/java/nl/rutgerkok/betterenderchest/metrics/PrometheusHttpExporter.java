@@ -0,0 +1,99 @@
+package nl.rutgerkok.betterenderchest.metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the metrics on {@code /metrics}, in the Prometheus text format, so
+ * that Prometheus can scrape them directly. Requests are handled on a single
+ * thread of this exporter, never on the server thread.
+ *
+ */
+public final class PrometheusHttpExporter implements MetricsExporter {
+
+    private final String bindAddress;
+    private ExecutorService executor;
+    private final int port;
+    private HttpServer server;
+
+    /**
+     * Creates the exporter. Call {@link Metrics#addExporter(MetricsExporter)}
+     * to start it.
+     *
+     * @param bindAddress
+     *            The address to listen on, like {@code 127.0.0.1}.
+     * @param port
+     *            The port to listen on.
+     */
+    public PrometheusHttpExporter(String bindAddress, int port) {
+        this.bindAddress = bindAddress;
+        this.port = port;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Override
+    public synchronized void start(final Metrics metrics) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                        exchange.sendResponseHeaders(405, -1);
+                        return;
+                    }
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+                    PrometheusFormat.write(metrics, writer);
+
+                    exchange.getResponseHeaders().set("Content-Type", PrometheusFormat.CONTENT_TYPE);
+                    if (exchange.getRequestMethod().equals("HEAD")) {
+                        exchange.sendResponseHeaders(200, -1);
+                        return;
+                    }
+                    exchange.sendResponseHeaders(200, bytes.size());
+                    try (OutputStream body = exchange.getResponseBody()) {
+                        bytes.writeTo(body);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "BetterEnderChest-metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+        this.server = server;
+        this.executor = executor;
+    }
+}
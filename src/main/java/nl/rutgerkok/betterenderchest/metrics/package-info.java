@@ -0,0 +1,6 @@
+/**
+ * Counters, gauges and latency histograms, and the exporters that publish
+ * them.
+ *
+ */
+package nl.rutgerkok.betterenderchest.metrics;
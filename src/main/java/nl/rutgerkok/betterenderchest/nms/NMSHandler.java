@@ -34,6 +34,24 @@ public abstract class NMSHandler implements Registration {
         return Priority.NORMAL;
     }
 
+    /**
+     * Loads a BetterEnderChest inventory from compressed NBT bytes, as written
+     * by {@link #saveInventoryToBytes(SaveEntry)}. The items are loaded from
+     * the Inventory tag.
+     *
+     * @param bytes
+     *            The compressed NBT bytes.
+     * @param chestOwner
+     *            The owner of the inventory.
+     * @param worldGroup
+     *            The group the inventory is in.
+     * @throws IOException
+     *             If the bytes are corrupted.
+     * @return The inventory. The holder of the inventory must be
+     *         BetterEnderInventoryHolder.
+     */
+    public abstract Inventory loadNBTInventoryFromBytes(byte[] bytes, ChestOwner chestOwner, WorldGroup worldGroup) throws IOException;
+
     /**
      * Loads a BetterEnderChest inventory from the NBT file. The inventory will
      * have the specified name and will be loaded from the specified child tag
@@ -97,6 +115,20 @@ public abstract class NMSHandler implements Registration {
      */
     public abstract void openEnderChest(Location location, Player player);
 
+    /**
+     * Saves a BetterEnderChest inventory to compressed NBT bytes. This is the
+     * same format as {@link #saveInventoryToFile(File, SaveEntry)} uses, but
+     * kept in memory. It is much smaller and faster to read back than
+     * {@link #saveInventoryToJson(SaveEntry)}.
+     *
+     * @param saveEntry
+     *            The inventory to save.
+     * @throws IOException
+     *             When the NBT cannot be written.
+     * @return The compressed NBT bytes.
+     */
+    public abstract byte[] saveInventoryToBytes(SaveEntry saveEntry) throws IOException;
+
     /**
      * Saves a BetterEnderChest inventory to a NBT formatted file.
      *
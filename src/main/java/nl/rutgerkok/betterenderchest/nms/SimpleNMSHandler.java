@@ -1,10 +1,13 @@
 package nl.rutgerkok.betterenderchest.nms;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -20,6 +23,8 @@ import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.json.simple.parser.JSONParser;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.serialization.Dynamic;
 
@@ -48,6 +53,7 @@ import nl.rutgerkok.betterenderchest.ChestRestrictions;
 import nl.rutgerkok.betterenderchest.WorldGroup;
 import nl.rutgerkok.betterenderchest.chestowner.ChestOwner;
 import nl.rutgerkok.betterenderchest.io.SaveEntry;
+import nl.rutgerkok.betterenderchest.metrics.LatencyHistogram;
 
 public class SimpleNMSHandler extends NMSHandler {
     static class JSONSimpleTypes {
@@ -193,6 +199,36 @@ public class SimpleNMSHandler extends NMSHandler {
         }
     }
 
+    /**
+     * Key for the cache of upgraded items.
+     */
+    private static final class ItemUpgradeKey {
+        private final int dataVersion;
+        private final CompoundTag item;
+
+        ItemUpgradeKey(CompoundTag item, int dataVersion) {
+            this.item = item;
+            this.dataVersion = dataVersion;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ItemUpgradeKey)) {
+                return false;
+            }
+            ItemUpgradeKey other = (ItemUpgradeKey) obj;
+            return dataVersion == other.dataVersion && item.equals(other.item);
+        }
+
+        @Override
+        public int hashCode() {
+            return item.hashCode() * 31 + dataVersion;
+        }
+    }
+
     /**
      * Constants for some NBT tag types.
      */
@@ -202,10 +238,31 @@ public class SimpleNMSHandler extends NMSHandler {
 
     private static final int DATA_VERSION_MC_1_12_2 = 1343;
 
+    /**
+     * Number of upgraded items that are remembered.
+     */
+    private static final int UPGRADE_CACHE_SIZE = 4096;
+
+    /**
+     * Time spent in the DataFixer, per call. One call upgrades all items of a
+     * chest that weren't upgraded before.
+     */
+    private final LatencyHistogram dataFixerTime;
     private final BetterEnderChest plugin;
+    /**
+     * Items as they were stored (without slot) and their upgraded version. After
+     * a Minecraft update, many chests contain the same items, so this saves a lot
+     * of work for the DataFixer. The tags are copied when they go in or out, as
+     * tags are mutable.
+     */
+    private final Cache<ItemUpgradeKey, CompoundTag> upgradedItems = CacheBuilder.newBuilder()
+            .maximumSize(UPGRADE_CACHE_SIZE)
+            .build();
 
     public SimpleNMSHandler(BetterEnderChest plugin) {
         this.plugin = plugin;
+        this.dataFixerTime = plugin.getMetrics().histogram("betterenderchest_datafixer_seconds",
+                "Time spent upgrading items stored by older Minecraft versions");
     }
 
     @Override
@@ -276,6 +333,12 @@ public class SimpleNMSHandler extends NMSHandler {
         }
     }
 
+    @Override
+    public Inventory loadNBTInventoryFromBytes(byte[] bytes, ChestOwner chestOwner, WorldGroup worldGroup) throws IOException {
+        CompoundTag baseTag = NbtIo.readCompressed(new ByteArrayInputStream(bytes));
+        return loadNBTInventoryFromTag(baseTag, chestOwner, worldGroup, "Inventory");
+    }
+
     @Override
     public Inventory loadNBTInventoryFromFile(File file, ChestOwner chestOwner, WorldGroup worldGroup, String inventoryTagName) throws IOException {
         FileInputStream inputStream = null;
@@ -303,16 +366,18 @@ public class SimpleNMSHandler extends NMSHandler {
         int inventoryRows = getRows(chestOwner, baseTag, inventoryTag);
         int disabledSlots = getDisabledSlots(baseTag);
         int dataVersion = getStoredDataVersion(baseTag);
+        @SuppressWarnings("deprecation")
+        int currentDataVersion = Bukkit.getUnsafe().getDataVersion();
         boolean itemInsertion = isItemInsertionAllowed(baseTag);
         ChestRestrictions chestRestrictions = new ChestRestrictions(inventoryRows, disabledSlots, itemInsertion);
         Inventory inventory = plugin.getEmptyInventoryProvider().loadEmptyInventory(chestOwner, worldGroup, chestRestrictions);
 
         // Add all the items
+        List<CompoundTag> items = updateToLatestMinecraft(inventoryTag, dataVersion);
         List<ItemStack> overflowingItems = new ArrayList<>();
         for (int i = 0; i < inventoryTag.size(); i++) {
-            CompoundTag item = inventoryTag.getCompound(i);
-            int slot = item.getByte("Slot") & 255;
-            item = updateToLatestMinecraft(item, dataVersion);
+            int slot = inventoryTag.getCompound(i).getByte("Slot") & 255;
+            CompoundTag item = items.get(i);
             ItemStack bukkitItem = CraftItemStack.asCraftMirror(net.minecraft.world.item.ItemStack.of(item));
 
             if (slot < inventory.getSize()) {
@@ -325,8 +390,15 @@ public class SimpleNMSHandler extends NMSHandler {
             BetterEnderInventoryHolder.of(inventory).addOverflowingItems(overflowingItems);
         }
 
-        // Items currently in the chest are what is in the database
-        BetterEnderInventoryHolder.of(inventory).markContentsAsSaved(inventory.getContents());
+        if (dataVersion == currentDataVersion) {
+            // Items currently in the chest are what is in the database
+            BetterEnderInventoryHolder.of(inventory).markContentsAsSaved(inventory.getContents());
+        } else {
+            // Leave the chest marked as changed, so that the upgraded items
+            // are saved and don't need to be upgraded again
+            plugin.debug("Upgraded chest of " + chestOwner.getDisplayName() + " from data version " + dataVersion
+                    + " to " + currentDataVersion);
+        }
 
         // Return the inventory
         return inventory;
@@ -370,6 +442,13 @@ public class SimpleNMSHandler extends NMSHandler {
         return this.updateToLatestMinecraft(item, DATA_VERSION_MC_1_12_2);
     }
 
+    @Override
+    public byte[] saveInventoryToBytes(SaveEntry saveEntry) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        NbtIo.writeCompressed(saveInventoryToTag(saveEntry), stream);
+        return stream.toByteArray();
+    }
+
     @Override
     public void saveInventoryToFile(File file, SaveEntry saveEntry) throws IOException {
         FileOutputStream stream = null;
@@ -427,6 +506,84 @@ public class SimpleNMSHandler extends NMSHandler {
         return new BlockPos(location.getBlockX(), location.getBlockY(), location.getBlockZ());
     }
 
+    /**
+     * Upgrades all items of a chest to the current Minecraft version. Items
+     * that were upgraded before are taken from {@link #upgradedItems}, the
+     * other items are upgraded together in a single pass of the DataFixer.
+     *
+     * @param inventoryTag
+     *            The items, as stored.
+     * @param oldVersion
+     *            The data version the items were stored in.
+     * @return The upgraded items, in the same order. The slot numbers may be
+     *         missing.
+     */
+    private List<CompoundTag> updateToLatestMinecraft(ListTag inventoryTag, int oldVersion) {
+        @SuppressWarnings("deprecation")
+        int newVersion = Bukkit.getUnsafe().getDataVersion();
+        List<CompoundTag> items = new ArrayList<>(inventoryTag.size());
+        if (newVersion == oldVersion) {
+            for (int i = 0; i < inventoryTag.size(); i++) {
+                items.add(updateToLatestMinecraft(inventoryTag.getCompound(i), oldVersion));
+            }
+            return items;
+        }
+
+        // Look up the items that were upgraded before
+        Map<Integer, ItemUpgradeKey> missing = new LinkedHashMap<>();
+        ListTag toUpgrade = new ListTag();
+        for (int i = 0; i < inventoryTag.size(); i++) {
+            CompoundTag item = inventoryTag.getCompound(i).copy();
+            item.remove("Slot");
+            ItemUpgradeKey key = new ItemUpgradeKey(item, oldVersion);
+            CompoundTag upgraded = upgradedItems.getIfPresent(key);
+            if (upgraded == null) {
+                missing.put(i, key);
+                toUpgrade.add(item.copy());
+                items.add(null);
+            } else {
+                items.add(upgraded.copy());
+            }
+        }
+        if (toUpgrade.isEmpty()) {
+            return items;
+        }
+
+        List<CompoundTag> upgraded = updateToLatestMinecraft(toUpgrade, oldVersion, newVersion);
+        int i = 0;
+        for (Entry<Integer, ItemUpgradeKey> entry : missing.entrySet()) {
+            CompoundTag item = upgraded.get(i++);
+            upgradedItems.put(entry.getValue(), item.copy());
+            items.set(entry.getKey(), item);
+        }
+        return items;
+    }
+
+    private List<CompoundTag> updateToLatestMinecraft(ListTag items, int oldVersion, int newVersion) {
+        // The Ender Chest items of a player are upgraded as a whole, which is
+        // much faster than starting the DataFixer for every item
+        CompoundTag player = new CompoundTag();
+        player.put("EnderItems", items.copy());
+        long startTime = System.nanoTime();
+        Dynamic<Tag> result = DataFixers.getDataFixer()
+                .update(References.PLAYER, new Dynamic<>(NbtOps.INSTANCE, player), oldVersion, newVersion);
+        dataFixerTime.recordSince(startTime);
+        ListTag upgradedTag = ((CompoundTag) result.getValue()).getList("EnderItems", TagType.COMPOUND);
+
+        List<CompoundTag> upgraded = new ArrayList<>(items.size());
+        if (upgradedTag.size() != items.size()) {
+            // Items got lost, so the order is unknown. Upgrade them one by one
+            for (int i = 0; i < items.size(); i++) {
+                upgraded.add(updateToLatestMinecraft(items.getCompound(i), oldVersion));
+            }
+            return upgraded;
+        }
+        for (int i = 0; i < upgradedTag.size(); i++) {
+            upgraded.add(upgradedTag.getCompound(i));
+        }
+        return upgraded;
+    }
+
     private CompoundTag updateToLatestMinecraft(CompoundTag item, int oldVersion) {
         @SuppressWarnings("deprecation")
         int newVersion = Bukkit.getUnsafe().getDataVersion();
@@ -440,8 +597,10 @@ public class SimpleNMSHandler extends NMSHandler {
         }
 
         Dynamic<Tag> input = new Dynamic<>(NbtOps.INSTANCE, item);
+        long startTime = System.nanoTime();
         Dynamic<Tag> result = DataFixers.getDataFixer()
                 .update(References.ITEM_STACK, input, oldVersion, newVersion);
+        dataFixerTime.recordSince(startTime);
         return (CompoundTag) result.getValue();
     }
 
@@ -1,7 +1,15 @@
 package nl.rutgerkok.betterenderchest.util;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bukkit.Server;
 import org.bukkit.plugin.Plugin;
@@ -15,7 +23,8 @@ import com.google.common.util.concurrent.SettableFuture;
 /**
  * Contains methods that return {@link Executor}s. This class forms a bridge
  * between {@link BukkitScheduler Bukkit's scheduler} and {@link Executor Java's
- * executors}.
+ * executors}. Chests are loaded and saved on threads owned by this plugin,
+ * see {@link #loadExecutor()} and {@link #saveExecutor()}.
  *
  */
 public final class BukkitExecutors {
@@ -31,6 +40,17 @@ public final class BukkitExecutors {
 
         public abstract BukkitTask executeTimer(int ticks, Runnable runnable);
 
+        /**
+         * Gets the number of tasks that are waiting or running on threads
+         * owned by this executor. Tasks handed to Bukkit's scheduler are not
+         * counted.
+         *
+         * @return The number of tasks.
+         */
+        public int getPendingTaskCount() {
+            return 0;
+        }
+
         /**
          * Submits a task to this executor.
          *
@@ -42,21 +62,212 @@ public final class BukkitExecutors {
          */
         public <T> ListenableFuture<T> submit(final Callable<T> task) {
             final SettableFuture<T> future = SettableFuture.create();
-            execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        future.set(task.call());
-                    } catch (Exception e) {
-                        future.setException(e);
+            try {
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            future.set(task.call());
+                        } catch (Exception e) {
+                            future.setException(e);
+                        }
                     }
-                }
-            });
+                });
+            } catch (RejectedExecutionException e) {
+                future.setException(e);
+            }
             return future;
         }
     }
 
+    /**
+     * Executor with its own threads and a bounded queue. When the queue is
+     * full, tasks submitted from other threads wait until there is room in the
+     * queue. The server thread must never wait, so its tasks are placed in a
+     * second queue of the same size, which is moved into the first queue
+     * whenever a task finishes. When that queue is full too, the task is
+     * rejected with a {@link RejectedExecutionException}.
+     *
+     */
+    private final class IOThreadsExecutor extends BukkitExecutor {
+        private final String name;
+        private final ThreadLocal<Boolean> onOwnThread = ThreadLocal.withInitial(() -> false);
+        private volatile IOThreadPool pool;
+
+        private IOThreadsExecutor(String name) {
+            this.name = name;
+        }
+
+        private ThreadFactory createThreadFactory() {
+            String prefix = plugin.getName() + "-" + name + "-";
+            AtomicInteger threadCount = new AtomicInteger();
+            return runnable -> {
+                Thread thread = new Thread(() -> {
+                    onOwnThread.set(true);
+                    runnable.run();
+                }, prefix + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            IOThreadPool pool = this.pool;
+            if (pool == null) {
+                // Not started or already stopped
+                workerThreadExecutor.execute(task);
+                return;
+            }
+            if (onOwnThread.get()) {
+                task.run();
+                return;
+            }
+
+            try {
+                pool.execute(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                // Queue is full, or the pool was just stopped
+            }
+
+            if (pool.isShutdown()) {
+                workerThreadExecutor.execute(task);
+                return;
+            }
+            if (plugin.getServer().isPrimaryThread()) {
+                if (!pool.overflow.offer(task)) {
+                    throw new RejectedExecutionException("Cannot keep up with " + name + " tasks: "
+                            + pool.getQueue().size() + " tasks are waiting and " + pool.overflow.size()
+                            + " more are waiting for room in the queue");
+                }
+                // The threads may have become idle in the meantime
+                pool.moveOverflowToQueue();
+                return;
+            }
+            try {
+                pool.getQueue().put(task);
+                if (pool.isShutdown() && pool.remove(task)) {
+                    // Stopped while we were waiting, so the task may never run
+                    workerThreadExecutor.execute(task);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.run();
+            }
+        }
+
+        /**
+         * Runs the task on the threads of this executor, every given number
+         * of ticks. If the previous run hasn't finished yet, the task is
+         * skipped, so that runs never pile up.
+         */
+        @Override
+        public BukkitTask executeTimer(int ticks, Runnable runnable) {
+            AtomicBoolean running = new AtomicBoolean();
+            return plugin.getServer().getScheduler().runTaskTimer(plugin, () -> {
+                if (!running.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    execute(() -> {
+                        try {
+                            runnable.run();
+                        } finally {
+                            running.set(false);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Try again next time
+                    running.set(false);
+                    throw e;
+                }
+            }, ticks, ticks);
+        }
+
+        @Override
+        public int getPendingTaskCount() {
+            IOThreadPool pool = this.pool;
+            if (pool == null) {
+                return 0;
+            }
+            return pool.getQueue().size() + pool.overflow.size() + pool.getActiveCount();
+        }
+
+        private void start(int threads, int queueSize) {
+            IOThreadPool pool = new IOThreadPool(threads, queueSize, createThreadFactory());
+            pool.prestartAllCoreThreads();
+            this.pool = pool;
+        }
+
+        private void stop(int timeoutSeconds) {
+            IOThreadPool pool = this.pool;
+            if (pool == null) {
+                return;
+            }
+            this.pool = null;
+
+            pool.shutdown();
+            try {
+                if (!pool.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+                    int remaining = pool.shutdownNow().size() + pool.overflow.size();
+                    pool.overflow.clear();
+                    plugin.getLogger().warning("Gave up waiting for " + name + " tasks, " + remaining
+                            + " tasks were never started");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pool.shutdownNow();
+                pool.overflow.clear();
+            }
+
+            // Threads are gone, so run what is left on this thread
+            Runnable task;
+            while ((task = pool.overflow.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Thread pool with an overflow queue for tasks submitted from the server
+     * thread, see {@link IOThreadsExecutor}.
+     *
+     */
+    private static final class IOThreadPool extends ThreadPoolExecutor {
+        private final BlockingQueue<Runnable> overflow;
+
+        private IOThreadPool(int threads, int queueSize, ThreadFactory threadFactory) {
+            super(threads, threads, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory);
+            this.overflow = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        @Override
+        protected void afterExecute(Runnable task, Throwable t) {
+            super.afterExecute(task, t);
+            moveOverflowToQueue();
+        }
+
+        /**
+         * Moves tasks from the overflow queue to the queue of the pool, as
+         * long as there is room.
+         */
+        private synchronized void moveOverflowToQueue() {
+            BlockingQueue<Runnable> queue = getQueue();
+            Runnable task;
+            while ((task = overflow.peek()) != null) {
+                if (!queue.offer(task)) {
+                    return;
+                }
+                overflow.poll();
+            }
+        }
+    }
+
+    private final IOThreadsExecutor loadExecutor = new IOThreadsExecutor("load");
     private final Plugin plugin;
+    private final IOThreadsExecutor saveExecutor = new IOThreadsExecutor("save");
+    private int shutdownTimeoutSeconds;
 
     private final BukkitExecutor serverThreadExecutor = new BukkitExecutor() {
         @Override
@@ -102,6 +313,31 @@ public final class BukkitExecutors {
         this.plugin = Preconditions.checkNotNull(plugin, "plugin");
     }
 
+    /**
+     * Executes a task on one of the threads that load chests. A player is
+     * usually waiting for these tasks, so they don't have to wait for saves.
+     * Before {@link #startIOThreads(IOSettings)} is called, and after
+     * {@link #stopIOThreads()} is called, this executor behaves like
+     * {@link #workerThreadExecutor()}.
+     *
+     * @return The executor.
+     */
+    public BukkitExecutor loadExecutor() {
+        return loadExecutor;
+    }
+
+    /**
+     * Executes a task on one of the threads that save chests. Before
+     * {@link #startIOThreads(IOSettings)} is called, and after
+     * {@link #stopIOThreads()} is called, this executor behaves like
+     * {@link #workerThreadExecutor()}.
+     *
+     * @return The executor.
+     */
+    public BukkitExecutor saveExecutor() {
+        return saveExecutor;
+    }
+
     /**
      * Executes a task on the server thread. When the
      * {@link Executor#execute(Runnable)} method is called from the server
@@ -114,6 +350,30 @@ public final class BukkitExecutors {
         return serverThreadExecutor;
     }
 
+    /**
+     * Starts the threads of {@link #loadExecutor()} and
+     * {@link #saveExecutor()}.
+     *
+     * @param settings
+     *            The number of threads, etc.
+     */
+    public void startIOThreads(IOSettings settings) {
+        stopIOThreads();
+        this.shutdownTimeoutSeconds = settings.getShutdownTimeoutSeconds();
+        loadExecutor.start(settings.getLoadThreads(), settings.getQueueSize());
+        saveExecutor.start(settings.getSaveThreads(), settings.getQueueSize());
+    }
+
+    /**
+     * Stops the threads of {@link #loadExecutor()} and {@link #saveExecutor()}.
+     * Tasks that were already submitted are still run, this method waits for
+     * them to finish (up to {@link IOSettings#getShutdownTimeoutSeconds()}).
+     */
+    public void stopIOThreads() {
+        loadExecutor.stop(shutdownTimeoutSeconds);
+        saveExecutor.stop(shutdownTimeoutSeconds);
+    }
+
     /**
      * Executes a task on a worker thread. This can be any thread that isn't the
      * main server thread. When the {@link Executor#execute(Runnable)} method is
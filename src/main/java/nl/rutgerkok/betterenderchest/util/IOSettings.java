@@ -0,0 +1,80 @@
+package nl.rutgerkok.betterenderchest.util;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+/**
+ * Settings for the threads that load and save chests.
+ *
+ * @see BukkitExecutors#startIOThreads(IOSettings)
+ */
+public class IOSettings {
+    private final int loadThreads;
+    private final int queueSize;
+    private final int saveThreads;
+    private final int shutdownTimeoutSeconds;
+
+    public IOSettings(int loadThreads, int saveThreads, int queueSize, int shutdownTimeoutSeconds) {
+        this.loadThreads = loadThreads;
+        this.saveThreads = saveThreads;
+        this.queueSize = queueSize;
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+
+    /**
+     * Reads the settings from the config, then writes them back to the config.
+     * The default values will be used for any missing settings.
+     *
+     * @param config
+     *            The config file.
+     */
+    public IOSettings(FileConfiguration config) {
+        loadThreads = Math.max(1, config.getInt("IO.loadThreads", 2));
+        config.set("IO.loadThreads", loadThreads);
+        saveThreads = Math.max(1, config.getInt("IO.saveThreads", 1));
+        config.set("IO.saveThreads", saveThreads);
+        queueSize = Math.max(1, config.getInt("IO.queueSize", 512));
+        config.set("IO.queueSize", queueSize);
+        // Remove old setting
+        config.set("IO.useVirtualThreads", null);
+        shutdownTimeoutSeconds = Math.max(0, config.getInt("IO.shutdownTimeoutSeconds", 30));
+        config.set("IO.shutdownTimeoutSeconds", shutdownTimeoutSeconds);
+    }
+
+    /**
+     * Gets the number of threads that load chests. Loads are done while a
+     * player is waiting, so they have their own threads.
+     *
+     * @return The number of threads, at least 1.
+     */
+    public int getLoadThreads() {
+        return loadThreads;
+    }
+
+    /**
+     * Gets the maximum number of tasks waiting for a thread, per kind of task.
+     *
+     * @return The maximum number of waiting tasks, at least 1.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Gets the number of threads that save chests.
+     *
+     * @return The number of threads, at least 1.
+     */
+    public int getSaveThreads() {
+        return saveThreads;
+    }
+
+    /**
+     * Gets how long to wait for pending loads and saves when the plugin is
+     * disabled.
+     *
+     * @return The time in seconds.
+     */
+    public int getShutdownTimeoutSeconds() {
+        return shutdownTimeoutSeconds;
+    }
+}
@@ -0,0 +1,181 @@
+package nl.rutgerkok.betterenderchest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import nl.rutgerkok.betterenderchest.chestowner.NamedChestOwner;
+
+@RunWith(JUnit4.class)
+public class BetterEnderInventoryHolderTest {
+
+    private BetterEnderInventoryHolder createHolder() {
+        return new BetterEnderInventoryHolder(new NamedChestOwner("Bob"), new WorldGroup("my_world_group"),
+                new ChestRestrictions(3, 0, true));
+    }
+
+    /**
+     * Creates an inventory that only supports getting its size and items.
+     *
+     * @param contents
+     *            The contents, changes are visible in the inventory.
+     * @return The inventory.
+     */
+    private Inventory createInventory(final ItemStack[] contents) {
+        return (Inventory) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Inventory.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                            case "getSize":
+                                return contents.length;
+                            case "getItem":
+                                return contents[(Integer) args[0]];
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    }
+                });
+    }
+
+    @Test
+    public void testChangeCount() {
+        BetterEnderInventoryHolder holder = createHolder();
+        long changeCount = holder.getChangeCount();
+
+        holder.clearChangedSlots();
+        assertEquals(changeCount, holder.getChangeCount());
+
+        holder.markSlotChanged(3);
+        assertTrue(holder.getChangeCount() != changeCount);
+
+        changeCount = holder.getChangeCount();
+        holder.markAllSlotsChanged();
+        assertTrue(holder.getChangeCount() != changeCount);
+    }
+
+    @Test
+    public void testChangedSlots() {
+        BetterEnderInventoryHolder holder = createHolder();
+        ItemStack[] contents = new ItemStack[27];
+
+        holder.markContentsAsSaved(contents);
+        assertFalse(holder.hasChangedSlots());
+
+        holder.markSlotChanged(3);
+        assertTrue(holder.hasChangedSlots());
+        holder.clearChangedSlots();
+        assertFalse(holder.hasChangedSlots());
+
+        holder.markAllSlotsChanged();
+        assertTrue(holder.hasChangedSlots());
+    }
+
+    @Test
+    public void testInPlaceChangeNoticed() {
+        BetterEnderInventoryHolder holder = createHolder();
+        ItemStack[] contents = new ItemStack[27];
+        contents[0] = new NameableItemStack(Material.DIRT, 10);
+        holder.markContentsAsSaved(contents);
+
+        // Same stack instance, changed without marking the slot
+        contents[0].setAmount(11);
+        assertTrue(holder.hasUnsavedChanges(contents));
+        assertTrue(holder.hasUnsavedChanges(contents)); // No side effects
+        assertTrue(holder.markContentsAsSavedIfChanged(contents, true));
+        assertFalse(holder.hasUnsavedChanges(contents));
+    }
+
+    @Test
+    public void testNewChestIsChanged() {
+        BetterEnderInventoryHolder holder = createHolder();
+        assertTrue(holder.hasChangedSlots());
+        assertTrue(holder.hasUnsavedChanges(new ItemStack[27]));
+    }
+
+    @Test
+    public void testOlderSnapshotNotSaved() {
+        BetterEnderInventoryHolder holder = createHolder();
+        ItemStack[] contents = new ItemStack[27];
+        Inventory inventory = createInventory(contents);
+
+        contents[0] = new NameableItemStack(Material.DIRT, 10);
+        ChestSnapshot older = holder.takeSnapshot(inventory, false);
+        contents[0] = new NameableItemStack(Material.DIRT, 11);
+        holder.markSlotChanged(0);
+        ChestSnapshot newer = holder.takeSnapshot(inventory, false);
+
+        assertTrue(holder.markSnapshotAsSavedIfChanged(newer, true));
+        assertFalse(holder.markSnapshotAsSavedIfChanged(older, true));
+        assertFalse(holder.hasUnsavedChanges(contents));
+    }
+
+    @Test
+    public void testOnlyMarkedSlotsCompared() {
+        BetterEnderInventoryHolder holder = createHolder();
+        ItemStack[] contents = new ItemStack[27];
+        contents[0] = new NameableItemStack(Material.DIRT, 10);
+        holder.markContentsAsSaved(contents);
+
+        // Change without marking the slot: only noticed by a full comparison
+        contents[5] = new NameableItemStack(Material.STONE, 1);
+        assertFalse(holder.markContentsAsSavedIfChanged(contents, false));
+        assertTrue(holder.hasUnsavedChanges(contents));
+
+        // Now mark the slot
+        holder.markSlotChanged(5);
+        holder.clearChangedSlots(); // Marks must survive until the comparison
+        assertTrue(holder.markContentsAsSavedIfChanged(contents, false));
+        assertFalse(holder.hasUnsavedChanges(contents));
+    }
+
+    @Test
+    public void testSaveOnlyOnChange() {
+        BetterEnderInventoryHolder holder = createHolder();
+        ItemStack[] contents = new ItemStack[27];
+        contents[0] = new NameableItemStack(Material.DIRT, 10);
+
+        assertTrue(holder.markContentsAsSavedIfChanged(contents, true));
+        assertFalse(holder.markContentsAsSavedIfChanged(contents, true));
+        assertFalse(holder.hasUnsavedChanges(contents));
+
+        contents[0] = new NameableItemStack(Material.DIRT, 11);
+        assertTrue(holder.hasUnsavedChanges(contents));
+        assertTrue(holder.markContentsAsSavedIfChanged(contents, true));
+    }
+
+    @Test
+    public void testSnapshotCopiesOnlyChangedSlots() {
+        BetterEnderInventoryHolder holder = createHolder();
+        ItemStack[] contents = new ItemStack[27];
+        contents[0] = new NameableItemStack(Material.DIRT, 10);
+        contents[1] = new NameableItemStack(Material.STONE, 5);
+        Inventory inventory = createInventory(contents);
+
+        ChestSnapshot first = holder.takeSnapshot(inventory, false);
+        assertNotSame(contents[0], first.getItem(0));
+        assertEquals(10, first.getItem(0).getAmount());
+        assertFalse(holder.hasChangedSlots());
+
+        contents[1].setAmount(6);
+        holder.markSlotChanged(1);
+        ChestSnapshot second = holder.takeSnapshot(inventory, false);
+        assertSame(first.getItem(0), second.getItem(0));
+        assertEquals(5, first.getItem(1).getAmount());
+        assertEquals(6, second.getItem(1).getAmount());
+        assertTrue(second.getVersion() > first.getVersion());
+    }
+}
@@ -0,0 +1,126 @@
+package nl.rutgerkok.betterenderchest.chestowner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import nl.rutgerkok.betterenderchest.exception.InvalidOwnerException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ProfileBatcherTest {
+
+    /**
+     * Stands in for the profile server. Only knows names starting with
+     * "player".
+     */
+    private static class StubServer implements ProfileBatcher.Fetcher {
+        private final List<List<String>> requests = Collections.synchronizedList(new ArrayList<List<String>>());
+        private boolean rateLimited;
+
+        @Override
+        public List<UUIDChestOwner> fetch(List<String> names) throws IOException {
+            requests.add(names);
+            if (rateLimited) {
+                throw new ProfileBatcher.RateLimitedException("Too many requests");
+            }
+            List<UUIDChestOwner> profiles = new ArrayList<UUIDChestOwner>();
+            for (String name : names) {
+                if (name.startsWith("player")) {
+                    profiles.add(new UUIDChestOwner(name, UUID.nameUUIDFromBytes(name.getBytes("UTF-8"))));
+                }
+            }
+            return profiles;
+        }
+    }
+
+    @Test
+    public void testConcurrentLookupsShareOneRequest() throws Exception {
+        StubServer server = new StubServer();
+        final ProfileBatcher batcher = new ProfileBatcher(server, 500, 0, 0);
+        int threads = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<UUIDChestOwner>> results = new ArrayList<Future<UUIDChestOwner>>();
+            for (int i = 0; i < threads; i++) {
+                final String name = "player" + i;
+                results.add(executor.submit(new Callable<UUIDChestOwner>() {
+                    @Override
+                    public UUIDChestOwner call() throws Exception {
+                        start.await();
+                        return batcher.lookUp(name);
+                    }
+                }));
+            }
+            start.countDown();
+
+            for (int i = 0; i < threads; i++) {
+                assertEquals("player" + i, results.get(i).get(10, TimeUnit.SECONDS).getDisplayName());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("All lookups must be sent in one request", 1, server.requests.size());
+        assertEquals(threads, new HashSet<String>(server.requests.get(0)).size());
+    }
+
+    @Test
+    public void testRateLimited() throws IOException {
+        StubServer server = new StubServer();
+        ProfileBatcher batcher = new ProfileBatcher(server, 0, 0, TimeUnit.MINUTES.toMillis(1));
+        server.rateLimited = true;
+        try {
+            batcher.lookUp("player1");
+            fail("Server refused the request");
+        } catch (ProfileBatcher.RateLimitedException e) {
+            // Expected
+        } catch (InvalidOwnerException e) {
+            fail("Name is not unknown, the request failed");
+        }
+
+        server.rateLimited = false;
+        try {
+            batcher.lookUp("player2");
+            fail("Must back off");
+        } catch (ProfileBatcher.RateLimitedException e) {
+            // Expected
+        } catch (InvalidOwnerException e) {
+            fail("Name is not unknown, the request failed");
+        }
+        assertEquals("No request must be sent while backing off", 1, server.requests.size());
+    }
+
+    @Test
+    public void testUnknownName() throws IOException {
+        StubServer server = new StubServer();
+        ProfileBatcher batcher = new ProfileBatcher(server, 0, 0, 0);
+        try {
+            batcher.lookUp("nobody");
+            fail("Name doesn't exist");
+        } catch (InvalidOwnerException e) {
+            // Expected
+        }
+
+        Set<String> requested = new HashSet<String>(server.requests.get(0));
+        assertTrue(requested.contains("nobody"));
+    }
+}
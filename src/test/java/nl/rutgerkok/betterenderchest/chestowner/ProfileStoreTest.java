@@ -0,0 +1,86 @@
+package nl.rutgerkok.betterenderchest.chestowner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.rutgerkok.betterenderchest.exception.InvalidOwnerException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.cache.CacheLoader;
+
+@RunWith(JUnit4.class)
+public class ProfileStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    private ProfileStore createStore(File file) {
+        return new ProfileStore(file, 100, 60, 10, new CacheLoader<String, UUIDChestOwner>() {
+            @Override
+            public UUIDChestOwner load(String name) throws InvalidOwnerException {
+                fetches.incrementAndGet();
+                throw new InvalidOwnerException(name);
+            }
+        });
+    }
+
+    @Test
+    public void testProfilesSurviveRestart() throws IOException, ExecutionException {
+        File file = new File(temporaryFolder.getRoot(), "profiles.txt");
+        UUID uuid = UUID.randomUUID();
+
+        ProfileStore store = createStore(file);
+        store.remember(new UUIDChestOwner("Notch", uuid));
+        assertEquals(1, store.save());
+
+        ProfileStore restarted = createStore(file);
+        assertEquals(1, restarted.load());
+        assertEquals(new UUIDChestOwner("notch", uuid), restarted.get("NOTCH"));
+        assertEquals("Notch", restarted.getName(uuid));
+        assertEquals("Must be resolved without fetching", 0, fetches.get());
+    }
+
+    @Test
+    public void testRenamedPlayer() throws ExecutionException {
+        ProfileStore store = createStore(new File(temporaryFolder.getRoot(), "profiles.txt"));
+        UUID uuid = UUID.randomUUID();
+        store.remember(new UUIDChestOwner("OldName", uuid));
+        store.remember(new UUIDChestOwner("NewName", uuid));
+
+        assertEquals("NewName", store.getName(uuid));
+        assertEquals(new UUIDChestOwner("NewName", uuid), store.get("newname"));
+        try {
+            store.get("oldname");
+            fail("Old name must be forgotten");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InvalidOwnerException);
+        }
+    }
+
+    @Test
+    public void testUnknownNameNotFetchedAgain() {
+        ProfileStore store = createStore(new File(temporaryFolder.getRoot(), "profiles.txt"));
+        store.markUnknown("Nobody");
+        try {
+            store.get("nobody");
+            fail("Name is unknown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InvalidOwnerException);
+        }
+        assertEquals(0, fetches.get());
+    }
+}
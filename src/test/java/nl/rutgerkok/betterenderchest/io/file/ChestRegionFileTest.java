@@ -0,0 +1,114 @@
+package nl.rutgerkok.betterenderchest.io.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.ImmutableSet;
+
+@RunWith(JUnit4.class)
+public class ChestRegionFileTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+
+    private Path newFile() throws IOException {
+        return temporaryFolder.newFolder().toPath().resolve("chests-0.becr");
+    }
+
+    @Test
+    public void testManySmallWrites() throws IOException {
+        Path file = newFile();
+        try (ChestRegionFile regionFile = ChestRegionFile.open(file)) {
+            // Enough writes for a few checkpoints
+            for (int i = 0; i < 200; i++) {
+                regionFile.write(Collections.singletonMap("chest" + (i % 50), bytes(100, i)), false, false);
+            }
+        }
+
+        try (ChestRegionFile regionFile = ChestRegionFile.open(file)) {
+            assertEquals(50, regionFile.getKeys().size());
+            for (int i = 150; i < 200; i++) {
+                assertArrayEquals(bytes(100, i), regionFile.read("chest" + (i % 50)));
+            }
+        }
+
+        // Old checkpoints and log records are reused or cut off
+        assertTrue(Files.size(file) < 100 * ChestRegionFile.SECTOR_SIZE);
+    }
+
+    @Test
+    public void testOnlyIfAbsent() throws IOException {
+        Path file = newFile();
+        try (ChestRegionFile regionFile = ChestRegionFile.open(file)) {
+            regionFile.write(Collections.singletonMap("bob", bytes(10, 1)), false, false);
+
+            Map<String, byte[]> chests = new LinkedHashMap<>();
+            chests.put("bob", bytes(10, 2));
+            chests.put("alice", bytes(10, 3));
+            assertEquals(ImmutableSet.of("bob"), regionFile.write(chests, true, false));
+
+            assertArrayEquals(bytes(10, 1), regionFile.read("bob"));
+            assertArrayEquals(bytes(10, 3), regionFile.read("alice"));
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        Path file = newFile();
+        try (ChestRegionFile regionFile = ChestRegionFile.open(file)) {
+            regionFile.write(Collections.singletonMap("bob", bytes(5000, 1)), false, true);
+            regionFile.write(Collections.singletonMap("alice", bytes(20, 2)), false, true);
+            regionFile.write(Collections.singletonMap("bob", bytes(30, 3)), false, true);
+        }
+
+        try (ChestRegionFile regionFile = ChestRegionFile.open(file)) {
+            assertEquals(ImmutableSet.of("alice", "bob"), regionFile.getKeys());
+            assertArrayEquals(bytes(30, 3), regionFile.read("bob"));
+            assertArrayEquals(bytes(20, 2), regionFile.read("alice"));
+            assertNull(regionFile.read("charlie"));
+        }
+    }
+
+    @Test
+    public void testTornHeaderUsesPreviousIndex() throws IOException {
+        Path file = newFile();
+        try (ChestRegionFile regionFile = ChestRegionFile.open(file)) {
+            regionFile.write(Collections.singletonMap("bob", bytes(10, 1)), false, false); // Generation 1
+            regionFile.write(Collections.singletonMap("bob", bytes(10, 2)), false, false); // Generation 2
+        }
+
+        // Damage the header slot of generation 2
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(12);
+            raw.writeInt(12345);
+        }
+
+        try (ChestRegionFile regionFile = ChestRegionFile.open(file)) {
+            assertArrayEquals(bytes(10, 1), regionFile.read("bob"));
+        }
+    }
+}
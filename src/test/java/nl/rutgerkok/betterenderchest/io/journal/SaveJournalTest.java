@@ -0,0 +1,110 @@
+package nl.rutgerkok.betterenderchest.io.journal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SaveJournalTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+
+    private SaveJournal.Record chest(String name, int seed) {
+        return new SaveJournal.Record(0, name, "default", bytes(100, seed));
+    }
+
+    private List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.journal")) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        return segments;
+    }
+
+    @Test
+    public void testFlushedSegmentsAreDeleted() throws IOException {
+        Path directory = temporaryFolder.newFolder().toPath();
+        try (SaveJournal journal = SaveJournal.open(directory, 100, false)) {
+            // Each append is larger than a segment, so each gets its own
+            journal.append(Arrays.asList(chest("bob", 1)));
+            journal.append(Arrays.asList(chest("alice", 2)));
+            journal.append(Arrays.asList(chest("charlie", 3)));
+            assertEquals(3, segments(directory).size());
+
+            journal.markFlushed(3);
+            assertEquals(1, segments(directory).size());
+
+            journal.markFlushed(journal.getNextSequence());
+            assertTrue(segments(directory).isEmpty());
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        Path directory = temporaryFolder.newFolder().toPath();
+        try (SaveJournal journal = SaveJournal.open(directory, 1024 * 1024, true)) {
+            assertArrayEquals(new long[] { 1, 2 }, journal.append(Arrays.asList(chest("bob", 1), chest("alice", 2))));
+            assertArrayEquals(new long[] { 3 }, journal.append(Arrays.asList(chest("bob", 3))));
+        }
+
+        try (SaveJournal journal = SaveJournal.open(directory, 1024 * 1024, true)) {
+            List<SaveJournal.Record> records = journal.takeRecords();
+            assertEquals(3, records.size());
+            assertEquals("bob", records.get(2).getChestName());
+            assertEquals(3, records.get(2).getSequence());
+            assertArrayEquals(bytes(100, 3), records.get(2).getData());
+            assertTrue(journal.getProblems().isEmpty());
+
+            // New records never reuse sequence numbers
+            assertTrue(journal.getNextSequence() > 3);
+        }
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws IOException {
+        Path directory = temporaryFolder.newFolder().toPath();
+        try (SaveJournal journal = SaveJournal.open(directory, 1024 * 1024, false)) {
+            journal.append(Arrays.asList(chest("bob", 1), chest("alice", 2)));
+        }
+
+        // Simulate a crash halfway the last record
+        Path segment = segments(directory).get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.setLength(file.length() - 10);
+        }
+
+        try (SaveJournal journal = SaveJournal.open(directory, 1024 * 1024, false)) {
+            List<SaveJournal.Record> records = journal.takeRecords();
+            assertEquals(1, records.size());
+            assertEquals("bob", records.get(0).getChestName());
+            assertFalse(journal.getProblems().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package nl.rutgerkok.betterenderchest.itemfilter;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import nl.rutgerkok.betterenderchest.NameableItemStack;
+import nl.rutgerkok.betterenderchest.TestLogger;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.junit.Test;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public final class CompiledItemFilterTest {
+
+    private List<Predicate<ItemStack>> getRules() {
+        List<Map<String, Object>> sections = Lists.newArrayList();
+        sections.add(ImmutableMap.<String, Object> of(
+                "check", "itemType",
+                "for", "bedrock"));
+        sections.add(ImmutableMap.<String, Object> of(
+                "check", "customName",
+                "forRegex", "^Forbidden",
+                "ignoring", asList("case", "color")));
+        sections.add(ImmutableMap.<String, Object> of(
+                "check", "lore",
+                "for", asList("Soulbound")));
+        sections.add(ImmutableMap.<String, Object> of(
+                "check", "itemType",
+                "for", "diamond",
+                "and", ImmutableMap.of(
+                        "check", "customName",
+                        "for", "Shiny Diamond")));
+        sections.add(ImmutableMap.<String, Object> of(
+                "check", "somethingInvalid"));
+
+        ItemFilterReader reader = new ItemFilterReader(new TestLogger());
+        List<Predicate<ItemStack>> rules = Lists.newArrayList();
+        for (Map<String, Object> section : sections) {
+            rules.add(reader.apply(section));
+        }
+        return rules;
+    }
+
+    private ItemStack getStack(Material type, String name, String... lore) {
+        ItemStack stack = new NameableItemStack(type, 1);
+        ItemMeta meta = stack.getItemMeta();
+        meta.setDisplayName(name);
+        if (lore.length > 0) {
+            meta.setLore(asList(lore));
+        }
+        stack.setItemMeta(meta);
+        return stack;
+    }
+
+    @Test
+    public void matchesSameItemsAsPredicateChain() {
+        List<Predicate<ItemStack>> rules = getRules();
+        Predicate<ItemStack> chain = Predicates.or(rules);
+        CompiledItemFilter compiled = CompiledItemFilter.compile(rules, Collections.<Material> emptyList());
+
+        List<ItemStack> stacks = asList(
+                new NameableItemStack(Material.STONE),
+                new NameableItemStack(Material.BEDROCK),
+                new NameableItemStack(Material.DIAMOND),
+                getStack(Material.STONE, "forbidden stone"),
+                getStack(Material.STONE, ChatColor.RED + "FORBIDDEN"),
+                getStack(Material.STONE, "Not forbidden"),
+                getStack(Material.STONE, null, "Soulbound"),
+                getStack(Material.STONE, null, "Soulbound", "Second line"),
+                getStack(Material.DIAMOND, "Shiny Diamond"),
+                getStack(Material.DIAMOND, "Dull Diamond"),
+                getStack(Material.EMERALD, "Shiny Diamond"),
+                getStack(Material.BEDROCK, "Harmless"));
+
+        for (ItemStack stack : stacks) {
+            assertEquals("Verdict for " + stack.getType() + " " + stack.getItemMeta().getDisplayName(),
+                    chain.apply(stack), compiled.apply(stack));
+        }
+    }
+
+    @Test
+    public void nonShulkerIsNotChecked() {
+        CompiledItemFilter compiled = CompiledItemFilter.compile(getRules(), asList(Material.SHULKER_BOX));
+        assertFalse(compiled.containsIllegalItemInShulker(new NameableItemStack(Material.BEDROCK)));
+        assertTrue(compiled.apply(new NameableItemStack(Material.BEDROCK)));
+    }
+}
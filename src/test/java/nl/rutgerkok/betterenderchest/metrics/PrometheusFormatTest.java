@@ -0,0 +1,54 @@
+package nl.rutgerkok.betterenderchest.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+public final class PrometheusFormatTest {
+
+    private String write(Metrics metrics) throws IOException {
+        StringWriter writer = new StringWriter();
+        PrometheusFormat.write(metrics, writer);
+        return writer.toString();
+    }
+
+    @Test
+    public void counterAndGauge() throws IOException {
+        Metrics metrics = new Metrics();
+        metrics.counter("test_total", "A counter", "backend", "Files").add(3);
+        metrics.gauge("test_gauge", "A gauge", new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return 7;
+            }
+        });
+
+        String output = write(metrics);
+        assertTrue(output, output.contains("# TYPE test_total counter\ntest_total{backend=\"Files\"} 3\n"));
+        assertTrue(output, output.contains("# TYPE test_gauge gauge\ntest_gauge 7\n"));
+    }
+
+    @Test
+    public void histogram() throws IOException {
+        Metrics metrics = new Metrics();
+        LatencyHistogram histogram = metrics.histogram("test_seconds", "A histogram");
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.SECONDS.toNanos(20));
+
+        String output = write(metrics);
+        assertTrue(output, output.contains("test_seconds_bucket{le=\"0.001\"} 0\n"));
+        assertTrue(output, output.contains("test_seconds_bucket{le=\"0.005\"} 1\n"));
+        assertTrue(output, output.contains("test_seconds_bucket{le=\"10\"} 1\n"));
+        assertTrue(output, output.contains("test_seconds_bucket{le=\"+Inf\"} 2\n"));
+        assertTrue(output, output.contains("test_seconds_count 2\n"));
+        assertTrue(output, output.contains("test_seconds_sum 20.003\n"));
+        assertEquals(5.0, histogram.getPercentileMillis(0.5), 0.0001);
+    }
+}